@@ -0,0 +1,113 @@
+package com.example.auto_set;
+
+import android.os.Bundle;
+import android.util.Log;
+import android.widget.Button;
+import android.widget.TextView;
+import androidx.appcompat.app.AppCompatActivity;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Map of everything in gps_data with the server's clusters on top. Data
+ * files are read newest first on a background thread and added to a
+ * {@link PointIndex} in batches, so the map fills in while it loads instead
+ * of waiting for weeks of rows.
+ */
+public class ClusterMapActivity extends AppCompatActivity {
+    private static final String TAG = "ClusterMapActivity";
+    // Rows added between redraws while loading
+    private static final int LOAD_BATCH_ROWS = 20_000;
+
+    private final PointIndex index = new PointIndex();
+    private ClusterView clusterView;
+    private TextView mapStatus;
+    private ClusterModelStore clusterModelStore;
+    // Bumped to stop a running load
+    private volatile int loadGeneration;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_cluster_map);
+
+        clusterView = findViewById(R.id.clusterView);
+        mapStatus = findViewById(R.id.mapStatus);
+        clusterView.setIndex(index);
+        clusterModelStore = new ClusterModelStore(new File(getFilesDir(), "cluster_model.bin"),
+                HttpClients.bulk(), ClusterModelStore.MODEL_URL);
+
+        Button refreshButton = findViewById(R.id.refreshButton);
+        Button backButton = findViewById(R.id.backButton);
+        refreshButton.setOnClickListener(v -> {
+            clusterModelStore.refresh();
+            load();
+        });
+        backButton.setOnClickListener(v -> finish());
+
+        load();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        loadGeneration++;
+    }
+
+    private void load() {
+        int generation = ++loadGeneration;
+        index.clear();
+        clusterView.invalidate();
+        new Thread(() -> loadAll(generation), "ClusterMapLoad").start();
+    }
+
+    private void loadAll(int generation) {
+        long started = System.currentTimeMillis();
+        clusterModelStore.load();
+        clusterView.setModel(clusterModelStore.getModel());
+
+        File baseDir = getExternalFilesDir(null);
+        if (baseDir == null) {
+            Log.e(TAG, "Failed to access base directory.");
+            return;
+        }
+        List<File> files = new DataIndex(new File(baseDir, "gps_data")).dataFiles(true);
+        int rows = 0;
+        int sinceRedraw = 0;
+        for (File file : files) {
+            if (generation != loadGeneration) {
+                return;
+            }
+            try {
+                int read = DataIndex.read(new DataIndex.Range(file, 0, -1),
+                        (timestamp, latitude, longitude, speed) -> index.add(latitude, longitude));
+                rows += read;
+                sinceRedraw += read;
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to read " + file.getAbsolutePath(), e);
+            }
+            if (sinceRedraw >= LOAD_BATCH_ROWS) {
+                sinceRedraw = 0;
+                showStatus(generation, String.format(Locale.getDefault(), "Loading… %,d points", index.size()));
+                clusterView.postInvalidate();
+            }
+        }
+        Log.d(TAG, "Loaded " + rows + " rows from " + files.size() + " files in "
+                + (System.currentTimeMillis() - started) + " ms");
+        ClusterModel model = clusterModelStore.getModel();
+        showStatus(generation, String.format(Locale.getDefault(), "%,d points, %d clusters",
+                index.size(), model != null ? model.size() : 0));
+        clusterView.setModel(model);
+    }
+
+    private void showStatus(int generation, String text) {
+        runOnUiThread(() -> {
+            if (generation == loadGeneration) {
+                mapStatus.setText(text);
+            }
+        });
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.auto_set;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Keeps the latest {@link ClusterModel} on disk and in memory. {@link #refresh()}
+ * asks the server for a newer version and swaps it in only after it parsed,
+ * so a bad download never replaces a working model.
+ */
+public class ClusterModelStore {
+
+    private static final String TAG = "ClusterModelStore";
+
+    public static final String MODEL_URL = "http://15.165.115.206:5000/cluster_model";
+
+    private final File file;
+    private final OkHttpClient client;
+    private final String url;
+    private volatile ClusterModel model;
+    private volatile long loadedAt;
+
+    public ClusterModelStore(File file, OkHttpClient client, String url) {
+        this.file = file;
+        this.client = client;
+        this.url = url;
+    }
+
+    // Reads the saved model, if any. Call off the main thread
+    public void load() {
+        if (!file.exists()) {
+            return;
+        }
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            model = ClusterModel.read(in);
+            loadedAt = file.lastModified();
+            Log.d(TAG, "Loaded cluster model " + model.getVersion() + " with " + model.size() + " clusters");
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read cluster model", e);
+        }
+    }
+
+    // The current model, or null before one was downloaded
+    public ClusterModel getModel() {
+        return model;
+    }
+
+    // Wall clock time the current model was saved, 0 without one
+    public long getLoadedAt() {
+        return loadedAt;
+    }
+
+    // Downloads the model unless the server answers 304 for the version we have
+    public void refresh() {
+        ClusterModel current = model;
+        HttpUrl.Builder requestUrl = HttpUrl.get(url).newBuilder();
+        if (current != null) {
+            requestUrl.addQueryParameter("version", Long.toString(current.getVersion()));
+        }
+        Request request = new Request.Builder()
+                .url(requestUrl.build())
+                .get()
+                .build();
+
+        client.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                Log.e(TAG, "Cluster model download failed", e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (Response r = response) {
+                    if (r.code() == 304) {
+                        Log.d(TAG, "Cluster model is up to date");
+                        loadedAt = System.currentTimeMillis();
+                        file.setLastModified(loadedAt);
+                        return;
+                    }
+                    if (!r.isSuccessful()) {
+                        Log.e(TAG, "Cluster model error: " + r.code() + " - " + r.message());
+                        return;
+                    }
+                    save(r.body().byteStream());
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to store cluster model", e);
+                }
+            }
+        });
+    }
+
+    private void save(InputStream in) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (OutputStream out = new FileOutputStream(temp)) {
+            byte[] buffer = new byte[16 * 1024];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+        }
+        ClusterModel downloaded;
+        try (InputStream saved = new BufferedInputStream(new FileInputStream(temp))) {
+            downloaded = ClusterModel.read(saved);
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Failed to replace " + file);
+        }
+        model = downloaded;
+        loadedAt = System.currentTimeMillis();
+        Log.d(TAG, "Downloaded cluster model " + downloaded.getVersion() + " with " + downloaded.size() + " clusters");
+    }
+}
@@ -0,0 +1,235 @@
+package com.example.auto_set;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.util.AttributeSet;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+
+/**
+ * Draws the points of a {@link PointIndex} and the clusters of a
+ * {@link ClusterModel} with pan and pinch zoom. Each frame asks the index for
+ * the visible area only, so the cost of a frame depends on what is on screen
+ * rather than on how many points were collected.
+ */
+public class ClusterView extends View {
+
+    private static final double TILE_PX = 256;
+    private static final double EARTH_CIRCUMFERENCE_METERS = 40_075_016.686;
+    private static final int MAX_ZOOM = 20;
+    // Points drawn per drawPoints call at high zoom
+    private static final int POINT_BATCH = 1024;
+
+    private PointIndex index;
+    private volatile ClusterModel model;
+
+    // Center of the view in Web Mercator units and size of the world in pixels
+    private double centerX = 0.5;
+    private double centerY = 0.5;
+    private double worldPx = TILE_PX;
+    private boolean positioned;
+
+    private final float density;
+    private final Paint aggregatePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint pointPaint = new Paint();
+    private final Paint clusterFill = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint clusterStroke = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint labelPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final float[] pointBuffer = new float[POINT_BATCH * 2];
+    private final Path path = new Path();
+
+    private final ScaleGestureDetector scaleDetector;
+    private final GestureDetector gestureDetector;
+
+    public ClusterView(Context context) {
+        this(context, null);
+    }
+
+    public ClusterView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        density = context.getResources().getDisplayMetrics().density;
+
+        aggregatePaint.setColor(Color.argb(160, 33, 150, 243));
+        pointPaint.setColor(Color.argb(200, 33, 150, 243));
+        pointPaint.setStrokeWidth(3 * density);
+        pointPaint.setStrokeCap(Paint.Cap.ROUND);
+        clusterFill.setColor(Color.argb(50, 244, 67, 54));
+        clusterStroke.setColor(Color.argb(220, 244, 67, 54));
+        clusterStroke.setStyle(Paint.Style.STROKE);
+        clusterStroke.setStrokeWidth(2 * density);
+        labelPaint.setColor(Color.WHITE);
+        labelPaint.setTextSize(11 * density);
+        labelPaint.setTextAlign(Paint.Align.CENTER);
+
+        scaleDetector = new ScaleGestureDetector(context, new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+            @Override
+            public boolean onScale(ScaleGestureDetector detector) {
+                zoomBy(detector.getScaleFactor(), detector.getFocusX(), detector.getFocusY());
+                return true;
+            }
+        });
+        gestureDetector = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onDown(MotionEvent e) {
+                return true;
+            }
+
+            @Override
+            public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
+                centerX += distanceX / worldPx;
+                centerY += distanceY / worldPx;
+                invalidate();
+                return true;
+            }
+
+            @Override
+            public boolean onDoubleTap(MotionEvent e) {
+                zoomBy(2, e.getX(), e.getY());
+                return true;
+            }
+        });
+    }
+
+    public void setIndex(PointIndex index) {
+        this.index = index;
+        invalidate();
+    }
+
+    public void setModel(ClusterModel model) {
+        this.model = model;
+        postInvalidate();
+    }
+
+    // Fits the view to the points once there are some, unless the user already moved it
+    public void fitToDataOnce() {
+        if (positioned || index == null || getWidth() == 0) {
+            return;
+        }
+        double[] bounds = index.getBounds();
+        if (bounds == null) {
+            return;
+        }
+        positioned = true;
+        centerX = (bounds[0] + bounds[2]) / 2;
+        centerY = (bounds[1] + bounds[3]) / 2;
+        double span = Math.max(bounds[2] - bounds[0], bounds[3] - bounds[1]);
+        double fit = span > 0 ? 0.8 * Math.min(getWidth(), getHeight()) / span : TILE_PX * (1 << 16);
+        worldPx = Math.max(TILE_PX, Math.min(TILE_PX * (1 << MAX_ZOOM), fit));
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        positioned = true;
+        boolean handled = scaleDetector.onTouchEvent(event);
+        return gestureDetector.onTouchEvent(event) || handled;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        canvas.drawColor(Color.rgb(245, 245, 245));
+        fitToDataOnce();
+
+        double halfWidth = getWidth() / 2.0 / worldPx;
+        double halfHeight = getHeight() / 2.0 / worldPx;
+        double minX = centerX - halfWidth;
+        double maxX = centerX + halfWidth;
+        double minY = centerY - halfHeight;
+        double maxY = centerY + halfHeight;
+
+        drawClusters(canvas, minX, minY, maxX, maxY);
+        if (index != null) {
+            drawPoints(canvas, minX, minY, maxX, maxY);
+        }
+    }
+
+    private void drawPoints(Canvas canvas, double minX, double minY, double maxX, double maxY) {
+        int zoom = zoomLevel();
+        if (zoom > PointIndex.MAX_AGGREGATE_ZOOM) {
+            int[] count = {0};
+            index.query(zoom, minX, minY, maxX, maxY, (x, y, n) -> {
+                pointBuffer[count[0] * 2] = screenX(x);
+                pointBuffer[count[0] * 2 + 1] = screenY(y);
+                if (++count[0] == POINT_BATCH) {
+                    canvas.drawPoints(pointBuffer, 0, count[0] * 2, pointPaint);
+                    count[0] = 0;
+                }
+            });
+            canvas.drawPoints(pointBuffer, 0, count[0] * 2, pointPaint);
+            return;
+        }
+        float maxRadius = PointIndex.CELL_PX / 2f * density;
+        index.query(zoom, minX, minY, maxX, maxY, (x, y, n) -> {
+            float radius = Math.min(maxRadius, (2 + (float) (Math.log(n) / Math.log(2))) * density);
+            float sx = screenX(x);
+            float sy = screenY(y);
+            canvas.drawCircle(sx, sy, radius, aggregatePaint);
+            if (n > 1 && radius >= 10 * density) {
+                canvas.drawText(n < 1000 ? Integer.toString(n) : (n / 1000) + "k", sx,
+                        sy + labelPaint.getTextSize() / 3, labelPaint);
+            }
+        });
+    }
+
+    private void drawClusters(Canvas canvas, double minX, double minY, double maxX, double maxY) {
+        ClusterModel current = model;
+        if (current == null) {
+            return;
+        }
+        for (ClusterModel.Cluster cluster : current.getClusters()) {
+            double x = PointIndex.mercatorX(cluster.longitude);
+            double y = PointIndex.mercatorY(cluster.latitude);
+            double radius = cluster.radiusMeters
+                    / (EARTH_CIRCUMFERENCE_METERS * Math.cos(Math.toRadians(cluster.latitude)));
+            if (x + radius < minX || x - radius > maxX || y + radius < minY || y - radius > maxY) {
+                continue;
+            }
+            if (cluster.polygon != null) {
+                path.reset();
+                for (int i = 0; i < cluster.polygon.length; i += 2) {
+                    float px = screenX(PointIndex.mercatorX(cluster.polygon[i + 1]));
+                    float py = screenY(PointIndex.mercatorY(cluster.polygon[i]));
+                    if (i == 0) {
+                        path.moveTo(px, py);
+                    } else {
+                        path.lineTo(px, py);
+                    }
+                }
+                path.close();
+                canvas.drawPath(path, clusterFill);
+                canvas.drawPath(path, clusterStroke);
+            } else {
+                float r = Math.max(2 * density, (float) (radius * worldPx));
+                canvas.drawCircle(screenX(x), screenY(y), r, clusterFill);
+                canvas.drawCircle(screenX(x), screenY(y), r, clusterStroke);
+            }
+        }
+    }
+
+    // Keeps the world point under the focus in place
+    private void zoomBy(float factor, float focusX, float focusY) {
+        double focusWorldX = centerX + (focusX - getWidth() / 2.0) / worldPx;
+        double focusWorldY = centerY + (focusY - getHeight() / 2.0) / worldPx;
+        worldPx = Math.max(TILE_PX, Math.min(TILE_PX * (1 << MAX_ZOOM), worldPx * factor));
+        centerX = focusWorldX - (focusX - getWidth() / 2.0) / worldPx;
+        centerY = focusWorldY - (focusY - getHeight() / 2.0) / worldPx;
+        invalidate();
+    }
+
+    private int zoomLevel() {
+        return (int) Math.floor(Math.log(worldPx / TILE_PX) / Math.log(2));
+    }
+
+    private float screenX(double x) {
+        return (float) ((x - centerX) * worldPx + getWidth() / 2.0);
+    }
+
+    private float screenY(double y) {
+        return (float) ((y - centerY) * worldPx + getHeight() / 2.0);
+    }
+}
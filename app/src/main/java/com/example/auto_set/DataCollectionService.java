@@ -16,11 +16,10 @@ import android.hardware.SensorManager;
 import android.location.Location;
 import android.location.LocationListener;
 import android.location.LocationManager;
-import android.net.ConnectivityManager;
-import android.net.wifi.WifiManager;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.IBinder;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
@@ -28,12 +27,10 @@ import androidx.core.app.ActivityCompat;
 import androidx.core.app.NotificationCompat;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.lang.reflect.Method;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import com.google.android.gms.location.FusedLocationProviderClient;
 import com.google.android.gms.location.LocationServices;
@@ -41,8 +38,6 @@ import com.google.android.gms.location.LocationCallback;
 import com.google.android.gms.location.LocationResult;
 import com.google.android.gms.location.LocationRequest;
 
-import android.bluetooth.BluetoothAdapter;
-import android.media.AudioManager;
 import android.os.HandlerThread;
 
 public class DataCollectionService extends Service {
@@ -55,10 +50,11 @@ public class DataCollectionService extends Service {
     private Sensor gravitySensor;
     private Sensor linearAccelerationSensor;
 
-    private float[] gravityValues = new float[3];
-    private float[] linearAccelerationValues = new float[3];
-    private double verticalVelocity = 0.0;
-    private long lastUpdateTime = -1;
+    // 50 Hz, delivered in batches from the sensor hub FIFO so the CPU can stay asleep in between
+    private static final int SENSOR_SAMPLING_PERIOD_US = 20_000;
+    private static final int SENSOR_MAX_REPORT_LATENCY_US = 1_000_000;
+    private HandlerThread sensorThread;
+
 
     private Handler handler = new Handler();
     private Runnable locationRunnable;
@@ -70,6 +66,60 @@ public class DataCollectionService extends Service {
     private HandlerThread handlerThread;
     private Handler backgroundHandler;
 
+    private DeviceStateMonitor deviceState;
+
+    // CSV stays the default so existing uploads keep working; BINARY writes compact HH.bin segments
+    private static final boolean USE_BINARY_LOG = false;
+    private static final HourlyLogWriter.Durability LOG_DURABILITY = HourlyLogWriter.Durability.BUFFERED;
+    // Updates go through UpdateBus; the LOCATION_UPDATE broadcast is only for out-of-process listeners
+    private static final boolean SEND_LOCATION_BROADCASTS = false;
+
+
+    // Compaction reads and rewrites whole days, so it gets its own thread instead of the writer's
+    private static final long COMPACTION_DELAY_MS = 60_000L;
+    private static final long COMPACTION_INTERVAL_MS = 6 * 3600_000L;
+    private ScheduledExecutorService compactionExecutor;
+
+    // Location request settings, picked from the motion state
+    private long samplingIntervalMs = 1000;
+    private float samplingMinDistanceM = 2;
+    private int samplingPriority = LocationRequest.PRIORITY_HIGH_ACCURACY;
+
+    // Fusion, row writing, local places and trips; this service only adapts Android callbacks to it
+    private CollectionPipeline pipeline;
+    private final Runnable fusionFlushRunnable = () -> pipeline.flushFusion(SystemClock.elapsedRealtime());
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            pipeline.flushIfDue();
+            backgroundHandler.postDelayed(this, HourlyLogWriter.DEFAULT_FLUSH_INTERVAL_MS);
+        }
+    };
+
+    private final CollectionPipeline.Listener pipelineListener = new CollectionPipeline.Listener() {
+        @Override
+        public void onRowWritten(LocationFix fix, LocationSample sample) {
+            if (SEND_LOCATION_BROADCASTS) {
+                broadcastLocationUpdate(sample);
+            }
+        }
+
+        @Override
+        public void onMotionStateChanged(MotionClassifier.State from, MotionClassifier.State to) {
+            backgroundHandler.post(() -> DataCollectionService.this.onMotionStateChanged(from, to));
+        }
+
+        @Override
+        public void onLog(String message, Throwable error) {
+            if (error != null) {
+                Log.e("GPSDataCollection", message, error);
+            } else {
+                Log.i("GPSDataCollection", message);
+            }
+        }
+    };
+
     @Override
     public void onCreate() {
         super.onCreate();
@@ -78,6 +128,21 @@ public class DataCollectionService extends Service {
         handlerThread.start();
         backgroundHandler = new Handler(handlerThread.getLooper());
 
+        deviceState = new DeviceStateMonitor(this);
+        deviceState.start(backgroundHandler);
+        File baseDir = getExternalFilesDir(null);
+        File dataDir = baseDir != null ? new File(baseDir, "gps_data") : null;
+        pipeline = new CollectionPipeline(dataDir, USE_BINARY_LOG, LOG_DURABILITY, samplingIntervalMs, deviceState,
+                System::currentTimeMillis, pipelineListener);
+        backgroundHandler.postDelayed(flushRunnable, HourlyLogWriter.DEFAULT_FLUSH_INTERVAL_MS);
+        // Before any fix is queued, so replayed rows come ahead of live ones
+        backgroundHandler.post(() -> {
+            pipeline.loadPlaceState(getFilesDir());
+            if (dataDir != null) {
+                startCompaction(dataDir);
+            }
+        });
+
         locationManager = (LocationManager) getSystemService(LOCATION_SERVICE);
         sensorManager = (SensorManager) getSystemService(SENSOR_SERVICE);
 
@@ -93,15 +158,27 @@ public class DataCollectionService extends Service {
         fusedLocationClient = LocationServices.getFusedLocationProviderClient(this);
         createLocationRequest();
         startFusedLocationUpdates();
+
+        // The service outlives the activity, so queued uploads keep going from here too
+        UploadQueue uploadQueue = UploadQueue.get(this);
+        if (uploadQueue != null) {
+            uploadQueue.resume();
+        }
     }
 
     private void registerSensors() {
+        sensorThread = new HandlerThread("SensorThread");
+        sensorThread.start();
+        Handler sensorHandler = new Handler(sensorThread.getLooper());
+
         if (gravitySensor != null) {
-            sensorManager.registerListener(sensorListener, gravitySensor, SensorManager.SENSOR_DELAY_NORMAL);
+            sensorManager.registerListener(sensorListener, gravitySensor, SENSOR_SAMPLING_PERIOD_US,
+                    SENSOR_MAX_REPORT_LATENCY_US, sensorHandler);
         }
 
         if (linearAccelerationSensor != null) {
-            sensorManager.registerListener(sensorListener, linearAccelerationSensor, SensorManager.SENSOR_DELAY_NORMAL);
+            sensorManager.registerListener(sensorListener, linearAccelerationSensor, SENSOR_SAMPLING_PERIOD_US,
+                    SENSOR_MAX_REPORT_LATENCY_US, sensorHandler);
         }
     }
 
@@ -111,15 +188,15 @@ public class DataCollectionService extends Service {
             backgroundHandler.post(() -> {
                 locationManager.requestLocationUpdates(
                     LocationManager.GPS_PROVIDER,
-                    500,
-                    0,
+                    samplingIntervalMs,
+                    samplingMinDistanceM,
                     locationListener,
                     handlerThread.getLooper()
                 );
                 locationManager.requestLocationUpdates(
                     LocationManager.NETWORK_PROVIDER,
-                    500,
-                    0,
+                    samplingIntervalMs,
+                    samplingMinDistanceM,
                     locationListener,
                     handlerThread.getLooper()
                 );
@@ -127,12 +204,46 @@ public class DataCollectionService extends Service {
         }
     }
 
+    // Runs on the background thread
+    private void onMotionStateChanged(MotionClassifier.State from, MotionClassifier.State to) {
+        switch (to) {
+            case STATIONARY:
+                // Network fixes are enough to notice that we start moving again
+                samplingIntervalMs = 30000;
+                samplingMinDistanceM = 20;
+                samplingPriority = LocationRequest.PRIORITY_BALANCED_POWER_ACCURACY;
+                break;
+            case WALKING:
+                samplingIntervalMs = 1000;
+                samplingMinDistanceM = 2;
+                samplingPriority = LocationRequest.PRIORITY_HIGH_ACCURACY;
+                break;
+            case VEHICLE:
+                samplingIntervalMs = 500;
+                samplingMinDistanceM = 0;
+                samplingPriority = LocationRequest.PRIORITY_HIGH_ACCURACY;
+                break;
+        }
+        Log.i("DataCollectionService", "Motion " + from + " -> " + to + ": interval " + samplingIntervalMs
+                + " ms, min distance " + samplingMinDistanceM + " m, priority " + samplingPriority);
+
+        pipeline.setTickMs(samplingIntervalMs);
+        locationManager.removeUpdates(locationListener);
+        startLocationUpdates();
+        if (locationCallback != null) {
+            fusedLocationClient.removeLocationUpdates(locationCallback);
+            createLocationRequest();
+            if (ActivityCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED) {
+                fusedLocationClient.requestLocationUpdates(locationRequest, locationCallback, handlerThread.getLooper());
+            }
+        }
+    }
+
     private LocationListener locationListener = new LocationListener() {
         @Override
         public void onLocationChanged(@NonNull Location location) {
             // Remove accuracy check to get more frequent updates
-            saveLocationToFile(location);
-            broadcastLocationUpdate(location);
+            offerLocation(location);
         }
 
         @Override
@@ -148,19 +259,18 @@ public class DataCollectionService extends Service {
         }
     };
 
+    // Runs on the sensor thread
     private SensorEventListener sensorListener = new SensorEventListener() {
         @Override
         public void onSensorChanged(SensorEvent event) {
-            long currentTime = System.currentTimeMillis();
-
             switch (event.sensor.getType()) {
                 case Sensor.TYPE_GRAVITY:
-                    System.arraycopy(event.values, 0, gravityValues, 0, event.values.length);
+                    pipeline.onGravity(event.timestamp, event.values[0], event.values[1], event.values[2]);
                     break;
 
                 case Sensor.TYPE_LINEAR_ACCELERATION:
-                    System.arraycopy(event.values, 0, linearAccelerationValues, 0, event.values.length);
-                    calculateVerticalVelocity(currentTime);
+                    pipeline.onLinearAcceleration(event.timestamp, event.values[0], event.values[1],
+                            event.values[2]);
                     break;
             }
         }
@@ -170,85 +280,43 @@ public class DataCollectionService extends Service {
         }
     };
 
-    private void calculateVerticalVelocity(long currentTime) {
-        double gravityMagnitude = Math.sqrt(gravityValues[0] * gravityValues[0] +
-                gravityValues[1] * gravityValues[1] +
-                gravityValues[2] * gravityValues[2]);
-
-        if (gravityMagnitude != 0) {
-            double dotProduct = linearAccelerationValues[0] * gravityValues[0] +
-                    linearAccelerationValues[1] * gravityValues[1] +
-                    linearAccelerationValues[2] * gravityValues[2];
-
-            double verticalAcceleration = dotProduct / gravityMagnitude;
-            verticalAcceleration *= -1;
-
-            if (lastUpdateTime != -1) {
-                long deltaTime = currentTime - lastUpdateTime;
-                double deltaTimeSeconds = deltaTime / 1000.0;
-
-                verticalVelocity += verticalAcceleration * deltaTimeSeconds;
-            }
+    // Runs on the background thread
+    private void offerLocation(Location location) {
+        pipeline.offer(new LocationFix(LocationSample.providerCode(location.getProvider()),
+                location.getElapsedRealtimeNanos(), location.getLatitude(), location.getLongitude(),
+                location.getAltitude(), location.getSpeed(), location.getAccuracy(), location.hasAltitude(),
+                location.hasSpeed(), location.hasAccuracy()));
+
+        long deadline = pipeline.getFusionDeadline();
+        backgroundHandler.removeCallbacks(fusionFlushRunnable);
+        if (deadline != Long.MAX_VALUE) {
+            backgroundHandler.postDelayed(fusionFlushRunnable, Math.max(0, deadline - SystemClock.elapsedRealtime()));
         }
-
-        lastUpdateTime = currentTime;
     }
 
-    private void saveLocationToFile(Location location) {
-        File baseDir = getExternalFilesDir(null);
-        if (baseDir == null) {
-            Log.e("GPSDataCollection", "Failed to access base directory.");
-            return;
-        }
-
-        String appDir = baseDir.getAbsolutePath() + "/gps_data/";
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd/HH", Locale.getDefault());
-        String subDir = dateFormat.format(new Date());
-        String filePath = appDir + subDir + ".csv";
-
-        File file = new File(filePath);
-        File parentDir = file.getParentFile();
-
-        if (parentDir != null && !parentDir.exists()) {
-            boolean dirsCreated = parentDir.mkdirs();
-            if (!dirsCreated) {
-                Log.e("GPSDataCollection", "Failed to create directory: " + parentDir.getAbsolutePath());
-                return;
-            }
-        }
-
-        boolean isNewFile = !file.exists();
-
-        try (FileWriter writer = new FileWriter(file, true)) {
-            if (isNewFile) {
-                String header = "timestamp(ms),latitude(deg),longitude(deg),speed(m/s),gravity_x(m/s^2),gravity_y(m/s^2),gravity_z(m/s^2),linear_accel_x(m/s^2),linear_accel_y(m/s^2),linear_accel_z(m/s^2),altitude(m),wifi_enabled,bluetooth_enabled,silent_mode,mobile_data_enabled\n";
-                writer.append(header);
+    // After the backfill, so compacted days never race the index rebuild
+    private void startCompaction(File dataDir) {
+        UploadQueue uploadQueue = UploadQueue.get(this);
+        DataCompactor compactor = new DataCompactor(dataDir, uploadQueue != null ? uploadQueue.getManifest() : null,
+                DataCompactor.DEFAULT_SIMPLIFY_AFTER_MS, DataCompactor.DEFAULT_EPSILON_METERS,
+                DataCompactor.DEFAULT_QUOTA_BYTES);
+        compactionExecutor = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "DataCompaction"));
+        compactionExecutor.scheduleWithFixedDelay(() -> {
+            long start = SystemClock.elapsedRealtime();
+            try {
+                DataCompactor.Result result = compactor.run(System.currentTimeMillis());
+                Log.i("GPSDataCollection", "Compaction: " + result + " in "
+                        + (SystemClock.elapsedRealtime() - start) + " ms");
+            } catch (IOException e) {
+                Log.e("GPSDataCollection", "Compaction failed", e);
             }
+        }, COMPACTION_DELAY_MS, COMPACTION_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
 
-            String data = String.format(Locale.getDefault(), "%d,%f,%f,%f,%f,%f,%f,%f,%f,%f,%f,%b,%b,%b,%b\n",
-                    System.currentTimeMillis(),
-                    location.getLatitude(),
-                    location.getLongitude(),
-                    location.getSpeed(),
-                    gravityValues[0],
-                    gravityValues[1],
-                    gravityValues[2],
-                    linearAccelerationValues[0],
-                    linearAccelerationValues[1],
-                    linearAccelerationValues[2],
-                    location.getAltitude(),
-                    isWifiEnabled(),
-                    isBluetoothEnabled(),
-                    isSilentMode(),
-                    isMobileDataEnabled());
-            writer.append(data);
-            Log.i("GPSDataCollection", String.format("File write in %s", filePath));
-        } catch (IOException e) {
-            Log.e("GPSDataCollection", "File write failed", e);
-        }
-
-        // Move broadcast to separate method
-        broadcastLocationUpdate(location);
+    private void closeSampleLog() {
+        backgroundHandler.removeCallbacks(flushRunnable);
+        backgroundHandler.removeCallbacks(fusionFlushRunnable);
+        pipeline.close();
     }
 
     private Notification getNotification() {
@@ -281,13 +349,17 @@ public class DataCollectionService extends Service {
 
     private void createLocationRequest() {
         locationRequest = LocationRequest.create();
-        locationRequest.setPriority(LocationRequest.PRIORITY_HIGH_ACCURACY);
-        locationRequest.setInterval(500);  // Update every 0.5 seconds
-        locationRequest.setFastestInterval(500);
-        locationRequest.setSmallestDisplacement(0);  // Update as soon as new location is available
+        locationRequest.setPriority(samplingPriority);
+        locationRequest.setInterval(samplingIntervalMs);  // Follows the motion state, 0.5 s when in a vehicle
+        locationRequest.setFastestInterval(Math.min(samplingIntervalMs, 500));
+        locationRequest.setSmallestDisplacement(samplingMinDistanceM);
     }
 
     private void startFusedLocationUpdates() {
+        // onCreate and onStartCommand both get here; register the callback only once
+        if (locationCallback != null) {
+            return;
+        }
         createLocationRequest();
         locationCallback = new LocationCallback() {
             @Override
@@ -297,8 +369,7 @@ public class DataCollectionService extends Service {
                 }
                 backgroundHandler.post(() -> {
                     for (Location location : locationResult.getLocations()) {
-                        saveLocationToFile(location);
-                        broadcastLocationUpdate(location);
+                        offerLocation(location);
                     }
                 });
             }
@@ -328,45 +399,26 @@ public class DataCollectionService extends Service {
     @Override
     public void onDestroy() {
         super.onDestroy();
+        sensorManager.unregisterListener(sensorListener);
+        sensorThread.quitSafely();
+        // Flush pending rows before the background thread goes away
+        backgroundHandler.post(this::closeSampleLog);
         // Clean up background thread
         handlerThread.quitSafely();
         try {
             handlerThread.join();
+            // Set on the background thread, which has stopped
+            if (compactionExecutor != null) {
+                compactionExecutor.shutdownNow();
+            }
             locationManager.removeUpdates(locationListener);
-            sensorManager.unregisterListener(sensorListener);
+            deviceState.stop();
             fusedLocationClient.removeLocationUpdates(locationCallback);
         } catch (InterruptedException e) {
             Log.e("DataCollectionService", "Error shutting down thread", e);
         }
     }
 
-    private boolean isWifiEnabled() {
-        WifiManager wifiManager = (WifiManager) getApplicationContext().getSystemService(Context.WIFI_SERVICE);
-        return wifiManager.isWifiEnabled();
-    }
-
-    private boolean isBluetoothEnabled() {
-        BluetoothAdapter bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
-        return bluetoothAdapter != null && bluetoothAdapter.isEnabled();
-    }
-
-    private boolean isSilentMode() {
-        AudioManager audioManager = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
-        return audioManager.getRingerMode() == AudioManager.RINGER_MODE_SILENT;
-    }
-
-    private boolean isMobileDataEnabled() {
-        ConnectivityManager cm = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
-        try {
-            Method method = cm.getClass().getDeclaredMethod("getMobileDataEnabled");
-            method.setAccessible(true);
-            return (Boolean) method.invoke(cm);
-        } catch (Exception e) {
-            e.printStackTrace();
-            return false;
-        }
-    }
-
     private void notifySettingsChanged() {
         Notification notification = new NotificationCompat.Builder(this, CHANNEL_ID)
                 .setContentTitle("Settings Changed")
@@ -379,21 +431,23 @@ public class DataCollectionService extends Service {
         notificationManager.notify(2, notification);
     }
 
-    private void broadcastLocationUpdate(Location location) {
+    private void broadcastLocationUpdate(LocationSample location) {
         Intent updateIntent = new Intent("com.example.auto_set.LOCATION_UPDATE");
-        updateIntent.putExtra("latitude", location.getLatitude());
-        updateIntent.putExtra("longitude", location.getLongitude());
-        updateIntent.putExtra("speed", location.getSpeed());
-        updateIntent.putExtra("altitude", location.getAltitude());
+        updateIntent.putExtra("latitude", location.latitude);
+        updateIntent.putExtra("longitude", location.longitude);
+        updateIntent.putExtra("speed", location.speed);
+        updateIntent.putExtra("altitude", location.altitude);
         
-        Log.d("DataCollectionService", String.format(
-            "Broadcasting - Lat: %.6f, Lon: %.6f, Speed: %.1f, Alt: %.1f",
-            location.getLatitude(),
-            location.getLongitude(),
-            location.getSpeed(),
-            location.getAltitude()
-        ));
+        if (Log.isLoggable("DataCollectionService", Log.DEBUG)) {
+            Log.d("DataCollectionService", String.format(
+                "Broadcasting - Lat: %.6f, Lon: %.6f, Speed: %.1f, Alt: %.1f",
+                location.latitude,
+                location.longitude,
+                location.speed,
+                location.altitude
+            ));
+        }
         
         sendBroadcast(updateIntent);
     }
-}
+}
\ No newline at end of file
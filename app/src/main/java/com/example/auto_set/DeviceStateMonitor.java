@@ -0,0 +1,161 @@
+package com.example.auto_set;
+
+import android.bluetooth.BluetoothAdapter;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.database.ContentObserver;
+import android.media.AudioManager;
+import android.net.ConnectivityManager;
+import android.net.Uri;
+import android.net.wifi.WifiManager;
+import android.os.Handler;
+import android.provider.Settings;
+import android.util.Log;
+
+import androidx.core.content.ContextCompat;
+
+import java.lang.reflect.Method;
+
+/**
+ * Cached Wi-Fi, Bluetooth, ringer and mobile data state. The values are read
+ * once on start and then kept current from system broadcasts and a settings
+ * observer, so the hot path only does a volatile read.
+ */
+public class DeviceStateMonitor implements CollectionPipeline.DeviceState {
+
+    private static final String TAG = "DeviceStateMonitor";
+
+    private final Context context;
+    private final WifiManager wifiManager;
+    private final AudioManager audioManager;
+    private final ConnectivityManager connectivityManager;
+    private final Method getMobileDataEnabled;
+
+    private volatile boolean wifiEnabled;
+    private volatile boolean bluetoothEnabled;
+    private volatile boolean silentMode;
+    private volatile boolean mobileDataEnabled;
+
+    private boolean started;
+
+    private final BroadcastReceiver receiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            String action = intent.getAction();
+            if (WifiManager.WIFI_STATE_CHANGED_ACTION.equals(action)) {
+                wifiEnabled = intent.getIntExtra(WifiManager.EXTRA_WIFI_STATE, WifiManager.WIFI_STATE_UNKNOWN)
+                        == WifiManager.WIFI_STATE_ENABLED;
+            } else if (BluetoothAdapter.ACTION_STATE_CHANGED.equals(action)) {
+                bluetoothEnabled = intent.getIntExtra(BluetoothAdapter.EXTRA_STATE, BluetoothAdapter.ERROR)
+                        == BluetoothAdapter.STATE_ON;
+            } else if (AudioManager.RINGER_MODE_CHANGED_ACTION.equals(action)) {
+                silentMode = intent.getIntExtra(AudioManager.EXTRA_RINGER_MODE, -1)
+                        == AudioManager.RINGER_MODE_SILENT;
+            } else if (Intent.ACTION_AIRPLANE_MODE_CHANGED.equals(action)) {
+                mobileDataEnabled = queryMobileDataEnabled();
+            }
+        }
+    };
+
+    private ContentObserver mobileDataObserver;
+
+    public DeviceStateMonitor(Context context) {
+        this.context = context.getApplicationContext();
+        wifiManager = (WifiManager) this.context.getSystemService(Context.WIFI_SERVICE);
+        audioManager = (AudioManager) this.context.getSystemService(Context.AUDIO_SERVICE);
+        connectivityManager = (ConnectivityManager) this.context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        getMobileDataEnabled = resolveMobileDataMethod(connectivityManager);
+    }
+
+    // Callbacks run on handler's thread
+    public void start(Handler handler) {
+        if (started) {
+            return;
+        }
+        started = true;
+        refresh();
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(WifiManager.WIFI_STATE_CHANGED_ACTION);
+        filter.addAction(BluetoothAdapter.ACTION_STATE_CHANGED);
+        filter.addAction(AudioManager.RINGER_MODE_CHANGED_ACTION);
+        filter.addAction(Intent.ACTION_AIRPLANE_MODE_CHANGED);
+        ContextCompat.registerReceiver(context, receiver, filter, null, handler, ContextCompat.RECEIVER_NOT_EXPORTED);
+
+        mobileDataObserver = new ContentObserver(handler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                mobileDataEnabled = queryMobileDataEnabled();
+            }
+        };
+        Uri mobileDataUri = Settings.Global.getUriFor("mobile_data");
+        context.getContentResolver().registerContentObserver(mobileDataUri, true, mobileDataObserver);
+    }
+
+    public void stop() {
+        if (!started) {
+            return;
+        }
+        started = false;
+        context.unregisterReceiver(receiver);
+        context.getContentResolver().unregisterContentObserver(mobileDataObserver);
+        mobileDataObserver = null;
+    }
+
+    // Re-reads everything from the system services
+    public void refresh() {
+        wifiEnabled = wifiManager != null && wifiManager.isWifiEnabled();
+        BluetoothAdapter bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+        bluetoothEnabled = bluetoothAdapter != null && bluetoothAdapter.isEnabled();
+        silentMode = audioManager != null && audioManager.getRingerMode() == AudioManager.RINGER_MODE_SILENT;
+        mobileDataEnabled = queryMobileDataEnabled();
+    }
+
+    @Override
+    public boolean isWifiEnabled() {
+        return wifiEnabled;
+    }
+
+    @Override
+    public boolean isBluetoothEnabled() {
+        return bluetoothEnabled;
+    }
+
+    @Override
+    public boolean isSilentMode() {
+        return silentMode;
+    }
+
+    @Override
+    public boolean isMobileDataEnabled() {
+        return mobileDataEnabled;
+    }
+
+    private boolean queryMobileDataEnabled() {
+        if (getMobileDataEnabled == null) {
+            return false;
+        }
+        try {
+            return (Boolean) getMobileDataEnabled.invoke(connectivityManager);
+        } catch (Exception e) {
+            Log.w(TAG, "getMobileDataEnabled failed", e);
+            return false;
+        }
+    }
+
+    private static Method resolveMobileDataMethod(ConnectivityManager cm) {
+        if (cm == null) {
+            return null;
+        }
+        try {
+            Method method = cm.getClass().getDeclaredMethod("getMobileDataEnabled");
+            method.setAccessible(true);
+            return method;
+        } catch (Exception e) {
+            Log.w(TAG, "getMobileDataEnabled is not available", e);
+            return null;
+        }
+    }
+}
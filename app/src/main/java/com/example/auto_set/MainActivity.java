@@ -17,42 +17,44 @@ import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 import com.google.android.gms.location.FusedLocationProviderClient;
 import com.google.android.gms.location.LocationServices;
-import okhttp3.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 import java.util.Locale;
-import java.util.concurrent.atomic.AtomicInteger;
-
-import android.content.Context;
-import android.media.AudioManager;
-import android.net.wifi.WifiManager;
-import android.bluetooth.BluetoothAdapter;
-import org.json.JSONException;
-import org.json.JSONObject;
 
 public class MainActivity extends AppCompatActivity {
     private static final String TAG = "MainActivity";
-    private static final String PREDICT_URL = "http://15.165.115.206:5000/predict_settings";
-    private static final String UPLOAD_URL = "http://15.165.115.206:5000/upload_csv";
-    private static final String PROCESS_URL = "http://15.165.115.206:5000/process_uploaded_data";
     private static final int LOCATION_PERMISSION_REQUEST_CODE = 100;
     private FusedLocationProviderClient fusedLocationClient;
-    private double currentLatitude;
-    private double currentLongitude;
+    // Last fix from the service or the fused provider, for auto-adjust
+    private volatile LocationUpdate lastFix;
     private TextView latitudeText;
     private TextView longitudeText;
     private TextView speedText;
     private TextView altitudeText;
     private TextView settingsOutput;
     private TextView adjustSettingsState;
-    private OkHttpClient client = new OkHttpClient();
     private Handler mainHandler = new Handler(Looper.getMainLooper());
     private Handler autoAdjustHandler = new Handler();
     private boolean isAutoAdjustActive = false;
     private boolean isDataCollectionActive = false;
+    // Null until loaded in the background; predictions skip the cache until then
+    private volatile PredictionCache predictionCache;
+    private PredictScheduler predictScheduler;
+    private DeviceStateMonitor deviceState;
+    private SettingsApplier settingsApplier;
+    // Predictions for this fix come from the Predict button and skip debounce and dwell
+    private volatile LocationUpdate manualFix;
+    private ClusterModelStore clusterModelStore;
+    // Ask the server for a newer cluster model when ours is older than this
+    private static final long CLUSTER_MODEL_MAX_AGE_MS = 24 * 60 * 60 * 1000;
+    // Status panel refresh rate for updates from DataCollectionService
+    private static final long STATUS_UPDATE_INTERVAL_MS = 1000;
+    private UpdateBus<LocationUpdate>.Subscription locationSubscription;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -61,6 +63,43 @@ public class MainActivity extends AppCompatActivity {
 
         fusedLocationClient = LocationServices.getFusedLocationProviderClient(this);
 
+        deviceState = new DeviceStateMonitor(this);
+        deviceState.start(mainHandler);
+        settingsApplier = new SettingsApplier(this, deviceState);
+
+        predictScheduler = new PredictScheduler(HttpClients.predict(), PredictScheduler.PREDICT_URL, new PredictScheduler.Listener() {
+            @Override
+            public void onPrediction(LocationUpdate fix, String response) {
+                MainActivity.this.onPrediction(fix, response);
+            }
+
+            @Override
+            public void onError(LocationUpdate fix, String message) {
+                runOnUiThread(() -> settingsOutput.setText(message));
+            }
+        });
+        clusterModelStore = new ClusterModelStore(new File(getFilesDir(), "cluster_model.bin"), HttpClients.bulk(),
+                ClusterModelStore.MODEL_URL);
+        new Thread(() -> {
+            clusterModelStore.load();
+            if (System.currentTimeMillis() - clusterModelStore.getLoadedAt() > CLUSTER_MODEL_MAX_AGE_MS) {
+                clusterModelStore.refresh();
+            }
+        }, "ClusterModelLoad").start();
+        new Thread(() -> {
+            try {
+                predictionCache = new PredictionCache(new File(getFilesDir(), "prediction_cache.csv"));
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to read prediction cache", e);
+            }
+        }, "PredictionCacheLoad").start();
+
+        // Picks up uploads left over from an earlier run
+        UploadQueue uploadQueue = UploadQueue.get(this);
+        if (uploadQueue != null) {
+            uploadQueue.resume();
+        }
+
         // Initialize UI elements
         latitudeText = findViewById(R.id.latitudeText);
         longitudeText = findViewById(R.id.longitudeText);
@@ -73,6 +112,7 @@ public class MainActivity extends AppCompatActivity {
         Button predictButton = findViewById(R.id.predictButton);
         Button adjustSettingsButton = findViewById(R.id.adjustSettingsButton);
         Button makeClusterButton = findViewById(R.id.makeClusterButton);
+        Button clusterMapButton = findViewById(R.id.clusterMapButton);
 
         // Request location permissions
         if (ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION) != PackageManager.PERMISSION_GRANTED) {
@@ -90,15 +130,75 @@ public class MainActivity extends AppCompatActivity {
             double altitude = 50; // Example altitude
             double speed = 15; // Example speed in m/s
 
-            makePredictRequest(longitude, latitude, altitude, speed);
+            manualFix = new LocationUpdate(System.currentTimeMillis(), latitude, longitude, (float) speed,
+                    altitude, LocationSample.PROVIDER_UNKNOWN);
+            makePredictRequest(manualFix);
         });
 
         adjustSettingsButton.setOnClickListener(v -> toggleAutoAdjust(adjustSettingsButton));
 
+        // Long press shows the collection metrics and saves a copy next to gps_data
+        settingsOutput.setOnLongClickListener(v -> {
+            showMetrics();
+            return true;
+        });
+
         makeClusterButton.setOnClickListener(v -> {
             Log.d(TAG, "Make Cluster button clicked");
-            uploadCsvFiles();
+            // Binary logs are exported to CSV first, so keep the file work off the UI thread
+            new Thread(this::uploadCsvFiles, "CsvUpload").start();
         });
+
+        clusterMapButton.setOnClickListener(v -> startActivity(new Intent(this, ClusterMapActivity.class)));
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        stopAutoAdjust();
+        deviceState.stop();
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        locationSubscription = UpdateBus.LOCATION.subscribe(update -> {
+            lastFix = update;
+            updateStatusPanel(update.latitude, update.longitude, update.speed, update.altitude);
+        }, mainHandler::postDelayed, STATUS_UPDATE_INTERVAL_MS);
+
+        UploadQueue uploadQueue = UploadQueue.get(this);
+        if (uploadQueue != null) {
+            uploadQueue.setListener(new UploadQueue.Listener() {
+                @Override
+                public void onProgress(long bytesDone, long bytesTotal) {
+                    int percent = bytesTotal > 0 ? (int) (bytesDone * 100 / bytesTotal) : 100;
+                    runOnUiThread(() -> settingsOutput.setText("Uploading: " + percent + "% of "
+                            + (bytesTotal / 1024) + " KB"));
+                }
+
+                @Override
+                public void onBatchProcessed(String response) {
+                    Log.d(TAG, "Processing response received: " + response);
+                    // Processing rebuilt the clusters
+                    clusterModelStore.refresh();
+                    runOnUiThread(() -> Toast.makeText(MainActivity.this, "Data processed successfully", Toast.LENGTH_SHORT).show());
+                }
+            });
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        if (locationSubscription != null) {
+            locationSubscription.cancel();
+            locationSubscription = null;
+        }
+        UploadQueue uploadQueue = UploadQueue.get(this);
+        if (uploadQueue != null) {
+            uploadQueue.setListener(null);
+        }
     }
 
     private void updateInitialLocation() {
@@ -106,8 +206,8 @@ public class MainActivity extends AppCompatActivity {
             fusedLocationClient.getLastLocation()
                 .addOnSuccessListener(this, location -> {
                     if (location != null) {
-                        currentLatitude = location.getLatitude();
-                        currentLongitude = location.getLongitude();
+                        lastFix = new LocationUpdate(location.getTime(), location.getLatitude(), location.getLongitude(),
+                                location.getSpeed(), location.getAltitude(), LocationSample.PROVIDER_UNKNOWN);
                         updateStatusPanel(location.getLatitude(), location.getLongitude(), location.getSpeed(), location.getAltitude());
                     } else {
                         updateStatusPanel(0, 0, 0, 0);
@@ -156,8 +256,14 @@ public class MainActivity extends AppCompatActivity {
             @Override
             public void run() {
                 if (isAutoAdjustActive) {
-                    updateInitialLocation();
-                    makePredictRequest(currentLongitude, currentLatitude, 0, 0); // Use actual altitude and speed
+                    if (UpdateBus.LOCATION.getLatest() == null) {
+                        // Data collection is off, so nothing else keeps the location current
+                        updateInitialLocation();
+                    }
+                    LocationUpdate fix = freshestFix();
+                    if (fix != null) {
+                        makePredictRequest(fix);
+                    }
                     autoAdjustHandler.postDelayed(this, 5000); // Repeat every 5 seconds
                 }
             }
@@ -166,90 +272,76 @@ public class MainActivity extends AppCompatActivity {
 
     private void stopAutoAdjust() {
         autoAdjustHandler.removeCallbacksAndMessages(null);
+        predictScheduler.cancel();
     }
 
-    private void makePredictRequest(double longitude, double latitude, double altitude, double speed) {
-        try {
-            // Create JSON object for the request body
-            String json = new JSONObject()
-                    .put("longitude", longitude)
-                    .put("latitude", latitude)
-                    .put("altitude", altitude)
-                    .put("speed", speed)
-                    .toString();
-
-            RequestBody body = RequestBody.create(
-                    json, MediaType.get("application/json; charset=utf-8"));
-
-            Request request = new Request.Builder()
-                    .url(PREDICT_URL)
-                    .post(body)
-                    .build();
-
-            client.newCall(request).enqueue(new Callback() {
-                @Override
-                public void onFailure(Call call, IOException e) {
-                    Log.e(TAG, "HTTP request failed", e);
-                    runOnUiThread(() -> settingsOutput.setText("Error predicting settings"));
-                }
+    // The newer of the service's latest fix and the last known location
+    private LocationUpdate freshestFix() {
+        LocationUpdate published = UpdateBus.LOCATION.getLatest();
+        LocationUpdate known = lastFix;
+        if (published == null) {
+            return known;
+        }
+        return known == null || published.timestamp >= known.timestamp ? published : known;
+    }
 
-                @Override
-                public void onResponse(Call call, Response response) throws IOException {
-                    if (response.isSuccessful()) {
-                        String responseData = response.body().string();
-                        Log.d(TAG, "Response received: " + responseData);
-                        runOnUiThread(() -> {
-                            settingsOutput.setText(responseData);
-                            applySettings(responseData);
-                        });
-                    } else {
-                        Log.e(TAG, "HTTP error: " + response.code() + " - " + response.message());
-                        runOnUiThread(() -> settingsOutput.setText("Error: " + response.message()));
-                    }
-                }
+    private void makePredictRequest(LocationUpdate fix) {
+        // Inside a known cluster the on-device model answers without the network
+        ClusterModel model = clusterModelStore.getModel();
+        ClusterModel.Cluster cluster = model != null ? model.find(fix.latitude, fix.longitude) : null;
+        if (cluster != null) {
+            CollectionMetrics.get().predictLocal.increment();
+            Log.d(TAG, "Prediction from cluster " + cluster.id + " of model " + model.getVersion());
+            runOnUiThread(() -> {
+                settingsOutput.setText("Cluster " + cluster.id + ": wifiEnabled: " + cluster.wifiEnabled
+                        + ", bluetoothEnabled: " + cluster.bluetoothEnabled + ", silentMode: " + cluster.silentMode);
+                applySettings(PredictionResponse.of(cluster), fix == manualFix);
             });
-        } catch (JSONException e) {
-            Log.e(TAG, "JSON creation failed", e);
-            runOnUiThread(() -> settingsOutput.setText("Error creating JSON request"));
+            return;
         }
+        PredictionCache cache = predictionCache;
+        String cached = cache != null
+                ? cache.get(fix.latitude, fix.longitude, fix.speed, System.currentTimeMillis()) : null;
+        if (cached != null) {
+            Log.d(TAG, "Prediction served from cache: " + cached);
+            runOnUiThread(() -> {
+                settingsOutput.setText(cached);
+                applySettings(cached, fix == manualFix);
+            });
+            return;
+        }
+        predictScheduler.submit(fix);
     }
 
-    private void applySettings(String responseData) {
-        // Parse the responseData to extract settings
-        // This is a placeholder; adjust based on your server's response format
-        boolean wifiEnabled = responseData.contains("wifiEnabled: true");
-        boolean bluetoothEnabled = responseData.contains("bluetoothEnabled: true");
-        boolean silentMode = responseData.contains("silentMode: true");
-
-        // Change WiFi settings
-        WifiManager wifiManager = (WifiManager) getApplicationContext().getSystemService(Context.WIFI_SERVICE);
-        if (wifiManager != null) {
-            wifiManager.setWifiEnabled(wifiEnabled);
-            Toast.makeText(this, "WiFi " + (wifiEnabled ? "enabled" : "disabled"), Toast.LENGTH_SHORT).show();
+    private void onPrediction(LocationUpdate fix, String responseData) {
+        Log.d(TAG, "Response received: " + responseData);
+        PredictionCache cache = predictionCache;
+        if (cache != null) {
+            cache.put(fix.latitude, fix.longitude, fix.speed, responseData, System.currentTimeMillis());
+            try {
+                cache.save();
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to save prediction cache", e);
+            }
         }
+        runOnUiThread(() -> {
+            settingsOutput.setText(responseData);
+            applySettings(responseData, fix == manualFix);
+        });
+    }
 
-        // Change Bluetooth settings
-        BluetoothAdapter bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
-        if (bluetoothAdapter != null) {
-            if (bluetoothEnabled) {
-                bluetoothAdapter.enable();
-                Toast.makeText(this, "Bluetooth enabled", Toast.LENGTH_SHORT).show();
-            } else {
-                bluetoothAdapter.disable();
-                Toast.makeText(this, "Bluetooth disabled", Toast.LENGTH_SHORT).show();
-            }
+    private void applySettings(String responseData, boolean force) {
+        PredictionResponse prediction = PredictionResponse.parse(responseData);
+        if (prediction.isEmpty()) {
+            Log.w(TAG, "Prediction names no settings: " + responseData);
+            return;
         }
+        applySettings(prediction, force);
+    }
 
-        // Change sound mode
-        AudioManager audioManager = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
-        if (audioManager != null) {
-            if (silentMode) {
-                audioManager.setRingerMode(AudioManager.RINGER_MODE_SILENT);
-                Toast.makeText(this, "Silent mode activated", Toast.LENGTH_SHORT).show();
-            } else {
-                audioManager.setRingerMode(AudioManager.RINGER_MODE_NORMAL);
-                Toast.makeText(this, "Normal mode activated", Toast.LENGTH_SHORT).show();
-            }
+    private void applySettings(PredictionResponse prediction, boolean force) {
+        for (String change : settingsApplier.apply(prediction, force)) {
+            Toast.makeText(this, change, Toast.LENGTH_SHORT).show();
         }
     }
 
@@ -265,15 +357,30 @@ public class MainActivity extends AppCompatActivity {
         File csvDirectory = new File(appDir);
 
         if (csvDirectory.exists() && csvDirectory.isDirectory()) {
-            List<File> csvFiles = new ArrayList<>();
-            findCsvFiles(csvDirectory, csvFiles);
+            // Only the hour files; day directories also hold their index
+            List<File> csvFiles = new DataIndex(csvDirectory).hourFiles(false);
 
             if (!csvFiles.isEmpty()) {
-                Log.d(TAG, "Found " + csvFiles.size() + " CSV files to upload.");
-                AtomicInteger filesUploaded = new AtomicInteger(0);
-                for (File csvFile : csvFiles) {
-                    Log.d(TAG, "Preparing to upload file: " + csvFile.getName());
-                    uploadCsvFile(csvFile, csvFiles.size(), filesUploaded);
+                Log.d(TAG, "Found " + csvFiles.size() + " CSV files.");
+                UploadQueue queue = UploadQueue.get(this);
+                if (queue == null) {
+                    return;
+                }
+                List<UploadManifest.Range> ranges = findPendingRanges(queue.getManifest(), csvDirectory, csvFiles);
+                if (ranges.isEmpty()) {
+                    Log.d(TAG, "Nothing new to upload. Starting to process uploaded data.");
+                    queue.process();
+                    return;
+                }
+                try {
+                    int queued = queue.enqueue(ranges);
+                    Log.d(TAG, ranges.size() + " files have data to upload, " + queued + " queued.");
+                    String when = queue.areTransfersAllowed() ? "" : ", waiting for Wi-Fi or charging";
+                    runOnUiThread(() -> Toast.makeText(this, "Queued " + queued + " files for upload" + when,
+                            Toast.LENGTH_SHORT).show());
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to queue uploads", e);
+                    runOnUiThread(() -> Toast.makeText(this, "Error queueing uploads", Toast.LENGTH_SHORT).show());
                 }
             } else {
                 Log.e(TAG, "No CSV files found in the directory");
@@ -285,81 +392,51 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
-    private void findCsvFiles(File directory, List<File> csvFiles) {
-        File[] files = directory.listFiles();
-        if (files != null) {
-            for (File file : files) {
-                if (file.isDirectory()) {
-                    findCsvFiles(file, csvFiles);
-                } else if (file.isFile() && file.getName().endsWith(".csv")) {
-                    csvFiles.add(file);
+    // Skips files the manifest marks as final and the bytes the server already has
+    private List<UploadManifest.Range> findPendingRanges(UploadManifest manifest, File dataDir, List<File> files) {
+        List<UploadManifest.Range> ranges = new ArrayList<>();
+        // Everything but the hour being written is closed
+        String currentHour = new SimpleDateFormat("yyyy-MM-dd/HH", Locale.getDefault()).format(new Date());
+        for (File file : files) {
+            String relativePath = dataDir.toURI().relativize(file.toURI()).getPath();
+            if (manifest.isFinal(relativePath)) {
+                continue;
+            }
+            boolean closed = !relativePath.startsWith(currentHour + ".");
+            try {
+                File csvFile = file.getName().endsWith(".bin") ? exportBinaryLog(dataDir, file) : file;
+                UploadManifest.Range range = manifest.pending(relativePath, csvFile, closed);
+                if (range != null) {
+                    ranges.add(range);
                 }
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to prepare " + file.getAbsolutePath(), e);
             }
         }
+        return ranges;
     }
 
-    private void uploadCsvFile(File csvFile, int totalFiles, AtomicInteger filesUploaded) {
-        Log.d(TAG, "Uploading file: " + csvFile.getName());
-        RequestBody requestBody = new MultipartBody.Builder()
-                .setType(MultipartBody.FORM)
-                .addFormDataPart("file", csvFile.getName(),
-                        RequestBody.create(csvFile, MediaType.parse("text/csv")))
-                .build();
-
-        Request request = new Request.Builder()
-                .url(UPLOAD_URL)
-                .post(requestBody)
-                .build();
-
-        client.newCall(request).enqueue(new Callback() {
-            @Override
-            public void onFailure(Call call, IOException e) {
-                Log.e(TAG, "File upload failed: " + csvFile.getName(), e);
-                runOnUiThread(() -> Toast.makeText(MainActivity.this, "Error uploading " + csvFile.getName(), Toast.LENGTH_SHORT).show());
-            }
-
-            @Override
-            public void onResponse(Call call, Response response) throws IOException {
-                if (response.isSuccessful()) {
-                    Log.d(TAG, "File uploaded successfully: " + csvFile.getName());
-                    runOnUiThread(() -> Toast.makeText(MainActivity.this, "Uploaded " + csvFile.getName(), Toast.LENGTH_SHORT).show());
-
-                    if (filesUploaded.incrementAndGet() == totalFiles) {
-                        Log.d(TAG, "All files uploaded. Starting to process uploaded data.");
-                        processUploadedData();
-                    }
-                } else {
-                    Log.e(TAG, "File upload error: " + response.code() + " - " + response.message());
-                    runOnUiThread(() -> Toast.makeText(MainActivity.this, "Error: " + response.message(), Toast.LENGTH_SHORT).show());
-                }
-            }
-        });
+    // Converts gps_data/yyyy-MM-dd/HH.bin into the same path under the cache directory
+    private File exportBinaryLog(File dataDir, File binFile) throws IOException {
+        String relativePath = dataDir.toURI().relativize(binFile.toURI()).getPath();
+        String csvPath = relativePath.substring(0, relativePath.length() - ".bin".length()) + ".csv";
+        return BinaryLogConverter.toCsv(binFile, new File(new File(getCacheDir(), "csv_export"), csvPath));
     }
 
-    private void processUploadedData() {
-        Request request = new Request.Builder()
-                .url(PROCESS_URL)
-                .get()
-                .build();
-
-        client.newCall(request).enqueue(new Callback() {
-            @Override
-            public void onFailure(Call call, IOException e) {
-                Log.e(TAG, "Processing uploaded data failed", e);
-                runOnUiThread(() -> Toast.makeText(MainActivity.this, "Error processing uploaded data", Toast.LENGTH_SHORT).show());
-            }
-
-            @Override
-            public void onResponse(Call call, Response response) throws IOException {
-                if (response.isSuccessful()) {
-                    String responseData = response.body().string();
-                    Log.d(TAG, "Processing response received: " + responseData);
-                    runOnUiThread(() -> Toast.makeText(MainActivity.this, "Data processed successfully", Toast.LENGTH_SHORT).show());
-                } else {
-                    Log.e(TAG, "Processing error: " + response.code() + " - " + response.message());
-                    runOnUiThread(() -> Toast.makeText(MainActivity.this, "Error: " + response.message(), Toast.LENGTH_SHORT).show());
-                }
+    private void showMetrics() {
+        String report = CollectionMetrics.get().report();
+        settingsOutput.setText(report);
+        File baseDir = getExternalFilesDir(null);
+        if (baseDir == null) {
+            return;
+        }
+        new Thread(() -> {
+            try {
+                File file = CollectionMetrics.get().dump(new File(baseDir, "metrics"));
+                Log.i(TAG, "Metrics written to " + file.getAbsolutePath());
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to write metrics", e);
             }
-        });
+        }, "MetricsDump").start();
     }
 }
@@ -0,0 +1,173 @@
+package com.example.auto_set;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+/**
+ * Sends /predict_settings requests with at most one in flight. Fixes
+ * submitted while a request runs replace each other, and only the newest one
+ * is sent once the current request finishes. Every request carries a
+ * sequence number; a response is delivered only if nothing newer was
+ * delivered or cancelled since. Each call has to finish within
+ * {@link #DEADLINE_MS}.
+ *
+ * Callbacks run on OkHttp's threads.
+ */
+public class PredictScheduler {
+
+    private static final String TAG = "PredictScheduler";
+
+    public static final String PREDICT_URL = "http://15.165.115.206:5000/predict_settings";
+    public static final long DEADLINE_MS = 3000;
+
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+
+    public interface Listener {
+        // fix is the position the prediction was made for
+        void onPrediction(LocationUpdate fix, String response);
+
+        void onError(LocationUpdate fix, String message);
+    }
+
+    private final OkHttpClient client;
+    private final String url;
+    private final Listener listener;
+
+    private long nextSequence;
+    // Responses with a sequence at or below this are dropped
+    private long droppedThrough;
+    private Call inFlight;
+    private LocationUpdate pending;
+
+    public PredictScheduler(OkHttpClient client, String url, Listener listener) {
+        this.client = client;
+        this.url = url;
+        this.listener = listener;
+    }
+
+    public synchronized void submit(LocationUpdate fix) {
+        if (inFlight != null) {
+            pending = fix;
+            return;
+        }
+        start(fix);
+    }
+
+    // Cancels the running request and forgets the pending fix; nothing already sent is delivered
+    public synchronized void cancel() {
+        pending = null;
+        droppedThrough = nextSequence;
+        if (inFlight != null) {
+            inFlight.cancel();
+            inFlight = null;
+        }
+    }
+
+    public synchronized boolean isBusy() {
+        return inFlight != null;
+    }
+
+    private void start(LocationUpdate fix) {
+        String json;
+        try {
+            json = new JSONObject()
+                    .put("longitude", fix.longitude)
+                    .put("latitude", fix.latitude)
+                    .put("altitude", fix.altitude)
+                    .put("speed", fix.speed)
+                    .toString();
+        } catch (JSONException e) {
+            Log.e(TAG, "JSON creation failed", e);
+            listener.onError(fix, "Error creating JSON request");
+            return;
+        }
+        Request request = new Request.Builder()
+                .url(url)
+                .post(RequestBody.create(json, JSON))
+                .build();
+
+        long sequence = ++nextSequence;
+        Call call = client.newCall(request);
+        call.timeout().timeout(DEADLINE_MS, TimeUnit.MILLISECONDS);
+        inFlight = call;
+        long requestStart = System.nanoTime();
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                if (!finished(call, sequence)) {
+                    return;
+                }
+                CollectionMetrics.get().predictFailures.increment();
+                if (e instanceof InterruptedIOException) {
+                    CollectionMetrics.get().predictDeadlineMisses.increment();
+                }
+                Log.e(TAG, "Prediction " + sequence + " failed", e);
+                listener.onError(fix, "Error predicting settings");
+                startPending();
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                String body;
+                boolean successful;
+                String message;
+                try (Response r = response) {
+                    successful = r.isSuccessful();
+                    message = r.message();
+                    body = successful ? r.body().string() : null;
+                } catch (IOException e) {
+                    onFailure(call, e);
+                    return;
+                }
+                if (!finished(call, sequence)) {
+                    return;
+                }
+                if (successful) {
+                    CollectionMetrics.get().predictLatency.recordNanos(System.nanoTime() - requestStart);
+                    listener.onPrediction(fix, body);
+                } else {
+                    CollectionMetrics.get().predictFailures.increment();
+                    Log.e(TAG, "Prediction " + sequence + " error: " + response.code() + " - " + message);
+                    listener.onError(fix, "Error: " + message);
+                }
+                startPending();
+            }
+        });
+    }
+
+    // Clears the in-flight slot; false if the response should be dropped
+    private synchronized boolean finished(Call call, long sequence) {
+        if (inFlight == call) {
+            inFlight = null;
+        }
+        if (sequence <= droppedThrough) {
+            CollectionMetrics.get().predictDropped.increment();
+            Log.d(TAG, "Dropping superseded prediction " + sequence);
+            return false;
+        }
+        droppedThrough = sequence;
+        return true;
+    }
+
+    private synchronized void startPending() {
+        if (inFlight == null && pending != null) {
+            LocationUpdate fix = pending;
+            pending = null;
+            start(fix);
+        }
+    }
+}
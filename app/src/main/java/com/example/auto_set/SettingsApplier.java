@@ -0,0 +1,97 @@
+package com.example.auto_set;
+
+import android.bluetooth.BluetoothAdapter;
+import android.content.Context;
+import android.media.AudioManager;
+import android.net.wifi.WifiManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Applies predicted settings by comparing them with the cached device state
+ * and only touching the radios and ringer mode that really differ. Each
+ * setting goes through a {@link SettingGate}, so a prediction has to hold for
+ * {@link #DEBOUNCE_MS} and a setting is not flipped again within
+ * {@link #MIN_DWELL_MS}. Call from the main thread.
+ */
+public class SettingsApplier {
+
+    private static final String TAG = "SettingsApplier";
+
+    public static final long DEBOUNCE_MS = 10_000;
+    public static final long MIN_DWELL_MS = 5 * 60 * 1000;
+
+    private final DeviceStateMonitor deviceState;
+    private final WifiManager wifiManager;
+    private final AudioManager audioManager;
+
+    private final SettingGate wifiGate = new SettingGate(DEBOUNCE_MS, MIN_DWELL_MS);
+    private final SettingGate bluetoothGate = new SettingGate(DEBOUNCE_MS, MIN_DWELL_MS);
+    private final SettingGate silentGate = new SettingGate(DEBOUNCE_MS, MIN_DWELL_MS);
+
+    public SettingsApplier(Context context, DeviceStateMonitor deviceState) {
+        Context appContext = context.getApplicationContext();
+        this.deviceState = deviceState;
+        this.wifiManager = (WifiManager) appContext.getSystemService(Context.WIFI_SERVICE);
+        this.audioManager = (AudioManager) appContext.getSystemService(Context.AUDIO_SERVICE);
+    }
+
+    /**
+     * Brings the device in line with the prediction as far as the gates
+     * allow. With force set, debounce and dwell are skipped, for an explicit
+     * user request.
+     *
+     * @return a description of each change made, empty if nothing changed
+     */
+    public List<String> apply(PredictionResponse prediction, boolean force) {
+        long now = SystemClock.elapsedRealtime();
+        List<String> changes = new ArrayList<>();
+
+        if (prediction.wifiEnabled != null && wifiManager != null) {
+            boolean desired = prediction.wifiEnabled;
+            if (pass(wifiGate, desired, deviceState.isWifiEnabled(), force, now)) {
+                wifiManager.setWifiEnabled(desired);
+                wifiGate.changed(now);
+                changes.add("WiFi " + (desired ? "enabled" : "disabled"));
+            }
+        }
+
+        BluetoothAdapter bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+        if (prediction.bluetoothEnabled != null && bluetoothAdapter != null) {
+            boolean desired = prediction.bluetoothEnabled;
+            if (pass(bluetoothGate, desired, deviceState.isBluetoothEnabled(), force, now)) {
+                if (desired) {
+                    bluetoothAdapter.enable();
+                } else {
+                    bluetoothAdapter.disable();
+                }
+                bluetoothGate.changed(now);
+                changes.add("Bluetooth " + (desired ? "enabled" : "disabled"));
+            }
+        }
+
+        if (prediction.silentMode != null && audioManager != null) {
+            boolean desired = prediction.silentMode;
+            if (pass(silentGate, desired, deviceState.isSilentMode(), force, now)) {
+                audioManager.setRingerMode(desired ? AudioManager.RINGER_MODE_SILENT : AudioManager.RINGER_MODE_NORMAL);
+                silentGate.changed(now);
+                changes.add(desired ? "Silent mode activated" : "Normal mode activated");
+            }
+        }
+
+        if (!changes.isEmpty()) {
+            Log.d(TAG, "Applied " + changes);
+        }
+        return changes;
+    }
+
+    private static boolean pass(SettingGate gate, boolean desired, boolean current, boolean force, long now) {
+        if (force) {
+            return desired != current;
+        }
+        return gate.shouldChange(desired, current, now);
+    }
+}
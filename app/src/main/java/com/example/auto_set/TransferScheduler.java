@@ -0,0 +1,117 @@
+package com.example.auto_set;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.os.BatteryManager;
+import android.util.Log;
+
+import androidx.core.content.ContextCompat;
+
+/**
+ * Allows bulk transfers only while the default network is unmetered or the
+ * device is charging. The decision is reported once on start and then on
+ * every change.
+ */
+public class TransferScheduler {
+
+    private static final String TAG = "TransferScheduler";
+
+    public interface Listener {
+        void onTransfersAllowed(boolean allowed);
+    }
+
+    private final Context context;
+    private final ConnectivityManager connectivityManager;
+    private final Listener listener;
+
+    private volatile boolean connected;
+    private volatile boolean unmetered;
+    private volatile boolean charging;
+    private boolean allowed;
+    private boolean reported;
+    private boolean started;
+
+    private final ConnectivityManager.NetworkCallback networkCallback = new ConnectivityManager.NetworkCallback() {
+        @Override
+        public void onCapabilitiesChanged(Network network, NetworkCapabilities capabilities) {
+            connected = capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET);
+            unmetered = capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED);
+            update();
+        }
+
+        @Override
+        public void onLost(Network network) {
+            connected = false;
+            unmetered = false;
+            update();
+        }
+    };
+
+    private final BroadcastReceiver powerReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            charging = Intent.ACTION_POWER_CONNECTED.equals(intent.getAction());
+            update();
+        }
+    };
+
+    public TransferScheduler(Context context, Listener listener) {
+        this.context = context.getApplicationContext();
+        this.connectivityManager = (ConnectivityManager) this.context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        this.listener = listener;
+    }
+
+    public void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+        Intent battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery != null) {
+            int plugged = battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0);
+            charging = plugged != 0;
+        }
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_POWER_CONNECTED);
+        filter.addAction(Intent.ACTION_POWER_DISCONNECTED);
+        ContextCompat.registerReceiver(context, powerReceiver, filter, ContextCompat.RECEIVER_NOT_EXPORTED);
+        if (connectivityManager != null) {
+            connectivityManager.registerDefaultNetworkCallback(networkCallback);
+        }
+        update();
+    }
+
+    public void stop() {
+        if (!started) {
+            return;
+        }
+        started = false;
+        context.unregisterReceiver(powerReceiver);
+        if (connectivityManager != null) {
+            connectivityManager.unregisterNetworkCallback(networkCallback);
+        }
+    }
+
+    public synchronized boolean isAllowed() {
+        return allowed;
+    }
+
+    private void update() {
+        boolean now = connected && (unmetered || charging);
+        synchronized (this) {
+            if (reported && now == allowed) {
+                return;
+            }
+            reported = true;
+            allowed = now;
+        }
+        Log.d(TAG, "Bulk transfers " + (now ? "allowed" : "deferred") + " (unmetered=" + unmetered
+                + ", charging=" + charging + ")");
+        listener.onTransfersAllowed(now);
+    }
+}
@@ -0,0 +1,521 @@
+package com.example.auto_set;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Persistent queue of upload work. Every bundle of ranges is written to its
+ * own job file before anything is sent, so jobs survive process death and
+ * are picked up again by {@link #resume()}. Failed jobs are retried with
+ * exponential backoff and full jitter. When the last upload job of a batch
+ * is done a processing job for that batch is queued the same way.
+ *
+ * On every attempt ranges the manifest already has are dropped, so a bundle
+ * that was acknowledged right before the process died is not sent again.
+ * All state is owned by one thread.
+ */
+public class UploadQueue {
+
+    private static final String TAG = "UploadQueue";
+
+    public static final String UPLOAD_URL = "http://15.165.115.206:5000/upload_csv";
+    public static final String PROCESS_URL = "http://15.165.115.206:5000/process_uploaded_data";
+
+    public static final long DEFAULT_BASE_DELAY_MS = 2000;
+    public static final long DEFAULT_MAX_DELAY_MS = 15 * 60 * 1000;
+
+    public interface Listener {
+        // Raw bytes acknowledged out of everything queued since the queue was last empty
+        void onProgress(long bytesDone, long bytesTotal);
+
+        void onBatchProcessed(String response);
+    }
+
+    private static final String KIND_UPLOAD = "upload";
+    private static final String KIND_PROCESS = "process";
+    private static final String JOB_EXTENSION = ".job";
+
+    private static UploadQueue instance;
+
+    private final File dir;
+    private final OkHttpClient client;
+    private final UploadPipeline pipeline;
+    private final String processUrl;
+    private final UploadManifest manifest;
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+    private final Random random = new Random();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+            r -> new Thread(r, "UploadQueue"));
+
+    // Everything below is only touched on the executor thread
+    private final Map<String, Job> jobs = new LinkedHashMap<>();
+    private boolean resumed;
+    // Upload jobs wait while this is false; processing requests are small and always go
+    private volatile boolean transfersAllowed = true;
+    private int inFlight;
+    private ScheduledFuture<?> wakeUp;
+    private long bytesDone;
+    private long bytesTotal;
+    private volatile Listener listener;
+
+    private static class Job {
+        String id;
+        String kind;
+        String batch;
+        int attempts;
+        List<UploadManifest.Range> ranges = new ArrayList<>();
+        long notBefore;
+        boolean running;
+
+        long length() {
+            long length = 0;
+            for (UploadManifest.Range range : ranges) {
+                length += range.length();
+            }
+            return length;
+        }
+    }
+
+    // Shared by the activity and the service, stored under files/
+    public static synchronized UploadQueue get(Context context) {
+        if (instance == null) {
+            File filesDir = context.getApplicationContext().getFilesDir();
+            try {
+                UploadManifest manifest = new UploadManifest(new File(filesDir, "upload_manifest.csv"));
+                instance = new UploadQueue(new File(filesDir, "upload_queue"), HttpClients.bulk(),
+                        UPLOAD_URL, PROCESS_URL, manifest, DEFAULT_BASE_DELAY_MS, DEFAULT_MAX_DELAY_MS);
+                // Lives as long as the process, like the queue
+                new TransferScheduler(context, instance::setTransfersAllowed).start();
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to read upload manifest", e);
+            }
+        }
+        return instance;
+    }
+
+    public UploadQueue(File dir, OkHttpClient client, String uploadUrl, String processUrl,
+                       UploadManifest manifest, long baseDelayMs, long maxDelayMs) {
+        this.dir = dir;
+        this.client = client;
+        this.pipeline = new UploadPipeline(client, uploadUrl);
+        this.processUrl = processUrl;
+        this.manifest = manifest;
+        this.baseDelayMs = baseDelayMs;
+        this.maxDelayMs = maxDelayMs;
+    }
+
+    public UploadManifest getManifest() {
+        return manifest;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void setTransfersAllowed(boolean allowed) {
+        executor.execute(() -> {
+            transfersAllowed = allowed;
+            if (resumed) {
+                pump();
+            }
+        });
+    }
+
+    public boolean areTransfersAllowed() {
+        return transfersAllowed;
+    }
+
+    // Loads the jobs left on disk and starts sending. Safe to call repeatedly
+    public void resume() {
+        executor.execute(() -> {
+            if (resumed) {
+                return;
+            }
+            resumed = true;
+            loadJobs();
+            pump();
+        });
+    }
+
+    /**
+     * Queues ranges as one batch. Ranges of files that already have queued
+     * work are left for the next batch, so the same bytes are never in two
+     * jobs. Jobs are on disk before this returns.
+     *
+     * @return the number of ranges queued
+     */
+    public int enqueue(List<UploadManifest.Range> ranges) throws IOException {
+        try {
+            return executor.submit(() -> addBatch(ranges)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while queueing uploads", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    // Queues a processing request on its own, for when there is nothing new to upload
+    public void process() {
+        executor.execute(() -> {
+            Job job = new Job();
+            job.batch = Long.toString(System.currentTimeMillis(), 36);
+            job.id = job.batch + "-process";
+            job.kind = KIND_PROCESS;
+            try {
+                if (!dir.isDirectory() && !dir.mkdirs()) {
+                    throw new IOException("Failed to create " + dir);
+                }
+                save(job);
+                jobs.put(job.id, job);
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to queue processing", e);
+                return;
+            }
+            if (resumed) {
+                pump();
+            }
+        });
+    }
+
+    // Number of jobs on disk, including processing jobs
+    public int size() {
+        try {
+            return executor.submit(jobs::size).get();
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private int addBatch(List<UploadManifest.Range> ranges) throws IOException {
+        List<UploadManifest.Range> accepted = new ArrayList<>();
+        for (UploadManifest.Range range : ranges) {
+            if (isQueued(range.path)) {
+                Log.d(TAG, range.path + " already has queued work");
+            } else {
+                accepted.add(range);
+            }
+        }
+        if (accepted.isEmpty()) {
+            return 0;
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Failed to create " + dir);
+        }
+        String batch = Long.toString(System.currentTimeMillis(), 36);
+        int index = 0;
+        for (List<UploadManifest.Range> bundle : UploadPipeline.bundle(accepted,
+                UploadPipeline.MAX_BUNDLE_BYTES, UploadPipeline.MAX_BUNDLE_FILES)) {
+            Job job = new Job();
+            job.id = batch + "-" + index++;
+            job.kind = KIND_UPLOAD;
+            job.batch = batch;
+            job.ranges.addAll(bundle);
+            save(job);
+            jobs.put(job.id, job);
+            bytesTotal += job.length();
+        }
+        Log.d(TAG, "Queued batch " + batch + " with " + index + " bundles");
+        if (resumed) {
+            pump();
+        }
+        return accepted.size();
+    }
+
+    private boolean isQueued(String path) {
+        for (Job job : jobs.values()) {
+            for (UploadManifest.Range range : job.ranges) {
+                if (range.path.equals(path)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // Starts every job that is due while there is room, then sleeps until the next one is
+    private void pump() {
+        long now = System.currentTimeMillis();
+        long next = Long.MAX_VALUE;
+        for (Job job : new ArrayList<>(jobs.values())) {
+            if (job.running || (!transfersAllowed && KIND_UPLOAD.equals(job.kind))) {
+                continue;
+            }
+            if (job.notBefore > now) {
+                next = Math.min(next, job.notBefore);
+                continue;
+            }
+            if (inFlight >= UploadPipeline.MAX_IN_FLIGHT) {
+                break;
+            }
+            start(job);
+        }
+        if (wakeUp != null) {
+            wakeUp.cancel(false);
+            wakeUp = null;
+        }
+        if (next != Long.MAX_VALUE) {
+            wakeUp = executor.schedule(this::pump, next - now, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void start(Job job) {
+        Call call;
+        if (KIND_UPLOAD.equals(job.kind)) {
+            dropAcknowledged(job);
+            if (job.ranges.isEmpty()) {
+                finish(job);
+                executor.execute(this::pump);
+                return;
+            }
+            try {
+                call = pipeline.newCall(job.ranges);
+            } catch (FileNotFoundException e) {
+                Log.e(TAG, "Dropping job " + job.id + ", file is gone", e);
+                finish(job);
+                executor.execute(this::pump);
+                return;
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to read job " + job.id, e);
+                retry(job);
+                executor.execute(this::pump);
+                return;
+            }
+        } else {
+            call = client.newCall(new Request.Builder().url(processUrl).get().build());
+        }
+
+        job.running = true;
+        inFlight++;
+        long requestStart = System.nanoTime();
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                Log.e(TAG, "Job " + job.id + " failed", e);
+                executor.execute(() -> completed(job, requestStart, false, false, null));
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                try (Response r = response) {
+                    String body = r.body() != null ? r.body().string() : "";
+                    int code = r.code();
+                    if (!r.isSuccessful()) {
+                        Log.e(TAG, "Job " + job.id + " error: " + code + " - " + r.message());
+                    }
+                    executor.execute(() -> completed(job, requestStart, r.isSuccessful(), !isRetryable(code), body));
+                }
+            }
+        });
+    }
+
+    private void completed(Job job, long requestStart, boolean success, boolean permanent, String body) {
+        job.running = false;
+        inFlight--;
+        if (KIND_UPLOAD.equals(job.kind)) {
+            if (success) {
+                CollectionMetrics.get().uploadLatency.recordNanos(System.nanoTime() - requestStart);
+                CollectionMetrics.get().uploadBytes.add(job.length());
+                for (UploadManifest.Range range : job.ranges) {
+                    try {
+                        manifest.acknowledge(range);
+                    } catch (IOException e) {
+                        Log.e(TAG, "Failed to update upload manifest", e);
+                    }
+                }
+                bytesDone += job.length();
+                Listener l = listener;
+                if (l != null) {
+                    l.onProgress(bytesDone, bytesTotal);
+                }
+            } else {
+                CollectionMetrics.get().uploadFailures.increment();
+            }
+        } else if (success) {
+            Log.d(TAG, "Batch " + job.batch + " processed: " + body);
+            Listener l = listener;
+            if (l != null) {
+                l.onBatchProcessed(body);
+            }
+        }
+
+        if (success || permanent) {
+            if (permanent) {
+                Log.e(TAG, "Giving up on job " + job.id);
+            }
+            finish(job);
+        } else {
+            retry(job);
+        }
+        pump();
+    }
+
+    private void finish(Job job) {
+        jobs.remove(job.id);
+        if (!new File(dir, job.id + JOB_EXTENSION).delete()) {
+            Log.w(TAG, "Failed to delete job " + job.id);
+        }
+        if (KIND_UPLOAD.equals(job.kind) && !hasUploads(job.batch)) {
+            Job process = new Job();
+            process.id = job.batch + "-process";
+            process.kind = KIND_PROCESS;
+            process.batch = job.batch;
+            try {
+                save(process);
+                jobs.put(process.id, process);
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to queue processing for batch " + job.batch, e);
+            }
+        }
+        if (jobs.isEmpty()) {
+            bytesDone = 0;
+            bytesTotal = 0;
+        }
+    }
+
+    private boolean hasUploads(String batch) {
+        for (Job job : jobs.values()) {
+            if (KIND_UPLOAD.equals(job.kind) && job.batch.equals(batch)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void retry(Job job) {
+        job.attempts++;
+        job.notBefore = System.currentTimeMillis() + backoff(job.attempts);
+        try {
+            save(job);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to save job " + job.id, e);
+        }
+    }
+
+    // Full jitter: uniform in [0, min(max, base * 2^(attempts - 1))]
+    long backoff(int attempts) {
+        long ceiling = baseDelayMs << Math.min(attempts - 1, 30);
+        if (ceiling <= 0 || ceiling > maxDelayMs) {
+            ceiling = maxDelayMs;
+        }
+        return (long) (random.nextDouble() * ceiling);
+    }
+
+    // Timeouts and throttling are worth retrying; other client errors never succeed
+    private static boolean isRetryable(int code) {
+        return code < 400 || code >= 500 || code == 408 || code == 429;
+    }
+
+    private void dropAcknowledged(Job job) {
+        Iterator<UploadManifest.Range> it = job.ranges.iterator();
+        while (it.hasNext()) {
+            UploadManifest.Range range = it.next();
+            if (manifest.getOffset(range.path) >= range.end) {
+                bytesDone += range.length();
+                it.remove();
+            }
+        }
+    }
+
+    private void loadJobs() {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(JOB_EXTENSION));
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            try {
+                Job job = load(file);
+                if (jobs.containsKey(job.id)) {
+                    // Queued by this process before resume()
+                    continue;
+                }
+                jobs.put(job.id, job);
+                if (KIND_UPLOAD.equals(job.kind)) {
+                    bytesTotal += job.length();
+                }
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "Dropping unreadable job " + file.getName(), e);
+                file.delete();
+            }
+        }
+        Log.d(TAG, "Resumed " + jobs.size() + " jobs");
+    }
+
+    // kind, batch, attempts, then one "path,start,end,crc,closed,file" line per range
+    private void save(Job job) throws IOException {
+        File file = new File(dir, job.id + JOB_EXTENSION);
+        File temp = new File(dir, job.id + ".tmp");
+        try (Writer writer = new BufferedWriter(new FileWriter(temp))) {
+            writer.write(job.kind + "\n" + job.batch + "\n" + job.attempts + "\n");
+            for (UploadManifest.Range range : job.ranges) {
+                writer.write(range.path + "," + range.start + "," + range.end + "," + range.crc + ","
+                        + (range.closed ? "1" : "0") + "," + range.file.getAbsolutePath() + "\n");
+            }
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Failed to replace " + file);
+        }
+    }
+
+    private static Job load(File file) throws IOException {
+        Job job = new Job();
+        String name = file.getName();
+        job.id = name.substring(0, name.length() - JOB_EXTENSION.length());
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            job.kind = reader.readLine();
+            job.batch = reader.readLine();
+            String attempts = reader.readLine();
+            if (job.kind == null || job.batch == null || attempts == null) {
+                throw new IOException("Truncated job file");
+            }
+            job.attempts = Integer.parseInt(attempts);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(",", 6);
+                if (parts.length != 6) {
+                    throw new IOException("Bad range line: " + line);
+                }
+                job.ranges.add(new UploadManifest.Range(parts[0], new File(parts[5]),
+                        Long.parseLong(parts[1]), Long.parseLong(parts[2]), Long.parseLong(parts[3]),
+                        "1".equals(parts[4])));
+            }
+        }
+        return job;
+    }
+}
@@ -0,0 +1,155 @@
+package com.example.auto_set;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.*;
+
+public class PredictSchedulerTest {
+
+    private MockWebServer server;
+    private OkHttpClient client;
+    private final Recorder recorder = new Recorder();
+    private PredictScheduler scheduler;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        client = new OkHttpClient();
+        scheduler = new PredictScheduler(client, server.url("/predict_settings").toString(), recorder);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        scheduler.cancel();
+        client.dispatcher().executorService().shutdown();
+        server.shutdown();
+    }
+
+    @Test
+    public void fixesSubmittedWhileBusyCollapseToTheNewest() throws Exception {
+        server.enqueue(new MockResponse().setBody("first").setHeadersDelay(300, TimeUnit.MILLISECONDS));
+        server.enqueue(new MockResponse().setBody("third"));
+
+        scheduler.submit(fix(1));
+        assertEquals(1, latitude(server.takeRequest(5, TimeUnit.SECONDS)), 0);
+        assertTrue(scheduler.isBusy());
+        scheduler.submit(fix(2));
+        scheduler.submit(fix(3));
+
+        assertEquals("1 first", recorder.next());
+        assertEquals("3 third", recorder.next());
+        // The second fix was replaced before it was ever sent
+        assertEquals(3, latitude(server.takeRequest(5, TimeUnit.SECONDS)), 0);
+        assertEquals(2, server.getRequestCount());
+        assertNull(recorder.events.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void aNewerRequestSupersedesTheOneInFlight() throws Exception {
+        LongAdder dropped = CollectionMetrics.get().predictDropped;
+        long droppedBefore = dropped.sum();
+        server.enqueue(new MockResponse().setBody("stale").setHeadersDelay(1, TimeUnit.SECONDS));
+        server.enqueue(new MockResponse().setBody("fresh"));
+
+        scheduler.submit(fix(1));
+        assertEquals(1, latitude(server.takeRequest(5, TimeUnit.SECONDS)), 0);
+        scheduler.cancel();
+        assertFalse(scheduler.isBusy());
+        // Goes out at once instead of waiting for the cancelled call
+        scheduler.submit(fix(2));
+        assertEquals(2, latitude(server.takeRequest(5, TimeUnit.SECONDS)), 0);
+
+        assertEquals("2 fresh", recorder.next());
+        awaitAtLeast(dropped, droppedBefore + 1);
+        // Only the fresh prediction reached the listener
+        assertNull(recorder.events.poll(1500, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void aResponseAfterTheDeadlineCountsAsAMiss() throws Exception {
+        CollectionMetrics metrics = CollectionMetrics.get();
+        long missesBefore = metrics.predictDeadlineMisses.sum();
+        long failuresBefore = metrics.predictFailures.sum();
+        server.enqueue(new MockResponse().setBody("late")
+                .setHeadersDelay(PredictScheduler.DEADLINE_MS + 1000, TimeUnit.MILLISECONDS));
+        server.enqueue(new MockResponse().setBody("on time"));
+
+        long start = System.nanoTime();
+        scheduler.submit(fix(1));
+        scheduler.submit(fix(2));
+
+        assertEquals("1 error: Error predicting settings", recorder.next());
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("gave up after " + elapsedMs + " ms", elapsedMs >= PredictScheduler.DEADLINE_MS - 100);
+        assertEquals(missesBefore + 1, metrics.predictDeadlineMisses.sum());
+        assertEquals(failuresBefore + 1, metrics.predictFailures.sum());
+
+        // The fix that waited behind the slow call is sent next
+        assertEquals("2 on time", recorder.next());
+    }
+
+    @Test
+    public void httpErrorsAreReportedWithoutCountingAsMisses() throws Exception {
+        long missesBefore = CollectionMetrics.get().predictDeadlineMisses.sum();
+        server.enqueue(new MockResponse().setResponseCode(500).setStatus("HTTP/1.1 500 Server Error"));
+
+        scheduler.submit(fix(1));
+
+        assertEquals("1 error: Error: Server Error", recorder.next());
+        assertEquals(missesBefore, CollectionMetrics.get().predictDeadlineMisses.sum());
+        assertFalse(scheduler.isBusy());
+    }
+
+    // The latitude tells the fixes apart
+    private static LocationUpdate fix(int id) {
+        return new LocationUpdate(id * 1000L, id, 127.0, 1.5f, 30.0, LocationSample.PROVIDER_GPS);
+    }
+
+    private static double latitude(RecordedRequest request) throws Exception {
+        assertNotNull("request not received", request);
+        return new JSONObject(request.getBody().readUtf8()).getDouble("latitude");
+    }
+
+    private static void awaitAtLeast(LongAdder counter, long expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (counter.sum() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(counter.sum() >= expected);
+    }
+
+    private static class Recorder implements PredictScheduler.Listener {
+        final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+
+        @Override
+        public void onPrediction(LocationUpdate fix, String response) {
+            events.add((int) fix.latitude + " " + response);
+        }
+
+        @Override
+        public void onError(LocationUpdate fix, String message) {
+            events.add((int) fix.latitude + " error: " + message);
+        }
+
+        String next() throws InterruptedException {
+            String event = events.poll(10, TimeUnit.SECONDS);
+            assertNotNull("no callback", event);
+            return event;
+        }
+    }
+}
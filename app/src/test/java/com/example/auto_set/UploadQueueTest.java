@@ -0,0 +1,307 @@
+package com.example.auto_set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.MediaType;
+import okhttp3.MultipartReader;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.GzipSource;
+import okio.Okio;
+
+import static org.junit.Assert.*;
+
+public class UploadQueueTest {
+
+    private static final String HEADER = "timestamp,latitude,longitude\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockWebServer server;
+    private File dataDir;
+    private File manifestFile;
+    private File queueDir;
+    private final List<UploadQueue> queues = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        dataDir = folder.newFolder("gps_data");
+        manifestFile = new File(folder.getRoot(), "upload_manifest.csv");
+        queueDir = new File(folder.getRoot(), "upload_queue");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (UploadQueue queue : queues) {
+            queue.shutdown();
+        }
+        server.shutdown();
+    }
+
+    @Test
+    public void uploadsBundleThenProcesses() throws Exception {
+        File first = writeHour("2024-05-01/10.csv", "1,37.1,127.1\n2,37.2,127.2\n");
+        File second = writeHour("2024-05-01/11.csv", "3,37.3,127.3\n");
+        server.enqueue(new MockResponse().setResponseCode(200));
+        server.enqueue(new MockResponse().setResponseCode(200).setBody("processed"));
+
+        UploadManifest manifest = new UploadManifest(manifestFile);
+        UploadQueue queue = newQueue(manifest);
+        Recorder recorder = new Recorder();
+        queue.setListener(recorder);
+        assertEquals(2, queue.enqueue(pending(manifest, first, second)));
+        queue.resume();
+
+        assertTrue(recorder.processed.await(5, TimeUnit.SECONDS));
+        assertEquals("processed", recorder.response);
+
+        RecordedRequest upload = server.takeRequest();
+        assertEquals("/upload_csv", upload.getPath());
+        Map<String, String> parts = readParts(upload);
+        assertEquals(2, parts.size());
+        assertEquals(content(first), parts.get("2024-05-01_10.csv.gz"));
+        assertEquals(content(second), parts.get("2024-05-01_11.csv.gz"));
+        assertEquals("/process_uploaded_data", server.takeRequest().getPath());
+
+        assertEquals(first.length(), manifest.getOffset("2024-05-01/10.csv"));
+        assertEquals(second.length(), manifest.getOffset("2024-05-01/11.csv"));
+        assertEquals(first.length() + second.length(), recorder.bytesDone);
+        awaitEmpty(queue);
+        String[] left = queueDir.list();
+        assertTrue(left == null || left.length == 0);
+    }
+
+    @Test
+    public void retriesAfterServerError() throws Exception {
+        File file = writeHour("2024-05-01/10.csv", "1,37.1,127.1\n");
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse().setResponseCode(200));
+        server.enqueue(new MockResponse().setResponseCode(200).setBody("ok"));
+
+        UploadManifest manifest = new UploadManifest(manifestFile);
+        UploadQueue queue = newQueue(manifest);
+        Recorder recorder = new Recorder();
+        queue.setListener(recorder);
+        queue.enqueue(pending(manifest, file));
+        queue.resume();
+
+        assertTrue(recorder.processed.await(5, TimeUnit.SECONDS));
+        assertEquals(3, server.getRequestCount());
+        Map<String, String> failed = readParts(server.takeRequest());
+        Map<String, String> retried = readParts(server.takeRequest());
+        assertEquals(failed, retried);
+        assertEquals(file.length(), manifest.getOffset("2024-05-01/10.csv"));
+    }
+
+    @Test
+    public void resumesJobsAfterRestart() throws Exception {
+        File file = writeHour("2024-05-01/10.csv", "1,37.1,127.1\n");
+        UploadManifest manifest = new UploadManifest(manifestFile);
+        UploadQueue before = newQueue(manifest);
+        before.enqueue(pending(manifest, file));
+        before.shutdown();
+        assertEquals(0, server.getRequestCount());
+
+        server.enqueue(new MockResponse().setResponseCode(200));
+        server.enqueue(new MockResponse().setResponseCode(200).setBody("ok"));
+        UploadManifest reloaded = new UploadManifest(manifestFile);
+        UploadQueue after = newQueue(reloaded);
+        Recorder recorder = new Recorder();
+        after.setListener(recorder);
+        after.resume();
+
+        assertTrue(recorder.processed.await(5, TimeUnit.SECONDS));
+        assertEquals(content(file), readParts(server.takeRequest()).get("2024-05-01_10.csv.gz"));
+        assertEquals(file.length(), reloaded.getOffset("2024-05-01/10.csv"));
+    }
+
+    @Test
+    public void skipsRangesAcknowledgedBeforeRestart() throws Exception {
+        File first = writeHour("2024-05-01/10.csv", "1,37.1,127.1\n");
+        File second = writeHour("2024-05-01/11.csv", "2,37.2,127.2\n");
+        UploadManifest manifest = new UploadManifest(manifestFile);
+        List<UploadManifest.Range> ranges = pending(manifest, first, second);
+        UploadQueue before = newQueue(manifest);
+        before.enqueue(ranges);
+        // The server took the first file but the process died before the job was removed
+        manifest.acknowledge(ranges.get(0));
+        before.shutdown();
+
+        server.enqueue(new MockResponse().setResponseCode(200));
+        server.enqueue(new MockResponse().setResponseCode(200).setBody("ok"));
+        UploadQueue after = newQueue(new UploadManifest(manifestFile));
+        Recorder recorder = new Recorder();
+        after.setListener(recorder);
+        after.resume();
+
+        assertTrue(recorder.processed.await(5, TimeUnit.SECONDS));
+        Map<String, String> parts = readParts(server.takeRequest());
+        assertEquals(1, parts.size());
+        assertEquals(content(second), parts.get("2024-05-01_11.csv.gz"));
+    }
+
+    @Test
+    public void sendsOnlyNewRowsWithHeader() throws Exception {
+        File file = writeHour("2024-05-01/10.csv", "1,37.1,127.1\n");
+        UploadManifest manifest = new UploadManifest(manifestFile);
+        manifest.acknowledge(manifest.pending("2024-05-01/10.csv", file, false));
+        long acknowledged = file.length();
+        Files.write(file.toPath(), "2,37.2,127.2\n3,37.3".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+
+        server.enqueue(new MockResponse().setResponseCode(200));
+        server.enqueue(new MockResponse().setResponseCode(200).setBody("ok"));
+        UploadQueue queue = newQueue(manifest);
+        Recorder recorder = new Recorder();
+        queue.setListener(recorder);
+        queue.enqueue(pending(manifest, file));
+        queue.resume();
+
+        assertTrue(recorder.processed.await(5, TimeUnit.SECONDS));
+        Map<String, String> parts = readParts(server.takeRequest());
+        // The unfinished last line stays for the next upload
+        assertEquals(HEADER + "2,37.2,127.2\n", parts.get("2024-05-01_10_from" + acknowledged + ".csv.gz"));
+    }
+
+    @Test
+    public void dropsJobOnClientErrorAndStillProcesses() throws Exception {
+        File file = writeHour("2024-05-01/10.csv", "1,37.1,127.1\n");
+        server.enqueue(new MockResponse().setResponseCode(400));
+        server.enqueue(new MockResponse().setResponseCode(200).setBody("ok"));
+
+        UploadManifest manifest = new UploadManifest(manifestFile);
+        UploadQueue queue = newQueue(manifest);
+        Recorder recorder = new Recorder();
+        queue.setListener(recorder);
+        queue.enqueue(pending(manifest, file));
+        queue.resume();
+
+        assertTrue(recorder.processed.await(5, TimeUnit.SECONDS));
+        assertEquals(2, server.getRequestCount());
+        assertEquals(0, manifest.getOffset("2024-05-01/10.csv"));
+    }
+
+    @Test
+    public void holdsUploadsWhileTransfersAreDeferred() throws Exception {
+        File file = writeHour("2024-05-01/10.csv", "1,37.1,127.1\n");
+        server.enqueue(new MockResponse().setResponseCode(200));
+        server.enqueue(new MockResponse().setResponseCode(200).setBody("ok"));
+
+        UploadManifest manifest = new UploadManifest(manifestFile);
+        UploadQueue queue = newQueue(manifest);
+        Recorder recorder = new Recorder();
+        queue.setListener(recorder);
+        queue.setTransfersAllowed(false);
+        queue.enqueue(pending(manifest, file));
+        queue.resume();
+
+        assertFalse(recorder.processed.await(300, TimeUnit.MILLISECONDS));
+        assertEquals(0, server.getRequestCount());
+
+        queue.setTransfersAllowed(true);
+        assertTrue(recorder.processed.await(5, TimeUnit.SECONDS));
+        assertEquals(file.length(), manifest.getOffset("2024-05-01/10.csv"));
+    }
+
+    @Test
+    public void backoffStaysWithinCeiling() throws IOException {
+        UploadQueue queue = new UploadQueue(queueDir, new OkHttpClient(), "http://localhost/u", "http://localhost/p",
+                new UploadManifest(manifestFile), 100, 1000);
+        queues.add(queue);
+        for (int attempts = 1; attempts < 40; attempts++) {
+            long ceiling = Math.min(1000, 100L << Math.min(attempts - 1, 30));
+            for (int i = 0; i < 50; i++) {
+                long delay = queue.backoff(attempts);
+                assertTrue(delay >= 0 && delay <= ceiling);
+            }
+        }
+    }
+
+    private UploadQueue newQueue(UploadManifest manifest) {
+        UploadQueue queue = new UploadQueue(queueDir, new OkHttpClient(),
+                server.url("/upload_csv").toString(), server.url("/process_uploaded_data").toString(),
+                manifest, 10, 50);
+        queues.add(queue);
+        return queue;
+    }
+
+    private File writeHour(String relativePath, String rows) throws IOException {
+        File file = new File(dataDir, relativePath);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), (HEADER + rows).getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private List<UploadManifest.Range> pending(UploadManifest manifest, File... files) throws IOException {
+        List<UploadManifest.Range> ranges = new ArrayList<>();
+        for (File file : files) {
+            String path = dataDir.toURI().relativize(file.toURI()).getPath();
+            ranges.add(manifest.pending(path, file, true));
+        }
+        return ranges;
+    }
+
+    private static String content(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    // File name to gunzipped content of every part
+    private static Map<String, String> readParts(RecordedRequest request) throws IOException {
+        String boundary = MediaType.parse(request.getHeader("Content-Type")).parameter("boundary");
+        Map<String, String> parts = new LinkedHashMap<>();
+        try (MultipartReader reader = new MultipartReader(request.getBody(), boundary)) {
+            MultipartReader.Part part;
+            while ((part = reader.nextPart()) != null) {
+                String disposition = part.headers().get("Content-Disposition");
+                String name = disposition.substring(disposition.indexOf("filename=\"") + 10, disposition.length() - 1);
+                parts.put(name, Okio.buffer(new GzipSource(part.body())).readUtf8());
+            }
+        }
+        return parts;
+    }
+
+    private static void awaitEmpty(UploadQueue queue) throws InterruptedException {
+        for (int i = 0; i < 100 && queue.size() != 0; i++) {
+            Thread.sleep(20);
+        }
+        assertEquals(0, queue.size());
+    }
+
+    private static class Recorder implements UploadQueue.Listener {
+        final CountDownLatch processed = new CountDownLatch(1);
+        volatile long bytesDone;
+        volatile String response;
+
+        @Override
+        public void onProgress(long bytesDone, long bytesTotal) {
+            this.bytesDone = bytesDone;
+        }
+
+        @Override
+        public void onBatchProcessed(String response) {
+            this.response = response;
+            processed.countDown();
+        }
+    }
+}
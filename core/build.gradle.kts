@@ -0,0 +1,25 @@
+// Collection logic with no Android dependencies, so it can be tested and benchmarked on a workstation
+plugins {
+    `java-library`
+    alias(libs.plugins.jmh)
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+dependencies {
+    api(libs.okhttp)
+    testImplementation(libs.junit)
+}
+
+// ./gradlew :core:jmh; results land in core/build/results/jmh
+jmh {
+    warmupIterations.set(3)
+    iterations.set(5)
+    fork.set(1)
+    // gc.alloc.rate.norm is the allocation per operation
+    profilers.add("gc")
+    resultFormat.set("JSON")
+}
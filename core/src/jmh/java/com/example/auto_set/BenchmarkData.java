@@ -0,0 +1,57 @@
+package com.example.auto_set;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+// Inputs shared by the benchmarks; fixed seeds so runs compare
+final class BenchmarkData {
+
+    private BenchmarkData() {
+    }
+
+    static LocationSample[] samples(int count, long startMs, long stepMs) {
+        Random random = new Random(7);
+        LocationSample[] samples = new LocationSample[count];
+        for (int i = 0; i < count; i++) {
+            LocationSample s = new LocationSample();
+            s.timestamp = startMs + i * stepMs;
+            s.latitude = 37.5 + random.nextDouble() * 0.1;
+            s.longitude = 126.9 + random.nextDouble() * 0.1;
+            s.speed = random.nextFloat() * 30;
+            s.gravityX = (float) random.nextGaussian();
+            s.gravityY = (float) random.nextGaussian();
+            s.gravityZ = 9.81f - random.nextFloat();
+            s.linearAccelX = (float) random.nextGaussian();
+            s.linearAccelY = (float) random.nextGaussian();
+            s.linearAccelZ = (float) random.nextGaussian();
+            s.altitude = random.nextGaussian() * 100;
+            s.wifiEnabled = random.nextBoolean();
+            s.bluetoothEnabled = random.nextBoolean();
+            s.silentMode = random.nextBoolean();
+            s.mobileDataEnabled = random.nextBoolean();
+            s.linearAccelMean = random.nextFloat() * 3;
+            s.linearAccelVariance = random.nextFloat();
+            s.linearAccelPeak = random.nextFloat() * 10;
+            s.sensorSamples = random.nextInt(100);
+            s.provider = LocationSample.PROVIDER_GPS;
+            samples[i] = s;
+        }
+        return samples;
+    }
+
+    static File tempDir(String prefix) throws IOException {
+        return Files.createTempDirectory(prefix).toFile();
+    }
+
+    static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
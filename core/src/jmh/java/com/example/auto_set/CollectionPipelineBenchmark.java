@@ -0,0 +1,104 @@
+package com.example.auto_set;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One tick of the collection path per operation: 50 gravity and linear
+ * acceleration events and two fixes from different providers, ending in one
+ * row through the sample log, the clusterer and the trip segmenter.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CollectionPipelineBenchmark {
+
+    private static final int SENSOR_EVENTS_PER_TICK = 50;
+
+    private File baseDir;
+    private CollectionPipeline pipeline;
+    private long elapsedMs = 10_000;
+    private long wallMs = 1_700_000_000_000L;
+    private double latitude = 37.5665;
+
+    private static final CollectionPipeline.DeviceState DEVICE = new CollectionPipeline.DeviceState() {
+        @Override
+        public boolean isWifiEnabled() {
+            return true;
+        }
+
+        @Override
+        public boolean isBluetoothEnabled() {
+            return false;
+        }
+
+        @Override
+        public boolean isSilentMode() {
+            return false;
+        }
+
+        @Override
+        public boolean isMobileDataEnabled() {
+            return true;
+        }
+    };
+
+    private static final CollectionPipeline.Listener LISTENER = new CollectionPipeline.Listener() {
+        @Override
+        public void onRowWritten(LocationFix fix, LocationSample sample) {
+        }
+
+        @Override
+        public void onMotionStateChanged(MotionClassifier.State from, MotionClassifier.State to) {
+        }
+
+        @Override
+        public void onLog(String message, Throwable error) {
+            if (error != null) {
+                throw new IllegalStateException(message, error);
+            }
+        }
+    };
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        baseDir = BenchmarkData.tempDir("pipeline");
+        pipeline = new CollectionPipeline(new File(baseDir, "gps_data"), false, HourlyLogWriter.Durability.BUFFERED,
+                1000, DEVICE, () -> wallMs, LISTENER);
+        pipeline.loadPlaceState(baseDir);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pipeline.close();
+        BenchmarkData.delete(baseDir);
+    }
+
+    @Benchmark
+    public void tick() {
+        for (int i = 0; i < SENSOR_EVENTS_PER_TICK; i++) {
+            long ns = (elapsedMs + i * 20L) * 1_000_000L;
+            pipeline.onGravity(ns, 0.1f, 0.2f, 9.8f);
+            pipeline.onLinearAcceleration(ns, 0.5f, -0.3f, 0.2f);
+        }
+        // About 1.4 m/s north; the first fix of a tick emits the row of the previous one
+        latitude += 1.3e-5;
+        pipeline.offer(new LocationFix(LocationSample.PROVIDER_NETWORK, (elapsedMs + 100) * 1_000_000L, latitude,
+                126.9780, 40, 1.4f, 25, true, true, true));
+        pipeline.offer(new LocationFix(LocationSample.PROVIDER_GPS, (elapsedMs + 200) * 1_000_000L, latitude,
+                126.9780, 40, 1.4f, 5, true, true, true));
+        elapsedMs += 1000;
+        wallMs += 1000;
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.auto_set;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rows per second for encoding alone, against the String.format row the
+ * encoder replaced, and for appending to the sample log, which includes
+ * rolling to a new hour file every 3600 rows. Run with the gc profiler for
+ * allocation per row.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class RowWriteBenchmark {
+
+    private static final int ROWS = 4096;
+
+    private LocationSample[] samples;
+    private final CsvRowEncoder encoder = new CsvRowEncoder();
+    private int next;
+
+    // Only appendRow uses the log, so only it runs once per format
+    @State(Scope.Thread)
+    public static class LogState {
+
+        @Param({"false", "true"})
+        public boolean binary;
+
+        private File dataDir;
+        private SampleLog log;
+        // Keeps timestamps growing across the sample array so the log keeps rolling
+        private long offsetMs;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            dataDir = BenchmarkData.tempDir("rows");
+            log = binary
+                    ? new BinarySampleLog(dataDir, HourlyLogWriter.DEFAULT_FLUSH_INTERVAL_MS,
+                            HourlyLogWriter.Durability.BUFFERED)
+                    : new CsvSampleLog(dataDir, HourlyLogWriter.DEFAULT_FLUSH_INTERVAL_MS,
+                            HourlyLogWriter.Durability.BUFFERED);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            log.close();
+            BenchmarkData.delete(dataDir);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        samples = BenchmarkData.samples(ROWS, 1_700_000_000_000L, 1000);
+    }
+
+    @Benchmark
+    public int encodeCsvRow() {
+        LocationSample sample = samples[next];
+        next = (next + 1) % ROWS;
+        return encoder.encode(sample);
+    }
+
+    @Benchmark
+    public byte[] formatCsvRow() {
+        LocationSample s = samples[next];
+        next = (next + 1) % ROWS;
+        return String.format(Locale.US, "%d,%f,%f,%f,%f,%f,%f,%f,%f,%f,%f,%b,%b,%b,%b,%f,%f,%f,%d,%s\n",
+                s.timestamp, s.latitude, s.longitude, s.speed,
+                s.gravityX, s.gravityY, s.gravityZ,
+                s.linearAccelX, s.linearAccelY, s.linearAccelZ,
+                s.altitude, s.wifiEnabled, s.bluetoothEnabled, s.silentMode, s.mobileDataEnabled,
+                s.linearAccelMean, s.linearAccelVariance, s.linearAccelPeak, s.sensorSamples,
+                LocationSample.providerName(s.provider)).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Benchmark
+    public int appendRow(LogState state) throws IOException {
+        LocationSample sample = samples[next];
+        long timestamp = sample.timestamp;
+        sample.timestamp = timestamp + state.offsetMs;
+        int bytes = state.log.append(sample);
+        sample.timestamp = timestamp;
+        if (++next == ROWS) {
+            next = 0;
+            state.offsetMs += ROWS * 1000L;
+        }
+        return bytes;
+    }
+}
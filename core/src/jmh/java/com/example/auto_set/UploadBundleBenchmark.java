@@ -0,0 +1,76 @@
+package com.example.auto_set;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import okio.BufferedSink;
+import okio.Okio;
+
+/**
+ * Upload bundling: packing a day of pending ranges into bundles, and
+ * streaming one bundle through the multipart and gzip bodies, which is the
+ * CPU side of an upload. Files hold a real hour of CSV rows each.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class UploadBundleBenchmark {
+
+    private static final int HOURS = 24;
+    private static final int ROWS_PER_HOUR = 3600;
+
+    private File dataDir;
+    private final List<UploadManifest.Range> ranges = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dataDir = BenchmarkData.tempDir("upload");
+        long start = 1_700_000_000_000L - 1_700_000_000_000L % 3600_000L;
+        LocationSample[] samples = BenchmarkData.samples(HOURS * ROWS_PER_HOUR, start, 1000);
+        try (CsvSampleLog log = new CsvSampleLog(dataDir, HourlyLogWriter.DEFAULT_FLUSH_INTERVAL_MS,
+                HourlyLogWriter.Durability.BUFFERED)) {
+            for (LocationSample sample : samples) {
+                log.append(sample);
+            }
+        }
+        for (File day : new DataIndex(dataDir).days(false)) {
+            for (File file : DataIndex.hourFiles(day, false)) {
+                ranges.add(new UploadManifest.Range(day.getName() + "/" + file.getName(), file, 0, file.length(),
+                        0, true));
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkData.delete(dataDir);
+    }
+
+    @Benchmark
+    public List<List<UploadManifest.Range>> bundle() {
+        return UploadPipeline.bundle(ranges, UploadPipeline.MAX_BUNDLE_BYTES, UploadPipeline.MAX_BUNDLE_FILES);
+    }
+
+    // Every bundle of the day, so the result is per day of data
+    @Benchmark
+    public void writeBundleBody() throws IOException {
+        for (List<UploadManifest.Range> bundle : bundle()) {
+            try (BufferedSink sink = Okio.buffer(Okio.blackhole())) {
+                UploadPipeline.body(bundle).writeTo(sink);
+            }
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.example.auto_set;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads {@link BinarySampleLog} segments and turns them back into the CSV
+ * layout used by the upload server.
+ */
+public class BinaryLogConverter {
+
+    public interface SampleVisitor {
+        void visit(LocationSample sample) throws IOException;
+    }
+
+    private BinaryLogConverter() {
+    }
+
+    // Calls visitor once per committed record, reusing one sample instance
+    public static int forEach(File binFile, SampleVisitor visitor) throws IOException {
+        return forEach(binFile, 0, Integer.MAX_VALUE, visitor);
+    }
+
+    // Same for the committed records in [fromRecord, toRecord)
+    public static int forEach(File binFile, int fromRecord, int toRecord, SampleVisitor visitor) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(binFile, "r");
+             FileChannel channel = in.getChannel()) {
+            long length = channel.size();
+            if (length < BinarySampleLog.HEADER_SIZE) {
+                throw new IOException("Truncated log header: " + binFile);
+            }
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            map.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (map.getInt(BinarySampleLog.OFFSET_MAGIC) != BinarySampleLog.MAGIC) {
+                throw new IOException("Not a binary sample log: " + binFile);
+            }
+            int recordSize = map.getShort(BinarySampleLog.OFFSET_RECORD_SIZE);
+            int version = version(map.getShort(BinarySampleLog.OFFSET_VERSION), recordSize);
+            if (version == 0) {
+                throw new IOException("Unsupported schema version " + map.getShort(BinarySampleLog.OFFSET_VERSION)
+                        + " in " + binFile);
+            }
+            boolean v2 = version == 2;
+            long hourStart = map.getLong(BinarySampleLog.OFFSET_HOUR_START);
+            int count = (int) Math.min(map.getInt(BinarySampleLog.OFFSET_COUNT),
+                    (length - BinarySampleLog.HEADER_SIZE) / recordSize);
+
+            LocationSample sample = new LocationSample();
+            int end = Math.min(count, toRecord);
+            for (int i = Math.max(fromRecord, 0); i < end; i++) {
+                int pos = BinarySampleLog.HEADER_SIZE + i * recordSize;
+                sample.timestamp = hourStart + map.getInt(pos);
+                sample.latitude = map.getInt(pos + 4) / 1e7;
+                sample.longitude = map.getInt(pos + 8) / 1e7;
+                sample.speed = map.getFloat(pos + 12);
+                sample.gravityX = map.getFloat(pos + 16);
+                sample.gravityY = map.getFloat(pos + 20);
+                sample.gravityZ = map.getFloat(pos + 24);
+                sample.linearAccelX = map.getFloat(pos + 28);
+                sample.linearAccelY = map.getFloat(pos + 32);
+                sample.linearAccelZ = map.getFloat(pos + 36);
+                sample.altitude = map.getFloat(pos + 40);
+                int flags = map.get(pos + 44);
+                sample.wifiEnabled = (flags & BinarySampleLog.FLAG_WIFI) != 0;
+                sample.bluetoothEnabled = (flags & BinarySampleLog.FLAG_BLUETOOTH) != 0;
+                sample.silentMode = (flags & BinarySampleLog.FLAG_SILENT) != 0;
+                sample.mobileDataEnabled = (flags & BinarySampleLog.FLAG_MOBILE_DATA) != 0;
+                sample.provider = v2 ? map.get(pos + 45) : LocationSample.PROVIDER_UNKNOWN;
+                if (v2) {
+                    sample.linearAccelMean = map.getFloat(pos + 48);
+                    sample.linearAccelVariance = map.getFloat(pos + 52);
+                    sample.linearAccelPeak = map.getFloat(pos + 56);
+                    sample.sensorSamples = map.getInt(pos + 60);
+                }
+                visitor.visit(sample);
+            }
+            return Math.max(0, end - Math.max(fromRecord, 0));
+        }
+    }
+
+    // Schema version of a segment this class can read, or 0 when binFile is not one
+    public static int schemaVersion(File binFile) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(binFile, "r")) {
+            if (in.length() < BinarySampleLog.HEADER_SIZE) {
+                return 0;
+            }
+            byte[] header = new byte[8];
+            in.readFully(header);
+            ByteBuffer buffer = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt(BinarySampleLog.OFFSET_MAGIC) != BinarySampleLog.MAGIC) {
+                return 0;
+            }
+            return version(buffer.getShort(BinarySampleLog.OFFSET_VERSION),
+                    buffer.getShort(BinarySampleLog.OFFSET_RECORD_SIZE));
+        }
+    }
+
+    /**
+     * Rewrites an older segment in the current schema through a temp file and
+     * rename. Fields the old records lack keep the defaults they are read
+     * with. Record offsets change, so index entries of the file are stale.
+     *
+     * @return the number of records
+     */
+    public static int upgrade(File binFile) throws IOException {
+        long hourStart;
+        try (RandomAccessFile in = new RandomAccessFile(binFile, "r")) {
+            byte[] header = new byte[BinarySampleLog.HEADER_SIZE];
+            in.readFully(header);
+            hourStart = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN)
+                    .getLong(BinarySampleLog.OFFSET_HOUR_START);
+        }
+        // Every record grows to the current size at most
+        long records = (binFile.length() - BinarySampleLog.HEADER_SIZE) / BinarySampleLog.RECORD_SIZE_V1;
+        ByteBuffer buffer = ByteBuffer.allocate((int) (BinarySampleLog.HEADER_SIZE
+                + records * BinarySampleLog.RECORD_SIZE)).order(ByteOrder.LITTLE_ENDIAN);
+        int[] count = {0};
+        forEach(binFile, sample -> BinarySampleLog.putRecord(buffer,
+                BinarySampleLog.HEADER_SIZE + count[0]++ * BinarySampleLog.RECORD_SIZE, hourStart, sample));
+        BinarySampleLog.putHeader(buffer, hourStart, count[0]);
+        buffer.limit(BinarySampleLog.HEADER_SIZE + count[0] * BinarySampleLog.RECORD_SIZE);
+
+        File temp = new File(binFile.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            FileChannel channel = out.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            out.getFD().sync();
+        }
+        if (!temp.renameTo(binFile)) {
+            temp.delete();
+            throw new IOException("Failed to replace " + binFile);
+        }
+        return count[0];
+    }
+
+    public static int toCsv(File binFile, OutputStream out) throws IOException {
+        CsvRowEncoder encoder = new CsvRowEncoder();
+        out.write(CsvSampleLog.HEADER.getBytes(StandardCharsets.US_ASCII));
+        return forEach(binFile, sample -> out.write(encoder.getBuffer(), 0, encoder.encode(sample)));
+    }
+
+    // Writes csvFile unless it is already newer than binFile
+    public static File toCsv(File binFile, File csvFile) throws IOException {
+        if (csvFile.exists() && csvFile.lastModified() >= binFile.lastModified()) {
+            return csvFile;
+        }
+        File parentDir = csvFile.getParentFile();
+        if (parentDir != null && !parentDir.exists() && !parentDir.mkdirs()) {
+            throw new IOException("Failed to create directory: " + parentDir.getAbsolutePath());
+        }
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(csvFile))) {
+            toCsv(binFile, out);
+        }
+        return csvFile;
+    }
+
+    private static int version(int version, int recordSize) {
+        if (version == 1 && recordSize == BinarySampleLog.RECORD_SIZE_V1
+                || version == 2 && recordSize == BinarySampleLog.RECORD_SIZE) {
+            return version;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,218 @@
+package com.example.auto_set;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Fixed-width binary log, one memory-mapped gps_data/yyyy-MM-dd/HH.bin
+ * segment per hour. Records are 64 bytes instead of ~230 for a CSV row.
+ *
+ * Header (32 bytes, little endian): magic, schema version, record size,
+ * hour start (ms) and the number of committed records. Records store the
+ * time as an offset from the hour start, latitude/longitude in 1e-7 degrees,
+ * altitude as a float, the four settings as bit flags and the provider code
+ * (0 when unknown), followed by the
+ * linear acceleration window aggregates (added in schema version 2).
+ * Use {@link BinaryLogConverter} to get the CSV layout back. Reopening an
+ * hour written in an older schema converts it in place first.
+ */
+public class BinarySampleLog implements SampleLog {
+
+    public static final int MAGIC = 0x4C425341; // "ASBL"
+    public static final int SCHEMA_VERSION = 2;
+    public static final int HEADER_SIZE = 32;
+    public static final int RECORD_SIZE = 64;
+    // Version 1 records stop after the flags byte
+    static final int RECORD_SIZE_V1 = 48;
+
+    static final int OFFSET_MAGIC = 0;
+    static final int OFFSET_VERSION = 4;
+    static final int OFFSET_RECORD_SIZE = 6;
+    static final int OFFSET_HOUR_START = 8;
+    static final int OFFSET_COUNT = 16;
+
+    static final int FLAG_WIFI = 1;
+    static final int FLAG_BLUETOOTH = 1 << 1;
+    static final int FLAG_SILENT = 1 << 2;
+    static final int FLAG_MOBILE_DATA = 1 << 3;
+
+    private static final int INITIAL_CAPACITY = 4096;
+
+    private final File rootDir;
+    private final long flushIntervalMs;
+    private final HourlyLogWriter.Durability durability;
+    private final HourBucket hour = new HourBucket();
+    private final DataIndex index;
+
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private MappedByteBuffer map;
+    private File currentFile;
+    private int count;
+    private int capacity;
+    private long lastFlushTime;
+
+    public BinarySampleLog(File rootDir, long flushIntervalMs, HourlyLogWriter.Durability durability) {
+        this.rootDir = rootDir;
+        this.flushIntervalMs = flushIntervalMs;
+        this.durability = durability;
+        this.index = new DataIndex(rootDir);
+    }
+
+    @Override
+    public int append(LocationSample sample) throws IOException {
+        rollIfNeeded(sample.timestamp);
+        if (count == capacity) {
+            mapCapacity(capacity * 2);
+        }
+
+        int pos = HEADER_SIZE + count * RECORD_SIZE;
+        putRecord(map, pos, hour.getStart(), sample);
+
+        // Publishing the count last keeps readers from seeing a half-written record
+        count++;
+        map.putInt(OFFSET_COUNT, count);
+        index.onAppend(currentFile, sample.timestamp, sample.latitude, sample.longitude, pos, pos + RECORD_SIZE);
+
+        if (durability == HourlyLogWriter.Durability.FLUSH_EACH_ROW
+                || sample.timestamp - lastFlushTime >= flushIntervalMs) {
+            flush(sample.timestamp);
+        }
+        return RECORD_SIZE;
+    }
+
+    @Override
+    public void flushIfDue(long nowMs) {
+        if (map != null && nowMs - lastFlushTime >= flushIntervalMs) {
+            flush(nowMs);
+        }
+    }
+
+    @Override
+    public File getCurrentFile() {
+        return currentFile;
+    }
+
+    @Override
+    public void close() throws IOException {
+        index.save();
+        if (file == null) {
+            return;
+        }
+        try {
+            if (map != null) {
+                map.force();
+                // Drop the unused tail of the mapping
+                channel.truncate(HEADER_SIZE + (long) count * RECORD_SIZE);
+            }
+        } finally {
+            map = null;
+            channel = null;
+            hour.reset();
+            file.close();
+            file = null;
+        }
+    }
+
+    static void putHeader(ByteBuffer buffer, long hourStart, int count) {
+        buffer.putInt(OFFSET_MAGIC, MAGIC);
+        buffer.putShort(OFFSET_VERSION, (short) SCHEMA_VERSION);
+        buffer.putShort(OFFSET_RECORD_SIZE, (short) RECORD_SIZE);
+        buffer.putLong(OFFSET_HOUR_START, hourStart);
+        buffer.putInt(OFFSET_COUNT, count);
+    }
+
+    static void putRecord(ByteBuffer buffer, int pos, long hourStart, LocationSample sample) {
+        buffer.putInt(pos, (int) (sample.timestamp - hourStart));
+        buffer.putInt(pos + 4, (int) Math.round(sample.latitude * 1e7));
+        buffer.putInt(pos + 8, (int) Math.round(sample.longitude * 1e7));
+        buffer.putFloat(pos + 12, sample.speed);
+        buffer.putFloat(pos + 16, sample.gravityX);
+        buffer.putFloat(pos + 20, sample.gravityY);
+        buffer.putFloat(pos + 24, sample.gravityZ);
+        buffer.putFloat(pos + 28, sample.linearAccelX);
+        buffer.putFloat(pos + 32, sample.linearAccelY);
+        buffer.putFloat(pos + 36, sample.linearAccelZ);
+        buffer.putFloat(pos + 40, (float) sample.altitude);
+        buffer.put(pos + 44, (byte) flags(sample));
+        buffer.put(pos + 45, (byte) sample.provider);
+        buffer.putFloat(pos + 48, sample.linearAccelMean);
+        buffer.putFloat(pos + 52, sample.linearAccelVariance);
+        buffer.putFloat(pos + 56, sample.linearAccelPeak);
+        buffer.putInt(pos + 60, sample.sensorSamples);
+    }
+
+    static int flags(LocationSample sample) {
+        return (sample.wifiEnabled ? FLAG_WIFI : 0)
+                | (sample.bluetoothEnabled ? FLAG_BLUETOOTH : 0)
+                | (sample.silentMode ? FLAG_SILENT : 0)
+                | (sample.mobileDataEnabled ? FLAG_MOBILE_DATA : 0);
+    }
+
+    private void flush(long nowMs) {
+        // Mapped pages already belong to the OS; SYNC additionally pushes them to storage
+        if (durability == HourlyLogWriter.Durability.SYNC) {
+            long start = System.nanoTime();
+            map.force();
+            CollectionMetrics.get().flushLatency.recordNanos(System.nanoTime() - start);
+        }
+        lastFlushTime = nowMs;
+    }
+
+    private void rollIfNeeded(long timestampMs) throws IOException {
+        if (map != null && hour.contains(timestampMs)) {
+            return;
+        }
+        close();
+
+        File target = new File(rootDir, hour.roll(timestampMs) + ".bin");
+        File parentDir = target.getParentFile();
+        if (parentDir != null && !parentDir.exists() && !parentDir.mkdirs()) {
+            throw new IOException("Failed to create directory: " + parentDir.getAbsolutePath());
+        }
+        if (target.length() > 0) {
+            int version = BinaryLogConverter.schemaVersion(target);
+            if (version != SCHEMA_VERSION && version > 0) {
+                // Written by an older app version; its index entry points at the old record offsets
+                BinaryLogConverter.upgrade(target);
+                index.forget(target);
+            } else if (version != SCHEMA_VERSION) {
+                // Not a segment at all, so nothing can read it; keep it aside for inspection
+                File old = new File(parentDir, target.getName() + ".unreadable" + System.currentTimeMillis());
+                if (!target.renameTo(old)) {
+                    throw new IOException("Failed to move aside " + target.getAbsolutePath());
+                }
+            }
+        }
+
+        file = new RandomAccessFile(target, "rw");
+        channel = file.getChannel();
+        currentFile = target;
+        lastFlushTime = timestampMs;
+
+        boolean isNewFile = file.length() < HEADER_SIZE;
+        int existing = 0;
+        if (!isNewFile) {
+            existing = (int) ((file.length() - HEADER_SIZE) / RECORD_SIZE);
+        }
+        count = 0;
+        mapCapacity(Math.max(INITIAL_CAPACITY, existing * 2));
+        if (isNewFile) {
+            putHeader(map, hour.getStart(), 0);
+        } else {
+            // Trust the committed count over the file length, which may include a mapped tail
+            count = Math.min(map.getInt(OFFSET_COUNT), existing);
+        }
+    }
+
+    private void mapCapacity(int records) throws IOException {
+        capacity = records;
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) records * RECORD_SIZE);
+        map.order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -0,0 +1,272 @@
+package com.example.auto_set;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The server's location clusters with the settings to use in each, evaluated
+ * on the device. A cluster is a circle around its centroid or, when the
+ * server sends one, a polygon. Lookups go through a grid of
+ * {@link #INDEX_CELL_DEGREES} cells, so only clusters near the fix are
+ * tested.
+ *
+ * Binary format, big-endian:
+ * <pre>
+ * int   magic 'ASCM'
+ * short format version (1)
+ * long  model version, assigned by the server
+ * int   cluster count
+ * per cluster:
+ *   int   id
+ *   int   latitude * 1e7, int longitude * 1e7
+ *   float radius in meters
+ *   byte  settings flags (FLAG_*)
+ *   short polygon vertex count, then that many latitude/longitude int pairs (* 1e7)
+ * </pre>
+ * Immutable and thread safe.
+ */
+public class ClusterModel {
+
+    public static final int MAGIC = 0x4153434D;
+    public static final int FORMAT_VERSION = 1;
+
+    public static final int FLAG_WIFI = 1;
+    public static final int FLAG_BLUETOOTH = 2;
+    public static final int FLAG_SILENT = 4;
+
+    static final double INDEX_CELL_DEGREES = 0.005;
+    // Clusters covering more index cells than this are tested on every lookup instead
+    private static final int MAX_CELLS_PER_CLUSTER = 4096;
+    private static final double EARTH_RADIUS_METERS = 6_371_000;
+    // The same sphere as distanceMeters, so a circle's bounding box covers the whole circle
+    private static final double METERS_PER_DEGREE = Math.toRadians(EARTH_RADIUS_METERS);
+    private static final double E7 = 1e7;
+
+    public static class Cluster {
+        public final int id;
+        public final double latitude;
+        public final double longitude;
+        public final float radiusMeters;
+        public final boolean wifiEnabled;
+        public final boolean bluetoothEnabled;
+        public final boolean silentMode;
+        // Alternating latitude/longitude, or null for a circle
+        final double[] polygon;
+
+        public Cluster(int id, double latitude, double longitude, float radiusMeters, int flags, double[] polygon) {
+            this.id = id;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.radiusMeters = radiusMeters;
+            this.wifiEnabled = (flags & FLAG_WIFI) != 0;
+            this.bluetoothEnabled = (flags & FLAG_BLUETOOTH) != 0;
+            this.silentMode = (flags & FLAG_SILENT) != 0;
+            this.polygon = polygon;
+        }
+
+        int flags() {
+            return (wifiEnabled ? FLAG_WIFI : 0) | (bluetoothEnabled ? FLAG_BLUETOOTH : 0) | (silentMode ? FLAG_SILENT : 0);
+        }
+
+        boolean contains(double lat, double lon) {
+            if (polygon == null) {
+                return distanceMeters(latitude, longitude, lat, lon) <= radiusMeters;
+            }
+            // Even-odd rule; clusters are small enough to treat degrees as planar
+            boolean inside = false;
+            int n = polygon.length / 2;
+            for (int i = 0, j = n - 1; i < n; j = i++) {
+                double latI = polygon[2 * i];
+                double lonI = polygon[2 * i + 1];
+                double latJ = polygon[2 * j];
+                double lonJ = polygon[2 * j + 1];
+                if ((latI > lat) != (latJ > lat)
+                        && lon < (lonJ - lonI) * (lat - latI) / (latJ - latI) + lonI) {
+                    inside = !inside;
+                }
+            }
+            return inside;
+        }
+
+        // Bounding box as minLat, minLon, maxLat, maxLon
+        double[] bounds() {
+            if (polygon == null) {
+                double dLat = radiusMeters / METERS_PER_DEGREE;
+                double dLon = radiusMeters / (METERS_PER_DEGREE * Math.max(Math.cos(Math.toRadians(latitude)), 0.01));
+                return new double[]{latitude - dLat, longitude - dLon, latitude + dLat, longitude + dLon};
+            }
+            double[] b = {Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+            for (int i = 0; i < polygon.length; i += 2) {
+                b[0] = Math.min(b[0], polygon[i]);
+                b[1] = Math.min(b[1], polygon[i + 1]);
+                b[2] = Math.max(b[2], polygon[i]);
+                b[3] = Math.max(b[3], polygon[i + 1]);
+            }
+            return b;
+        }
+    }
+
+    private final long version;
+    private final List<Cluster> clusters;
+    private final Map<Long, int[]> index = new HashMap<>();
+    private final int[] large;
+
+    public ClusterModel(long version, List<Cluster> clusters) {
+        this.version = version;
+        this.clusters = new ArrayList<>(clusters);
+
+        Map<Long, List<Integer>> cells = new HashMap<>();
+        List<Integer> largeClusters = new ArrayList<>();
+        for (int i = 0; i < this.clusters.size(); i++) {
+            double[] b = this.clusters.get(i).bounds();
+            long minRow = cell(b[0]);
+            long minCol = cell(b[1]);
+            long maxRow = cell(b[2]);
+            long maxCol = cell(b[3]);
+            if ((maxRow - minRow + 1) * (maxCol - minCol + 1) > MAX_CELLS_PER_CLUSTER) {
+                largeClusters.add(i);
+                continue;
+            }
+            for (long row = minRow; row <= maxRow; row++) {
+                for (long col = minCol; col <= maxCol; col++) {
+                    List<Integer> list = cells.get(key(row, col));
+                    if (list == null) {
+                        list = new ArrayList<>(2);
+                        cells.put(key(row, col), list);
+                    }
+                    list.add(i);
+                }
+            }
+        }
+        for (Map.Entry<Long, List<Integer>> e : cells.entrySet()) {
+            index.put(e.getKey(), toArray(e.getValue()));
+        }
+        large = toArray(largeClusters);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int size() {
+        return clusters.size();
+    }
+
+    public List<Cluster> getClusters() {
+        return clusters;
+    }
+
+    // The cluster containing the position with the nearest centroid, or null if outside all of them
+    public Cluster find(double latitude, double longitude) {
+        Cluster best = null;
+        double bestDistance = Double.MAX_VALUE;
+        int[] candidates = index.get(key(cell(latitude), cell(longitude)));
+        for (int[] list : new int[][]{candidates, large}) {
+            if (list == null) {
+                continue;
+            }
+            for (int i : list) {
+                Cluster cluster = clusters.get(i);
+                if (!cluster.contains(latitude, longitude)) {
+                    continue;
+                }
+                double distance = distanceMeters(cluster.latitude, cluster.longitude, latitude, longitude);
+                if (distance < bestDistance) {
+                    best = cluster;
+                    bestDistance = distance;
+                }
+            }
+        }
+        return best;
+    }
+
+    public static ClusterModel read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a cluster model");
+        }
+        int format = data.readUnsignedShort();
+        if (format != FORMAT_VERSION) {
+            throw new IOException("Unsupported cluster model format " + format);
+        }
+        long version = data.readLong();
+        int count = data.readInt();
+        if (count < 0) {
+            throw new IOException("Bad cluster count " + count);
+        }
+        List<Cluster> clusters = new ArrayList<>(Math.min(count, 65536));
+        for (int i = 0; i < count; i++) {
+            int id = data.readInt();
+            double latitude = data.readInt() / E7;
+            double longitude = data.readInt() / E7;
+            float radius = data.readFloat();
+            int flags = data.readUnsignedByte();
+            int vertices = data.readUnsignedShort();
+            double[] polygon = null;
+            if (vertices > 0) {
+                if (vertices < 3) {
+                    throw new IOException("Cluster " + id + " has a polygon with " + vertices + " vertices");
+                }
+                polygon = new double[vertices * 2];
+                for (int v = 0; v < polygon.length; v++) {
+                    polygon[v] = data.readInt() / E7;
+                }
+            }
+            clusters.add(new Cluster(id, latitude, longitude, radius, flags, polygon));
+        }
+        return new ClusterModel(version, clusters);
+    }
+
+    public void write(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeShort(FORMAT_VERSION);
+        data.writeLong(version);
+        data.writeInt(clusters.size());
+        for (Cluster cluster : clusters) {
+            data.writeInt(cluster.id);
+            data.writeInt((int) Math.round(cluster.latitude * E7));
+            data.writeInt((int) Math.round(cluster.longitude * E7));
+            data.writeFloat(cluster.radiusMeters);
+            data.writeByte(cluster.flags());
+            double[] polygon = cluster.polygon;
+            data.writeShort(polygon == null ? 0 : polygon.length / 2);
+            if (polygon != null) {
+                for (double v : polygon) {
+                    data.writeInt((int) Math.round(v * E7));
+                }
+            }
+        }
+        data.flush();
+    }
+
+    // Equirectangular approximation, good to well under a meter at cluster scale
+    static double distanceMeters(double lat1, double lon1, double lat2, double lon2) {
+        double x = Math.toRadians(lon2 - lon1) * Math.cos(Math.toRadians((lat1 + lat2) / 2));
+        double y = Math.toRadians(lat2 - lat1);
+        return Math.sqrt(x * x + y * y) * EARTH_RADIUS_METERS;
+    }
+
+    private static long cell(double degrees) {
+        return (long) Math.floor(degrees / INDEX_CELL_DEGREES);
+    }
+
+    private static long key(long row, long col) {
+        return (row << 32) ^ (col & 0xffffffffL);
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+}
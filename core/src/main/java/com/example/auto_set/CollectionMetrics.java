@@ -0,0 +1,165 @@
+package com.example.auto_set;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide counters and latency histograms for the collection pipeline
+ * and the network calls. Updates are lock-free so they can sit on the hot
+ * path; {@link #report()} builds a readable snapshot.
+ */
+public class CollectionMetrics {
+
+    private static final CollectionMetrics INSTANCE = new CollectionMetrics();
+
+    public static CollectionMetrics get() {
+        return INSTANCE;
+    }
+
+    private static final int PROVIDERS = 4;
+    private static final int HOURS_KEPT = 24;
+    private static final long HOUR_MS = TimeUnit.HOURS.toMillis(1);
+
+    private final long startTime = System.currentTimeMillis();
+
+    // Fixes per LocationSample.PROVIDER_* code
+    private final AtomicLongArray fixesReceived = new AtomicLongArray(PROVIDERS);
+    public final LongAdder fixesEmitted = new LongAdder();
+    public final LongAdder fixesDuplicate = new LongAdder();
+    public final LongAdder fixesSuperseded = new LongAdder();
+
+    public final LongAdder rowsWritten = new LongAdder();
+    public final LongAdder writeErrors = new LongAdder();
+    public final Histogram writeLatency = new Histogram();
+    public final Histogram flushLatency = new Histogram();
+
+    // Bytes written per wall-clock hour, ring indexed by hour number
+    private final AtomicLongArray hourlyBytes = new AtomicLongArray(HOURS_KEPT);
+    private final AtomicLongArray hourlyKeys = new AtomicLongArray(HOURS_KEPT);
+
+    public final LongAdder sensorEvents = new LongAdder();
+    private volatile long sensorWindowStart;
+    private volatile long sensorWindowCount;
+    private volatile double sensorEventsPerSecond;
+
+    public final LongAdder motionTransitions = new LongAdder();
+
+    public final Histogram predictLatency = new Histogram();
+    public final LongAdder predictFailures = new LongAdder();
+    public final LongAdder predictDeadlineMisses = new LongAdder();
+    public final LongAdder predictDropped = new LongAdder();
+    public final LongAdder predictLocal = new LongAdder();
+    public final LongAdder predictCacheHits = new LongAdder();
+    public final LongAdder predictCacheMisses = new LongAdder();
+    public final Histogram uploadLatency = new Histogram();
+    public final LongAdder uploadFailures = new LongAdder();
+    public final LongAdder uploadBytes = new LongAdder();
+    // Bytes on the wire after compression
+    public final LongAdder uploadCompressedBytes = new LongAdder();
+
+    public void fixReceived(int provider) {
+        fixesReceived.incrementAndGet(providerSlot(provider));
+    }
+
+    // Unknown and out-of-range codes share the PROVIDER_UNKNOWN slot
+    public long getFixesReceived(int provider) {
+        return fixesReceived.get(providerSlot(provider));
+    }
+
+    private static int providerSlot(int provider) {
+        return provider >= 0 && provider < PROVIDERS ? provider : LocationSample.PROVIDER_UNKNOWN;
+    }
+
+    public void rowWritten(long timestampMs, int bytes, long latencyNanos) {
+        rowsWritten.increment();
+        writeLatency.recordNanos(latencyNanos);
+        long hour = timestampMs / HOUR_MS;
+        int slot = (int) (hour % HOURS_KEPT);
+        if (hourlyKeys.get(slot) != hour) {
+            // Only the writer thread gets here, so reset-then-add is safe
+            hourlyKeys.set(slot, hour);
+            hourlyBytes.set(slot, 0);
+        }
+        hourlyBytes.addAndGet(slot, bytes);
+    }
+
+    // Called from the sensor thread only
+    public void sensorEvent(long timestampNs) {
+        sensorEvents.increment();
+        long count = sensorWindowCount + 1;
+        if (sensorWindowStart == 0) {
+            sensorWindowStart = timestampNs;
+        } else if (timestampNs - sensorWindowStart >= 1_000_000_000L) {
+            sensorEventsPerSecond = count * 1e9 / (timestampNs - sensorWindowStart);
+            sensorWindowStart = timestampNs;
+            count = 0;
+        }
+        sensorWindowCount = count;
+    }
+
+    public double getSensorEventsPerSecond() {
+        return sensorEventsPerSecond;
+    }
+
+    public long getBytesForHour(long timestampMs) {
+        long hour = timestampMs / HOUR_MS;
+        int slot = (int) (hour % HOURS_KEPT);
+        return hourlyKeys.get(slot) == hour ? hourlyBytes.get(slot) : 0;
+    }
+
+    public String report() {
+        long now = System.currentTimeMillis();
+        StringBuilder out = new StringBuilder();
+        out.append("uptime ").append((now - startTime) / 1000).append(" s\n");
+        out.append("fixes received:");
+        for (int i = 0; i < PROVIDERS; i++) {
+            out.append(' ').append(LocationSample.providerName(i)).append('=').append(fixesReceived.get(i));
+        }
+        out.append('\n');
+        out.append("fixes emitted=").append(fixesEmitted.sum())
+                .append(" duplicate=").append(fixesDuplicate.sum())
+                .append(" superseded=").append(fixesSuperseded.sum()).append('\n');
+        out.append("rows written=").append(rowsWritten.sum())
+                .append(" errors=").append(writeErrors.sum()).append('\n');
+        out.append("write ").append(writeLatency).append('\n');
+        out.append("flush ").append(flushLatency).append('\n');
+        out.append("bytes this hour=").append(getBytesForHour(now))
+                .append(" last hour=").append(getBytesForHour(now - HOUR_MS)).append('\n');
+        out.append(String.format(Locale.US, "sensor events=%d (%.1f/s)%n",
+                sensorEvents.sum(), getSensorEventsPerSecond()));
+        out.append("motion transitions=").append(motionTransitions.sum()).append('\n');
+        out.append("predict ").append(predictLatency)
+                .append(" failures=").append(predictFailures.sum())
+                .append(" deadline misses=").append(predictDeadlineMisses.sum())
+                .append(" dropped=").append(predictDropped.sum())
+                .append(" local=").append(predictLocal.sum())
+                .append(" cache hits=").append(predictCacheHits.sum())
+                .append(" misses=").append(predictCacheMisses.sum()).append('\n');
+        out.append("upload ").append(uploadLatency)
+                .append(" failures=").append(uploadFailures.sum())
+                .append(" bytes=").append(uploadBytes.sum())
+                .append(" compressed=").append(uploadCompressedBytes.sum()).append('\n');
+        return out.toString();
+    }
+
+    // Writes the report to dir/metrics-yyyyMMdd-HHmmss.txt
+    public File dump(File dir) throws IOException {
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Failed to create directory: " + dir.getAbsolutePath());
+        }
+        String name = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
+        File file = new File(dir, "metrics-" + name + ".txt");
+        try (Writer writer = new FileWriter(file)) {
+            writer.write(report());
+        }
+        return file;
+    }
+}
@@ -0,0 +1,292 @@
+package com.example.auto_set;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.function.LongSupplier;
+
+/**
+ * The collection path of the service without Android. Sensor events feed the
+ * sensor window, the vertical velocity integrator and the motion classifier.
+ * Location fixes are merged by {@link LocationFusion}, and each fused fix
+ * becomes one row in the sample log, one update of the local clusterer and
+ * trip segmenter, and one {@link LocationUpdate} and {@link SensorUpdate} on
+ * {@link UpdateBus}.
+ *
+ * DataCollectionService is the Android adapter around it: it turns Location
+ * and SensorEvent callbacks into calls here and schedules
+ * {@link #flushFusion(long)} and {@link #flushIfDue()}. Sensor methods may be
+ * called from a sensor thread; everything else from one location thread.
+ */
+public class CollectionPipeline {
+
+    public interface DeviceState {
+        boolean isWifiEnabled();
+
+        boolean isBluetoothEnabled();
+
+        boolean isSilentMode();
+
+        boolean isMobileDataEnabled();
+    }
+
+    public interface Listener {
+        // A fused fix was written as a row
+        void onRowWritten(LocationFix fix, LocationSample sample);
+
+        // On the sensor thread
+        void onMotionStateChanged(MotionClassifier.State from, MotionClassifier.State to);
+
+        void onLog(String message, Throwable error);
+    }
+
+    public static final String CLUSTER_STATE_FILE = "local_clusters.bin";
+    public static final String TRIP_STATE_FILE = "trip_segmenter.bin";
+
+    private final File dataDir;
+    private final boolean binaryLog;
+    private final HourlyLogWriter.Durability durability;
+    private final DeviceState deviceState;
+    private final LongSupplier wallClock;
+    private final Listener listener;
+
+    // Every sensor sample since the last row, shared with the location thread
+    private final SensorWindow sensorWindow = new SensorWindow();
+    private final VerticalVelocityIntegrator verticalVelocity = new VerticalVelocityIntegrator();
+    private final MotionClassifier motionClassifier;
+    private final LocationFusion<LocationFix> locationFusion;
+    private final CollectionMetrics metrics = CollectionMetrics.get();
+
+    // Only touched on the location thread
+    private SampleLog sampleLog;
+    private final LocationSample sample = new LocationSample();
+    private StreamingClusterer clusterer;
+    private File clustererFile;
+    private TripSegmenter segmenter;
+    private File segmenterFile;
+
+    /**
+     * @param dataDir   the gps_data directory; null when storage is not
+     *                  available, in which case rows are dropped
+     * @param wallClock time for row timestamps, normally System::currentTimeMillis
+     */
+    public CollectionPipeline(File dataDir, boolean binaryLog, HourlyLogWriter.Durability durability,
+                              long tickMs, DeviceState deviceState, LongSupplier wallClock, Listener listener) {
+        this.dataDir = dataDir;
+        this.binaryLog = binaryLog;
+        this.durability = durability;
+        this.deviceState = deviceState;
+        this.wallClock = wallClock;
+        this.listener = listener;
+        this.motionClassifier = new MotionClassifier(MotionClassifier.State.WALKING, (from, to) -> {
+            metrics.motionTransitions.increment();
+            listener.onMotionStateChanged(from, to);
+        });
+        this.locationFusion = new LocationFusion<>(tickMs, (fix, provider) -> {
+            metrics.fixesEmitted.increment();
+            writeRow(fix);
+        });
+    }
+
+    public void onGravity(long timestampNs, float x, float y, float z) {
+        metrics.sensorEvent(timestampNs);
+        sensorWindow.addGravity(timestampNs, x, y, z);
+        verticalVelocity.onGravity(x, y, z);
+    }
+
+    public void onLinearAcceleration(long timestampNs, float x, float y, float z) {
+        metrics.sensorEvent(timestampNs);
+        sensorWindow.addLinearAcceleration(timestampNs, x, y, z);
+        verticalVelocity.onLinearAcceleration(timestampNs, x, y, z);
+        motionClassifier.addAcceleration(timestampNs / 1_000_000L, x, y, z);
+    }
+
+    // Hands a fix to the fusion; the caller schedules flushFusion for getFusionDeadline()
+    public void offer(LocationFix fix) {
+        long fixTime = fix.getElapsedRealtimeMs();
+        motionClassifier.onSpeed(fixTime, fix.hasSpeed ? fix.speed : -1);
+        if (fix.hasAltitude && fix.provider == LocationSample.PROVIDER_GPS) {
+            verticalVelocity.onAltitude(fix.elapsedRealtimeNanos, fix.altitude);
+        }
+        metrics.fixReceived(fix.provider);
+        long duplicates = locationFusion.getDuplicates();
+        long superseded = locationFusion.getSuperseded();
+        locationFusion.offer(fix, fix.provider, fixTime, fix.hasAccuracy ? fix.accuracy : 0);
+        metrics.fixesDuplicate.add(locationFusion.getDuplicates() - duplicates);
+        metrics.fixesSuperseded.add(locationFusion.getSuperseded() - superseded);
+    }
+
+    // Elapsed realtime when the pending tick should be emitted, or Long.MAX_VALUE
+    public long getFusionDeadline() {
+        return locationFusion.getDeadline();
+    }
+
+    public void flushFusion(long nowElapsedMs) {
+        locationFusion.flush(nowElapsedMs);
+    }
+
+    public void setTickMs(long tickMs) {
+        locationFusion.setTickMs(tickMs);
+    }
+
+    public MotionClassifier.State getMotionState() {
+        return motionClassifier.getState();
+    }
+
+    public void flushIfDue() {
+        if (sampleLog == null) {
+            return;
+        }
+        try {
+            sampleLog.flushIfDue(wallClock.getAsLong());
+        } catch (IOException e) {
+            listener.onLog("File flush failed", e);
+        }
+    }
+
+    private void writeRow(LocationFix fix) {
+        if (sampleLog == null) {
+            if (dataDir == null) {
+                listener.onLog("Failed to access base directory.", null);
+                return;
+            }
+            sampleLog = binaryLog
+                    ? new BinarySampleLog(dataDir, HourlyLogWriter.DEFAULT_FLUSH_INTERVAL_MS, durability)
+                    : new CsvSampleLog(dataDir, HourlyLogWriter.DEFAULT_FLUSH_INTERVAL_MS, durability);
+        }
+
+        sample.timestamp = wallClock.getAsLong();
+        sample.latitude = fix.latitude;
+        sample.longitude = fix.longitude;
+        sample.speed = fix.speed;
+        sensorWindow.drainInto(sample);
+        sample.altitude = fix.altitude;
+        sample.provider = fix.provider;
+        sample.wifiEnabled = deviceState.isWifiEnabled();
+        sample.bluetoothEnabled = deviceState.isBluetoothEnabled();
+        sample.silentMode = deviceState.isSilentMode();
+        sample.mobileDataEnabled = deviceState.isMobileDataEnabled();
+
+        try {
+            File previousFile = sampleLog.getCurrentFile();
+            long start = System.nanoTime();
+            int bytes = sampleLog.append(sample);
+            metrics.rowWritten(sample.timestamp, bytes, System.nanoTime() - start);
+            if (sampleLog.getCurrentFile() != previousFile) {
+                listener.onLog("File write in " + sampleLog.getCurrentFile().getAbsolutePath(), null);
+                savePlaceState();
+            }
+        } catch (IOException e) {
+            metrics.writeErrors.increment();
+            listener.onLog("File write failed", e);
+        }
+
+        int placeId = StreamingClusterer.NO_CLUSTER;
+        if (clusterer != null) {
+            placeId = clusterer.add(sample.timestamp, sample.latitude, sample.longitude, sample.speed);
+        }
+        if (segmenter != null) {
+            try {
+                // Events are rare; saving right after one keeps a restart from writing it twice
+                if (segmenter.add(sample.timestamp, sample.latitude, sample.longitude, placeId) > 0) {
+                    savePlaceState();
+                }
+            } catch (IOException e) {
+                listener.onLog("Event write failed", e);
+            }
+        }
+
+        UpdateBus.LOCATION.publish(new LocationUpdate(sample.timestamp, sample.latitude, sample.longitude,
+                sample.speed, sample.altitude, sample.provider));
+        UpdateBus.SENSOR.publish(new SensorUpdate(sample.timestamp, sample.linearAccelMean, sample.linearAccelPeak,
+                sample.sensorSamples, verticalVelocity.getVelocity(), motionClassifier.getState(), placeId));
+        listener.onRowWritten(fix, sample);
+    }
+
+    /**
+     * Updates the gps_data index, restores the saved clusters and trip state
+     * from stateDir and replays rows written after the last save. Call once,
+     * before the first fix.
+     */
+    public void loadPlaceState(File stateDir) {
+        if (dataDir == null) {
+            return;
+        }
+        clustererFile = new File(stateDir, CLUSTER_STATE_FILE);
+        segmenterFile = new File(stateDir, TRIP_STATE_FILE);
+        long start = System.nanoTime();
+        try {
+            // Hours written before the index existed, or whose last rows a crash kept out of it
+            int indexed = new DataIndex(dataDir).backfill();
+            listener.onLog("Indexed " + indexed + " hour files", null);
+        } catch (IOException e) {
+            listener.onLog("Index backfill failed", e);
+        }
+
+        StreamingClusterer places;
+        try {
+            places = StreamingClusterer.load(clustererFile, StreamingClusterer.DEFAULT_CELL_METERS,
+                    StreamingClusterer.DEFAULT_MIN_DWELL_MS, StreamingClusterer.DEFAULT_MAX_SPEED);
+        } catch (IOException e) {
+            listener.onLog("Cluster state unreadable, rebuilding from gps_data", e);
+            places = new StreamingClusterer();
+        }
+        try {
+            int rows = places.catchUp(dataDir);
+            listener.onLog("Clusterer replayed " + rows + " rows in " + (System.nanoTime() - start) / 1_000_000L
+                    + " ms, " + places.getClusters().size() + " places", null);
+        } catch (IOException e) {
+            listener.onLog("Cluster catch-up failed", e);
+        }
+
+        EventLog eventLog = new EventLog(dataDir);
+        TripSegmenter trips;
+        try {
+            trips = TripSegmenter.load(segmenterFile, TripSegmenter.DEFAULT_RADIUS_METERS,
+                    TripSegmenter.DEFAULT_MIN_STAY_MS, TripSegmenter.DEFAULT_EXIT_MS, eventLog);
+        } catch (IOException e) {
+            listener.onLog("Trip state unreadable, starting over", e);
+            trips = new TripSegmenter(eventLog);
+        }
+        try {
+            int rows = trips.catchUp(dataDir, places);
+            listener.onLog("Trip segmenter replayed " + rows + " rows", null);
+        } catch (IOException e) {
+            listener.onLog("Trip catch-up failed", e);
+        }
+
+        clusterer = places;
+        segmenter = trips;
+        savePlaceState();
+    }
+
+    public void savePlaceState() {
+        try {
+            if (clusterer != null) {
+                clusterer.save(clustererFile);
+            }
+            if (segmenter != null) {
+                segmenter.save(segmenterFile);
+            }
+        } catch (IOException e) {
+            listener.onLog("Place state save failed", e);
+        }
+    }
+
+    // Emits the pending fix, then closes the sample log and saves place state
+    public void close() {
+        locationFusion.flush(Long.MAX_VALUE);
+        if (sampleLog != null) {
+            try {
+                sampleLog.close();
+            } catch (IOException e) {
+                listener.onLog("File close failed", e);
+            }
+            sampleLog = null;
+        }
+        savePlaceState();
+    }
+
+    public StreamingClusterer getClusterer() {
+        return clusterer;
+    }
+}
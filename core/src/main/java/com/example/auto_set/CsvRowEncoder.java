@@ -0,0 +1,155 @@
+package com.example.auto_set;
+
+import java.util.Locale;
+
+/**
+ * Encodes a {@link LocationSample} as a CSV row straight into a reusable byte
+ * buffer. The output matches
+ * {@code String.format("%d,%f,%f,%f,%f,%f,%f,%f,%f,%f,%f,%b,%b,%b,%b,%f,%f,%f,%d,%s\n", ...)}
+ * for locales that use '.' as the decimal separator, without boxing or
+ * allocating per row. Not thread safe; keep one encoder per writer.
+ */
+public class CsvRowEncoder {
+
+    private static final double SCALE = 1e6;
+    // Above this the scaled value no longer fits comfortably in a long
+    private static final double FAST_PATH_LIMIT = 1e9;
+
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+
+    private byte[] buffer = new byte[512];
+    private final byte[] digits = new byte[20];
+    private int length;
+
+    public int encode(LocationSample sample) {
+        length = 0;
+        putLong(sample.timestamp);
+        putComma();
+        putDouble(sample.latitude);
+        putComma();
+        putDouble(sample.longitude);
+        putComma();
+        putDouble(sample.speed);
+        putComma();
+        putDouble(sample.gravityX);
+        putComma();
+        putDouble(sample.gravityY);
+        putComma();
+        putDouble(sample.gravityZ);
+        putComma();
+        putDouble(sample.linearAccelX);
+        putComma();
+        putDouble(sample.linearAccelY);
+        putComma();
+        putDouble(sample.linearAccelZ);
+        putComma();
+        putDouble(sample.altitude);
+        putComma();
+        putBoolean(sample.wifiEnabled);
+        putComma();
+        putBoolean(sample.bluetoothEnabled);
+        putComma();
+        putBoolean(sample.silentMode);
+        putComma();
+        putBoolean(sample.mobileDataEnabled);
+        putComma();
+        putDouble(sample.linearAccelMean);
+        putComma();
+        putDouble(sample.linearAccelVariance);
+        putComma();
+        putDouble(sample.linearAccelPeak);
+        putComma();
+        putLong(sample.sensorSamples);
+        putComma();
+        putAscii(LocationSample.providerName(sample.provider));
+        buffer[length++] = '\n';
+        return length;
+    }
+
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    private void putComma() {
+        buffer[length++] = ',';
+    }
+
+    private void putBoolean(boolean value) {
+        byte[] text = value ? TRUE : FALSE;
+        System.arraycopy(text, 0, buffer, length, text.length);
+        length += text.length;
+    }
+
+    private void putLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            putAscii(Long.toString(value));
+            return;
+        }
+        if (value < 0) {
+            buffer[length++] = '-';
+            value = -value;
+        }
+        putUnsigned(value);
+    }
+
+    private void putUnsigned(long value) {
+        int n = 0;
+        do {
+            digits[n++] = (byte) ('0' + (value % 10));
+            value /= 10;
+        } while (value != 0);
+        while (n > 0) {
+            buffer[length++] = digits[--n];
+        }
+    }
+
+    // Same result as %f: round half up to 6 decimals, keep the sign of -0.0
+    private void putDouble(double value) {
+        double magnitude = Math.abs(value);
+        if (!(magnitude < FAST_PATH_LIMIT)) {
+            putSlow(value);
+            return;
+        }
+        double scaled = magnitude * SCALE;
+        double floor = Math.floor(scaled);
+        double fraction = scaled - floor;
+        // Formatter rounds the shortest decimal representation, not the binary
+        // value, so anything this close to a tie goes through the JDK instead
+        if (Math.abs(fraction - 0.5) <= Math.ulp(scaled) * 8) {
+            putSlow(value);
+            return;
+        }
+        long units = (long) floor + (fraction > 0.5 ? 1 : 0);
+
+        if (value < 0 || (value == 0 && 1 / value < 0)) {
+            buffer[length++] = '-';
+        }
+        putUnsigned(units / 1_000_000L);
+        buffer[length++] = '.';
+        long fractionDigits = units % 1_000_000L;
+        for (long div = 100_000L; div > 0; div /= 10) {
+            buffer[length++] = (byte) ('0' + (fractionDigits / div) % 10);
+        }
+    }
+
+    private void putSlow(double value) {
+        putAscii(String.format(Locale.US, "%f", value));
+    }
+
+    private void putAscii(String text) {
+        // Huge or non-finite doubles can make the row outgrow the buffer
+        if (length + text.length() + 256 > buffer.length) {
+            byte[] larger = new byte[(length + text.length()) * 2 + 256];
+            System.arraycopy(buffer, 0, larger, 0, length);
+            buffer = larger;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            buffer[length++] = (byte) text.charAt(i);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.auto_set;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Writes samples as rows of gps_data/yyyy-MM-dd/HH.csv and keeps the day's
+ * {@link DataIndex} entry up to date.
+ */
+public class CsvSampleLog implements SampleLog {
+
+    // Rows written before the sensor aggregates and the provider were added
+    static final int LEGACY_FIELDS = 15;
+
+    public static final String HEADER = "timestamp(ms),latitude(deg),longitude(deg),speed(m/s),gravity_x(m/s^2),gravity_y(m/s^2),gravity_z(m/s^2),linear_accel_x(m/s^2),linear_accel_y(m/s^2),linear_accel_z(m/s^2),altitude(m),wifi_enabled,bluetooth_enabled,silent_mode,mobile_data_enabled,linear_accel_mean(m/s^2),linear_accel_var(m^2/s^4),linear_accel_peak(m/s^2),sensor_samples,provider\n";
+
+    private final HourlyLogWriter writer;
+    private final CsvRowEncoder encoder = new CsvRowEncoder();
+    private final DataIndex index;
+
+    public CsvSampleLog(File rootDir, long flushIntervalMs, HourlyLogWriter.Durability durability) {
+        writer = new HourlyLogWriter(rootDir, ".csv", HEADER, HourlyLogWriter.DEFAULT_BUFFER_SIZE,
+                flushIntervalMs, durability);
+        index = new DataIndex(rootDir);
+    }
+
+    @Override
+    public int append(LocationSample sample) throws IOException {
+        int length = encoder.encode(sample);
+        long offset = writer.append(sample.timestamp, encoder.getBuffer(), 0, length);
+        index.onAppend(writer.getCurrentFile(), sample.timestamp, sample.latitude, sample.longitude,
+                offset, offset + length);
+        return length;
+    }
+
+    @Override
+    public void flushIfDue(long nowMs) throws IOException {
+        writer.flushIfDue(nowMs);
+    }
+
+    @Override
+    public File getCurrentFile() {
+        return writer.getCurrentFile();
+    }
+
+    /**
+     * Reads a row written by {@link CsvRowEncoder} back into sample. Rows of
+     * the older 15 column layout, from before the sensor aggregates and the
+     * provider were logged, read with those zeroed and an unknown provider.
+     *
+     * @return false for the header or a malformed row
+     */
+    public static boolean parse(String line, LocationSample sample) {
+        String[] fields = line.split(",", -1);
+        if (fields.length != 20 && fields.length != LEGACY_FIELDS) {
+            return false;
+        }
+        try {
+            sample.timestamp = Long.parseLong(fields[0]);
+            sample.latitude = Double.parseDouble(fields[1]);
+            sample.longitude = Double.parseDouble(fields[2]);
+            sample.speed = Float.parseFloat(fields[3]);
+            sample.gravityX = Float.parseFloat(fields[4]);
+            sample.gravityY = Float.parseFloat(fields[5]);
+            sample.gravityZ = Float.parseFloat(fields[6]);
+            sample.linearAccelX = Float.parseFloat(fields[7]);
+            sample.linearAccelY = Float.parseFloat(fields[8]);
+            sample.linearAccelZ = Float.parseFloat(fields[9]);
+            sample.altitude = Double.parseDouble(fields[10]);
+            if (fields.length == LEGACY_FIELDS) {
+                sample.linearAccelMean = 0;
+                sample.linearAccelVariance = 0;
+                sample.linearAccelPeak = 0;
+                sample.sensorSamples = 0;
+            } else {
+                sample.linearAccelMean = Float.parseFloat(fields[15]);
+                sample.linearAccelVariance = Float.parseFloat(fields[16]);
+                sample.linearAccelPeak = Float.parseFloat(fields[17]);
+                sample.sensorSamples = Integer.parseInt(fields[18]);
+            }
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        sample.wifiEnabled = Boolean.parseBoolean(fields[11]);
+        sample.bluetoothEnabled = Boolean.parseBoolean(fields[12]);
+        sample.silentMode = Boolean.parseBoolean(fields[13]);
+        sample.mobileDataEnabled = Boolean.parseBoolean(fields[14]);
+        sample.provider = fields.length == LEGACY_FIELDS
+                ? LocationSample.PROVIDER_UNKNOWN : LocationSample.providerCode(fields[19]);
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            writer.close();
+        } finally {
+            index.close();
+        }
+    }
+}
@@ -0,0 +1,362 @@
+package com.example.auto_set;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps the gps_data store bounded. Closed days whose hour files have all
+ * been uploaded are rolled into one gzip segment
+ * ({@value DataIndex#SEGMENT_FILE}). Days older than the simplify age are
+ * thinned into {@value DataIndex#SIMPLIFIED_SEGMENT_FILE}: moving stretches
+ * go through {@link TrajectorySimplifier}, stationary stretches keep a row a
+ * minute, and the sensor aggregates of dropped rows are folded into the next
+ * kept row. When the store is still over its quota the oldest days are
+ * deleted.
+ *
+ * Each output is written to a temp file and renamed before the inputs are
+ * removed, so a crash at any point leaves every row readable. Not thread
+ * safe; run it from one thread.
+ */
+public class DataCompactor {
+
+    public static final long DEFAULT_SIMPLIFY_AFTER_MS = 30L * 24 * 3600_000L;
+    public static final double DEFAULT_EPSILON_METERS = 10;
+    public static final long DEFAULT_QUOTA_BYTES = 512L * 1024 * 1024;
+
+    // Rows can still land in the last hour of a day for a while after midnight
+    private static final long CLOSE_DELAY_MS = 3600_000L;
+    private static final float STATIONARY_SPEED = 1.0f;
+    private static final long STATIONARY_INTERVAL_MS = 60_000L;
+    // Rows simplified together: at most an hour, and a bounded buffer for 10 Hz providers
+    private static final long CHUNK_MS = 3600_000L;
+    private static final int CHUNK_ROWS = 16 * 1024;
+
+    public static class Result {
+        public int compactedDays;
+        public int simplifiedDays;
+        public int evictedDays;
+        // Days left alone because some of their rows could not be read
+        public int skippedDays;
+        public long rowsIn;
+        public long rowsOut;
+        public long bytesBefore;
+        public long bytesAfter;
+
+        @Override
+        public String toString() {
+            return "compacted " + compactedDays + " days, simplified " + simplifiedDays
+                    + ", evicted " + evictedDays + ", skipped " + skippedDays + ", rows " + rowsIn + " -> " + rowsOut
+                    + ", bytes " + bytesBefore + " -> " + bytesAfter;
+        }
+    }
+
+    private final File dataDir;
+    private final DataIndex index;
+    private final UploadManifest manifest;
+    private final long simplifyAfterMs;
+    private final double epsilonMeters;
+    private final long quotaBytes;
+
+    // Buffers for one chunk, kept between days
+    private final LocationSample[] chunk = new LocationSample[CHUNK_ROWS];
+    private final double[] latitudes = new double[CHUNK_ROWS];
+    private final double[] longitudes = new double[CHUNK_ROWS];
+    private final boolean[] keep = new boolean[CHUNK_ROWS];
+    private final WindowStats folded = new WindowStats();
+    private final CsvRowEncoder encoder = new CsvRowEncoder();
+
+    /**
+     * @param manifest upload state; with none, no day counts as uploaded and
+     *                 only the quota is enforced
+     */
+    public DataCompactor(File dataDir, UploadManifest manifest, long simplifyAfterMs, double epsilonMeters,
+                         long quotaBytes) {
+        this.dataDir = dataDir;
+        this.index = new DataIndex(dataDir);
+        this.manifest = manifest;
+        this.simplifyAfterMs = simplifyAfterMs;
+        this.epsilonMeters = epsilonMeters;
+        this.quotaBytes = quotaBytes;
+        for (int i = 0; i < CHUNK_ROWS; i++) {
+            chunk[i] = new LocationSample();
+        }
+    }
+
+    public Result run(long nowMs) throws IOException {
+        Result result = new Result();
+        result.bytesBefore = sizeOf(dataDir);
+        for (File day : index.days(false)) {
+            long dayEnd = dayEnd(day.getName());
+            if (dayEnd < 0 || nowMs < dayEnd + CLOSE_DELAY_MS) {
+                continue;
+            }
+            compact(day, nowMs - dayEnd >= simplifyAfterMs, result);
+        }
+        evict(nowMs, result);
+        result.bytesAfter = sizeOf(dataDir);
+        return result;
+    }
+
+    private void compact(File day, boolean simplify, Result result) throws IOException {
+        List<File> hours = DataIndex.hourFiles(day, false);
+        File segment = new File(day, DataIndex.SEGMENT_FILE);
+        File simplified = new File(day, DataIndex.SIMPLIFIED_SEGMENT_FILE);
+        boolean hasSegment = segment.exists() || simplified.exists();
+
+        if (hasSegment && !hours.isEmpty()) {
+            // A crash after the segment was renamed into place; it already holds these rows
+            deleteHours(day, hours);
+            hours = DataIndex.hourFiles(day, false);
+        }
+        if (!hours.isEmpty()) {
+            if (!allUploaded(day, hours)) {
+                return;
+            }
+            if (!write(hours, simplify ? simplified : segment, simplify, result)) {
+                result.skippedDays++;
+                return;
+            }
+            deleteHours(day, hours);
+            result.compactedDays++;
+        } else if (simplify && segment.exists()) {
+            if (!write(Collections.singletonList(segment), simplified, true, result)) {
+                result.skippedDays++;
+                return;
+            }
+            if (!segment.delete()) {
+                throw new IOException("Failed to delete " + segment);
+            }
+            result.simplifiedDays++;
+        } else if (simplified.exists() && segment.exists() && !segment.delete()) {
+            throw new IOException("Failed to delete " + segment);
+        }
+    }
+
+    private boolean allUploaded(File day, List<File> hours) {
+        if (manifest == null) {
+            return false;
+        }
+        for (File hour : hours) {
+            if (!manifest.isFinal(day.getName() + "/" + hour.getName())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the rows of inputs to target through a temp file, then indexes
+     * it. Returns false and leaves target alone if any row other than a
+     * header could not be read, so the inputs are never deleted for it.
+     */
+    private boolean write(List<File> inputs, File target, boolean simplify, Result result) throws IOException {
+        File temp = new File(target.getPath() + ".tmp");
+        int[] buffered = {0};
+        long[] counts = {0, 0};
+        int rejected = 0;
+        try (OutputStream out = new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(temp)),
+                64 * 1024)) {
+            out.write(CsvSampleLog.HEADER.getBytes(StandardCharsets.US_ASCII));
+            for (File input : inputs) {
+                rejected += forEachSample(input, sample -> {
+                    counts[0]++;
+                    if (!simplify) {
+                        out.write(encoder.getBuffer(), 0, encoder.encode(sample));
+                        counts[1]++;
+                        return;
+                    }
+                    int n = buffered[0];
+                    if (n == CHUNK_ROWS || (n > 0 && sample.timestamp >= chunk[0].timestamp + CHUNK_MS)) {
+                        counts[1] += flush(n, out);
+                        n = 0;
+                    }
+                    chunk[n].copyFrom(sample);
+                    buffered[0] = n + 1;
+                });
+            }
+            counts[1] += flush(buffered[0], out);
+        }
+        if (rejected > 0) {
+            delete(temp);
+            return false;
+        }
+        if (!temp.renameTo(target)) {
+            throw new IOException("Failed to replace " + target);
+        }
+        DataIndex.indexSegment(target);
+        result.rowsIn += counts[0];
+        result.rowsOut += counts[1];
+        return true;
+    }
+
+    // Simplifies the first n buffered rows and writes the kept ones; returns how many
+    private int flush(int n, OutputStream out) throws IOException {
+        if (n == 0) {
+            return 0;
+        }
+        for (int i = 0; i < n; i++) {
+            latitudes[i] = chunk[i].latitude;
+            longitudes[i] = chunk[i].longitude;
+            keep[i] = false;
+        }
+        int start = 0;
+        while (start < n) {
+            boolean stationary = chunk[start].speed < STATIONARY_SPEED;
+            int end = start;
+            while (end + 1 < n && (chunk[end + 1].speed < STATIONARY_SPEED) == stationary) {
+                end++;
+            }
+            if (stationary) {
+                // Stay points: first, last and one row a minute
+                long lastKept = chunk[start].timestamp;
+                keep[start] = true;
+                keep[end] = true;
+                for (int i = start + 1; i < end; i++) {
+                    if (chunk[i].timestamp - lastKept >= STATIONARY_INTERVAL_MS) {
+                        keep[i] = true;
+                        lastKept = chunk[i].timestamp;
+                    }
+                }
+            } else {
+                TrajectorySimplifier.simplify(latitudes, longitudes, start, end, epsilonMeters, keep);
+            }
+            start = end + 1;
+        }
+        // The last row is always kept, so no aggregate carries into the next chunk
+        keep[n - 1] = true;
+
+        int written = 0;
+        folded.reset();
+        for (int i = 0; i < n; i++) {
+            LocationSample sample = chunk[i];
+            folded.merge(sample.sensorSamples, sample.linearAccelMean, sample.linearAccelVariance,
+                    sample.linearAccelPeak);
+            if (!keep[i]) {
+                continue;
+            }
+            if (folded.getCount() > 0) {
+                sample.sensorSamples = folded.getCount();
+                sample.linearAccelMean = (float) folded.getMean();
+                sample.linearAccelVariance = (float) folded.getVariance();
+                sample.linearAccelPeak = (float) folded.getPeak();
+            }
+            folded.reset();
+            out.write(encoder.getBuffer(), 0, encoder.encode(sample));
+            written++;
+        }
+        return written;
+    }
+
+    // Returns the number of rows that are neither a header nor readable
+    private static int forEachSample(File file, BinaryLogConverter.SampleVisitor visitor) throws IOException {
+        if (file.getName().endsWith(".bin")) {
+            BinaryLogConverter.forEach(file, visitor);
+            return 0;
+        }
+        int rejected = 0;
+        InputStream in = new FileInputStream(file);
+        try {
+            if (file.getName().endsWith(".gz")) {
+                in = new GZIPInputStream(in, 64 * 1024);
+            }
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.US_ASCII),
+                    64 * 1024);
+            LocationSample sample = new LocationSample();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (CsvSampleLog.parse(line, sample)) {
+                    visitor.visit(sample);
+                } else if (!line.isEmpty() && !line.startsWith("timestamp")) {
+                    rejected++;
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return rejected;
+    }
+
+    private void deleteHours(File day, List<File> hours) throws IOException {
+        for (File hour : hours) {
+            if (!hour.delete() && hour.exists()) {
+                throw new IOException("Failed to delete " + hour);
+            }
+        }
+        if (manifest != null) {
+            manifest.forget(day.getName() + "/");
+        }
+    }
+
+    // Deletes whole days, oldest first, until the store fits; never a day still being written
+    private void evict(long nowMs, Result result) throws IOException {
+        long total = sizeOf(dataDir);
+        for (File day : index.days(false)) {
+            if (total <= quotaBytes) {
+                return;
+            }
+            long dayEnd = dayEnd(day.getName());
+            if (dayEnd < 0 || nowMs < dayEnd + CLOSE_DELAY_MS) {
+                continue;
+            }
+            long size = sizeOf(day);
+            delete(day);
+            total -= size;
+            result.evictedDays++;
+            if (manifest != null) {
+                manifest.forget(day.getName() + "/");
+            }
+        }
+    }
+
+    private static void delete(File file) throws IOException {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        if (!file.delete() && file.exists()) {
+            throw new IOException("Failed to delete " + file);
+        }
+    }
+
+    private static long sizeOf(File file) {
+        File[] children = file.listFiles();
+        if (children == null) {
+            return file.length();
+        }
+        long size = 0;
+        for (File child : children) {
+            size += sizeOf(child);
+        }
+        return size;
+    }
+
+    // Start of the day after a yyyy-MM-dd directory in local time, or -1 if the name does not parse
+    private static long dayEnd(String day) {
+        try {
+            Calendar calendar = Calendar.getInstance();
+            calendar.setTime(new SimpleDateFormat("yyyy-MM-dd", Locale.getDefault()).parse(day));
+            calendar.add(Calendar.DAY_OF_MONTH, 1);
+            return calendar.getTimeInMillis();
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+}
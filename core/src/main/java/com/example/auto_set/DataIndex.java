@@ -0,0 +1,449 @@
+package com.example.auto_set;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Per-day index of the gps_data store. Each gps_data/yyyy-MM-dd directory
+ * gets an {@value #INDEX_FILE} with one {@link HourSummary} line per hour
+ * file, kept up to date by the sample logs as they append.
+ *
+ * Readers use {@link #query} or {@link #forEach} to open only the hour files
+ * whose time range, bounding box and grid cells can match, starting at the
+ * nearest checkpoint. Files with no entry, or with rows past the indexed
+ * part, are still read, so the index only ever saves work and never hides
+ * rows. Compacted days hold one gzip segment instead of hour files; it is
+ * always read whole. The writer side is not thread safe; use it from the
+ * writing thread.
+ */
+public class DataIndex {
+
+    public static final String INDEX_FILE = "index.csv";
+    // A whole day of rows, written by DataCompactor in place of the hour files
+    public static final String SEGMENT_FILE = "day.csv.gz";
+    public static final String SIMPLIFIED_SEGMENT_FILE = "day.simplified.csv.gz";
+    private static final Pattern HOUR_FILE = Pattern.compile("\\d{2}\\.(csv|bin)");
+    private static final Pattern DATA_FILE = Pattern.compile("\\d{2}\\.(csv|bin)|day(\\.simplified)?\\.csv\\.gz");
+
+    public interface RowVisitor {
+        void visit(long timestamp, double latitude, double longitude, float speed) throws IOException;
+    }
+
+    // A byte range of one hour file; end is -1 for the end of the file
+    public static class Range {
+        public final File file;
+        public final long start;
+        public final long end;
+
+        public Range(File file, long start, long end) {
+            this.file = file;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    private final File dataDir;
+
+    // Writer side: the hour being appended to and the day it belongs to
+    private File currentFile;
+    private HourSummary current;
+    private Map<String, HourSummary> currentDay;
+    private int savedCheckpoints;
+
+    public DataIndex(File dataDir) {
+        this.dataDir = dataDir;
+    }
+
+    /**
+     * Records a row just appended at [offset, end) of hourFile. Switching to
+     * another file saves the previous one's entry. Reopening a file picks up
+     * its entry and summarizes whatever was written after it.
+     */
+    public void onAppend(File hourFile, long timestamp, double latitude, double longitude, long offset, long end)
+            throws IOException {
+        if (!hourFile.equals(currentFile)) {
+            save();
+            open(hourFile, offset);
+        }
+        current.add(timestamp, latitude, longitude, offset, end);
+        // A new checkpoint every few minutes is a good time to persist
+        if (current.checkpointTimes.size() != savedCheckpoints) {
+            save();
+        }
+    }
+
+    // Writes the current hour's entry; rows after this are re-read on the next open
+    public void save() throws IOException {
+        if (current == null) {
+            return;
+        }
+        currentDay.put(current.name, current);
+        write(currentFile.getParentFile(), currentDay);
+        savedCheckpoints = current.checkpointTimes.size();
+    }
+
+    public void close() throws IOException {
+        save();
+        currentFile = null;
+        current = null;
+        currentDay = null;
+    }
+
+    /**
+     * Indexes hour files that have no entry or rows past their entry, for
+     * data written before the index existed or lost in a crash. Skips the
+     * file the writer has open.
+     *
+     * @return the number of files updated
+     */
+    public int backfill() throws IOException {
+        int updated = 0;
+        for (File day : days(false)) {
+            Map<String, HourSummary> summaries = read(day);
+            boolean changed = false;
+            for (File file : files(day, DATA_FILE, false)) {
+                if (file.equals(currentFile)) {
+                    continue;
+                }
+                HourSummary summary = summaries.get(file.getName());
+                long length = dataLength(file);
+                if (summary != null && summary.indexedBytes >= length) {
+                    continue;
+                }
+                if (summary == null) {
+                    summary = new HourSummary(file.getName());
+                    summaries.put(file.getName(), summary);
+                }
+                summarize(file, summary, summary.indexedBytes, length);
+                changed = true;
+                updated++;
+            }
+            if (changed) {
+                write(day, summaries);
+            }
+        }
+        return updated;
+    }
+
+    // gps_data/yyyy-MM-dd/HH.csv and HH.bin, oldest or newest first
+    public List<File> hourFiles(boolean newestFirst) {
+        List<File> files = new ArrayList<>();
+        for (File day : days(newestFirst)) {
+            files.addAll(files(day, HOUR_FILE, newestFirst));
+        }
+        return files;
+    }
+
+    // Hour files and compacted day segments, oldest or newest first
+    public List<File> dataFiles(boolean newestFirst) {
+        List<File> files = new ArrayList<>();
+        for (File day : days(newestFirst)) {
+            files.addAll(files(day, DATA_FILE, newestFirst));
+        }
+        return files;
+    }
+
+    // Replaces a compacted day's entries with a single one for its segment
+    static void indexSegment(File segment) throws IOException {
+        HourSummary summary = new HourSummary(segment.getName());
+        summarize(segment, summary, 0, segment.length());
+        Map<String, HourSummary> summaries = new LinkedHashMap<>();
+        summaries.put(summary.name, summary);
+        write(segment.getParentFile(), summaries);
+    }
+
+    // Drops the entry of an hour file that was rewritten with other offsets
+    public void forget(File hourFile) throws IOException {
+        if (hourFile.equals(currentFile)) {
+            currentFile = null;
+            current = null;
+            currentDay = null;
+        }
+        File day = hourFile.getParentFile();
+        Map<String, HourSummary> summaries = read(day);
+        if (summaries.remove(hourFile.getName()) != null) {
+            write(day, summaries);
+        }
+    }
+
+    // Entries of one day directory by file name; empty when it has no index
+    public Map<String, HourSummary> summaries(File day) throws IOException {
+        return read(day);
+    }
+
+    /**
+     * Byte ranges that can hold rows in [fromMs, toMs] inside the box,
+     * oldest first. Rows in a range still need checking against the query;
+     * {@link #forEach} does that.
+     */
+    public List<Range> query(long fromMs, long toMs, double minLat, double minLon, double maxLat, double maxLon)
+            throws IOException {
+        List<Range> ranges = new ArrayList<>();
+        for (File day : days(false)) {
+            if (!dayMayOverlap(day.getName(), fromMs, toMs)) {
+                continue;
+            }
+            Map<String, HourSummary> summaries = read(day);
+            for (File file : files(day, DATA_FILE, false)) {
+                HourSummary summary = summaries.get(file.getName());
+                if (summary == null) {
+                    ranges.add(new Range(file, 0, -1));
+                    continue;
+                }
+                boolean complete = summary.indexedBytes >= dataLength(file);
+                if (complete && !(summary.overlapsTime(fromMs, toMs)
+                        && summary.overlapsArea(minLat, minLon, maxLat, maxLon))) {
+                    continue;
+                }
+                if (!complete && summary.rows > 0 && summary.lastTimestamp < fromMs) {
+                    // Only the unindexed tail can match
+                    ranges.add(new Range(file, summary.indexedBytes, -1));
+                    continue;
+                }
+                long end = complete ? summary.endOffset(toMs) : -1;
+                ranges.add(new Range(file, summary.startOffset(fromMs), end));
+            }
+        }
+        return ranges;
+    }
+
+    // Visits the rows in [fromMs, toMs] inside the box, reading only what the index cannot rule out
+    public int forEach(long fromMs, long toMs, double minLat, double minLon, double maxLat, double maxLon,
+                       RowVisitor visitor) throws IOException {
+        int[] matched = {0};
+        for (Range range : query(fromMs, toMs, minLat, minLon, maxLat, maxLon)) {
+            read(range, (timestamp, latitude, longitude, speed) -> {
+                if (timestamp >= fromMs && timestamp <= toMs && latitude >= minLat && latitude <= maxLat
+                        && longitude >= minLon && longitude <= maxLon) {
+                    matched[0]++;
+                    visitor.visit(timestamp, latitude, longitude, speed);
+                }
+            });
+        }
+        return matched[0];
+    }
+
+    // Every row of the range; returns how many were read
+    public static int read(Range range, RowVisitor visitor) throws IOException {
+        if (range.file.getName().endsWith(".bin")) {
+            int recordSize = recordSize(range.file);
+            int from = (int) Math.max(0, (range.start - BinarySampleLog.HEADER_SIZE) / recordSize);
+            int to = range.end < 0 ? Integer.MAX_VALUE : (int) ((range.end - BinarySampleLog.HEADER_SIZE) / recordSize);
+            return BinaryLogConverter.forEach(range.file, from, to,
+                    s -> visitor.visit(s.timestamp, s.latitude, s.longitude, s.speed));
+        }
+        if (range.file.getName().endsWith(".gz")) {
+            return readCsv(range.file, 0, Long.MAX_VALUE,
+                    (timestamp, latitude, longitude, speed, offset, end) -> visitor.visit(timestamp, latitude, longitude, speed));
+        }
+        return readCsv(range.file, range.start, range.end < 0 ? Long.MAX_VALUE : range.end,
+                (timestamp, latitude, longitude, speed, offset, end) -> visitor.visit(timestamp, latitude, longitude, speed));
+    }
+
+    private interface CsvRowVisitor {
+        void visit(long timestamp, double latitude, double longitude, float speed, long offset, long end)
+                throws IOException;
+    }
+
+    // Only the leading timestamp, latitude, longitude and speed columns are parsed
+    private static int readCsv(File file, long start, long end, CsvRowVisitor visitor) throws IOException {
+        int rows = 0;
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            in.seek(start);
+            InputStream stream = Channels.newInputStream(in.getChannel());
+            if (file.getName().endsWith(".gz")) {
+                // Offsets count uncompressed bytes; segments are only ever read from the start
+                stream = new GZIPInputStream(stream, 64 * 1024);
+            }
+            BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.US_ASCII),
+                    64 * 1024);
+            long offset = start;
+            String line;
+            while (offset < end && (line = reader.readLine()) != null) {
+                long lineStart = offset;
+                offset += line.length() + 1;
+                int c1 = line.indexOf(',');
+                int c2 = c1 < 0 ? -1 : line.indexOf(',', c1 + 1);
+                int c3 = c2 < 0 ? -1 : line.indexOf(',', c2 + 1);
+                int c4 = c3 < 0 ? -1 : line.indexOf(',', c3 + 1);
+                if (c4 < 0) {
+                    continue;
+                }
+                long timestamp;
+                double latitude;
+                double longitude;
+                float speed;
+                try {
+                    timestamp = Long.parseLong(line.substring(0, c1));
+                    latitude = Double.parseDouble(line.substring(c1 + 1, c2));
+                    longitude = Double.parseDouble(line.substring(c2 + 1, c3));
+                    speed = Float.parseFloat(line.substring(c3 + 1, c4));
+                } catch (NumberFormatException e) {
+                    // Header row or a line cut short by a crash
+                    continue;
+                }
+                rows++;
+                visitor.visit(timestamp, latitude, longitude, speed, lineStart, offset);
+            }
+        }
+        return rows;
+    }
+
+    private void open(File hourFile, long offset) throws IOException {
+        currentFile = hourFile;
+        currentDay = read(hourFile.getParentFile());
+        current = currentDay.get(hourFile.getName());
+        // No entry yet, or one counting buffered rows that a crash never wrote out
+        if (current == null || current.indexedBytes > offset) {
+            current = new HourSummary(hourFile.getName());
+        }
+        // Rows written since the entry was last saved, or before the index existed
+        if (current.indexedBytes < offset) {
+            summarize(hourFile, current, current.indexedBytes, offset);
+        }
+        savedCheckpoints = current.checkpointTimes.size();
+    }
+
+    private static void summarize(File file, HourSummary summary, long start, long end) throws IOException {
+        if (file.getName().endsWith(".bin")) {
+            int recordSize = recordSize(file);
+            int from = (int) Math.max(0, (start - BinarySampleLog.HEADER_SIZE) / recordSize);
+            int to = (int) ((end - BinarySampleLog.HEADER_SIZE) / recordSize);
+            int[] record = {from};
+            BinaryLogConverter.forEach(file, from, to, s -> {
+                long offset = BinarySampleLog.HEADER_SIZE + (long) record[0]++ * recordSize;
+                summary.add(s.timestamp, s.latitude, s.longitude, offset, offset + recordSize);
+            });
+            // Covers the header of an empty segment too
+            summary.indexedBytes = Math.max(summary.indexedBytes, end);
+            return;
+        }
+        if (file.getName().endsWith(".gz")) {
+            readCsv(file, 0, Long.MAX_VALUE, (timestamp, latitude, longitude, speed, offset, rowEnd) ->
+                    summary.add(timestamp, latitude, longitude, 0, 0));
+        } else {
+            readCsv(file, start, end, (timestamp, latitude, longitude, speed, offset, rowEnd) ->
+                    summary.add(timestamp, latitude, longitude, offset, rowEnd));
+        }
+        summary.indexedBytes = Math.max(summary.indexedBytes, end);
+    }
+
+    // Bytes of committed rows: the file length for CSV, the header count for binary segments
+    private static long dataLength(File file) throws IOException {
+        if (!file.getName().endsWith(".bin")) {
+            return file.length();
+        }
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            if (in.length() < BinarySampleLog.HEADER_SIZE) {
+                return 0;
+            }
+            byte[] header = new byte[BinarySampleLog.HEADER_SIZE];
+            in.readFully(header);
+            ByteBuffer buffer = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+            return BinarySampleLog.HEADER_SIZE
+                    + (long) buffer.getInt(BinarySampleLog.OFFSET_COUNT) * buffer.getShort(BinarySampleLog.OFFSET_RECORD_SIZE);
+        }
+    }
+
+    // Older segments use a shorter record
+    private static int recordSize(File file) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            if (in.length() < BinarySampleLog.HEADER_SIZE) {
+                return BinarySampleLog.RECORD_SIZE;
+            }
+            byte[] header = new byte[8];
+            in.readFully(header);
+            int size = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN).getShort(BinarySampleLog.OFFSET_RECORD_SIZE);
+            return size > 0 ? size : BinarySampleLog.RECORD_SIZE;
+        }
+    }
+
+    // The yyyy-MM-dd directories under gps_data
+    List<File> days(boolean newestFirst) {
+        File[] days = dataDir.listFiles(f -> f.isDirectory() && f.getName().matches("\\d{4}-\\d{2}-\\d{2}"));
+        if (days == null) {
+            return Collections.emptyList();
+        }
+        Arrays.sort(days, newestFirst ? Collections.reverseOrder() : null);
+        return Arrays.asList(days);
+    }
+
+    static List<File> hourFiles(File day, boolean newestFirst) {
+        return files(day, HOUR_FILE, newestFirst);
+    }
+
+    private static List<File> files(File day, Pattern pattern, boolean newestFirst) {
+        File[] files = day.listFiles((dir, name) -> pattern.matcher(name).matches());
+        if (files == null) {
+            return Collections.emptyList();
+        }
+        Arrays.sort(files, newestFirst ? Collections.reverseOrder() : null);
+        return Arrays.asList(files);
+    }
+
+    // Day directories are named in local time, like HourBucket; 25 hours covers a DST change
+    private static boolean dayMayOverlap(String day, long fromMs, long toMs) {
+        try {
+            long dayStart = new SimpleDateFormat("yyyy-MM-dd", Locale.getDefault()).parse(day).getTime();
+            return dayStart <= toMs && dayStart + 25 * 3600_000L > fromMs;
+        } catch (ParseException e) {
+            return true;
+        }
+    }
+
+    private static Map<String, HourSummary> read(File day) throws IOException {
+        Map<String, HourSummary> summaries = new LinkedHashMap<>();
+        File file = new File(day, INDEX_FILE);
+        if (!file.exists()) {
+            return summaries;
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                HourSummary summary = HourSummary.parse(line);
+                if (summary != null) {
+                    summaries.put(summary.name, summary);
+                }
+            }
+        }
+        return summaries;
+    }
+
+    // Write to a temp file and rename, so a crash never leaves half an index
+    private static void write(File day, Map<String, HourSummary> summaries) throws IOException {
+        File file = new File(day, INDEX_FILE);
+        File temp = new File(day, INDEX_FILE + ".tmp");
+        try (Writer writer = new BufferedWriter(new FileWriter(temp))) {
+            for (HourSummary summary : summaries.values()) {
+                writer.write(summary.toLine());
+                writer.write('\n');
+            }
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Failed to replace " + file);
+        }
+    }
+}
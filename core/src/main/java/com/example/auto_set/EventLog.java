@@ -0,0 +1,48 @@
+package com.example.auto_set;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Appends {@link TripSegmenter} events to gps_data/yyyy-MM-dd/{@value #FILE_NAME},
+ * next to the hour files, under the day the event started. A day of stays
+ * and trips is a few dozen rows instead of tens of thousands of fixes.
+ */
+public class EventLog implements TripSegmenter.Listener {
+
+    public static final String FILE_NAME = "events.csv";
+    public static final String HEADER = "type,start(ms),end(ms),duration(ms),start_latitude(deg),start_longitude(deg),end_latitude(deg),end_longitude(deg),place,mode,distance(m)\n";
+
+    private final File dataDir;
+    private final SimpleDateFormat dayFormat = new SimpleDateFormat("yyyy-MM-dd", Locale.getDefault());
+
+    public EventLog(File dataDir) {
+        this.dataDir = dataDir;
+    }
+
+    public File fileFor(long timestampMs) {
+        return new File(new File(dataDir, dayFormat.format(new Date(timestampMs))), FILE_NAME);
+    }
+
+    @Override
+    public void onEvent(TripSegmenter.Event event) throws IOException {
+        File file = fileFor(event.start);
+        File parentDir = file.getParentFile();
+        if (!parentDir.exists() && !parentDir.mkdirs()) {
+            throw new IOException("Failed to create directory: " + parentDir.getAbsolutePath());
+        }
+        boolean isNewFile = !file.exists();
+        try (OutputStream out = new FileOutputStream(file, true)) {
+            if (isNewFile) {
+                out.write(HEADER.getBytes(StandardCharsets.US_ASCII));
+            }
+            out.write(event.toCsv().getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.auto_set;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+/**
+ * Streams bytes [start, end) of a file, optionally preceded by a prefix such
+ * as the CSV header line, without loading the file into memory.
+ */
+public class FileRangeRequestBody extends RequestBody {
+
+    private final MediaType contentType;
+    private final File file;
+    private final long start;
+    private final long end;
+    private final byte[] prefix;
+
+    public FileRangeRequestBody(MediaType contentType, File file, long start, long end, byte[] prefix) {
+        this.contentType = contentType;
+        this.file = file;
+        this.start = start;
+        this.end = end;
+        this.prefix = prefix;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return contentType;
+    }
+
+    @Override
+    public long contentLength() {
+        return prefix.length + (end - start);
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        sink.write(prefix);
+        byte[] buffer = new byte[64 * 1024];
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            in.seek(start);
+            long remaining = end - start;
+            while (remaining > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    throw new IOException("Unexpected end of " + file);
+                }
+                sink.write(buffer, 0, read);
+                remaining -= read;
+            }
+        }
+    }
+
+    // The first line of file including its newline, or an empty array
+    public static byte[] readFirstLine(File file) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            byte[] buffer = new byte[4096];
+            int length = in.read(buffer);
+            for (int i = 0; i < length; i++) {
+                if (buffer[i] == '\n') {
+                    byte[] line = new byte[i + 1];
+                    System.arraycopy(buffer, 0, line, 0, i + 1);
+                    return line;
+                }
+            }
+            return new byte[0];
+        }
+    }
+}
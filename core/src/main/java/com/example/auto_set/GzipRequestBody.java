@@ -0,0 +1,57 @@
+package com.example.auto_set;
+
+import java.io.IOException;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ForwardingSink;
+import okio.GzipSink;
+import okio.Okio;
+import okio.Sink;
+
+/**
+ * Gzip-compresses another body while it is written. The compressed length
+ * is not known up front, so requests containing it are sent chunked.
+ */
+public class GzipRequestBody extends RequestBody {
+
+    public static final MediaType GZIP = MediaType.parse("application/gzip");
+
+    private final RequestBody delegate;
+
+    public GzipRequestBody(RequestBody delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return GZIP;
+    }
+
+    @Override
+    public long contentLength() {
+        return -1;
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        // Closing the gzip sink writes its trailer; the multipart body still owns sink
+        Sink body = new ForwardingSink(sink) {
+            @Override
+            public void write(Buffer source, long byteCount) throws IOException {
+                super.write(source, byteCount);
+                CollectionMetrics.get().uploadCompressedBytes.add(byteCount);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+        try (BufferedSink gzip = Okio.buffer(new GzipSink(body))) {
+            delegate.writeTo(gzip);
+        }
+    }
+}
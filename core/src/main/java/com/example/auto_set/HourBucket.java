@@ -0,0 +1,51 @@
+package com.example.auto_set;
+
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Tracks which gps_data/yyyy-MM-dd/HH hour a timestamp falls in, so the
+ * writers only rebuild the path when the hour changes.
+ */
+class HourBucket {
+
+    private final SimpleDateFormat pathFormat = new SimpleDateFormat("yyyy-MM-dd/HH", Locale.getDefault());
+    private final Calendar calendar = Calendar.getInstance();
+
+    private long start = Long.MAX_VALUE;
+    private long end = Long.MIN_VALUE;
+    private String relativePath;
+
+    boolean contains(long timestampMs) {
+        return timestampMs >= start && timestampMs < end;
+    }
+
+    // Moves to the hour containing timestampMs and returns its "yyyy-MM-dd/HH" path
+    String roll(long timestampMs) {
+        calendar.setTimeInMillis(timestampMs);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        start = calendar.getTimeInMillis();
+        calendar.add(Calendar.HOUR_OF_DAY, 1);
+        end = calendar.getTimeInMillis();
+        relativePath = pathFormat.format(new Date(start));
+        return relativePath;
+    }
+
+    void reset() {
+        start = Long.MAX_VALUE;
+        end = Long.MIN_VALUE;
+        relativePath = null;
+    }
+
+    long getStart() {
+        return start;
+    }
+
+    String getRelativePath() {
+        return relativePath;
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.auto_set;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Index entry for one gps_data hour file: row count, time range, bounding
+ * box, the coarse grid cells it touches and a byte offset every
+ * {@link #CHECKPOINT_MS}, so a reader can seek close to a time instead of
+ * parsing from the start. {@link #indexedBytes} is how far into the file the
+ * entry is complete; anything after that is not summarized yet.
+ */
+public class HourSummary {
+
+    public static final long CHECKPOINT_MS = 5 * 60 * 1000;
+    // About 1 km of latitude
+    public static final double GRID_DEGREES = 0.01;
+
+    public final String name;
+    public int rows;
+    public long firstTimestamp = Long.MAX_VALUE;
+    public long lastTimestamp = Long.MIN_VALUE;
+    public double minLatitude = Double.MAX_VALUE;
+    public double minLongitude = Double.MAX_VALUE;
+    public double maxLatitude = -Double.MAX_VALUE;
+    public double maxLongitude = -Double.MAX_VALUE;
+    public long indexedBytes;
+
+    // Grid cells as row << 32 | column
+    final TreeSet<Long> cells = new TreeSet<>();
+    // Parallel lists: first timestamp at or after each checkpoint and its row offset
+    final List<Long> checkpointTimes = new ArrayList<>();
+    final List<Long> checkpointOffsets = new ArrayList<>();
+    // Consecutive rows are nearly always in the same cell; skips boxing a key per row
+    private long lastCell = Long.MIN_VALUE;
+
+    public HourSummary(String name) {
+        this.name = name;
+    }
+
+    // offset and end are the byte range the row takes in the file
+    public void add(long timestamp, double latitude, double longitude, long offset, long end) {
+        if (checkpointTimes.isEmpty()
+                || timestamp >= checkpointTimes.get(checkpointTimes.size() - 1) + CHECKPOINT_MS) {
+            checkpointTimes.add(timestamp);
+            checkpointOffsets.add(offset);
+        }
+        rows++;
+        firstTimestamp = Math.min(firstTimestamp, timestamp);
+        lastTimestamp = Math.max(lastTimestamp, timestamp);
+        indexedBytes = Math.max(indexedBytes, end);
+        if (latitude == 0 && longitude == 0) {
+            // No fix yet; keeps the box from stretching to 0,0
+            return;
+        }
+        minLatitude = Math.min(minLatitude, latitude);
+        minLongitude = Math.min(minLongitude, longitude);
+        maxLatitude = Math.max(maxLatitude, latitude);
+        maxLongitude = Math.max(maxLongitude, longitude);
+        long cell = cell(latitude, longitude);
+        if (cell != lastCell) {
+            cells.add(cell);
+            lastCell = cell;
+        }
+    }
+
+    public boolean overlapsTime(long fromMs, long toMs) {
+        return rows > 0 && firstTimestamp <= toMs && lastTimestamp >= fromMs;
+    }
+
+    public boolean overlapsArea(double minLat, double minLon, double maxLat, double maxLon) {
+        if (rows == 0 || minLatitude > maxLat || maxLatitude < minLat
+                || minLongitude > maxLon || maxLongitude < minLon) {
+            return false;
+        }
+        for (long cell : cells) {
+            double cellLat = (int) (cell >> 32) * GRID_DEGREES;
+            double cellLon = (int) cell * GRID_DEGREES;
+            if (cellLat <= maxLat && cellLat + GRID_DEGREES >= minLat
+                    && cellLon <= maxLon && cellLon + GRID_DEGREES >= minLon) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Offset of the last checkpoint at or before fromMs, so no row at or after fromMs is skipped
+    public long startOffset(long fromMs) {
+        long offset = checkpointOffsets.isEmpty() ? 0 : checkpointOffsets.get(0);
+        for (int i = 0; i < checkpointTimes.size() && checkpointTimes.get(i) <= fromMs; i++) {
+            offset = checkpointOffsets.get(i);
+        }
+        return offset;
+    }
+
+    // Offset of the first checkpoint after toMs, or -1 to read to the end of the file
+    public long endOffset(long toMs) {
+        for (int i = 0; i < checkpointTimes.size(); i++) {
+            if (checkpointTimes.get(i) > toMs) {
+                return checkpointOffsets.get(i);
+            }
+        }
+        return -1;
+    }
+
+    public int getCellCount() {
+        return cells.size();
+    }
+
+    // name,rows,first,last,minLat,minLon,maxLat,maxLon,indexedBytes,row:col;...,time:offset;...
+    String toLine() {
+        StringBuilder line = new StringBuilder(name).append(',').append(rows)
+                .append(',').append(firstTimestamp).append(',').append(lastTimestamp)
+                .append(',').append(minLatitude).append(',').append(minLongitude)
+                .append(',').append(maxLatitude).append(',').append(maxLongitude)
+                .append(',').append(indexedBytes).append(',');
+        String separator = "";
+        for (long cell : cells) {
+            line.append(separator).append((int) (cell >> 32)).append(':').append((int) cell);
+            separator = ";";
+        }
+        line.append(',');
+        for (int i = 0; i < checkpointTimes.size(); i++) {
+            line.append(i == 0 ? "" : ";").append(checkpointTimes.get(i)).append(':').append(checkpointOffsets.get(i));
+        }
+        return line.toString();
+    }
+
+    // Null for a line that does not parse
+    static HourSummary parse(String line) {
+        String[] parts = line.split(",", -1);
+        if (parts.length != 11) {
+            return null;
+        }
+        try {
+            HourSummary summary = new HourSummary(parts[0]);
+            summary.rows = Integer.parseInt(parts[1]);
+            summary.firstTimestamp = Long.parseLong(parts[2]);
+            summary.lastTimestamp = Long.parseLong(parts[3]);
+            summary.minLatitude = Double.parseDouble(parts[4]);
+            summary.minLongitude = Double.parseDouble(parts[5]);
+            summary.maxLatitude = Double.parseDouble(parts[6]);
+            summary.maxLongitude = Double.parseDouble(parts[7]);
+            summary.indexedBytes = Long.parseLong(parts[8]);
+            for (String cell : split(parts[9])) {
+                int colon = cell.indexOf(':');
+                summary.cells.add(key(Integer.parseInt(cell.substring(0, colon)),
+                        Integer.parseInt(cell.substring(colon + 1))));
+            }
+            for (String checkpoint : split(parts[10])) {
+                int colon = checkpoint.indexOf(':');
+                summary.checkpointTimes.add(Long.parseLong(checkpoint.substring(0, colon)));
+                summary.checkpointOffsets.add(Long.parseLong(checkpoint.substring(colon + 1)));
+            }
+            return summary;
+        } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    private static String[] split(String list) {
+        return list.isEmpty() ? new String[0] : list.split(";");
+    }
+
+    static long cell(double latitude, double longitude) {
+        return key((int) Math.floor(latitude / GRID_DEGREES), (int) Math.floor(longitude / GRID_DEGREES));
+    }
+
+    private static long key(int row, int column) {
+        return ((long) row << 32) | (column & 0xffffffffL);
+    }
+}
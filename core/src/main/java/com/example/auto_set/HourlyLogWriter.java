@@ -0,0 +1,198 @@
+package com.example.auto_set;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Keeps the current hour's gps_data file open and batches rows in memory.
+ * Rows are written out when the buffer fills, when the flush interval has
+ * passed, or when the hour rolls over. Not thread safe; use from one thread.
+ */
+public class HourlyLogWriter implements Closeable {
+
+    public enum Durability {
+        // Rows reach the OS only on size, time or hour rollover
+        BUFFERED,
+        // Every row is handed to the OS right away (same as opening the file per row)
+        FLUSH_EACH_ROW,
+        // Like BUFFERED, but each flush is also synced to storage
+        SYNC
+    }
+
+    public static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+    public static final long DEFAULT_FLUSH_INTERVAL_MS = 5000;
+
+    private final File rootDir;
+    private final String extension;
+    private final byte[] header;
+    private final byte[] buffer;
+    private final long flushIntervalMs;
+    private final Durability durability;
+
+    private final HourBucket hour = new HourBucket();
+
+    private FileOutputStream out;
+    private File currentFile;
+    private int count;
+    private long lastFlushTime;
+    // File offset the next row starts at, buffered rows included
+    private long position;
+
+    public HourlyLogWriter(File rootDir, String header) {
+        this(rootDir, ".csv", header, DEFAULT_BUFFER_SIZE, DEFAULT_FLUSH_INTERVAL_MS, Durability.BUFFERED);
+    }
+
+    public HourlyLogWriter(File rootDir, String extension, String header, int bufferSize,
+                           long flushIntervalMs, Durability durability) {
+        this.rootDir = rootDir;
+        this.extension = extension;
+        this.header = toAscii(header);
+        this.buffer = new byte[Math.max(bufferSize, 256)];
+        this.flushIntervalMs = flushIntervalMs;
+        this.durability = durability;
+    }
+
+    // Returns the offset of the row in the current file
+    public long append(long timestampMs, CharSequence row) throws IOException {
+        int length = row.length();
+        long offset = prepare(timestampMs, length);
+        if (length > buffer.length) {
+            out.write(toAscii(row.toString()));
+        } else {
+            for (int i = 0; i < length; i++) {
+                buffer[count++] = (byte) row.charAt(i);
+            }
+        }
+        position += length;
+        afterAppend(timestampMs);
+        return offset;
+    }
+
+    public long append(long timestampMs, byte[] row, int offset, int length) throws IOException {
+        long rowOffset = prepare(timestampMs, length);
+        if (length > buffer.length) {
+            out.write(row, offset, length);
+        } else {
+            System.arraycopy(row, offset, buffer, count, length);
+            count += length;
+        }
+        position += length;
+        afterAppend(timestampMs);
+        return rowOffset;
+    }
+
+    public void flushIfDue(long nowMs) throws IOException {
+        if (count > 0 && nowMs - lastFlushTime >= flushIntervalMs) {
+            flush(nowMs);
+        }
+    }
+
+    public void flush() throws IOException {
+        flush(System.currentTimeMillis());
+    }
+
+    public File getCurrentFile() {
+        return currentFile;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (out != null) {
+                flush();
+            }
+        } finally {
+            closeStream();
+        }
+    }
+
+    // Opens the hour's file and makes room for length bytes; returns the row's offset
+    private long prepare(long timestampMs, int length) throws IOException {
+        rollIfNeeded(timestampMs);
+        if (count + length > buffer.length) {
+            writeBuffer();
+            // A row too big for the buffer goes straight to the stream, which must be open
+            rollIfNeeded(timestampMs);
+        }
+        return position;
+    }
+
+    private void afterAppend(long timestampMs) throws IOException {
+        if (durability == Durability.FLUSH_EACH_ROW || timestampMs - lastFlushTime >= flushIntervalMs) {
+            flush(timestampMs);
+        }
+    }
+
+    private void flush(long nowMs) throws IOException {
+        long start = System.nanoTime();
+        boolean pending = count > 0;
+        writeBuffer();
+        if (durability == Durability.SYNC && out != null) {
+            out.getFD().sync();
+        }
+        lastFlushTime = nowMs;
+        if (pending) {
+            CollectionMetrics.get().flushLatency.recordNanos(System.nanoTime() - start);
+        }
+    }
+
+    private void writeBuffer() throws IOException {
+        if (count == 0 || out == null) {
+            return;
+        }
+        try {
+            out.write(buffer, 0, count);
+        } catch (IOException e) {
+            // Reopen on the next row instead of writing into a broken stream
+            closeStream();
+            throw e;
+        } finally {
+            count = 0;
+        }
+    }
+
+    private void rollIfNeeded(long timestampMs) throws IOException {
+        if (out != null && hour.contains(timestampMs)) {
+            return;
+        }
+        if (out != null) {
+            flush(timestampMs);
+            closeStream();
+        }
+
+        File file = new File(rootDir, hour.roll(timestampMs) + extension);
+        File parentDir = file.getParentFile();
+        if (parentDir != null && !parentDir.exists() && !parentDir.mkdirs()) {
+            throw new IOException("Failed to create directory: " + parentDir.getAbsolutePath());
+        }
+
+        boolean isNewFile = !file.exists() || file.length() == 0;
+        out = new FileOutputStream(file, true);
+        currentFile = file;
+        lastFlushTime = timestampMs;
+        position = file.length();
+        if (isNewFile && header.length > 0) {
+            out.write(header);
+            position += header.length;
+        }
+    }
+
+    private void closeStream() throws IOException {
+        FileOutputStream stream = out;
+        out = null;
+        hour.reset();
+        if (stream != null) {
+            stream.close();
+        }
+    }
+
+    private static byte[] toAscii(String text) {
+        byte[] bytes = new byte[text.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) text.charAt(i);
+        }
+        return bytes;
+    }
+}
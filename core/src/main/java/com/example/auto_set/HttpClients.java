@@ -0,0 +1,73 @@
+package com.example.auto_set;
+
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+
+/**
+ * The app's HTTP clients. They share one connection pool, so keep-alive
+ * connections to the server are reused across calls, but each has its own
+ * dispatcher: bulk transfers queue behind each other and can never take the
+ * slots predict calls need.
+ */
+public final class HttpClients {
+
+    private static final int MAX_IDLE_CONNECTIONS = 5;
+    private static final long KEEP_ALIVE_MINUTES = 5;
+
+    private static final int PREDICT_MAX_REQUESTS = 4;
+    private static final int PREDICT_MAX_REQUESTS_PER_HOST = 2;
+
+    private static OkHttpClient base;
+    private static OkHttpClient predict;
+    private static OkHttpClient bulk;
+
+    private HttpClients() {
+    }
+
+    // Short timeouts for the latency sensitive /predict_settings calls
+    public static synchronized OkHttpClient predict() {
+        if (predict == null) {
+            Dispatcher dispatcher = new Dispatcher();
+            dispatcher.setMaxRequests(PREDICT_MAX_REQUESTS);
+            dispatcher.setMaxRequestsPerHost(PREDICT_MAX_REQUESTS_PER_HOST);
+            predict = base().newBuilder()
+                    .dispatcher(dispatcher)
+                    .connectTimeout(3, TimeUnit.SECONDS)
+                    .readTimeout(5, TimeUnit.SECONDS)
+                    .writeTimeout(5, TimeUnit.SECONDS)
+                    .build();
+        }
+        return predict;
+    }
+
+    // Uploads, processing and model downloads, at most UploadPipeline.MAX_IN_FLIGHT at a time
+    public static synchronized OkHttpClient bulk() {
+        if (bulk == null) {
+            Dispatcher dispatcher = new Dispatcher();
+            dispatcher.setMaxRequests(UploadPipeline.MAX_IN_FLIGHT);
+            dispatcher.setMaxRequestsPerHost(UploadPipeline.MAX_IN_FLIGHT);
+            bulk = base().newBuilder()
+                    .dispatcher(dispatcher)
+                    .connectTimeout(15, TimeUnit.SECONDS)
+                    .readTimeout(60, TimeUnit.SECONDS)
+                    .writeTimeout(60, TimeUnit.SECONDS)
+                    .build();
+        }
+        return bulk;
+    }
+
+    private static OkHttpClient base() {
+        if (base == null) {
+            base = new OkHttpClient.Builder()
+                    .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+                    .connectTimeout(10, TimeUnit.SECONDS)
+                    .readTimeout(20, TimeUnit.SECONDS)
+                    .writeTimeout(20, TimeUnit.SECONDS)
+                    .build();
+        }
+        return base;
+    }
+}
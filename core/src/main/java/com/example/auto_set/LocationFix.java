@@ -0,0 +1,39 @@
+package com.example.auto_set;
+
+/**
+ * A location fix as {@link CollectionPipeline} sees it: the fields of an
+ * android.location.Location it uses, copied out so the pipeline runs without
+ * Android.
+ */
+public class LocationFix {
+    public final int provider;
+    // Monotonic time of the fix, like Location.getElapsedRealtimeNanos()
+    public final long elapsedRealtimeNanos;
+    public final double latitude;
+    public final double longitude;
+    public final double altitude;
+    public final float speed;
+    // Horizontal accuracy in meters
+    public final float accuracy;
+    public final boolean hasAltitude;
+    public final boolean hasSpeed;
+    public final boolean hasAccuracy;
+
+    public LocationFix(int provider, long elapsedRealtimeNanos, double latitude, double longitude, double altitude,
+                       float speed, float accuracy, boolean hasAltitude, boolean hasSpeed, boolean hasAccuracy) {
+        this.provider = provider;
+        this.elapsedRealtimeNanos = elapsedRealtimeNanos;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.altitude = altitude;
+        this.speed = speed;
+        this.accuracy = accuracy;
+        this.hasAltitude = hasAltitude;
+        this.hasSpeed = hasSpeed;
+        this.hasAccuracy = hasAccuracy;
+    }
+
+    public long getElapsedRealtimeMs() {
+        return elapsedRealtimeNanos / 1_000_000L;
+    }
+}
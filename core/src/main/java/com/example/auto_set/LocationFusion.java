@@ -0,0 +1,145 @@
+package com.example.auto_set;
+
+/**
+ * Merges fixes from several providers into one fix per tick. Fixes are
+ * grouped by the tick their time falls in; within a tick the most accurate
+ * one wins, and anything at or before the last emitted time is dropped as a
+ * duplicate. A tick is emitted when a fix for a later tick arrives or when
+ * {@link #flush(long)} is called after the tick has closed.
+ *
+ * Times should come from one monotonic clock (elapsed realtime). Not thread
+ * safe; call from the location thread.
+ */
+public class LocationFusion<T> {
+
+    public interface Listener<T> {
+        void onFix(T fix, int provider);
+    }
+
+    // How long to wait after a tick closes for late fixes from slower providers
+    public static final long DEFAULT_GRACE_MS = 100;
+
+    private final Listener<T> listener;
+    private final long graceMs;
+    private long tickMs;
+
+    private T pending;
+    private int pendingProvider;
+    private long pendingTime;
+    private float pendingAccuracy;
+    private long pendingTick;
+    private long lastEmittedTime = Long.MIN_VALUE;
+    private long lastEmittedTick = Long.MIN_VALUE;
+
+    private long received;
+    private long emitted;
+    private long duplicates;
+    private long superseded;
+
+    public LocationFusion(long tickMs, Listener<T> listener) {
+        this(tickMs, DEFAULT_GRACE_MS, listener);
+    }
+
+    public LocationFusion(long tickMs, long graceMs, Listener<T> listener) {
+        this.tickMs = tickMs;
+        this.graceMs = graceMs;
+        this.listener = listener;
+    }
+
+    // accuracy is the horizontal accuracy in meters; 0 or less means unknown
+    public void offer(T fix, int provider, long timeMs, float accuracy) {
+        received++;
+        if (timeMs <= lastEmittedTime) {
+            duplicates++;
+            return;
+        }
+
+        long tick = Math.floorDiv(timeMs, tickMs);
+        if (tick <= lastEmittedTick) {
+            // Its tick already produced a fix
+            superseded++;
+            return;
+        }
+        if (pending != null) {
+            if (tick > pendingTick) {
+                emitPending();
+            } else if (timeMs == pendingTime && accuracy == pendingAccuracy) {
+                duplicates++;
+                return;
+            } else {
+                superseded++;
+                if (!isBetter(accuracy, timeMs)) {
+                    return;
+                }
+                tick = pendingTick;
+            }
+        }
+
+        pending = fix;
+        pendingProvider = provider;
+        pendingTime = timeMs;
+        pendingAccuracy = accuracy;
+        pendingTick = tick;
+    }
+
+    // Emits the pending fix if its tick closed more than the grace period ago
+    public void flush(long nowMs) {
+        if (pending != null && nowMs >= getDeadline()) {
+            emitPending();
+        }
+    }
+
+    // Time at which flush() will emit the pending fix, or Long.MAX_VALUE if none is pending
+    public long getDeadline() {
+        return pending == null ? Long.MAX_VALUE : (pendingTick + 1) * tickMs + graceMs;
+    }
+
+    public void setTickMs(long tickMs) {
+        if (pending != null) {
+            emitPending();
+        }
+        this.tickMs = tickMs;
+        lastEmittedTick = Math.floorDiv(lastEmittedTime, tickMs);
+    }
+
+    public long getTickMs() {
+        return tickMs;
+    }
+
+    public long getReceived() {
+        return received;
+    }
+
+    public long getEmitted() {
+        return emitted;
+    }
+
+    public long getDuplicates() {
+        return duplicates;
+    }
+
+    public long getSuperseded() {
+        return superseded;
+    }
+
+    private boolean isBetter(float accuracy, long timeMs) {
+        boolean known = accuracy > 0;
+        boolean pendingKnown = pendingAccuracy > 0;
+        if (known != pendingKnown) {
+            return known;
+        }
+        if (!known || accuracy == pendingAccuracy) {
+            return timeMs > pendingTime;
+        }
+        return accuracy < pendingAccuracy;
+    }
+
+    private void emitPending() {
+        T fix = pending;
+        pending = null;
+        lastEmittedTime = pendingTime;
+        lastEmittedTick = pendingTick;
+        emitted++;
+        listener.onFix(fix, pendingProvider);
+    }
+}
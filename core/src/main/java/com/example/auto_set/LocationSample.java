@@ -0,0 +1,74 @@
+package com.example.auto_set;
+
+/**
+ * One row of the gps_data log. Instances are reused by the writers, so copy
+ * the fields out if you need to keep them.
+ */
+public class LocationSample {
+
+    public static final int PROVIDER_UNKNOWN = 0;
+    public static final int PROVIDER_GPS = 1;
+    public static final int PROVIDER_NETWORK = 2;
+    public static final int PROVIDER_FUSED = 3;
+
+    private static final String[] PROVIDER_NAMES = {"unknown", "gps", "network", "fused"};
+
+    public long timestamp;
+    public double latitude;
+    public double longitude;
+    public float speed;
+    public float gravityX;
+    public float gravityY;
+    public float gravityZ;
+    public float linearAccelX;
+    public float linearAccelY;
+    public float linearAccelZ;
+    public double altitude;
+    public boolean wifiEnabled;
+    public boolean bluetoothEnabled;
+    public boolean silentMode;
+    public boolean mobileDataEnabled;
+    // Linear acceleration magnitude since the previous row
+    public float linearAccelMean;
+    public float linearAccelVariance;
+    public float linearAccelPeak;
+    public int sensorSamples;
+    // Which location stream the fix came from
+    public int provider;
+
+    public void copyFrom(LocationSample other) {
+        timestamp = other.timestamp;
+        latitude = other.latitude;
+        longitude = other.longitude;
+        speed = other.speed;
+        gravityX = other.gravityX;
+        gravityY = other.gravityY;
+        gravityZ = other.gravityZ;
+        linearAccelX = other.linearAccelX;
+        linearAccelY = other.linearAccelY;
+        linearAccelZ = other.linearAccelZ;
+        altitude = other.altitude;
+        wifiEnabled = other.wifiEnabled;
+        bluetoothEnabled = other.bluetoothEnabled;
+        silentMode = other.silentMode;
+        mobileDataEnabled = other.mobileDataEnabled;
+        linearAccelMean = other.linearAccelMean;
+        linearAccelVariance = other.linearAccelVariance;
+        linearAccelPeak = other.linearAccelPeak;
+        sensorSamples = other.sensorSamples;
+        provider = other.provider;
+    }
+
+    public static String providerName(int provider) {
+        return provider > 0 && provider < PROVIDER_NAMES.length ? PROVIDER_NAMES[provider] : PROVIDER_NAMES[0];
+    }
+
+    public static int providerCode(String name) {
+        for (int i = 1; i < PROVIDER_NAMES.length; i++) {
+            if (PROVIDER_NAMES[i].equals(name)) {
+                return i;
+            }
+        }
+        return PROVIDER_UNKNOWN;
+    }
+}
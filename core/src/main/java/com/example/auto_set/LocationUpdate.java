@@ -0,0 +1,23 @@
+package com.example.auto_set;
+
+/**
+ * Immutable snapshot of the latest fused fix, published on {@link UpdateBus#LOCATION}.
+ */
+public class LocationUpdate {
+    public final long timestamp;
+    public final double latitude;
+    public final double longitude;
+    public final float speed;
+    public final double altitude;
+    public final int provider;
+
+    public LocationUpdate(long timestamp, double latitude, double longitude, float speed, double altitude,
+                          int provider) {
+        this.timestamp = timestamp;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.speed = speed;
+        this.altitude = altitude;
+        this.provider = provider;
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.auto_set;
+
+/**
+ * Classifies the phone as stationary, walking or in a vehicle from the
+ * linear acceleration magnitude and the latest GPS speed. Each evaluation
+ * window gives a candidate state; the reported state only changes after the
+ * candidate has been seen for several windows in a row, and settling into
+ * STATIONARY takes longer than leaving it.
+ */
+public class MotionClassifier {
+
+    public enum State {
+        STATIONARY,
+        WALKING,
+        VEHICLE
+    }
+
+    public interface Listener {
+        void onStateChanged(State from, State to);
+    }
+
+    public static final long WINDOW_MS = 5000;
+
+    // Standard deviation of |linear acceleration| in m/s^2
+    static final double STILL_STD = 0.15;
+    static final double WALKING_STD = 0.6;
+    // GPS speed in m/s
+    static final float STILL_SPEED = 0.5f;
+    static final float VEHICLE_SPEED = 7f;
+    static final float VEHICLE_EXIT_SPEED = 3f;
+    // Speeds older than this are ignored
+    static final long SPEED_MAX_AGE_MS = 15000;
+
+    // Consecutive windows needed to enter each state
+    private static final int[] WINDOWS_TO_ENTER = {6, 1, 2};
+
+    private final Listener listener;
+    private final WindowStats magnitude = new WindowStats();
+
+    private State state;
+    private State candidate;
+    private int candidateWindows;
+    private long windowStart = -1;
+    private float speed = -1;
+    private long speedTime;
+
+    public MotionClassifier(State initialState, Listener listener) {
+        this.state = initialState;
+        this.candidate = initialState;
+        this.listener = listener;
+    }
+
+    public synchronized void addAcceleration(long timeMs, float x, float y, float z) {
+        if (windowStart < 0) {
+            windowStart = timeMs;
+        }
+        magnitude.add(Math.sqrt(x * x + y * y + z * z));
+        if (timeMs - windowStart >= WINDOW_MS) {
+            evaluate(timeMs);
+            magnitude.reset();
+            windowStart = timeMs;
+        }
+    }
+
+    // speed in m/s, negative if the fix has none
+    public synchronized void onSpeed(long timeMs, float speed) {
+        this.speed = speed;
+        this.speedTime = timeMs;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    private void evaluate(long nowMs) {
+        if (magnitude.getCount() < 2) {
+            return;
+        }
+        State next = classify(Math.sqrt(magnitude.getVariance()), nowMs);
+        if (next == null) {
+            // In the dead band between thresholds: keep what we have
+            candidate = state;
+            candidateWindows = 0;
+            return;
+        }
+        if (next != candidate) {
+            candidate = next;
+            candidateWindows = 0;
+        }
+        candidateWindows++;
+        if (candidate != state && candidateWindows >= WINDOWS_TO_ENTER[candidate.ordinal()]) {
+            State previous = state;
+            state = candidate;
+            candidateWindows = 0;
+            listener.onStateChanged(previous, state);
+        }
+    }
+
+    private State classify(double std, long nowMs) {
+        boolean speedKnown = speed >= 0 && nowMs - speedTime <= SPEED_MAX_AGE_MS;
+        if (speedKnown && speed >= VEHICLE_SPEED) {
+            return State.VEHICLE;
+        }
+        if (state == State.VEHICLE && speedKnown && speed >= VEHICLE_EXIT_SPEED) {
+            return State.VEHICLE;
+        }
+        if (std >= WALKING_STD) {
+            return State.WALKING;
+        }
+        if (std <= STILL_STD && (!speedKnown || speed <= STILL_SPEED)) {
+            return State.STATIONARY;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,203 @@
+package com.example.auto_set;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Level-of-detail index of collected points for the cluster map. Positions
+ * are kept in normalized Web Mercator coordinates (x and y in [0, 1)).
+ *
+ * For every zoom up to {@link #MAX_AGGREGATE_ZOOM} points are summed into
+ * cells of {@link #CELL_PX} screen pixels, so a zoomed-out view only visits
+ * the cells it covers. Above that zoom the raw points are bucketed in tiles
+ * of zoom {@link #TILE_ZOOM} and only the visible tiles are read. Thread
+ * safe: a loader can add points while the view draws.
+ */
+public class PointIndex {
+
+    public static final int MAX_AGGREGATE_ZOOM = 14;
+    public static final int TILE_ZOOM = 14;
+    // Cells are CELL_PX pixels wide at their zoom, with 256 pixel tiles
+    public static final int CELL_PX = 32;
+    private static final int CELL_SHIFT = 3;
+
+    public interface CellVisitor {
+        // x, y is the centroid of the points in the cell
+        void visit(double x, double y, int count);
+    }
+
+    private static class Cell {
+        int count;
+        double sumX;
+        double sumY;
+    }
+
+    // Interleaved x, y of the points in one tile
+    private static class Tile {
+        float[] xy = new float[64];
+        int size;
+
+        void add(double x, double y) {
+            if (size * 2 == xy.length) {
+                float[] grown = new float[xy.length * 2];
+                System.arraycopy(xy, 0, grown, 0, xy.length);
+                xy = grown;
+            }
+            xy[size * 2] = (float) x;
+            xy[size * 2 + 1] = (float) y;
+            size++;
+        }
+    }
+
+    // Indexed by zoom
+    private final List<Map<Long, Cell>> levels = new ArrayList<>(MAX_AGGREGATE_ZOOM + 1);
+    private final Map<Long, Tile> tiles = new HashMap<>();
+    private int size;
+    private double minX = 1;
+    private double minY = 1;
+    private double maxX;
+    private double maxY;
+
+    public PointIndex() {
+        for (int zoom = 0; zoom <= MAX_AGGREGATE_ZOOM; zoom++) {
+            levels.add(new HashMap<>());
+        }
+    }
+
+    public synchronized void add(double latitude, double longitude) {
+        if (latitude == 0 && longitude == 0 || Double.isNaN(latitude) || Double.isNaN(longitude)) {
+            return;
+        }
+        double x = mercatorX(longitude);
+        double y = mercatorY(latitude);
+        for (int zoom = 0; zoom <= MAX_AGGREGATE_ZOOM; zoom++) {
+            int cellsPerAxis = 1 << (zoom + CELL_SHIFT);
+            long key = key((int) (x * cellsPerAxis), (int) (y * cellsPerAxis));
+            Cell cell = levels.get(zoom).get(key);
+            if (cell == null) {
+                cell = new Cell();
+                levels.get(zoom).put(key, cell);
+            }
+            cell.count++;
+            cell.sumX += x;
+            cell.sumY += y;
+        }
+        int tilesPerAxis = 1 << TILE_ZOOM;
+        long tileKey = key((int) (x * tilesPerAxis), (int) (y * tilesPerAxis));
+        Tile tile = tiles.get(tileKey);
+        if (tile == null) {
+            tile = new Tile();
+            tiles.put(tileKey, tile);
+        }
+        tile.add(x, y);
+
+        size++;
+        minX = Math.min(minX, x);
+        minY = Math.min(minY, y);
+        maxX = Math.max(maxX, x);
+        maxY = Math.max(maxY, y);
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    // minX, minY, maxX, maxY of everything added, or null when empty
+    public synchronized double[] getBounds() {
+        return size == 0 ? null : new double[]{minX, minY, maxX, maxY};
+    }
+
+    /**
+     * Visits what to draw for the area [minX, maxX] x [minY, maxY] at zoom:
+     * aggregated cells up to MAX_AGGREGATE_ZOOM, single points (count 1)
+     * above it. Work is proportional to the visible area, not the number
+     * of points.
+     */
+    public synchronized void query(int zoom, double minX, double minY, double maxX, double maxY, CellVisitor visitor) {
+        if (zoom <= MAX_AGGREGATE_ZOOM) {
+            Map<Long, Cell> level = levels.get(Math.max(zoom, 0));
+            int cellsPerAxis = 1 << (Math.max(zoom, 0) + CELL_SHIFT);
+            int fromCol = clamp(minX, cellsPerAxis);
+            int toCol = clamp(maxX, cellsPerAxis);
+            int fromRow = clamp(minY, cellsPerAxis);
+            int toRow = clamp(maxY, cellsPerAxis);
+            // A sparse level can be cheaper to scan than the visible cell range
+            if ((long) (toCol - fromCol + 1) * (toRow - fromRow + 1) > level.size()) {
+                for (Map.Entry<Long, Cell> e : level.entrySet()) {
+                    int col = (int) (e.getKey() >> 32);
+                    int row = (int) (long) e.getKey();
+                    if (col >= fromCol && col <= toCol && row >= fromRow && row <= toRow) {
+                        Cell cell = e.getValue();
+                        visitor.visit(cell.sumX / cell.count, cell.sumY / cell.count, cell.count);
+                    }
+                }
+                return;
+            }
+            for (int row = fromRow; row <= toRow; row++) {
+                for (int col = fromCol; col <= toCol; col++) {
+                    Cell cell = level.get(key(col, row));
+                    if (cell != null) {
+                        visitor.visit(cell.sumX / cell.count, cell.sumY / cell.count, cell.count);
+                    }
+                }
+            }
+            return;
+        }
+        int tilesPerAxis = 1 << TILE_ZOOM;
+        for (int row = clamp(minY, tilesPerAxis); row <= clamp(maxY, tilesPerAxis); row++) {
+            for (int col = clamp(minX, tilesPerAxis); col <= clamp(maxX, tilesPerAxis); col++) {
+                Tile tile = tiles.get(key(col, row));
+                if (tile == null) {
+                    continue;
+                }
+                for (int i = 0; i < tile.size; i++) {
+                    float x = tile.xy[i * 2];
+                    float y = tile.xy[i * 2 + 1];
+                    if (x >= minX && x <= maxX && y >= minY && y <= maxY) {
+                        visitor.visit(x, y, 1);
+                    }
+                }
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        for (Map<Long, Cell> level : levels) {
+            level.clear();
+        }
+        tiles.clear();
+        size = 0;
+        minX = 1;
+        minY = 1;
+        maxX = 0;
+        maxY = 0;
+    }
+
+    public static double mercatorX(double longitude) {
+        return (longitude + 180) / 360;
+    }
+
+    public static double mercatorY(double latitude) {
+        double clamped = Math.max(-85.05112878, Math.min(85.05112878, latitude));
+        double sin = Math.sin(Math.toRadians(clamped));
+        return 0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI);
+    }
+
+    public static double longitude(double x) {
+        return x * 360 - 180;
+    }
+
+    public static double latitude(double y) {
+        return Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1 - 2 * y))));
+    }
+
+    private static int clamp(double v, int cells) {
+        return (int) Math.max(0, Math.min(cells - 1, Math.floor(v * cells)));
+    }
+
+    private static long key(int col, int row) {
+        return ((long) col << 32) | (row & 0xffffffffL);
+    }
+}
@@ -0,0 +1,169 @@
+package com.example.auto_set;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Recent /predict_settings responses keyed by a grid cell of roughly
+ * {@link #CELL_METERS} around the position plus a speed bucket. Entries
+ * expire after {@link #DEFAULT_TTL_MS}; beyond {@link #MAX_ENTRIES} the least
+ * recently used one is dropped. Hits and misses are counted in
+ * {@link CollectionMetrics}.
+ *
+ * Stored as one "key,storedAt,response" line per entry with backslash and
+ * newlines in the response escaped. Thread safe.
+ */
+public class PredictionCache {
+
+    public static final double CELL_METERS = 150;
+    public static final long DEFAULT_TTL_MS = 30 * 60 * 1000;
+    public static final int MAX_ENTRIES = 512;
+
+    private static final double METERS_PER_DEGREE = 111_320;
+    // Upper bounds in m/s of each speed bucket: still, walking, cycling, city driving; the rest is fast driving
+    private static final float[] SPEED_BUCKETS = {0.5f, 2.5f, 7f, 20f};
+
+    private static class Entry {
+        final String response;
+        final long storedAt;
+
+        Entry(String response, long storedAt) {
+            this.response = response;
+            this.storedAt = storedAt;
+        }
+    }
+
+    private final File file;
+    private final long ttlMs;
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    public PredictionCache(File file) throws IOException {
+        this(file, DEFAULT_TTL_MS);
+    }
+
+    public PredictionCache(File file, long ttlMs) throws IOException {
+        this.file = file;
+        this.ttlMs = ttlMs;
+        if (file.exists()) {
+            load(System.currentTimeMillis());
+        }
+    }
+
+    // The cached response for this cell and speed, or null
+    public synchronized String get(double latitude, double longitude, double speed, long nowMs) {
+        String key = key(latitude, longitude, speed);
+        Entry entry = entries.get(key);
+        if (entry != null && nowMs - entry.storedAt > ttlMs) {
+            entries.remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            CollectionMetrics.get().predictCacheMisses.increment();
+            return null;
+        }
+        CollectionMetrics.get().predictCacheHits.increment();
+        return entry.response;
+    }
+
+    public synchronized void put(double latitude, double longitude, double speed, String response, long nowMs) {
+        entries.put(key(latitude, longitude, speed), new Entry(response, nowMs));
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Rows are CELL_METERS of latitude; columns are CELL_METERS of longitude
+     * at the row's latitude, so cells keep roughly the same size away from
+     * the equator.
+     */
+    static String key(double latitude, double longitude, double speed) {
+        long row = (long) Math.floor(latitude * METERS_PER_DEGREE / CELL_METERS);
+        double rowLatitude = (row + 0.5) * CELL_METERS / METERS_PER_DEGREE;
+        double columnDegrees = CELL_METERS / (METERS_PER_DEGREE * Math.max(Math.cos(Math.toRadians(rowLatitude)), 0.01));
+        long column = (long) Math.floor(longitude / columnDegrees);
+        return row + ":" + column + ":" + speedBucket(speed);
+    }
+
+    static int speedBucket(double speed) {
+        int bucket = 0;
+        while (bucket < SPEED_BUCKETS.length && speed >= SPEED_BUCKETS[bucket]) {
+            bucket++;
+        }
+        return bucket;
+    }
+
+    // Write to a temp file and rename, so a crash never leaves half a cache
+    public void save() throws IOException {
+        List<String> lines = new ArrayList<>();
+        synchronized (this) {
+            // Least recently used first, so loading rebuilds the same order
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                lines.add(e.getKey() + "," + e.getValue().storedAt + "," + escape(e.getValue().response) + "\n");
+            }
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        try (Writer writer = new BufferedWriter(new FileWriter(temp))) {
+            for (String line : lines) {
+                writer.write(line);
+            }
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Failed to replace " + file);
+        }
+    }
+
+    private void load(long nowMs) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(",", 3);
+                if (parts.length != 3) {
+                    continue;
+                }
+                long storedAt;
+                try {
+                    storedAt = Long.parseLong(parts[1]);
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                if (nowMs - storedAt <= ttlMs) {
+                    entries.put(parts[0], new Entry(unescape(parts[2]), storedAt));
+                }
+            }
+        }
+    }
+
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    private static String unescape(String s) {
+        StringBuilder out = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                char next = s.charAt(++i);
+                out.append(next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                out.append(c);
+            }
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.auto_set;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The settings a prediction asks for. A setting the response does not
+ * mention is null and is left alone.
+ */
+public class PredictionResponse {
+
+    private static final Pattern WIFI = setting("wifiEnabled");
+    private static final Pattern BLUETOOTH = setting("bluetoothEnabled");
+    private static final Pattern SILENT = setting("silentMode");
+
+    public final Boolean wifiEnabled;
+    public final Boolean bluetoothEnabled;
+    public final Boolean silentMode;
+
+    public PredictionResponse(Boolean wifiEnabled, Boolean bluetoothEnabled, Boolean silentMode) {
+        this.wifiEnabled = wifiEnabled;
+        this.bluetoothEnabled = bluetoothEnabled;
+        this.silentMode = silentMode;
+    }
+
+    public static PredictionResponse of(ClusterModel.Cluster cluster) {
+        return new PredictionResponse(cluster.wifiEnabled, cluster.bluetoothEnabled, cluster.silentMode);
+    }
+
+    /**
+     * Reads a JSON object ({"wifiEnabled": true, ...}) or the older
+     * "wifiEnabled: true" text. Values may be booleans, 0/1 or quoted.
+     */
+    public static PredictionResponse parse(String body) {
+        return new PredictionResponse(
+                value(body, WIFI),
+                value(body, BLUETOOTH),
+                value(body, SILENT));
+    }
+
+    public boolean isEmpty() {
+        return wifiEnabled == null && bluetoothEnabled == null && silentMode == null;
+    }
+
+    @Override
+    public String toString() {
+        return "wifiEnabled: " + wifiEnabled + ", bluetoothEnabled: " + bluetoothEnabled + ", silentMode: " + silentMode;
+    }
+
+    // key, optionally quoted and not the tail of a longer name, then : or = and the value, optionally quoted
+    private static Pattern setting(String key) {
+        return Pattern.compile("(?<![\\w\"])\"?" + Pattern.quote(key) + "\"?\\s*[:=]\\s*\"?(true|false|1|0)\\b",
+                Pattern.CASE_INSENSITIVE);
+    }
+
+    private static Boolean value(String body, Pattern pattern) {
+        Matcher matcher = pattern.matcher(body);
+        if (!matcher.find()) {
+            return null;
+        }
+        String value = matcher.group(1);
+        return value.equalsIgnoreCase("true") || value.equals("1");
+    }
+}
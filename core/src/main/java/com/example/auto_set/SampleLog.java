@@ -0,0 +1,18 @@
+package com.example.auto_set;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Hourly append-only store for location samples.
+ */
+public interface SampleLog extends Closeable {
+
+    // Returns the number of bytes the sample took in the log
+    int append(LocationSample sample) throws IOException;
+
+    void flushIfDue(long nowMs) throws IOException;
+
+    File getCurrentFile();
+}
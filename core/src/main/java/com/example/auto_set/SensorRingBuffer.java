@@ -0,0 +1,63 @@
+package com.example.auto_set;
+
+/**
+ * Fixed-size ring of three-axis sensor samples backed by primitive arrays.
+ * Once full, the oldest samples are overwritten. Not thread safe.
+ */
+public class SensorRingBuffer {
+
+    private final long[] timestamps;
+    private final float[] values;
+    private final int mask;
+    private long written;
+
+    // capacity is rounded up to a power of two
+    public SensorRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        timestamps = new long[size];
+        values = new float[size * 3];
+        mask = size - 1;
+    }
+
+    public void add(long timestampNs, float x, float y, float z) {
+        int slot = (int) (written & mask);
+        timestamps[slot] = timestampNs;
+        values[slot * 3] = x;
+        values[slot * 3 + 1] = y;
+        values[slot * 3 + 2] = z;
+        written++;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    public int size() {
+        return (int) Math.min(written, mask + 1);
+    }
+
+    // Total samples ever added, including overwritten ones
+    public long getWritten() {
+        return written;
+    }
+
+    // age 0 is the newest sample
+    public long getTimestamp(int age) {
+        return timestamps[slotOf(age)];
+    }
+
+    public float get(int age, int axis) {
+        return values[slotOf(age) * 3 + axis];
+    }
+
+    public void clear() {
+        written = 0;
+    }
+
+    private int slotOf(int age) {
+        if (age < 0 || age >= size()) {
+            throw new IndexOutOfBoundsException("age " + age + " of " + size());
+        }
+        return (int) ((written - 1 - age) & mask);
+    }
+}
@@ -0,0 +1,27 @@
+package com.example.auto_set;
+
+/**
+ * Immutable snapshot of the motion features for the latest row, published on
+ * {@link UpdateBus#SENSOR}.
+ */
+public class SensorUpdate {
+    public final long timestamp;
+    public final float linearAccelMean;
+    public final float linearAccelPeak;
+    public final int sensorSamples;
+    public final double verticalVelocity;
+    public final MotionClassifier.State motionState;
+    // Local place from StreamingClusterer, or StreamingClusterer.NO_CLUSTER
+    public final int placeId;
+
+    public SensorUpdate(long timestamp, float linearAccelMean, float linearAccelPeak, int sensorSamples,
+                        double verticalVelocity, MotionClassifier.State motionState, int placeId) {
+        this.timestamp = timestamp;
+        this.linearAccelMean = linearAccelMean;
+        this.linearAccelPeak = linearAccelPeak;
+        this.sensorSamples = sensorSamples;
+        this.verticalVelocity = verticalVelocity;
+        this.motionState = motionState;
+        this.placeId = placeId;
+    }
+}
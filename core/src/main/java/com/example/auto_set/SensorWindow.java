@@ -0,0 +1,69 @@
+package com.example.auto_set;
+
+/**
+ * Keeps every gravity and linear acceleration sample in ring buffers and
+ * turns the samples between two location rows into that row's sensor
+ * columns: the latest gravity and linear acceleration vectors, and the
+ * count, mean, variance and peak of the linear acceleration magnitude.
+ * Sensor callbacks and the location thread both use it, so access is
+ * synchronized.
+ */
+public class SensorWindow {
+
+    // About 80 s at SENSOR_DELAY_GAME, longer than the slowest location tick
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private final SensorRingBuffer gravity;
+    private final SensorRingBuffer linearAcceleration;
+    private final WindowStats linearMagnitude = new WindowStats();
+    // Linear acceleration samples written when the previous row was drained
+    private long drainedAt;
+
+    public SensorWindow() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public SensorWindow(int capacity) {
+        gravity = new SensorRingBuffer(capacity);
+        linearAcceleration = new SensorRingBuffer(capacity);
+    }
+
+    public synchronized void addGravity(long timestampNs, float x, float y, float z) {
+        gravity.add(timestampNs, x, y, z);
+    }
+
+    public synchronized void addLinearAcceleration(long timestampNs, float x, float y, float z) {
+        linearAcceleration.add(timestampNs, x, y, z);
+    }
+
+    /**
+     * Copies the latest vectors and the window aggregates into sample, then
+     * starts a new window. A window longer than the ring is aggregated over
+     * the samples it still holds.
+     */
+    public synchronized void drainInto(LocationSample sample) {
+        if (gravity.size() > 0) {
+            sample.gravityX = gravity.get(0, 0);
+            sample.gravityY = gravity.get(0, 1);
+            sample.gravityZ = gravity.get(0, 2);
+        }
+        if (linearAcceleration.size() > 0) {
+            sample.linearAccelX = linearAcceleration.get(0, 0);
+            sample.linearAccelY = linearAcceleration.get(0, 1);
+            sample.linearAccelZ = linearAcceleration.get(0, 2);
+        }
+        int window = (int) Math.min(linearAcceleration.getWritten() - drainedAt, linearAcceleration.size());
+        linearMagnitude.reset();
+        for (int age = window - 1; age >= 0; age--) {
+            float x = linearAcceleration.get(age, 0);
+            float y = linearAcceleration.get(age, 1);
+            float z = linearAcceleration.get(age, 2);
+            linearMagnitude.add(Math.sqrt(x * x + y * y + z * z));
+        }
+        drainedAt = linearAcceleration.getWritten();
+        sample.linearAccelMean = (float) linearMagnitude.getMean();
+        sample.linearAccelVariance = (float) linearMagnitude.getVariance();
+        sample.linearAccelPeak = (float) linearMagnitude.getPeak();
+        sample.sensorSamples = linearMagnitude.getCount();
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.auto_set;
+
+/**
+ * Decides when one on/off setting may actually be flipped. A new target
+ * has to be asked for continuously for the debounce time, and after a flip
+ * the setting stays put for the minimum dwell time. Times come from one
+ * monotonic clock. Not thread safe.
+ */
+public class SettingGate {
+
+    private final long debounceMs;
+    private final long minDwellMs;
+
+    private boolean hasCandidate;
+    private boolean candidate;
+    private long candidateSince;
+    private long lastChange = Long.MIN_VALUE;
+
+    public SettingGate(long debounceMs, long minDwellMs) {
+        this.debounceMs = debounceMs;
+        this.minDwellMs = minDwellMs;
+    }
+
+    /**
+     * Whether to switch from current to desired now. Call {@link #changed(long)}
+     * once the switch was made.
+     */
+    public boolean shouldChange(boolean desired, boolean current, long nowMs) {
+        if (desired == current) {
+            hasCandidate = false;
+            return false;
+        }
+        if (!hasCandidate || candidate != desired) {
+            hasCandidate = true;
+            candidate = desired;
+            candidateSince = nowMs;
+        }
+        if (nowMs - candidateSince < debounceMs) {
+            return false;
+        }
+        return lastChange == Long.MIN_VALUE || nowMs - lastChange >= minDwellMs;
+    }
+
+    public void changed(long nowMs) {
+        lastChange = nowMs;
+        hasCandidate = false;
+    }
+}
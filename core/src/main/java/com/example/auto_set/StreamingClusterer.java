@@ -0,0 +1,349 @@
+package com.example.auto_set;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Grid based DBSCAN over the stationary fixes, updated one row at a time.
+ *
+ * Fixes slower than maxSpeed are counted in square cells of cellMeters,
+ * weighted by dwell time: the time since the previous fix, if that one was
+ * stationary too, capped at {@link #MAX_DWELL_GAP_MS}. The service samples a
+ * stationary phone every 30 s with a 20 m minimum distance, so a stay yields
+ * few rows and counting rows would miss it. A cell with at least minDwellMs
+ * is dense, and dense cells that touch (8-neighbourhood) form one cluster,
+ * tracked with union-find. Dwell only grows, so cells only ever become dense
+ * and clusters only ever merge, which keeps every update O(1). A fix belongs
+ * to the cluster of its own cell or, as a border point, of a dense
+ * neighbour.
+ *
+ * State is saved with {@link #save(File)} and rows up to
+ * {@link #getLastTimestamp()} are ignored, so after a restart only the rows
+ * written since the last save need replaying ({@link #catchUp(File)}).
+ * Thread safe.
+ */
+public class StreamingClusterer {
+
+    public static final float DEFAULT_CELL_METERS = 50;
+    // Summed over any number of visits
+    public static final long DEFAULT_MIN_DWELL_MS = 5 * 60_000L;
+    public static final float DEFAULT_MAX_SPEED = 1.0f;
+    // Longer silences are more likely the service not running than the phone lying still
+    public static final long MAX_DWELL_GAP_MS = 5 * 60_000L;
+
+    public static final int NO_CLUSTER = -1;
+
+    private static final int MAGIC = 0x4153534C; // "ASSL"
+    private static final short FORMAT_VERSION = 2;
+    private static final double METERS_PER_DEGREE = 111_320;
+    private static final int INITIAL_CELLS = 1024;
+
+    public static class Cluster {
+        // Index of the cluster's oldest dense cell; merging keeps the older id
+        public final int id;
+        public final double latitude;
+        public final double longitude;
+        public final int samples;
+        public final long dwellMs;
+        public final int cells;
+
+        Cluster(int id, double latitude, double longitude, int samples, long dwellMs, int cells) {
+            this.id = id;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.samples = samples;
+            this.dwellMs = dwellMs;
+            this.cells = cells;
+        }
+    }
+
+    private final float cellMeters;
+    private final long minDwellMs;
+    private final float maxSpeed;
+
+    // Cells are columns of a fixed width at this latitude, so neighbours line up across rows
+    private double referenceLatitude = Double.NaN;
+    private double rowDegrees;
+    private double columnDegrees;
+    private long lastTimestamp;
+    private boolean lastStationary;
+
+    private final LongIntMap cellIndex = new LongIntMap(INITIAL_CELLS);
+    private long[] keys = new long[INITIAL_CELLS];
+    private int[] counts = new int[INITIAL_CELLS];
+    private long[] dwells = new long[INITIAL_CELLS];
+    private int[] parents = new int[INITIAL_CELLS];
+    private double[] sumLatitude = new double[INITIAL_CELLS];
+    private double[] sumLongitude = new double[INITIAL_CELLS];
+    private int cellCount;
+
+    public StreamingClusterer() {
+        this(DEFAULT_CELL_METERS, DEFAULT_MIN_DWELL_MS, DEFAULT_MAX_SPEED);
+    }
+
+    public StreamingClusterer(float cellMeters, long minDwellMs, float maxSpeed) {
+        this.cellMeters = cellMeters;
+        this.minDwellMs = minDwellMs;
+        this.maxSpeed = maxSpeed;
+    }
+
+    /**
+     * Counts one fix. Rows at or before the last counted timestamp are
+     * skipped, so replaying a file twice does not count it twice.
+     *
+     * @return the fix's cluster after the update, or NO_CLUSTER
+     */
+    public synchronized int add(long timestamp, double latitude, double longitude, float speed) {
+        if (timestamp <= lastTimestamp || latitude == 0 && longitude == 0) {
+            return NO_CLUSTER;
+        }
+        // The time since the previous fix was spent here only if that fix was stationary too
+        long dwell = lastStationary ? Math.min(timestamp - lastTimestamp, MAX_DWELL_GAP_MS) : 0;
+        lastTimestamp = timestamp;
+        lastStationary = speed <= maxSpeed;
+        if (!lastStationary) {
+            return clusterAt(latitude, longitude);
+        }
+        if (Double.isNaN(referenceLatitude)) {
+            setReferenceLatitude(latitude);
+        }
+        int row = row(latitude);
+        int column = column(longitude);
+        long key = key(row, column);
+        int cell = cellIndex.get(key);
+        if (cell == LongIntMap.MISSING) {
+            cell = newCell(key);
+        }
+        sumLatitude[cell] += latitude;
+        sumLongitude[cell] += longitude;
+        counts[cell]++;
+        boolean wasDense = dwells[cell] >= minDwellMs;
+        dwells[cell] += dwell;
+        if (!wasDense && dwells[cell] >= minDwellMs) {
+            for (int dr = -1; dr <= 1; dr++) {
+                for (int dc = -1; dc <= 1; dc++) {
+                    int neighbour = cellIndex.get(key(row + dr, column + dc));
+                    if (neighbour != LongIntMap.MISSING && neighbour != cell && dwells[neighbour] >= minDwellMs) {
+                        union(cell, neighbour);
+                    }
+                }
+            }
+        }
+        return clusterAt(row, column);
+    }
+
+    // Cluster id for a position, or NO_CLUSTER. Looks at nine cells at most
+    public synchronized int clusterAt(double latitude, double longitude) {
+        if (Double.isNaN(referenceLatitude)) {
+            return NO_CLUSTER;
+        }
+        return clusterAt(row(latitude), column(longitude));
+    }
+
+    private int clusterAt(int row, int column) {
+        int cell = cellIndex.get(key(row, column));
+        if (cell != LongIntMap.MISSING && dwells[cell] >= minDwellMs) {
+            return find(cell);
+        }
+        for (int dr = -1; dr <= 1; dr++) {
+            for (int dc = -1; dc <= 1; dc++) {
+                int neighbour = cellIndex.get(key(row + dr, column + dc));
+                if (neighbour != LongIntMap.MISSING && dwells[neighbour] >= minDwellMs) {
+                    return find(neighbour);
+                }
+            }
+        }
+        return NO_CLUSTER;
+    }
+
+    // Current clusters, longest dwell first
+    public synchronized List<Cluster> getClusters() {
+        int[] slot = new int[cellCount];
+        Arrays.fill(slot, -1);
+        List<long[]> totals = new ArrayList<>();
+        List<double[]> sums = new ArrayList<>();
+        for (int cell = 0; cell < cellCount; cell++) {
+            if (dwells[cell] < minDwellMs) {
+                continue;
+            }
+            int root = find(cell);
+            if (slot[root] < 0) {
+                slot[root] = totals.size();
+                totals.add(new long[]{root, 0, 0, 0});
+                sums.add(new double[2]);
+            }
+            long[] total = totals.get(slot[root]);
+            total[1] += counts[cell];
+            total[2] += dwells[cell];
+            total[3]++;
+            double[] sum = sums.get(slot[root]);
+            sum[0] += sumLatitude[cell];
+            sum[1] += sumLongitude[cell];
+        }
+        List<Cluster> clusters = new ArrayList<>(totals.size());
+        for (int i = 0; i < totals.size(); i++) {
+            long[] total = totals.get(i);
+            double[] sum = sums.get(i);
+            clusters.add(new Cluster((int) total[0], sum[0] / total[1], sum[1] / total[1], (int) total[1], total[2],
+                    (int) total[3]));
+        }
+        Collections.sort(clusters, (a, b) -> Long.compare(b.dwellMs, a.dwellMs));
+        return clusters;
+    }
+
+    public synchronized long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    public synchronized int getCellCount() {
+        return cellCount;
+    }
+
+    /**
+     * Replays the gps_data rows written after the last counted timestamp,
+     * reading only the hour files and ranges {@link DataIndex} says can hold
+     * them. With no saved state this is the one-time scan of the whole
+     * history.
+     *
+     * @return the number of rows replayed
+     */
+    public int catchUp(File dataDir) throws IOException {
+        return new DataIndex(dataDir).forEach(getLastTimestamp() + 1, Long.MAX_VALUE, -90, -180, 90, 180,
+                this::add);
+    }
+
+    // Write to a temp file and rename, so a crash never leaves half a state file
+    public void save(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            synchronized (this) {
+                out.writeInt(MAGIC);
+                out.writeShort(FORMAT_VERSION);
+                out.writeFloat(cellMeters);
+                out.writeLong(minDwellMs);
+                out.writeFloat(maxSpeed);
+                out.writeDouble(referenceLatitude);
+                out.writeLong(lastTimestamp);
+                out.writeBoolean(lastStationary);
+                out.writeInt(cellCount);
+                for (int i = 0; i < cellCount; i++) {
+                    out.writeLong(keys[i]);
+                    out.writeInt(counts[i]);
+                    out.writeLong(dwells[i]);
+                    out.writeInt(find(i));
+                    out.writeDouble(sumLatitude[i]);
+                    out.writeDouble(sumLongitude[i]);
+                }
+            }
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Failed to replace " + file);
+        }
+    }
+
+    /**
+     * Reads state written by {@link #save(File)}. A missing file gives an
+     * empty clusterer; a file saved with other parameters or by an older
+     * version is an error, as its cells cannot be reused.
+     */
+    public static StreamingClusterer load(File file, float cellMeters, long minDwellMs, float maxSpeed)
+            throws IOException {
+        StreamingClusterer clusterer = new StreamingClusterer(cellMeters, minDwellMs, maxSpeed);
+        if (!file.exists()) {
+            return clusterer;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a cluster state file: " + file);
+            }
+            short version = in.readShort();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported cluster state version " + version);
+            }
+            if (in.readFloat() != cellMeters || in.readLong() != minDwellMs || in.readFloat() != maxSpeed) {
+                throw new IOException("Cluster state was saved with other parameters");
+            }
+            double referenceLatitude = in.readDouble();
+            if (!Double.isNaN(referenceLatitude)) {
+                clusterer.setReferenceLatitude(referenceLatitude);
+            }
+            clusterer.lastTimestamp = in.readLong();
+            clusterer.lastStationary = in.readBoolean();
+            int cells = in.readInt();
+            for (int i = 0; i < cells; i++) {
+                int cell = clusterer.newCell(in.readLong());
+                clusterer.counts[cell] = in.readInt();
+                clusterer.dwells[cell] = in.readLong();
+                clusterer.parents[cell] = in.readInt();
+                clusterer.sumLatitude[cell] = in.readDouble();
+                clusterer.sumLongitude[cell] = in.readDouble();
+            }
+        }
+        return clusterer;
+    }
+
+    private void setReferenceLatitude(double latitude) {
+        referenceLatitude = latitude;
+        rowDegrees = cellMeters / METERS_PER_DEGREE;
+        columnDegrees = cellMeters / (METERS_PER_DEGREE * Math.max(Math.cos(Math.toRadians(latitude)), 0.01));
+    }
+
+    private int row(double latitude) {
+        return (int) Math.floor(latitude / rowDegrees);
+    }
+
+    private int column(double longitude) {
+        return (int) Math.floor(longitude / columnDegrees);
+    }
+
+    private static long key(int row, int column) {
+        return ((long) row << 32) | (column & 0xffffffffL);
+    }
+
+    private int newCell(long key) {
+        if (cellCount == keys.length) {
+            int capacity = keys.length * 2;
+            keys = Arrays.copyOf(keys, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            dwells = Arrays.copyOf(dwells, capacity);
+            parents = Arrays.copyOf(parents, capacity);
+            sumLatitude = Arrays.copyOf(sumLatitude, capacity);
+            sumLongitude = Arrays.copyOf(sumLongitude, capacity);
+        }
+        int cell = cellCount++;
+        keys[cell] = key;
+        parents[cell] = cell;
+        cellIndex.put(key, cell);
+        return cell;
+    }
+
+    // Path halving keeps the trees flat without recursion
+    private int find(int cell) {
+        while (parents[cell] != cell) {
+            parents[cell] = parents[parents[cell]];
+            cell = parents[cell];
+        }
+        return cell;
+    }
+
+    // The older (smaller) root wins, so a cluster keeps its id when a newer one joins it
+    private void union(int a, int b) {
+        int rootA = find(a);
+        int rootB = find(b);
+        if (rootA < rootB) {
+            parents[rootB] = rootA;
+        } else if (rootB < rootA) {
+            parents[rootA] = rootB;
+        }
+    }
+}
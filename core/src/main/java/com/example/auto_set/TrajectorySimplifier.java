@@ -0,0 +1,82 @@
+package com.example.auto_set;
+
+/**
+ * Douglas-Peucker simplification with a bound on the error in meters: every
+ * dropped point lies within epsilon of the line between the points kept on
+ * either side of it. Uses an explicit stack, so long tracks cannot overflow
+ * the thread stack.
+ */
+public final class TrajectorySimplifier {
+
+    private static final double METERS_PER_DEGREE = 111_320;
+
+    private TrajectorySimplifier() {
+    }
+
+    /**
+     * Marks in keep the points of [from, to] (inclusive) to keep. The end
+     * points are always kept; entries already set are left alone.
+     */
+    public static void simplify(double[] latitudes, double[] longitudes, int from, int to, double epsilonMeters,
+                                boolean[] keep) {
+        if (to < from) {
+            return;
+        }
+        keep[from] = true;
+        keep[to] = true;
+        if (to - from < 2) {
+            return;
+        }
+        // Local equirectangular projection, fine at the scale of one track
+        double cosLat = Math.cos(Math.toRadians(latitudes[from]));
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = from;
+        stack[top++] = to;
+        while (top > 0) {
+            int end = stack[--top];
+            int start = stack[--top];
+            double ax = longitudes[start] * cosLat * METERS_PER_DEGREE;
+            double ay = latitudes[start] * METERS_PER_DEGREE;
+            double bx = longitudes[end] * cosLat * METERS_PER_DEGREE;
+            double by = latitudes[end] * METERS_PER_DEGREE;
+            double farthest = -1;
+            int index = -1;
+            for (int i = start + 1; i < end; i++) {
+                double d = distanceToSegment(longitudes[i] * cosLat * METERS_PER_DEGREE,
+                        latitudes[i] * METERS_PER_DEGREE, ax, ay, bx, by);
+                if (d > farthest) {
+                    farthest = d;
+                    index = i;
+                }
+            }
+            if (farthest > epsilonMeters) {
+                keep[index] = true;
+                if (top + 4 > stack.length) {
+                    int[] grown = new int[stack.length * 2];
+                    System.arraycopy(stack, 0, grown, 0, top);
+                    stack = grown;
+                }
+                if (index - start > 1) {
+                    stack[top++] = start;
+                    stack[top++] = index;
+                }
+                if (end - index > 1) {
+                    stack[top++] = index;
+                    stack[top++] = end;
+                }
+            }
+        }
+    }
+
+    static double distanceToSegment(double px, double py, double ax, double ay, double bx, double by) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared == 0 ? 0 : ((px - ax) * dx + (py - ay) * dy) / lengthSquared;
+        t = Math.max(0, Math.min(1, t));
+        double ex = px - (ax + t * dx);
+        double ey = py - (ay + t * dy);
+        return Math.sqrt(ex * ex + ey * ey);
+    }
+}
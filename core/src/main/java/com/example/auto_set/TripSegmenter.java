@@ -0,0 +1,331 @@
+package com.example.auto_set;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Turns the fix stream into stay points and the trips between them, one fix
+ * at a time in constant memory.
+ *
+ * Fixes within radiusMeters of the running centroid of a candidate build it
+ * up; a candidate that spans minStayMs becomes a stay. A stay ends once fixes
+ * have stayed outside its radius for exitMs, so a GPS glitch does not split
+ * it. The departure starts a trip, which ends at the arrival of the next
+ * stay; its mode comes from the average speed over it. Events are only
+ * reported once complete.
+ *
+ * State is saved with {@link #save(File)} and fixes up to
+ * {@link #getLastTimestamp()} are ignored, like {@link StreamingClusterer}.
+ * Not thread safe; feed it from one thread.
+ */
+public class TripSegmenter {
+
+    public static final float DEFAULT_RADIUS_METERS = 100;
+    public static final long DEFAULT_MIN_STAY_MS = 10 * 60_000L;
+    public static final long DEFAULT_EXIT_MS = 60_000L;
+
+    private static final int MAGIC = 0x41535453; // "ASTS"
+    private static final short FORMAT_VERSION = 1;
+    private static final double METERS_PER_DEGREE = 111_320;
+    // The odometer only moves in steps at least this long, so fix noise does not add up to kilometres
+    private static final double ODOMETER_STEP_METERS = 25;
+
+    public enum Type {
+        STAY,
+        TRIP
+    }
+
+    public static class Event {
+        public final Type type;
+        public final long start;
+        public final long end;
+        public final double startLatitude;
+        public final double startLongitude;
+        public final double endLatitude;
+        public final double endLongitude;
+        // The stay's place, or where the trip ended; StreamingClusterer.NO_CLUSTER if unknown
+        public final int place;
+        // Null for stays
+        public final MotionClassifier.State mode;
+        public final double distanceMeters;
+
+        Event(Type type, long start, long end, double startLatitude, double startLongitude, double endLatitude,
+              double endLongitude, int place, MotionClassifier.State mode, double distanceMeters) {
+            this.type = type;
+            this.start = start;
+            this.end = end;
+            this.startLatitude = startLatitude;
+            this.startLongitude = startLongitude;
+            this.endLatitude = endLatitude;
+            this.endLongitude = endLongitude;
+            this.place = place;
+            this.mode = mode;
+            this.distanceMeters = distanceMeters;
+        }
+
+        public long getDurationMs() {
+            return end - start;
+        }
+
+        // One row in the layout of EventLog.HEADER
+        public String toCsv() {
+            return String.format(Locale.US, "%s,%d,%d,%d,%.6f,%.6f,%.6f,%.6f,%d,%s,%.1f\n",
+                    type.name().toLowerCase(Locale.US), start, end, getDurationMs(), startLatitude, startLongitude,
+                    endLatitude, endLongitude, place, mode != null ? mode.name().toLowerCase(Locale.US) : "",
+                    distanceMeters);
+        }
+    }
+
+    public interface Listener {
+        void onEvent(Event event) throws IOException;
+    }
+
+    private final float radiusMeters;
+    private final long minStayMs;
+    private final long exitMs;
+    private final Listener listener;
+
+    private long lastTimestamp;
+    // Meters travelled over every fix seen, and where it last moved; trips are differences of it
+    private double odometer;
+    private double odometerLatitude;
+    private double odometerLongitude;
+
+    // The current candidate, or stay once inStay
+    private int count;
+    private double sumLatitude;
+    private double sumLongitude;
+    private long arrival;
+    private long lastInside;
+    private double odometerAtArrival;
+    private double odometerAtLastInside;
+    private int place = StreamingClusterer.NO_CLUSTER;
+    private boolean inStay;
+    // First fix of the current run outside the stay, or -1
+    private long outsideSince = -1;
+
+    // The open trip, from the last departure
+    private boolean inTrip;
+    private long departure;
+    private double departureLatitude;
+    private double departureLongitude;
+    private double odometerAtDeparture;
+
+    public TripSegmenter(Listener listener) {
+        this(DEFAULT_RADIUS_METERS, DEFAULT_MIN_STAY_MS, DEFAULT_EXIT_MS, listener);
+    }
+
+    public TripSegmenter(float radiusMeters, long minStayMs, long exitMs, Listener listener) {
+        this.radiusMeters = radiusMeters;
+        this.minStayMs = minStayMs;
+        this.exitMs = exitMs;
+        this.listener = listener;
+    }
+
+    /**
+     * Feeds one fix. Fixes at or before the last one seen and fixes at 0,0
+     * are skipped.
+     *
+     * @param place the fix's StreamingClusterer cluster, or NO_CLUSTER
+     * @return the number of events reported
+     */
+    public int add(long timestamp, double latitude, double longitude, int place) throws IOException {
+        if (timestamp <= lastTimestamp || latitude == 0 && longitude == 0) {
+            return 0;
+        }
+        double step = count > 0 ? distance(odometerLatitude, odometerLongitude, latitude, longitude) : 0;
+        if (count == 0 || step >= ODOMETER_STEP_METERS) {
+            odometer += step;
+            odometerLatitude = latitude;
+            odometerLongitude = longitude;
+        }
+        lastTimestamp = timestamp;
+
+        if (count == 0) {
+            startCandidate(timestamp, latitude, longitude, place);
+            return 0;
+        }
+        if (distance(sumLatitude / count, sumLongitude / count, latitude, longitude) <= radiusMeters) {
+            outsideSince = -1;
+            count++;
+            sumLatitude += latitude;
+            sumLongitude += longitude;
+            lastInside = timestamp;
+            odometerAtLastInside = odometer;
+            if (place != StreamingClusterer.NO_CLUSTER) {
+                this.place = place;
+            }
+            if (!inStay && lastInside - arrival >= minStayMs) {
+                inStay = true;
+                return inTrip ? endTrip() : 0;
+            }
+            return 0;
+        }
+        int events = 0;
+        if (inStay) {
+            if (outsideSince < 0) {
+                outsideSince = timestamp;
+            }
+            if (timestamp - outsideSince < exitMs) {
+                return 0;
+            }
+            events = endStay();
+        }
+        startCandidate(timestamp, latitude, longitude, place);
+        return events;
+    }
+
+    private void startCandidate(long timestamp, double latitude, double longitude, int place) {
+        count = 1;
+        sumLatitude = latitude;
+        sumLongitude = longitude;
+        arrival = timestamp;
+        lastInside = timestamp;
+        odometerAtArrival = odometer;
+        odometerAtLastInside = odometer;
+        this.place = place;
+        inStay = false;
+        outsideSince = -1;
+    }
+
+    private int endStay() throws IOException {
+        double latitude = sumLatitude / count;
+        double longitude = sumLongitude / count;
+        inTrip = true;
+        departure = lastInside;
+        departureLatitude = latitude;
+        departureLongitude = longitude;
+        odometerAtDeparture = odometerAtLastInside;
+        report(new Event(Type.STAY, arrival, lastInside, latitude, longitude, latitude, longitude, place, null, 0));
+        return 1;
+    }
+
+    private int endTrip() throws IOException {
+        inTrip = false;
+        double meters = odometerAtArrival - odometerAtDeparture;
+        long duration = arrival - departure;
+        MotionClassifier.State mode = duration > 0 && meters * 1000 / duration >= MotionClassifier.VEHICLE_EXIT_SPEED
+                ? MotionClassifier.State.VEHICLE : MotionClassifier.State.WALKING;
+        report(new Event(Type.TRIP, departure, arrival, departureLatitude, departureLongitude,
+                sumLatitude / count, sumLongitude / count, place, mode, meters));
+        return 1;
+    }
+
+    private void report(Event event) throws IOException {
+        if (listener != null) {
+            listener.onEvent(event);
+        }
+    }
+
+    public long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    public boolean isInStay() {
+        return inStay;
+    }
+
+    /**
+     * Replays the gps_data rows after the last fix seen, with places looked
+     * up in places when given.
+     *
+     * @return the number of rows replayed
+     */
+    public int catchUp(File dataDir, StreamingClusterer places) throws IOException {
+        return new DataIndex(dataDir).forEach(getLastTimestamp() + 1, Long.MAX_VALUE, -90, -180, 90, 180,
+                (timestamp, latitude, longitude, speed) -> add(timestamp, latitude, longitude,
+                        places != null ? places.clusterAt(latitude, longitude) : StreamingClusterer.NO_CLUSTER));
+    }
+
+    // Write to a temp file and rename, so a crash never leaves half a state file
+    public void save(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeShort(FORMAT_VERSION);
+            out.writeFloat(radiusMeters);
+            out.writeLong(minStayMs);
+            out.writeLong(exitMs);
+            out.writeLong(lastTimestamp);
+            out.writeDouble(odometer);
+            out.writeDouble(odometerLatitude);
+            out.writeDouble(odometerLongitude);
+            out.writeInt(count);
+            out.writeDouble(sumLatitude);
+            out.writeDouble(sumLongitude);
+            out.writeLong(arrival);
+            out.writeLong(lastInside);
+            out.writeDouble(odometerAtArrival);
+            out.writeDouble(odometerAtLastInside);
+            out.writeInt(place);
+            out.writeBoolean(inStay);
+            out.writeLong(outsideSince);
+            out.writeBoolean(inTrip);
+            out.writeLong(departure);
+            out.writeDouble(departureLatitude);
+            out.writeDouble(departureLongitude);
+            out.writeDouble(odometerAtDeparture);
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Failed to replace " + file);
+        }
+    }
+
+    /**
+     * Reads state written by {@link #save(File)}. A missing file gives a
+     * fresh segmenter; a file saved with other parameters is an error.
+     */
+    public static TripSegmenter load(File file, float radiusMeters, long minStayMs, long exitMs, Listener listener)
+            throws IOException {
+        TripSegmenter segmenter = new TripSegmenter(radiusMeters, minStayMs, exitMs, listener);
+        if (!file.exists()) {
+            return segmenter;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a trip state file: " + file);
+            }
+            short version = in.readShort();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported trip state version " + version);
+            }
+            if (in.readFloat() != radiusMeters || in.readLong() != minStayMs || in.readLong() != exitMs) {
+                throw new IOException("Trip state was saved with other parameters");
+            }
+            segmenter.lastTimestamp = in.readLong();
+            segmenter.odometer = in.readDouble();
+            segmenter.odometerLatitude = in.readDouble();
+            segmenter.odometerLongitude = in.readDouble();
+            segmenter.count = in.readInt();
+            segmenter.sumLatitude = in.readDouble();
+            segmenter.sumLongitude = in.readDouble();
+            segmenter.arrival = in.readLong();
+            segmenter.lastInside = in.readLong();
+            segmenter.odometerAtArrival = in.readDouble();
+            segmenter.odometerAtLastInside = in.readDouble();
+            segmenter.place = in.readInt();
+            segmenter.inStay = in.readBoolean();
+            segmenter.outsideSince = in.readLong();
+            segmenter.inTrip = in.readBoolean();
+            segmenter.departure = in.readLong();
+            segmenter.departureLatitude = in.readDouble();
+            segmenter.departureLongitude = in.readDouble();
+            segmenter.odometerAtDeparture = in.readDouble();
+        }
+        return segmenter;
+    }
+
+    // Equirectangular; plenty at the scale of one step or one stay radius
+    static double distance(double lat1, double lon1, double lat2, double lon2) {
+        double x = (lon2 - lon1) * Math.cos(Math.toRadians((lat1 + lat2) / 2));
+        double y = lat2 - lat1;
+        return Math.sqrt(x * x + y * y) * METERS_PER_DEGREE;
+    }
+}
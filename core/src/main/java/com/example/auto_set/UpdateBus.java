@@ -0,0 +1,96 @@
+package com.example.auto_set;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * In-process replacement for the LOCATION_UPDATE broadcast. Publishers only
+ * store the latest value; each subscriber gets it on its own thread at most
+ * once per minIntervalMs, so bursts collapse into a single delivery.
+ */
+public class UpdateBus<T> {
+
+    public static final UpdateBus<LocationUpdate> LOCATION = new UpdateBus<>();
+    public static final UpdateBus<SensorUpdate> SENSOR = new UpdateBus<>();
+
+    public interface Subscriber<T> {
+        void onUpdate(T value);
+    }
+
+    // Runs a task on the subscriber's thread, e.g. Handler::postDelayed
+    public interface Poster {
+        void post(Runnable task, long delayMs);
+    }
+
+    private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private volatile T latest;
+
+    public void publish(T value) {
+        latest = value;
+        for (Subscription subscription : subscriptions) {
+            subscription.schedule();
+        }
+    }
+
+    public T getLatest() {
+        return latest;
+    }
+
+    // The latest value, if any, is delivered right away
+    public Subscription subscribe(Subscriber<T> subscriber, Poster poster, long minIntervalMs) {
+        Subscription subscription = new Subscription(subscriber, poster, minIntervalMs);
+        subscriptions.add(subscription);
+        if (latest != null) {
+            subscription.schedule();
+        }
+        return subscription;
+    }
+
+    public class Subscription {
+        private final Subscriber<T> subscriber;
+        private final Poster poster;
+        private final long minIntervalMs;
+        private final Runnable deliver = this::deliver;
+
+        private boolean scheduled;
+        private long lastDelivery = Long.MIN_VALUE / 2;
+        private volatile boolean cancelled;
+
+        Subscription(Subscriber<T> subscriber, Poster poster, long minIntervalMs) {
+            this.subscriber = subscriber;
+            this.poster = poster;
+            this.minIntervalMs = minIntervalMs;
+        }
+
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(this);
+        }
+
+        private void schedule() {
+            long delay;
+            synchronized (this) {
+                if (scheduled || cancelled) {
+                    return;
+                }
+                scheduled = true;
+                delay = Math.max(0, lastDelivery + minIntervalMs - now());
+            }
+            poster.post(deliver, delay);
+        }
+
+        private void deliver() {
+            synchronized (this) {
+                scheduled = false;
+                lastDelivery = now();
+            }
+            T value = latest;
+            if (!cancelled && value != null) {
+                subscriber.onUpdate(value);
+            }
+        }
+
+        private long now() {
+            return System.nanoTime() / 1_000_000L;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.example.auto_set;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Remembers how much of each gps_data file the server has acknowledged, as a
+ * byte offset plus the CRC32 of everything before it. Files of finished hours
+ * are marked final once fully sent and are never read again.
+ *
+ * Stored as one "path,offset,crc,final" line per file. Thread safe.
+ */
+public class UploadManifest {
+
+    /** The part of a file that still has to be sent. */
+    public static class Range {
+        public final String path;
+        public final File file;
+        public final long start;
+        public final long end;
+        // CRC32 of bytes [0, end), stored once the range is acknowledged
+        final long crc;
+        final boolean closed;
+
+        Range(String path, File file, long start, long end, long crc, boolean closed) {
+            this.path = path;
+            this.file = file;
+            this.start = start;
+            this.end = end;
+            this.crc = crc;
+            this.closed = closed;
+        }
+
+        public long length() {
+            return end - start;
+        }
+    }
+
+    private static class Entry {
+        long offset;
+        long crc;
+        boolean isFinal;
+    }
+
+    private final File manifestFile;
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    public UploadManifest(File manifestFile) throws IOException {
+        this.manifestFile = manifestFile;
+        if (manifestFile.exists()) {
+            load();
+        }
+    }
+
+    public synchronized boolean isFinal(String path) {
+        Entry entry = entries.get(path);
+        return entry != null && entry.isFinal;
+    }
+
+    // Bytes of path the server has acknowledged
+    public synchronized long getOffset(String path) {
+        Entry entry = entries.get(path);
+        return entry != null ? entry.offset : 0;
+    }
+
+    /**
+     * Works out which bytes of file still need sending. Only whole lines are
+     * included. If the file no longer matches what was acknowledged (it was
+     * rewritten or truncated), the whole file is sent again. Returns null when
+     * there is nothing new.
+     *
+     * @param closed true once nothing more will be appended to the file
+     */
+    public Range pending(String path, File file, boolean closed) throws IOException {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(path);
+            if (entry != null && entry.isFinal) {
+                return null;
+            }
+        }
+        long ackedOffset = entry != null ? entry.offset : 0;
+        long ackedCrc = entry != null ? entry.crc : 0;
+
+        // One pass gives the CRC of the acknowledged prefix, of the whole file and the last line end
+        CRC32 crc = new CRC32();
+        long prefixCrc = ackedOffset == 0 ? 0 : -1;
+        long lastLineEnd = 0;
+        long position = 0;
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = new FileInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                if (prefixCrc < 0 && position + read >= ackedOffset) {
+                    int split = (int) (ackedOffset - position);
+                    crc.update(buffer, 0, split);
+                    prefixCrc = crc.getValue();
+                    crc.update(buffer, split, read - split);
+                } else {
+                    crc.update(buffer, 0, read);
+                }
+                for (int i = read - 1; i >= 0; i--) {
+                    if (buffer[i] == '\n') {
+                        lastLineEnd = position + i + 1;
+                        break;
+                    }
+                }
+                position += read;
+            }
+        }
+
+        long start = prefixCrc == ackedCrc && ackedOffset <= lastLineEnd ? ackedOffset : 0;
+        if (start == lastLineEnd) {
+            if (closed && start > 0 && start == position) {
+                markFinal(path);
+            }
+            return null;
+        }
+        long endCrc = lastLineEnd == position ? crc.getValue() : crcOf(file, lastLineEnd);
+        return new Range(path, file, start, lastLineEnd, endCrc, closed);
+    }
+
+    // Records that the server has stored range; finished files become final
+    public synchronized void acknowledge(Range range) throws IOException {
+        Entry entry = entries.get(range.path);
+        if (entry == null) {
+            entry = new Entry();
+            entries.put(range.path, entry);
+        }
+        entry.offset = range.end;
+        entry.crc = range.crc;
+        entry.isFinal = range.closed && range.end == range.file.length();
+        save();
+    }
+
+    // Drops the entries of paths under prefix, for data that was compacted or deleted
+    public synchronized void forget(String prefix) throws IOException {
+        if (entries.keySet().removeIf(path -> path.startsWith(prefix))) {
+            save();
+        }
+    }
+
+    private synchronized void markFinal(String path) throws IOException {
+        Entry entry = entries.get(path);
+        if (entry != null && !entry.isFinal) {
+            entry.isFinal = true;
+            save();
+        }
+    }
+
+    private static long crcOf(File file, long length) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[64 * 1024];
+        long remaining = length;
+        try (InputStream in = new FileInputStream(file)) {
+            while (remaining > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    throw new IOException("File shrank while reading: " + file);
+                }
+                crc.update(buffer, 0, read);
+                remaining -= read;
+            }
+        }
+        return crc.getValue();
+    }
+
+    private void load() throws IOException {
+        try (BufferedReader reader = new BufferedReader(new FileReader(manifestFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(",");
+                if (parts.length != 4) {
+                    continue;
+                }
+                Entry entry = new Entry();
+                try {
+                    entry.offset = Long.parseLong(parts[1]);
+                    entry.crc = Long.parseLong(parts[2]);
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                entry.isFinal = "1".equals(parts[3]);
+                entries.put(parts[0], entry);
+            }
+        }
+    }
+
+    // Write to a temp file and rename, so a crash never leaves half a manifest
+    private void save() throws IOException {
+        File temp = new File(manifestFile.getPath() + ".tmp");
+        try (Writer writer = new BufferedWriter(new FileWriter(temp))) {
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                Entry entry = e.getValue();
+                writer.write(e.getKey() + "," + entry.offset + "," + entry.crc + "," + (entry.isFinal ? "1" : "0") + "\n");
+            }
+        }
+        if (!temp.renameTo(manifestFile)) {
+            throw new IOException("Failed to replace " + manifestFile);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.auto_set;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import okhttp3.Call;
+import okhttp3.MediaType;
+import okhttp3.MultipartBody;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+
+/**
+ * Builds the upload requests for pending ranges of the hourly CSV files.
+ * Ranges are packed into bundles, each bundle is one multipart request with a
+ * gzip-compressed "file" part per range. {@link UploadQueue} runs at most
+ * {@link #MAX_IN_FLIGHT} of them at once. Bodies are streamed from disk.
+ */
+public class UploadPipeline {
+
+    public static final int MAX_IN_FLIGHT = 2;
+    public static final long MAX_BUNDLE_BYTES = 8L * 1024 * 1024;
+    public static final int MAX_BUNDLE_FILES = 32;
+
+    private static final MediaType CSV = MediaType.parse("text/csv");
+
+    private final OkHttpClient client;
+    private final String url;
+
+    public UploadPipeline(OkHttpClient client, String url) {
+        this.client = client;
+        this.url = url;
+    }
+
+    // Reads the header lines of later parts now; the ranges themselves are read when the call runs
+    public Call newCall(List<UploadManifest.Range> bundle) throws IOException {
+        Request request = new Request.Builder()
+                .url(url)
+                .post(body(bundle))
+                .build();
+        return client.newCall(request);
+    }
+
+    static MultipartBody body(List<UploadManifest.Range> bundle) throws IOException {
+        MultipartBody.Builder body = new MultipartBody.Builder().setType(MultipartBody.FORM);
+        for (UploadManifest.Range range : bundle) {
+            // Later parts repeat the header line so each part is a complete CSV
+            byte[] header = range.start == 0 ? new byte[0] : FileRangeRequestBody.readFirstLine(range.file);
+            body.addFormDataPart("file", partName(range), new GzipRequestBody(
+                    new FileRangeRequestBody(CSV, range.file, range.start, range.end, header)));
+        }
+        return body.build();
+    }
+
+    // Greedy in order; a range bigger than maxBytes goes into a bundle of its own
+    static List<List<UploadManifest.Range>> bundle(List<UploadManifest.Range> ranges, long maxBytes, int maxFiles) {
+        List<List<UploadManifest.Range>> bundles = new ArrayList<>();
+        List<UploadManifest.Range> current = new ArrayList<>();
+        long currentBytes = 0;
+        for (UploadManifest.Range range : ranges) {
+            if (!current.isEmpty() && (current.size() >= maxFiles || currentBytes + range.length() > maxBytes)) {
+                bundles.add(current);
+                current = new ArrayList<>();
+                currentBytes = 0;
+            }
+            current.add(range);
+            currentBytes += range.length();
+        }
+        if (!current.isEmpty()) {
+            bundles.add(current);
+        }
+        return bundles;
+    }
+
+    // yyyy-MM-dd/HH.csv becomes yyyy-MM-dd_HH.csv.gz; later parts of a file carry their start offset
+    static String partName(UploadManifest.Range range) {
+        String baseName = range.path.substring(0, range.path.lastIndexOf('.')).replace('/', '_');
+        return (range.start == 0 ? baseName : baseName + "_from" + range.start) + ".csv.gz";
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.auto_set;
+
+/**
+ * Integrates vertical velocity (m/s, positive up) from linear acceleration
+ * projected on the gravity vector, using the sensor event timestamps. The
+ * integral drifts, so every GPS altitude pair that is far enough apart pulls
+ * the estimate towards the climb rate derived from altitude.
+ */
+public class VerticalVelocityIntegrator {
+
+    // Longer gaps (sensor paused, batch dropped) are not integrated across
+    static final long MAX_STEP_NS = 500_000_000L;
+    // Altitude samples closer than this give too noisy a climb rate
+    static final long MIN_ALTITUDE_INTERVAL_NS = 1_000_000_000L;
+    // Share of the GPS climb rate blended in per altitude update
+    static final double GPS_GAIN = 0.2;
+
+    private float gravityX;
+    private float gravityY;
+    private float gravityZ;
+    private boolean hasGravity;
+
+    private long lastAccelTimeNs = -1;
+    private double velocity;
+
+    private long lastAltitudeTimeNs = -1;
+    private double lastAltitude;
+
+    public synchronized void onGravity(float x, float y, float z) {
+        gravityX = x;
+        gravityY = y;
+        gravityZ = z;
+        hasGravity = true;
+    }
+
+    public synchronized void onLinearAcceleration(long timestampNs, float x, float y, float z) {
+        if (!hasGravity) {
+            return;
+        }
+        double gravityMagnitude = Math.sqrt(gravityX * gravityX + gravityY * gravityY + gravityZ * gravityZ);
+        if (gravityMagnitude == 0) {
+            return;
+        }
+        double verticalAcceleration = (x * gravityX + y * gravityY + z * gravityZ) / gravityMagnitude;
+
+        if (lastAccelTimeNs >= 0) {
+            long step = timestampNs - lastAccelTimeNs;
+            if (step > 0 && step <= MAX_STEP_NS) {
+                velocity += verticalAcceleration * (step / 1e9);
+            }
+        }
+        lastAccelTimeNs = timestampNs;
+    }
+
+    public synchronized void onAltitude(long timestampNs, double altitude) {
+        if (lastAltitudeTimeNs < 0) {
+            lastAltitudeTimeNs = timestampNs;
+            lastAltitude = altitude;
+            return;
+        }
+        long interval = timestampNs - lastAltitudeTimeNs;
+        if (interval < MIN_ALTITUDE_INTERVAL_NS) {
+            return;
+        }
+        double gpsVelocity = (altitude - lastAltitude) / (interval / 1e9);
+        velocity += GPS_GAIN * (gpsVelocity - velocity);
+        lastAltitudeTimeNs = timestampNs;
+        lastAltitude = altitude;
+    }
+
+    public synchronized double getVelocity() {
+        return velocity;
+    }
+
+    public synchronized void reset() {
+        hasGravity = false;
+        lastAccelTimeNs = -1;
+        lastAltitudeTimeNs = -1;
+        velocity = 0;
+    }
+}
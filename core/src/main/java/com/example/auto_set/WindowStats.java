@@ -0,0 +1,61 @@
+package com.example.auto_set;
+
+/**
+ * Running count, mean, variance (Welford) and peak of a value stream.
+ */
+public class WindowStats {
+
+    private int count;
+    private double mean;
+    private double m2;
+    private double peak;
+
+    public void add(double value) {
+        count++;
+        double delta = value - mean;
+        mean += delta / count;
+        m2 += delta * (value - mean);
+        if (count == 1 || value > peak) {
+            peak = value;
+        }
+    }
+
+    // Folds in the statistics of another window (Chan et al. parallel update)
+    public void merge(int otherCount, double otherMean, double otherVariance, double otherPeak) {
+        if (otherCount == 0) {
+            return;
+        }
+        if (count == 0 || otherPeak > peak) {
+            peak = otherPeak;
+        }
+        int total = count + otherCount;
+        double delta = otherMean - mean;
+        m2 += otherVariance * otherCount + delta * delta * count * otherCount / total;
+        mean += delta * otherCount / total;
+        count = total;
+    }
+
+    public void reset() {
+        count = 0;
+        mean = 0;
+        m2 = 0;
+        peak = 0;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    // Population variance; 0 for fewer than two values
+    public double getVariance() {
+        return count > 1 ? m2 / count : 0;
+    }
+
+    public double getPeak() {
+        return peak;
+    }
+}
@@ -0,0 +1,242 @@
+package com.example.auto_set;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BinarySampleLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File dataDir;
+    private long hourStart;
+
+    @Before
+    public void setUp() throws IOException {
+        dataDir = folder.newFolder("gps_data");
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(2024, Calendar.MAY, 1, 9, 0, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        hourStart = calendar.getTimeInMillis();
+    }
+
+    // Values that survive the binary encoding exactly
+    private LocationSample sample(int i) {
+        LocationSample s = new LocationSample();
+        s.timestamp = hourStart + i * 1000L;
+        s.latitude = 37.5 + i * 1e-5;
+        s.longitude = 126.9 - i * 1e-5;
+        s.speed = i * 0.25f;
+        s.gravityX = 0.5f;
+        s.gravityY = -0.25f;
+        s.gravityZ = 9.75f;
+        s.linearAccelX = i;
+        s.linearAccelY = -i;
+        s.linearAccelZ = 0.125f;
+        s.altitude = 40.5;
+        s.wifiEnabled = i % 2 == 0;
+        s.bluetoothEnabled = i % 3 == 0;
+        s.silentMode = true;
+        s.mobileDataEnabled = false;
+        s.linearAccelMean = 1.5f;
+        s.linearAccelVariance = 0.75f;
+        s.linearAccelPeak = 4;
+        s.sensorSamples = 50 + i;
+        s.provider = LocationSample.PROVIDER_GPS;
+        return s;
+    }
+
+    private File hourFile() {
+        return new File(dataDir, new HourBucket().roll(hourStart) + ".bin");
+    }
+
+    private static List<String> csvRows(File binFile) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryLogConverter.toCsv(binFile, out);
+        List<String> lines = new ArrayList<>();
+        for (String line : new String(out.toByteArray(), StandardCharsets.US_ASCII).split("\n")) {
+            lines.add(line + "\n");
+        }
+        assertEquals(CsvSampleLog.HEADER, lines.remove(0));
+        return lines;
+    }
+
+    private static String encode(LocationSample sample) {
+        CsvRowEncoder encoder = new CsvRowEncoder();
+        return new String(encoder.getBuffer(), 0, encoder.encode(sample), StandardCharsets.US_ASCII);
+    }
+
+    // A segment as the first app version wrote it: 48-byte records without provider or aggregates
+    private void writeVersion1(File file, int records) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BinarySampleLog.HEADER_SIZE
+                + records * BinarySampleLog.RECORD_SIZE_V1).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(BinarySampleLog.OFFSET_MAGIC, BinarySampleLog.MAGIC);
+        buffer.putShort(BinarySampleLog.OFFSET_VERSION, (short) 1);
+        buffer.putShort(BinarySampleLog.OFFSET_RECORD_SIZE, (short) BinarySampleLog.RECORD_SIZE_V1);
+        buffer.putLong(BinarySampleLog.OFFSET_HOUR_START, hourStart);
+        buffer.putInt(BinarySampleLog.OFFSET_COUNT, records);
+        ByteBuffer record = ByteBuffer.allocate(BinarySampleLog.RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < records; i++) {
+            BinarySampleLog.putRecord(record, 0, hourStart, sample(i));
+            record.limit(BinarySampleLog.RECORD_SIZE_V1).position(0);
+            buffer.position(BinarySampleLog.HEADER_SIZE + i * BinarySampleLog.RECORD_SIZE_V1);
+            buffer.put(record);
+            record.clear();
+        }
+        assertTrue(file.getParentFile().mkdirs());
+        Files.write(file.toPath(), buffer.array());
+    }
+
+    @Test
+    public void recordsRoundTripThroughTheCsvLayout() throws IOException {
+        BinarySampleLog log = new BinarySampleLog(dataDir, HourlyLogWriter.DEFAULT_FLUSH_INTERVAL_MS,
+                HourlyLogWriter.Durability.BUFFERED);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(BinarySampleLog.RECORD_SIZE, log.append(sample(i)));
+        }
+        log.close();
+
+        File file = hourFile();
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        // The mapped tail is truncated on close
+        assertEquals(BinarySampleLog.HEADER_SIZE + 100 * BinarySampleLog.RECORD_SIZE, bytes.length);
+        ByteBuffer header = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(BinarySampleLog.MAGIC, header.getInt(BinarySampleLog.OFFSET_MAGIC));
+        assertEquals(BinarySampleLog.SCHEMA_VERSION, header.getShort(BinarySampleLog.OFFSET_VERSION));
+        assertEquals(BinarySampleLog.RECORD_SIZE, header.getShort(BinarySampleLog.OFFSET_RECORD_SIZE));
+        assertEquals(hourStart, header.getLong(BinarySampleLog.OFFSET_HOUR_START));
+        assertEquals(100, header.getInt(BinarySampleLog.OFFSET_COUNT));
+        // Time offset and provider of record 7
+        int record = BinarySampleLog.HEADER_SIZE + 7 * BinarySampleLog.RECORD_SIZE;
+        assertEquals(7000, header.getInt(record));
+        assertEquals(LocationSample.PROVIDER_GPS, header.get(record + 45));
+
+        List<String> rows = csvRows(file);
+        assertEquals(100, rows.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(encode(sample(i)), rows.get(i));
+        }
+    }
+
+    @Test
+    public void reopeningAnHourAppendsToIt() throws IOException {
+        for (int part = 0; part < 2; part++) {
+            BinarySampleLog log = new BinarySampleLog(dataDir, HourlyLogWriter.DEFAULT_FLUSH_INTERVAL_MS,
+                    HourlyLogWriter.Durability.SYNC);
+            for (int i = part * 10; i < part * 10 + 10; i++) {
+                log.append(sample(i));
+            }
+            log.close();
+        }
+        List<String> rows = csvRows(hourFile());
+        assertEquals(20, rows.size());
+        assertEquals(encode(sample(19)), rows.get(19));
+    }
+
+    @Test
+    public void version1HourIsConvertedInPlaceWhenReopened() throws IOException {
+        File file = hourFile();
+        writeVersion1(file, 30);
+        // Indexed with the old record size, as a backfill before the upgrade would
+        assertEquals(1, new DataIndex(dataDir).backfill());
+        assertEquals(1, BinaryLogConverter.schemaVersion(file));
+
+        BinarySampleLog log = new BinarySampleLog(dataDir, HourlyLogWriter.DEFAULT_FLUSH_INTERVAL_MS,
+                HourlyLogWriter.Durability.BUFFERED);
+        for (int i = 30; i < 40; i++) {
+            log.append(sample(i));
+        }
+        log.close();
+
+        assertEquals(BinarySampleLog.SCHEMA_VERSION, BinaryLogConverter.schemaVersion(file));
+        File[] days = dataDir.listFiles(File::isDirectory);
+        assertNotNull(days);
+        assertEquals(1, days.length);
+        // Still the one hour file, nothing moved aside
+        assertEquals(Collections.singletonList(file), DataIndex.hourFiles(days[0], false));
+        assertEquals(2, days[0].list().length);
+
+        List<String> rows = csvRows(file);
+        assertEquals(40, rows.size());
+        // Old records carry no provider or aggregates
+        LocationSample old = sample(5);
+        old.provider = LocationSample.PROVIDER_UNKNOWN;
+        old.linearAccelMean = 0;
+        old.linearAccelVariance = 0;
+        old.linearAccelPeak = 0;
+        old.sensorSamples = 0;
+        assertEquals(encode(old), rows.get(5));
+        assertEquals(encode(sample(35)), rows.get(35));
+
+        // The index was rebuilt for the new offsets, so every row is found once
+        List<Long> found = new ArrayList<>();
+        new DataIndex(dataDir).forEach(hourStart, hourStart + 3600_000L, -90, -180, 90, 180,
+                (timestamp, lat, lon, speed) -> found.add(timestamp));
+        assertEquals(40, found.size());
+        for (int i = 0; i < 40; i++) {
+            assertEquals(hourStart + i * 1000L, (long) found.get(i));
+        }
+    }
+
+    @Test
+    public void unreadableHourIsMovedAside() throws IOException {
+        File file = hourFile();
+        assertTrue(file.getParentFile().mkdirs());
+        Files.write(file.toPath(), new byte[]{1, 2, 3});
+        assertEquals(0, BinaryLogConverter.schemaVersion(file));
+
+        BinarySampleLog log = new BinarySampleLog(dataDir, HourlyLogWriter.DEFAULT_FLUSH_INTERVAL_MS,
+                HourlyLogWriter.Durability.BUFFERED);
+        log.append(sample(0));
+        log.close();
+        assertEquals(1, csvRows(file).size());
+        String[] aside = file.getParentFile().list((dir, name) -> name.contains(".unreadable"));
+        assertNotNull(aside);
+        assertEquals(1, aside.length);
+    }
+
+    @Test
+    public void csvExportIsRewrittenOnlyWhenTheSegmentIsNewer() throws IOException {
+        BinarySampleLog log = new BinarySampleLog(dataDir, HourlyLogWriter.DEFAULT_FLUSH_INTERVAL_MS,
+                HourlyLogWriter.Durability.BUFFERED);
+        for (int i = 0; i < 10; i++) {
+            log.append(sample(i));
+        }
+        log.close();
+        File bin = hourFile();
+        File csv = new File(folder.getRoot(), "export/2024-05-01/09.csv");
+
+        assertSame(csv, BinaryLogConverter.toCsv(bin, csv));
+        List<String> lines = Files.readAllLines(csv.toPath(), StandardCharsets.US_ASCII);
+        assertEquals(11, lines.size());
+        assertEquals(encode(sample(9)).trim(), lines.get(10));
+
+        // An export at least as new as the segment is reused as is
+        Files.write(csv.toPath(), "cached\n".getBytes(StandardCharsets.US_ASCII));
+        assertTrue(bin.setLastModified(1_700_000_000_000L));
+        assertTrue(csv.setLastModified(1_700_000_000_000L));
+        BinaryLogConverter.toCsv(bin, csv);
+        assertEquals("cached", Files.readAllLines(csv.toPath(), StandardCharsets.US_ASCII).get(0));
+
+        // A segment written since is exported again
+        assertTrue(bin.setLastModified(1_700_000_001_000L));
+        BinaryLogConverter.toCsv(bin, csv);
+        assertEquals(11, Files.readAllLines(csv.toPath(), StandardCharsets.US_ASCII).size());
+    }
+}
@@ -0,0 +1,277 @@
+package com.example.auto_set;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ClusterModelTest {
+
+    private static final double LAT = 37.5665;
+    private static final double LON = 126.9780;
+    // About 11 m
+    private static final double STEP = 0.0001;
+
+    private static double e7(double degrees) {
+        return Math.round(degrees * 1e7) / 1e7;
+    }
+
+    private static double[] square(double minLat, double minLon, double size) {
+        return new double[]{minLat, minLon, minLat, minLon + size, minLat + size, minLon + size, minLat + size, minLon};
+    }
+
+    /**
+     * Circles from 20 m to 500 m, triangles and quadrilaterals around the
+     * center, and a few circles large enough to skip the grid. Coordinates
+     * are already on the 1e-7 grid of the file format.
+     */
+    private static List<ClusterModel.Cluster> randomClusters(Random random, int count) {
+        List<ClusterModel.Cluster> clusters = new ArrayList<>();
+        for (int id = 0; id < count; id++) {
+            double lat = e7(LAT + (random.nextDouble() - 0.5) * 0.1);
+            double lon = e7(LON + (random.nextDouble() - 0.5) * 0.1);
+            int flags = random.nextInt(8);
+            double[] polygon = null;
+            float radius = 20 + random.nextFloat() * 480;
+            if (id % 50 == 49) {
+                radius = 30_000;
+            } else if (id % 3 == 0) {
+                int vertices = 3 + random.nextInt(2);
+                polygon = new double[vertices * 2];
+                for (int v = 0; v < vertices; v++) {
+                    double angle = 2 * Math.PI * v / vertices + random.nextDouble() * 0.5;
+                    double size = 0.001 + random.nextDouble() * 0.004;
+                    polygon[2 * v] = e7(lat + Math.sin(angle) * size);
+                    polygon[2 * v + 1] = e7(lon + Math.cos(angle) * size);
+                }
+            }
+            clusters.add(new ClusterModel.Cluster(id, lat, lon, radius, flags, polygon));
+        }
+        return clusters;
+    }
+
+    // What find should return: every cluster tested, nearest centroid first
+    private static ClusterModel.Cluster bruteForce(List<ClusterModel.Cluster> clusters, double lat, double lon) {
+        ClusterModel.Cluster best = null;
+        double bestDistance = Double.MAX_VALUE;
+        for (ClusterModel.Cluster cluster : clusters) {
+            if (!cluster.contains(lat, lon)) {
+                continue;
+            }
+            double distance = ClusterModel.distanceMeters(cluster.latitude, cluster.longitude, lat, lon);
+            if (distance < bestDistance) {
+                best = cluster;
+                bestDistance = distance;
+            }
+        }
+        return best;
+    }
+
+    private static Integer id(ClusterModel.Cluster cluster) {
+        return cluster == null ? null : cluster.id;
+    }
+
+    @Test
+    public void findMatchesABruteForceScan() {
+        Random random = new Random(17);
+        List<ClusterModel.Cluster> clusters = randomClusters(random, 300);
+        ClusterModel model = new ClusterModel(1, clusters);
+        int inside = 0;
+        for (int i = 0; i < 20_000; i++) {
+            double lat = LAT + (random.nextDouble() - 0.5) * 0.12;
+            double lon = LON + (random.nextDouble() - 0.5) * 0.12;
+            ClusterModel.Cluster expected = bruteForce(clusters, lat, lon);
+            assertEquals(lat + "," + lon, id(expected), id(model.find(lat, lon)));
+            if (expected != null) {
+                inside++;
+            }
+        }
+        assertTrue(inside > 1000);
+        // Far away from everything
+        assertNull(model.find(-33.8688, 151.2093));
+    }
+
+    @Test
+    public void circleEdgeInEveryDirectionIsFound() {
+        ClusterModel.Cluster circle = new ClusterModel.Cluster(7, LAT, LON, 250, 0, null);
+        ClusterModel model = new ClusterModel(1, Arrays.asList(circle));
+        for (int degrees = 0; degrees < 360; degrees += 5) {
+            double angle = Math.toRadians(degrees);
+            // Half a meter inside and outside the radius
+            for (double meters : new double[]{249.5, 250.5}) {
+                double dLat = Math.sin(angle) * meters / Math.toRadians(6_371_000);
+                double dLon = Math.cos(angle) * meters / (Math.toRadians(6_371_000) * Math.cos(Math.toRadians(LAT)));
+                ClusterModel.Cluster found = model.find(LAT + dLat, LON + dLon);
+                assertEquals(degrees + " deg " + meters + " m", meters < 250 ? circle : null, found);
+            }
+        }
+    }
+
+    @Test
+    public void circleReachingJustIntoTheNextIndexCellIsFound() {
+        double metersPerDegree = Math.toRadians(6_371_000);
+        // The cell boundary lies 249.8 m north of the center, just inside the 250 m radius
+        double boundary = Math.ceil(LAT / ClusterModel.INDEX_CELL_DEGREES) * ClusterModel.INDEX_CELL_DEGREES;
+        double center = boundary - 249.8 / metersPerDegree;
+        ClusterModel.Cluster circle = new ClusterModel.Cluster(9, center, LON, 250, 0, null);
+        ClusterModel model = new ClusterModel(1, Arrays.asList(circle));
+        double north = center + 249.9 / metersPerDegree;
+        assertTrue(circle.contains(north, LON));
+        assertEquals(circle, model.find(north, LON));
+    }
+
+    @Test
+    public void sharedEdgesAndVerticesBelongToOneSquare() {
+        double size = 10 * STEP;
+        double[][] squares = {square(LAT, LON, size), square(LAT, LON + size, size),
+                square(LAT + size, LON, size), square(LAT + size, LON + size, size)};
+        List<ClusterModel.Cluster> clusters = new ArrayList<>();
+        for (int i = 0; i < squares.length; i++) {
+            double[] s = squares[i];
+            clusters.add(new ClusterModel.Cluster(i, s[0] + size / 2, s[1] + size / 2, 0, 0, s));
+        }
+        ClusterModel model = new ClusterModel(1, clusters);
+
+        // Every point of the shared edges, the shared vertex included, is in exactly one square
+        for (int k = 1; k < 20; k++) {
+            double t = k * STEP;
+            double[][] points = {{LAT + size, LON + t}, {LAT + t, LON + size}};
+            for (double[] point : points) {
+                int containing = 0;
+                for (ClusterModel.Cluster cluster : clusters) {
+                    containing += cluster.contains(point[0], point[1]) ? 1 : 0;
+                }
+                assertEquals(Arrays.toString(point), 1, containing);
+                assertNotNull(model.find(point[0], point[1]));
+            }
+        }
+        // Outer corners stay inside only on the lower, western sides
+        assertEquals(Integer.valueOf(0), id(model.find(LAT, LON)));
+        assertNull(model.find(LAT + 2 * size, LON + 2 * size));
+        assertNull(model.find(LAT - STEP, LON + STEP));
+    }
+
+    @Test
+    public void polygonSpanningSeveralIndexCellsIsFoundInEach() {
+        // 0.02 degrees square: four index cells on a side
+        double[] polygon = square(LAT, LON, 0.02);
+        ClusterModel.Cluster cluster = new ClusterModel.Cluster(3, LAT + 0.01, LON + 0.01, 0,
+                ClusterModel.FLAG_WIFI, polygon);
+        ClusterModel.Cluster inner = new ClusterModel.Cluster(4, LAT + 0.0151, LON + 0.0151, 50, 0, null);
+        ClusterModel model = new ClusterModel(1, Arrays.asList(cluster, inner));
+        for (double lat = LAT + 0.0005; lat < LAT + 0.02; lat += 0.001) {
+            for (double lon = LON + 0.0005; lon < LON + 0.02; lon += 0.001) {
+                ClusterModel.Cluster found = model.find(lat, lon);
+                assertNotNull(found);
+                // The circle wins where both match, having the nearer centroid
+                assertEquals(inner.contains(lat, lon) ? 4 : 3, found.id);
+            }
+        }
+    }
+
+    @Test
+    public void writtenModelReadsBack() throws IOException {
+        Random random = new Random(23);
+        List<ClusterModel.Cluster> clusters = randomClusters(random, 120);
+        ClusterModel model = new ClusterModel(42, clusters);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        model.write(out);
+
+        ClusterModel read = ClusterModel.read(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(42, read.getVersion());
+        assertEquals(model.size(), read.size());
+        for (int i = 0; i < model.size(); i++) {
+            ClusterModel.Cluster a = model.getClusters().get(i);
+            ClusterModel.Cluster b = read.getClusters().get(i);
+            assertEquals(a.id, b.id);
+            assertEquals(a.latitude, b.latitude, 0);
+            assertEquals(a.longitude, b.longitude, 0);
+            assertEquals(a.radiusMeters, b.radiusMeters, 0);
+            assertEquals(a.flags(), b.flags());
+            assertArrayEquals(a.polygon, b.polygon, 0);
+        }
+        for (int i = 0; i < 2000; i++) {
+            double lat = LAT + (random.nextDouble() - 0.5) * 0.12;
+            double lon = LON + (random.nextDouble() - 0.5) * 0.12;
+            assertEquals(id(model.find(lat, lon)), id(read.find(lat, lon)));
+        }
+    }
+
+    private interface Body {
+        void write(DataOutputStream data) throws IOException;
+    }
+
+    private static byte[] model(int magic, int format, Body body) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(magic);
+        data.writeShort(format);
+        data.writeLong(1);
+        body.write(data);
+        return out.toByteArray();
+    }
+
+    private static void assertRejected(byte[] bytes) {
+        try {
+            ClusterModel.read(new ByteArrayInputStream(bytes));
+            fail("read a malformed model");
+        } catch (IOException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void malformedModelsAreRejected() throws IOException {
+        Body oneCircle = data -> {
+            data.writeInt(1);
+            data.writeInt(1);
+            data.writeInt(375_665_000);
+            data.writeInt(1_269_780_000);
+            data.writeFloat(100);
+            data.writeByte(ClusterModel.FLAG_SILENT);
+            data.writeShort(0);
+        };
+        // The well-formed version reads
+        ClusterModel valid = ClusterModel.read(new ByteArrayInputStream(
+                model(ClusterModel.MAGIC, ClusterModel.FORMAT_VERSION, oneCircle)));
+        assertTrue(valid.getClusters().get(0).silentMode);
+
+        assertRejected(model(0x12345678, ClusterModel.FORMAT_VERSION, oneCircle));
+        assertRejected(model(ClusterModel.MAGIC, ClusterModel.FORMAT_VERSION + 1, oneCircle));
+        assertRejected(model(ClusterModel.MAGIC, ClusterModel.FORMAT_VERSION, data -> data.writeInt(-1)));
+        // Cut off in the middle of the cluster
+        byte[] full = model(ClusterModel.MAGIC, ClusterModel.FORMAT_VERSION, oneCircle);
+        assertRejected(Arrays.copyOf(full, full.length - 3));
+        // More clusters announced than sent
+        assertRejected(model(ClusterModel.MAGIC, ClusterModel.FORMAT_VERSION, data -> {
+            data.writeInt(2);
+            data.writeInt(1);
+            data.writeInt(375_665_000);
+            data.writeInt(1_269_780_000);
+            data.writeFloat(100);
+            data.writeByte(0);
+            data.writeShort(0);
+        }));
+        // A polygon needs three vertices
+        assertRejected(model(ClusterModel.MAGIC, ClusterModel.FORMAT_VERSION, data -> {
+            data.writeInt(1);
+            data.writeInt(2);
+            data.writeInt(375_665_000);
+            data.writeInt(1_269_780_000);
+            data.writeFloat(0);
+            data.writeByte(0);
+            data.writeShort(2);
+            for (int i = 0; i < 4; i++) {
+                data.writeInt(375_665_000);
+            }
+        }));
+    }
+}
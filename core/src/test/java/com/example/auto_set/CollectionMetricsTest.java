@@ -0,0 +1,33 @@
+package com.example.auto_set;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CollectionMetricsTest {
+
+    @Test
+    public void outOfRangeProvidersCountAsUnknown() {
+        CollectionMetrics metrics = new CollectionMetrics();
+        metrics.fixReceived(LocationSample.PROVIDER_GPS);
+        metrics.fixReceived(LocationSample.PROVIDER_UNKNOWN);
+        metrics.fixReceived(-1);
+        metrics.fixReceived(42);
+
+        assertEquals(1, metrics.getFixesReceived(LocationSample.PROVIDER_GPS));
+        assertEquals(3, metrics.getFixesReceived(LocationSample.PROVIDER_UNKNOWN));
+        // Reading with an out-of-range code does not throw either
+        assertEquals(3, metrics.getFixesReceived(42));
+        assertEquals(3, metrics.getFixesReceived(-1));
+    }
+
+    @Test
+    public void reportIncludesUnknownProviders() {
+        CollectionMetrics metrics = new CollectionMetrics();
+        metrics.fixReceived(LocationSample.PROVIDER_FUSED);
+        metrics.fixReceived(9);
+        metrics.fixReceived(9);
+        String report = metrics.report();
+        assertTrue(report, report.contains("fixes received: unknown=2 gps=0 network=0 fused=1\n"));
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.auto_set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CollectionPipelineTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private long now = startOfDay();
+
+    private static long startOfDay() {
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(2024, Calendar.MAY, 1, 9, 0, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    private static class FakeDeviceState implements CollectionPipeline.DeviceState {
+        boolean wifi = true;
+
+        @Override
+        public boolean isWifiEnabled() {
+            return wifi;
+        }
+
+        @Override
+        public boolean isBluetoothEnabled() {
+            return false;
+        }
+
+        @Override
+        public boolean isSilentMode() {
+            return true;
+        }
+
+        @Override
+        public boolean isMobileDataEnabled() {
+            return false;
+        }
+    }
+
+    private static class RecordingListener implements CollectionPipeline.Listener {
+        final List<LocationSample> rows = new ArrayList<>();
+        final List<Throwable> errors = new ArrayList<>();
+
+        @Override
+        public void onRowWritten(LocationFix fix, LocationSample sample) {
+            LocationSample copy = new LocationSample();
+            copy.copyFrom(sample);
+            rows.add(copy);
+        }
+
+        @Override
+        public void onMotionStateChanged(MotionClassifier.State from, MotionClassifier.State to) {
+        }
+
+        @Override
+        public void onLog(String message, Throwable error) {
+            if (error != null) {
+                errors.add(error);
+            }
+        }
+    }
+
+    private static LocationFix fix(int provider, long elapsedMs, double lat, float accuracy) {
+        return new LocationFix(provider, elapsedMs * 1_000_000L, lat, 126.9780, 30, 1.5f, accuracy,
+                true, true, true);
+    }
+
+    @Test
+    public void fusesProvidersIntoOneRowPerTick() throws IOException {
+        File dataDir = new File(folder.getRoot(), "gps_data");
+        FakeDeviceState device = new FakeDeviceState();
+        RecordingListener listener = new RecordingListener();
+        CollectionPipeline pipeline = new CollectionPipeline(dataDir, false, HourlyLogWriter.Durability.BUFFERED,
+                1000, device, () -> now, listener);
+
+        for (int tick = 0; tick < 10; tick++) {
+            long elapsed = 10_000 + tick * 1000L;
+            // The first fix of a tick emits the previous one, so its sensor samples come after
+            pipeline.offer(fix(LocationSample.PROVIDER_NETWORK, elapsed + 100, 37.0 + tick * 1e-4, 30));
+            pipeline.offer(fix(LocationSample.PROVIDER_GPS, elapsed + 300, 37.0 + tick * 1e-4, 5));
+            // Fifty linear acceleration samples of 2 m/s^2 along x
+            for (int i = 0; i < 50; i++) {
+                long ns = (elapsed + 400 + i * 10L) * 1_000_000L;
+                pipeline.onGravity(ns, 0, 0, 9.81f);
+                pipeline.onLinearAcceleration(ns, 2, 0, 0);
+            }
+            now += 1000;
+        }
+        // The last tick waits for a later fix or its deadline
+        assertEquals(10_000 + 10 * 1000L + LocationFusion.DEFAULT_GRACE_MS, pipeline.getFusionDeadline());
+        pipeline.flushFusion(pipeline.getFusionDeadline());
+        pipeline.close();
+
+        assertTrue(listener.errors.isEmpty());
+        assertEquals(10, listener.rows.size());
+        for (LocationSample row : listener.rows) {
+            assertEquals(LocationSample.PROVIDER_GPS, row.provider);
+            assertEquals(2f, row.linearAccelMean, 1e-4);
+            assertEquals(50, row.sensorSamples);
+            assertEquals(9.81f, row.gravityZ, 1e-4);
+            assertTrue(row.wifiEnabled);
+            assertTrue(row.silentMode);
+        }
+
+        File[] days = dataDir.listFiles(File::isDirectory);
+        assertNotNull(days);
+        assertEquals(1, days.length);
+        List<String> lines = Files.readAllLines(new File(days[0], "09.csv").toPath(), StandardCharsets.US_ASCII);
+        assertEquals(CsvSampleLog.HEADER.trim(), lines.get(0));
+        assertEquals(11, lines.size());
+    }
+
+    @Test
+    public void dropsRowsWithoutStorage() {
+        RecordingListener listener = new RecordingListener();
+        CollectionPipeline pipeline = new CollectionPipeline(null, false, HourlyLogWriter.Durability.BUFFERED,
+                1000, new FakeDeviceState(), () -> now, listener);
+        pipeline.offer(fix(LocationSample.PROVIDER_GPS, 1000, 37.0, 5));
+        pipeline.loadPlaceState(folder.getRoot());
+        pipeline.close();
+
+        assertTrue(listener.rows.isEmpty());
+        assertNull(pipeline.getClusterer());
+    }
+}
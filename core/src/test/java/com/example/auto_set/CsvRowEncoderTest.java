@@ -0,0 +1,93 @@
+package com.example.auto_set;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CsvRowEncoderTest {
+
+    // The String.format row saveLocationToFile used before the encoder
+    private static String legacyRow(LocationSample s) {
+        return String.format(Locale.US, "%d,%f,%f,%f,%f,%f,%f,%f,%f,%f,%f,%b,%b,%b,%b,%f,%f,%f,%d,%s\n",
+                s.timestamp, s.latitude, s.longitude, s.speed,
+                s.gravityX, s.gravityY, s.gravityZ,
+                s.linearAccelX, s.linearAccelY, s.linearAccelZ,
+                s.altitude, s.wifiEnabled, s.bluetoothEnabled, s.silentMode, s.mobileDataEnabled,
+                s.linearAccelMean, s.linearAccelVariance, s.linearAccelPeak, s.sensorSamples,
+                LocationSample.providerName(s.provider));
+    }
+
+    private static LocationSample randomSample(Random random) {
+        LocationSample s = new LocationSample();
+        s.timestamp = 1_700_000_000_000L + random.nextInt(1_000_000_000);
+        s.latitude = 37.5 + random.nextDouble();
+        s.longitude = 126.9 + random.nextDouble();
+        s.speed = random.nextFloat() * 30;
+        s.gravityX = (float) random.nextGaussian();
+        s.gravityY = (float) random.nextGaussian();
+        s.gravityZ = 9.81f - random.nextFloat();
+        s.linearAccelX = (float) random.nextGaussian();
+        s.linearAccelY = (float) random.nextGaussian();
+        s.linearAccelZ = (float) random.nextGaussian();
+        s.altitude = random.nextGaussian() * 100;
+        s.wifiEnabled = random.nextBoolean();
+        s.bluetoothEnabled = random.nextBoolean();
+        s.silentMode = random.nextBoolean();
+        s.mobileDataEnabled = random.nextBoolean();
+        s.linearAccelMean = random.nextFloat() * 3;
+        s.linearAccelVariance = random.nextFloat();
+        s.linearAccelPeak = random.nextFloat() * 10;
+        s.sensorSamples = random.nextInt(100);
+        s.provider = random.nextInt(4);
+        return s;
+    }
+
+    private static String encode(CsvRowEncoder encoder, LocationSample sample) {
+        int length = encoder.encode(sample);
+        return new String(encoder.getBuffer(), 0, length, StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    public void matchesStringFormatForRandomRows() {
+        CsvRowEncoder encoder = new CsvRowEncoder();
+        Random random = new Random(42);
+        for (int i = 0; i < 200_000; i++) {
+            LocationSample sample = randomSample(random);
+            assertEquals(legacyRow(sample), encode(encoder, sample));
+        }
+    }
+
+    @Test
+    public void matchesStringFormatAtRoundingTies() {
+        CsvRowEncoder encoder = new CsvRowEncoder();
+        LocationSample sample = new LocationSample();
+        for (int i = -100_000; i < 100_000; i++) {
+            sample.latitude = i / 1e6 + 5e-7;
+            sample.longitude = i / 1e6 - 5e-7;
+            sample.altitude = i / 10.0 + 5e-7;
+            sample.speed = (float) (i / 1e6 + 5e-7);
+            assertEquals(legacyRow(sample), encode(encoder, sample));
+        }
+    }
+
+    @Test
+    public void matchesStringFormatForSpecialValues() {
+        double[] values = {0.0, -0.0, -1e-9, 1e-7, Double.MIN_VALUE, 1e12, -1e300,
+                Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        CsvRowEncoder encoder = new CsvRowEncoder();
+        LocationSample sample = new LocationSample();
+        for (double value : values) {
+            sample.timestamp = -(long) value;
+            sample.latitude = value;
+            sample.longitude = value;
+            sample.altitude = value;
+            sample.speed = (float) value;
+            sample.gravityZ = (float) -value;
+            assertEquals(legacyRow(sample), encode(encoder, sample));
+        }
+    }
+}
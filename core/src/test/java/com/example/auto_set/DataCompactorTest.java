@@ -0,0 +1,284 @@
+package com.example.auto_set;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+public class DataCompactorTest {
+
+    private static final double HOME_LAT = 37.5665;
+    private static final double HOME_LON = 126.9780;
+    private static final long NEVER = Long.MAX_VALUE;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File dataDir;
+    private UploadManifest manifest;
+    private long dayStart;
+
+    @Before
+    public void setUp() throws IOException {
+        dataDir = folder.newFolder("gps_data");
+        manifest = new UploadManifest(folder.newFile("manifest.csv"));
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(2024, Calendar.MAY, 1, 0, 0, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        dayStart = calendar.getTimeInMillis();
+    }
+
+    private long at(int day, int hour) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(dayStart);
+        calendar.add(Calendar.DAY_OF_MONTH, day);
+        calendar.add(Calendar.HOUR_OF_DAY, hour);
+        return calendar.getTimeInMillis();
+    }
+
+    // Half an hour at home, then half an hour driving along a curve, one row a second
+    private int writeHour(SampleLog log, long start) throws IOException {
+        LocationSample sample = new LocationSample();
+        sample.sensorSamples = 50;
+        sample.linearAccelMean = 1;
+        sample.linearAccelPeak = 2;
+        for (int second = 0; second < 3600; second++) {
+            sample.timestamp = start + second * 1000L;
+            if (second < 1800) {
+                sample.latitude = HOME_LAT;
+                sample.longitude = HOME_LON;
+                sample.speed = 0;
+            } else {
+                double t = (second - 1800) / 1800.0;
+                sample.latitude = HOME_LAT + 0.1 * t;
+                sample.longitude = HOME_LON + 0.05 * Math.sin(t * Math.PI);
+                sample.speed = 10;
+            }
+            sample.linearAccelPeak = second == 2500 ? 9 : 2;
+            log.append(sample);
+        }
+        return 3600;
+    }
+
+    private void writeDays(int days, int hoursPerDay) throws IOException {
+        CsvSampleLog log = new CsvSampleLog(dataDir, HourlyLogWriter.DEFAULT_FLUSH_INTERVAL_MS,
+                HourlyLogWriter.Durability.BUFFERED);
+        for (int day = 0; day < days; day++) {
+            for (int hour = 0; hour < hoursPerDay; hour++) {
+                writeHour(log, at(day, 9 + hour));
+            }
+        }
+        log.close();
+    }
+
+    private void markUploaded(String day) throws IOException {
+        for (File file : DataIndex.hourFiles(new File(dataDir, day), false)) {
+            String path = day + "/" + file.getName();
+            manifest.acknowledge(manifest.pending(path, file, true));
+            assertTrue(manifest.isFinal(path));
+        }
+    }
+
+    private static List<LocationSample> readSegment(File segment) throws IOException {
+        List<LocationSample> rows = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new FileInputStream(segment)), StandardCharsets.US_ASCII))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                LocationSample sample = new LocationSample();
+                if (CsvSampleLog.parse(line, sample)) {
+                    rows.add(sample);
+                }
+            }
+        }
+        return rows;
+    }
+
+    // An hour file in the 15 column layout the app wrote before the sensor aggregates
+    private File writeLegacyHour(String day, String hour, int rows) throws IOException {
+        File dir = new File(dataDir, day);
+        assertTrue(dir.mkdirs() || dir.isDirectory());
+        File file = new File(dir, hour + ".csv");
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.US_ASCII)) {
+            writer.write("timestamp(ms),latitude(deg),longitude(deg),speed(m/s),gravity_x(m/s^2),gravity_y(m/s^2),"
+                    + "gravity_z(m/s^2),linear_accel_x(m/s^2),linear_accel_y(m/s^2),linear_accel_z(m/s^2),"
+                    + "altitude(m),wifi_enabled,bluetooth_enabled,silent_mode,mobile_data_enabled\n");
+            for (int i = 0; i < rows; i++) {
+                writer.write(String.format(Locale.US, "%d,%f,%f,%f,0.100000,0.200000,9.800000,0.300000,0.000000,"
+                                + "0.000000,40.000000,true,false,false,true\n",
+                        at(0, 9) + i * 1000L, HOME_LAT + i * 1e-4, HOME_LON, 5.0));
+            }
+        }
+        return file;
+    }
+
+    @Test
+    public void compactsLegacyRowsWithoutLosingThem() throws IOException {
+        writeLegacyHour("2024-05-01", "09", 100);
+        markUploaded("2024-05-01");
+
+        DataCompactor.Result result = new DataCompactor(dataDir, manifest, NEVER,
+                DataCompactor.DEFAULT_EPSILON_METERS, DataCompactor.DEFAULT_QUOTA_BYTES).run(at(2, 12));
+
+        assertEquals(1, result.compactedDays);
+        assertEquals(100, result.rowsIn);
+        assertEquals(100, result.rowsOut);
+        List<LocationSample> rows = readSegment(new File(dataDir, "2024-05-01/" + DataIndex.SEGMENT_FILE));
+        assertEquals(100, rows.size());
+        LocationSample first = rows.get(0);
+        assertEquals(at(0, 9), first.timestamp);
+        assertEquals(9.8f, first.gravityZ, 1e-5);
+        assertTrue(first.wifiEnabled);
+        assertTrue(first.mobileDataEnabled);
+        assertEquals(0, first.sensorSamples);
+        assertEquals(LocationSample.PROVIDER_UNKNOWN, first.provider);
+    }
+
+    @Test
+    public void keepsHourFilesWithUnreadableRows() throws IOException {
+        File hour = writeLegacyHour("2024-05-01", "09", 100);
+        Files.write(hour.toPath(), "1714521600000,37.5,not a number\n".getBytes(StandardCharsets.US_ASCII),
+                StandardOpenOption.APPEND);
+        markUploaded("2024-05-01");
+
+        DataCompactor.Result result = new DataCompactor(dataDir, manifest, NEVER,
+                DataCompactor.DEFAULT_EPSILON_METERS, DataCompactor.DEFAULT_QUOTA_BYTES).run(at(2, 12));
+
+        assertEquals(0, result.compactedDays);
+        assertEquals(1, result.skippedDays);
+        assertTrue(hour.exists());
+        assertFalse(new File(hour.getParentFile(), DataIndex.SEGMENT_FILE).exists());
+        assertFalse(new File(hour.getParentFile(), DataIndex.SEGMENT_FILE + ".tmp").exists());
+    }
+
+    @Test
+    public void compactsOnlyUploadedClosedDays() throws IOException {
+        writeDays(2, 3);
+        markUploaded("2024-05-01");
+        File first = new File(dataDir, "2024-05-01");
+        File second = new File(dataDir, "2024-05-02");
+
+        DataCompactor.Result result = new DataCompactor(dataDir, manifest, NEVER,
+                DataCompactor.DEFAULT_EPSILON_METERS, DataCompactor.DEFAULT_QUOTA_BYTES).run(at(2, 12));
+
+        assertEquals(1, result.compactedDays);
+        assertEquals(3 * 3600, result.rowsIn);
+        assertEquals(result.rowsIn, result.rowsOut);
+        assertTrue(DataIndex.hourFiles(first, false).isEmpty());
+        assertTrue(new File(first, DataIndex.SEGMENT_FILE).exists());
+        assertEquals(3, DataIndex.hourFiles(second, false).size());
+        assertFalse(manifest.isFinal("2024-05-01/09.csv"));
+
+        // Uploads no longer see the day; queries still find every row
+        DataIndex index = new DataIndex(dataDir);
+        assertEquals(3, index.hourFiles(false).size());
+        assertEquals(4, index.dataFiles(false).size());
+        assertEquals(1, index.summaries(first).size());
+        assertEquals(3 * 3600, index.summaries(first).get(DataIndex.SEGMENT_FILE).rows);
+        assertEquals(3600, index.forEach(at(0, 10), at(0, 11) - 1, -90, -180, 90, 180, (t, lat, lon, s) -> { }));
+        // Half of each hour at home, plus the first row of the drive
+        assertEquals(3 * 1801, index.forEach(at(0, 0), at(1, 0) - 1, HOME_LAT - 1e-5, HOME_LON - 1e-5,
+                HOME_LAT + 1e-5, HOME_LON + 1e-5, (t, lat, lon, s) -> { }));
+    }
+
+    @Test
+    public void simplifiedDayStaysWithinEpsilonAndKeepsAggregates() throws IOException {
+        writeDays(1, 1);
+        markUploaded("2024-05-01");
+        double epsilon = DataCompactor.DEFAULT_EPSILON_METERS;
+
+        DataCompactor.Result result = new DataCompactor(dataDir, manifest, 0, epsilon,
+                DataCompactor.DEFAULT_QUOTA_BYTES).run(at(1, 12));
+        assertEquals(1, result.compactedDays);
+
+        List<LocationSample> rows = readSegment(new File(dataDir, "2024-05-01/" + DataIndex.SIMPLIFIED_SEGMENT_FILE));
+        assertEquals(result.rowsOut, rows.size());
+        assertTrue("kept " + rows.size(), rows.size() < 200);
+
+        // Stay point: a row a minute while at home
+        int home = 0;
+        long sensorSamples = 0;
+        float peak = 0;
+        for (LocationSample row : rows) {
+            home += row.speed == 0 ? 1 : 0;
+            sensorSamples += row.sensorSamples;
+            peak = Math.max(peak, row.linearAccelPeak);
+            assertEquals(1, row.linearAccelMean, 1e-6);
+        }
+        assertEquals(31, home);
+        assertEquals(3600 * 50, sensorSamples);
+        assertEquals(9, peak, 0);
+
+        // Every dropped point of the drive is within epsilon of the kept polyline
+        double cosLat = Math.cos(Math.toRadians(HOME_LAT));
+        double m = 111_320;
+        for (int second = 1800; second < 3600; second++) {
+            double t = (second - 1800) / 1800.0;
+            double lat = HOME_LAT + 0.1 * t;
+            double lon = HOME_LON + 0.05 * Math.sin(t * Math.PI);
+            long timestamp = at(0, 9) + second * 1000L;
+            int next = 0;
+            while (rows.get(next).timestamp < timestamp) {
+                next++;
+            }
+            LocationSample b = rows.get(next);
+            LocationSample a = rows.get(Math.max(0, next - 1));
+            double d = TrajectorySimplifier.distanceToSegment(lon * cosLat * m, lat * m,
+                    a.longitude * cosLat * m, a.latitude * m, b.longitude * cosLat * m, b.latitude * m);
+            assertTrue("second " + second + " is " + d + " m off", d <= epsilon + 0.5);
+        }
+    }
+
+    @Test
+    public void compactedDayIsSimplifiedOnceOld() throws IOException {
+        writeDays(1, 2);
+        markUploaded("2024-05-01");
+        File day = new File(dataDir, "2024-05-01");
+        new DataCompactor(dataDir, manifest, NEVER, DataCompactor.DEFAULT_EPSILON_METERS,
+                DataCompactor.DEFAULT_QUOTA_BYTES).run(at(1, 12));
+        assertTrue(new File(day, DataIndex.SEGMENT_FILE).exists());
+
+        DataCompactor.Result result = new DataCompactor(dataDir, manifest, 30 * 24 * 3600_000L,
+                DataCompactor.DEFAULT_EPSILON_METERS, DataCompactor.DEFAULT_QUOTA_BYTES).run(at(40, 0));
+
+        assertEquals(1, result.simplifiedDays);
+        assertEquals(2 * 3600, result.rowsIn);
+        assertTrue(result.rowsOut < result.rowsIn / 10);
+        assertFalse(new File(day, DataIndex.SEGMENT_FILE).exists());
+        assertEquals(result.rowsOut,
+                new DataIndex(dataDir).summaries(day).get(DataIndex.SIMPLIFIED_SEGMENT_FILE).rows);
+        assertTrue(result.bytesAfter < result.bytesBefore);
+    }
+
+    @Test
+    public void quotaEvictsOldestClosedDaysFirst() throws IOException {
+        writeDays(3, 1);
+
+        DataCompactor.Result result = new DataCompactor(dataDir, manifest, NEVER,
+                DataCompactor.DEFAULT_EPSILON_METERS, 1).run(at(2, 12));
+
+        // Nothing was uploaded, so nothing is compacted, but the quota still holds except for today
+        assertEquals(0, result.compactedDays);
+        assertEquals(2, result.evictedDays);
+        assertFalse(new File(dataDir, "2024-05-01").exists());
+        assertFalse(new File(dataDir, "2024-05-02").exists());
+        assertTrue(new File(dataDir, "2024-05-03/09.csv").exists());
+    }
+}
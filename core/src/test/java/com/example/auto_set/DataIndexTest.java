@@ -0,0 +1,182 @@
+package com.example.auto_set;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class DataIndexTest {
+
+    private static final double SEOUL_LAT = 37.5665;
+    private static final double SEOUL_LON = 126.9780;
+    private static final double BUSAN_LAT = 35.1796;
+    private static final double BUSAN_LON = 129.0756;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File dataDir;
+    private long hourStart;
+
+    @Before
+    public void setUp() throws IOException {
+        dataDir = folder.newFolder("gps_data");
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(2024, Calendar.MAY, 1, 9, 0, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        hourStart = calendar.getTimeInMillis();
+    }
+
+    // Three hours at 1 s: Seoul, Busan, Seoul
+    private void writeHours(SampleLog log) throws IOException {
+        LocationSample sample = new LocationSample();
+        for (int hour = 0; hour < 3; hour++) {
+            for (int second = 0; second < 3600; second++) {
+                sample.timestamp = hourStart + hour * 3600_000L + second * 1000L;
+                sample.latitude = (hour == 1 ? BUSAN_LAT : SEOUL_LAT) + second * 1e-6;
+                sample.longitude = hour == 1 ? BUSAN_LON : SEOUL_LON;
+                sample.speed = 1;
+                log.append(sample);
+            }
+        }
+        log.close();
+    }
+
+    private static List<Long> timestamps(DataIndex index, long from, long to, double minLat, double minLon,
+                                         double maxLat, double maxLon) throws IOException {
+        List<Long> found = new ArrayList<>();
+        index.forEach(from, to, minLat, minLon, maxLat, maxLon, (timestamp, lat, lon, speed) -> found.add(timestamp));
+        return found;
+    }
+
+    @Test
+    public void writerKeepsOneEntryPerHour() throws IOException {
+        writeHours(new CsvSampleLog(dataDir, HourlyLogWriter.DEFAULT_FLUSH_INTERVAL_MS,
+                HourlyLogWriter.Durability.BUFFERED));
+        Map<String, HourSummary> summaries = new DataIndex(dataDir).summaries(new File(dataDir, "2024-05-01"));
+
+        assertEquals(3, summaries.size());
+        HourSummary busan = summaries.get("10.csv");
+        assertEquals(3600, busan.rows);
+        assertEquals(hourStart + 3600_000L, busan.firstTimestamp);
+        assertEquals(hourStart + 2 * 3600_000L - 1000, busan.lastTimestamp);
+        assertEquals(BUSAN_LAT, busan.minLatitude, 1e-6);
+        assertEquals(new File(dataDir, "2024-05-01/10.csv").length(), busan.indexedBytes);
+        // One checkpoint every five minutes
+        assertEquals(12, busan.checkpointTimes.size());
+        // The hour drifts north across the 35.18 grid line
+        assertEquals(2, busan.getCellCount());
+    }
+
+    @Test
+    public void timeQueryStartsAtTheNearestCheckpoint() throws IOException {
+        writeHours(new CsvSampleLog(dataDir, HourlyLogWriter.DEFAULT_FLUSH_INTERVAL_MS,
+                HourlyLogWriter.Durability.BUFFERED));
+        DataIndex index = new DataIndex(dataDir);
+        long from = hourStart + 3600_000L + 20 * 60_000L + 30_000;
+        long to = from + 60_000;
+
+        List<DataIndex.Range> ranges = index.query(from, to, -90, -180, 90, 180);
+        assertEquals(1, ranges.size());
+        assertEquals("10.csv", ranges.get(0).file.getName());
+        assertTrue(ranges.get(0).start > 0);
+        assertTrue(ranges.get(0).end > ranges.get(0).start);
+        // Reads about five minutes of rows rather than the hour
+        assertEquals(300, DataIndex.read(ranges.get(0), (t, lat, lon, speed) -> { }));
+
+        List<Long> found = timestamps(index, from, to, -90, -180, 90, 180);
+        assertEquals(61, found.size());
+        assertEquals(from, (long) found.get(0));
+        assertEquals(to, (long) found.get(60));
+    }
+
+    @Test
+    public void areaQuerySkipsHoursElsewhere() throws IOException {
+        writeHours(new BinarySampleLog(dataDir, HourlyLogWriter.DEFAULT_FLUSH_INTERVAL_MS,
+                HourlyLogWriter.Durability.BUFFERED));
+        DataIndex index = new DataIndex(dataDir);
+
+        List<DataIndex.Range> ranges = index.query(Long.MIN_VALUE, Long.MAX_VALUE,
+                BUSAN_LAT - 0.1, BUSAN_LON - 0.1, BUSAN_LAT + 0.1, BUSAN_LON + 0.1);
+        assertEquals(1, ranges.size());
+        assertEquals("10.bin", ranges.get(0).file.getName());
+        assertEquals(3600, timestamps(index, Long.MIN_VALUE, Long.MAX_VALUE,
+                BUSAN_LAT - 0.1, BUSAN_LON - 0.1, BUSAN_LAT + 0.1, BUSAN_LON + 0.1).size());
+
+        // Inside both bounding boxes' reach but in no grid cell
+        assertTrue(index.query(Long.MIN_VALUE, Long.MAX_VALUE, 36.5, 128, 36.6, 128.1).isEmpty());
+    }
+
+    @Test
+    public void backfillIndexesFilesWrittenWithoutIt() throws IOException {
+        writeHours(new CsvSampleLog(dataDir, HourlyLogWriter.DEFAULT_FLUSH_INTERVAL_MS,
+                HourlyLogWriter.Durability.BUFFERED));
+        File day = new File(dataDir, "2024-05-01");
+        File indexFile = new File(day, DataIndex.INDEX_FILE);
+        String written = new String(Files.readAllBytes(indexFile.toPath()), StandardCharsets.US_ASCII);
+        assertTrue(indexFile.delete());
+
+        DataIndex index = new DataIndex(dataDir);
+        // Without entries every file is read in full
+        assertEquals(3, index.query(hourStart, hourStart + 1000, -90, -180, 90, 180).size());
+        assertEquals(3, index.backfill());
+        assertEquals(written, new String(Files.readAllBytes(indexFile.toPath()), StandardCharsets.US_ASCII));
+        assertEquals(0, index.backfill());
+        assertEquals(1, index.query(hourStart, hourStart + 1000, -90, -180, 90, 180).size());
+    }
+
+    @Test
+    public void rowsPastTheIndexAreNeverHidden() throws IOException {
+        writeHours(new CsvSampleLog(dataDir, HourlyLogWriter.DEFAULT_FLUSH_INTERVAL_MS,
+                HourlyLogWriter.Durability.BUFFERED));
+        // Rows appended by something that did not update the index, like a crash before the save
+        long late = hourStart + 2 * 3600_000L + 3599_500L;
+        Files.write(new File(dataDir, "2024-05-01/11.csv").toPath(),
+                (late + "," + BUSAN_LAT + "," + BUSAN_LON + ",0,0\n").getBytes(StandardCharsets.US_ASCII),
+                StandardOpenOption.APPEND);
+
+        List<Long> found = timestamps(new DataIndex(dataDir), late, late, BUSAN_LAT - 0.1, BUSAN_LON - 0.1,
+                BUSAN_LAT + 0.1, BUSAN_LON + 0.1);
+        assertEquals(1, found.size());
+        assertEquals(late, (long) found.get(0));
+    }
+
+    @Test
+    public void reopenedHourContinuesItsEntry() throws IOException {
+        CsvSampleLog first = new CsvSampleLog(dataDir, HourlyLogWriter.DEFAULT_FLUSH_INTERVAL_MS,
+                HourlyLogWriter.Durability.BUFFERED);
+        LocationSample sample = new LocationSample();
+        sample.latitude = SEOUL_LAT;
+        sample.longitude = SEOUL_LON;
+        for (int i = 0; i < 10; i++) {
+            sample.timestamp = hourStart + i * 1000L;
+            first.append(sample);
+        }
+        first.close();
+
+        CsvSampleLog second = new CsvSampleLog(dataDir, HourlyLogWriter.DEFAULT_FLUSH_INTERVAL_MS,
+                HourlyLogWriter.Durability.BUFFERED);
+        for (int i = 10; i < 20; i++) {
+            sample.timestamp = hourStart + i * 1000L;
+            second.append(sample);
+        }
+        second.close();
+
+        HourSummary summary = new DataIndex(dataDir).summaries(new File(dataDir, "2024-05-01")).get("09.csv");
+        assertEquals(20, summary.rows);
+        assertEquals(hourStart, summary.firstTimestamp);
+        assertEquals(new File(dataDir, "2024-05-01/09.csv").length(), summary.indexedBytes);
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.auto_set;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class HistogramTest {
+
+    private static void record(Histogram histogram, long micros, int times) {
+        for (int i = 0; i < times; i++) {
+            histogram.recordNanos(micros * 1000);
+        }
+    }
+
+    @Test
+    public void emptyHistogramReportsZeros() {
+        Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMeanMicros(), 0);
+        assertEquals(0, histogram.getMaxMicros());
+        assertEquals(0, histogram.getPercentileMicros(50));
+        assertEquals(0, histogram.getPercentileMicros(100));
+    }
+
+    @Test
+    public void percentilesReportTheUpperBoundOfTheirBucket() {
+        Histogram histogram = new Histogram();
+        // 100 us falls in [64, 128), 5000 us in [4096, 8192)
+        record(histogram, 100, 90);
+        record(histogram, 5000, 10);
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(590, histogram.getMeanMicros(), 1e-9);
+        assertEquals(128, histogram.getPercentileMicros(1));
+        assertEquals(128, histogram.getPercentileMicros(50));
+        // Rank 90 is the last fast sample, rank 91 the first slow one
+        assertEquals(128, histogram.getPercentileMicros(90));
+        // The bucket bound is capped at the largest value seen
+        assertEquals(5000, histogram.getPercentileMicros(91));
+        assertEquals(5000, histogram.getPercentileMicros(99));
+        assertEquals(5000, histogram.getPercentileMicros(100));
+        assertEquals(5000, histogram.getMaxMicros());
+    }
+
+    @Test
+    public void bucketEdgesArePowersOfTwo() {
+        Histogram histogram = new Histogram();
+        record(histogram, 63, 1);
+        record(histogram, 64, 1);
+        record(histogram, 1000, 1);
+        assertEquals(64, histogram.getPercentileMicros(33));
+        assertEquals(128, histogram.getPercentileMicros(34));
+        assertEquals(128, histogram.getPercentileMicros(66));
+        assertEquals(1000, histogram.getPercentileMicros(67));
+    }
+
+    @Test
+    public void subMicrosecondAndNegativeSamplesLandInTheFirstBucket() {
+        Histogram histogram = new Histogram();
+        histogram.recordNanos(999);
+        histogram.recordNanos(-5_000);
+        assertEquals(2, histogram.getCount());
+        assertEquals(0, histogram.getPercentileMicros(100));
+        assertEquals(0, histogram.getMaxMicros());
+    }
+
+    @Test
+    public void hugeSamplesAreClampedToTheLastBucket() {
+        Histogram histogram = new Histogram();
+        histogram.recordNanos(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE / 1000, histogram.getMaxMicros());
+        assertEquals(1L << 39, histogram.getPercentileMicros(50));
+    }
+
+    @Test
+    public void resetClearsEverything() {
+        Histogram histogram = new Histogram();
+        record(histogram, 700, 5);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMaxMicros());
+        assertEquals(0, histogram.getPercentileMicros(99));
+        record(histogram, 3, 1);
+        assertEquals(3, histogram.getMaxMicros());
+    }
+
+    @Test
+    public void concurrentRecordingKeepsTheLargestValue() throws Exception {
+        Histogram histogram = new Histogram();
+        int threads = 4;
+        int perThread = 20_000;
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int offset = t;
+            Thread worker = new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    histogram.recordNanos((i * threads + offset) * 1000L);
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertEquals(threads * perThread, histogram.getCount());
+        assertEquals(threads * perThread - 1, histogram.getMaxMicros());
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.auto_set;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Calendar;
+
+import static org.junit.Assert.*;
+
+public class HourlyLogWriterTest {
+
+    private static final String HEADER = "timestamp,value\n";
+    private static final int BUFFER_SIZE = 256;
+    private static final long FLUSH_MS = 5000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File rootDir;
+    private long hourStart;
+
+    @Before
+    public void setUp() throws IOException {
+        rootDir = folder.newFolder("gps_data");
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(2024, Calendar.MAY, 1, 9, 0, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        hourStart = calendar.getTimeInMillis();
+    }
+
+    private HourlyLogWriter writer(HourlyLogWriter.Durability durability) {
+        return new HourlyLogWriter(rootDir, ".csv", HEADER, BUFFER_SIZE, FLUSH_MS, durability);
+    }
+
+    private static String row(long timestamp) {
+        return timestamp + ",1\n";
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    public void offsetsPointAtEachRow() throws IOException {
+        HourlyLogWriter writer = writer(HourlyLogWriter.Durability.BUFFERED);
+        long[] offsets = new long[50];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = writer.append(hourStart + i, row(hourStart + i));
+        }
+        writer.close();
+
+        String content = read(new File(rootDir, "2024-05-01/09.csv"));
+        assertTrue(content.startsWith(HEADER));
+        assertEquals(HEADER.length(), offsets[0]);
+        for (int i = 0; i < offsets.length; i++) {
+            assertTrue(content.startsWith(row(hourStart + i), (int) offsets[i]));
+        }
+
+        // Reopening the hour appends after what is there, without a second header
+        HourlyLogWriter again = writer(HourlyLogWriter.Durability.BUFFERED);
+        byte[] bytes = row(hourStart + 100).getBytes(StandardCharsets.US_ASCII);
+        assertEquals(content.length(), again.append(hourStart + 100, bytes, 0, bytes.length));
+        again.close();
+        assertEquals(content + row(hourStart + 100), read(new File(rootDir, "2024-05-01/09.csv")));
+    }
+
+    @Test
+    public void rollsToANewFileEachHour() throws IOException {
+        HourlyLogWriter writer = writer(HourlyLogWriter.Durability.BUFFERED);
+        writer.append(hourStart + 1000, row(1));
+        File first = writer.getCurrentFile();
+        // The first row of the next hour starts a new file with its own header
+        assertEquals(HEADER.length(), writer.append(hourStart + 3600_000L, row(2)));
+        File second = writer.getCurrentFile();
+        writer.close();
+
+        assertEquals(new File(rootDir, "2024-05-01/09.csv"), first);
+        assertEquals(new File(rootDir, "2024-05-01/10.csv"), second);
+        // Rolling over writes out the previous hour's buffer
+        assertEquals(HEADER + row(1), read(first));
+        assertEquals(HEADER + row(2), read(second));
+    }
+
+    @Test
+    public void bufferedRowsWaitForTheFlushInterval() throws IOException {
+        for (HourlyLogWriter.Durability durability : Arrays.asList(HourlyLogWriter.Durability.BUFFERED,
+                HourlyLogWriter.Durability.SYNC)) {
+            File dir = new File(rootDir, durability.name());
+            HourlyLogWriter writer = new HourlyLogWriter(dir, ".csv", HEADER, BUFFER_SIZE, FLUSH_MS, durability);
+            writer.append(hourStart, row(1));
+            writer.append(hourStart + 1000, row(2));
+            File file = writer.getCurrentFile();
+            assertEquals(durability.name(), HEADER, read(file));
+
+            writer.flushIfDue(hourStart + FLUSH_MS - 1);
+            assertEquals(HEADER, read(file));
+            writer.flushIfDue(hourStart + FLUSH_MS);
+            assertEquals(HEADER + row(1) + row(2), read(file));
+
+            // A row past the interval flushes itself
+            writer.append(hourStart + 2 * FLUSH_MS, row(3));
+            assertEquals(HEADER + row(1) + row(2) + row(3), read(file));
+            writer.close();
+        }
+    }
+
+    @Test
+    public void flushEachRowWritesRightAway() throws IOException {
+        HourlyLogWriter writer = writer(HourlyLogWriter.Durability.FLUSH_EACH_ROW);
+        writer.append(hourStart, row(1));
+        File file = writer.getCurrentFile();
+        assertEquals(HEADER + row(1), read(file));
+        writer.append(hourStart + 1, row(2));
+        assertEquals(HEADER + row(1) + row(2), read(file));
+        writer.close();
+    }
+
+    @Test
+    public void oversizedRowsKeepTheirOrderAndOffsets() throws IOException {
+        HourlyLogWriter writer = writer(HourlyLogWriter.Durability.BUFFERED);
+        char[] filler = new char[BUFFER_SIZE * 3];
+        Arrays.fill(filler, 'x');
+        String big = new String(filler) + "\n";
+
+        long small = writer.append(hourStart, row(1));
+        long bigOffset = writer.append(hourStart + 1, big);
+        byte[] bigBytes = big.getBytes(StandardCharsets.US_ASCII);
+        long bigBytesOffset = writer.append(hourStart + 2, bigBytes, 0, bigBytes.length);
+        long after = writer.append(hourStart + 3, row(4));
+        writer.close();
+
+        String content = read(writer.getCurrentFile());
+        assertEquals(HEADER + row(1) + big + big + row(4), content);
+        assertEquals(HEADER.length(), small);
+        assertEquals(small + row(1).length(), bigOffset);
+        assertEquals(bigOffset + big.length(), bigBytesOffset);
+        assertEquals(bigBytesOffset + big.length(), after);
+    }
+
+    @Test
+    public void appendAfterCloseReopensTheFile() throws IOException {
+        HourlyLogWriter writer = writer(HourlyLogWriter.Durability.BUFFERED);
+        writer.append(hourStart, row(1));
+        writer.close();
+        char[] filler = new char[BUFFER_SIZE * 2];
+        Arrays.fill(filler, 'y');
+        String big = new String(filler) + "\n";
+        assertEquals(HEADER.length() + row(1).length(), writer.append(hourStart + 1, big));
+        writer.close();
+        assertEquals(HEADER + row(1) + big, read(writer.getCurrentFile()));
+    }
+}
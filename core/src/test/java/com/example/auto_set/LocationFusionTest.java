@@ -0,0 +1,111 @@
+package com.example.auto_set;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LocationFusionTest {
+
+    private static final int GPS = LocationSample.PROVIDER_GPS;
+    private static final int NETWORK = LocationSample.PROVIDER_NETWORK;
+
+    private final List<String> emitted = new ArrayList<>();
+    private final List<Integer> providers = new ArrayList<>();
+    private final LocationFusion<String> fusion = new LocationFusion<>(1000, 100, (fix, provider) -> {
+        emitted.add(fix);
+        providers.add(provider);
+    });
+
+    @Test
+    public void mostAccurateFixOfATickWins() {
+        fusion.offer("network", NETWORK, 10_100, 30);
+        fusion.offer("gps", GPS, 10_300, 5);
+        // Less accurate, so it does not replace the GPS fix
+        fusion.offer("late network", NETWORK, 10_900, 25);
+        assertTrue(emitted.isEmpty());
+
+        // The next tick's first fix emits the previous tick
+        fusion.offer("next", NETWORK, 11_050, 30);
+        assertEquals(Arrays.asList("gps"), emitted);
+        assertEquals(Arrays.asList(GPS), providers);
+        assertEquals(2, fusion.getSuperseded());
+        assertEquals(0, fusion.getDuplicates());
+        assertEquals(4, fusion.getReceived());
+        assertEquals(1, fusion.getEmitted());
+    }
+
+    @Test
+    public void unknownAccuracyLosesToKnownAndTiesGoToTheNewer() {
+        fusion.offer("unknown", NETWORK, 10_100, 0);
+        fusion.offer("known", GPS, 10_200, 50);
+        fusion.offer("unknown again", NETWORK, 10_300, 0);
+        // Same accuracy: the newer fix wins
+        fusion.offer("same accuracy, newer", GPS, 10_400, 50);
+        fusion.flush(11_100);
+        assertEquals(Arrays.asList("same accuracy, newer"), emitted);
+        assertEquals(3, fusion.getSuperseded());
+    }
+
+    @Test
+    public void repeatedAndOldFixesAreDuplicates() {
+        fusion.offer("a", GPS, 10_100, 5);
+        // The same fix delivered twice, e.g. by the fused and the GPS listener
+        fusion.offer("a again", GPS, 10_100, 5);
+        assertEquals(1, fusion.getDuplicates());
+
+        fusion.offer("b", GPS, 11_100, 5);
+        // At or before the last emitted fix's time
+        fusion.offer("old", NETWORK, 10_100, 3);
+        fusion.offer("older", NETWORK, 9_000, 3);
+        assertEquals(3, fusion.getDuplicates());
+        assertEquals(Arrays.asList("a"), emitted);
+    }
+
+    @Test
+    public void lateFixForAnEmittedTickIsSuperseded() {
+        fusion.offer("a", GPS, 10_500, 5);
+        fusion.offer("b", GPS, 11_100, 5);
+        assertEquals(Arrays.asList("a"), emitted);
+        // Newer than the emitted fix, but its tick already produced one
+        fusion.offer("late", NETWORK, 10_800, 1);
+        fusion.flush(12_100);
+        assertEquals(Arrays.asList("a", "b"), emitted);
+        assertEquals(1, fusion.getSuperseded());
+        assertEquals(0, fusion.getDuplicates());
+    }
+
+    @Test
+    public void flushWaitsForTheGracePeriodAfterTheTick() {
+        assertEquals(Long.MAX_VALUE, fusion.getDeadline());
+        fusion.offer("a", GPS, 10_300, 5);
+        assertEquals(11_100, fusion.getDeadline());
+
+        fusion.flush(11_000);
+        fusion.flush(11_099);
+        assertTrue(emitted.isEmpty());
+        fusion.flush(11_100);
+        assertEquals(Arrays.asList("a"), emitted);
+        assertEquals(Long.MAX_VALUE, fusion.getDeadline());
+        // Nothing left to emit
+        fusion.flush(20_000);
+        assertEquals(1, fusion.getEmitted());
+    }
+
+    @Test
+    public void changingTheTickEmitsThePendingFix() {
+        fusion.offer("a", GPS, 10_300, 5);
+        fusion.setTickMs(30_000);
+        assertEquals(Arrays.asList("a"), emitted);
+        assertEquals(30_000, fusion.getTickMs());
+
+        // 10_300 falls in the 30 s tick [0, 30 000), which has now produced its fix
+        fusion.offer("same long tick", GPS, 20_000, 5);
+        assertEquals(1, fusion.getSuperseded());
+        fusion.offer("next long tick", GPS, 31_000, 5);
+        assertEquals(60_100, fusion.getDeadline());
+    }
+}
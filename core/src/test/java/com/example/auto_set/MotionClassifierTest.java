@@ -0,0 +1,133 @@
+package com.example.auto_set;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MotionClassifierTest {
+
+    private static final long SAMPLE_MS = 20;
+    // Well clear of the thresholds on either side, and one inside the dead band
+    private static final double STILL = 0.05;
+    private static final double WALKING = 1.0;
+    private static final double DEAD_BAND = 0.3;
+
+    private final List<String> transitions = new ArrayList<>();
+    private long now = 1_000_000;
+
+    private MotionClassifier classifier(MotionClassifier.State initial) {
+        MotionClassifier classifier = new MotionClassifier(initial, (from, to) -> transitions.add(from + ">" + to));
+        // Opens the first window
+        classifier.addAcceleration(now, 1, 0, 0);
+        return classifier;
+    }
+
+    // One 5 s window whose magnitudes alternate around 1 m/s^2 with the given standard deviation
+    private void window(MotionClassifier classifier, double std) {
+        long end = now + MotionClassifier.WINDOW_MS;
+        int i = 0;
+        while (now < end) {
+            now += SAMPLE_MS;
+            classifier.addAcceleration(now, (float) (1 + (i++ % 2 == 0 ? std : -std)), 0, 0);
+        }
+    }
+
+    private void windows(MotionClassifier classifier, double std, int count) {
+        for (int i = 0; i < count; i++) {
+            window(classifier, std);
+        }
+    }
+
+    @Test
+    public void walkingIsEnteredAfterOneWindow() {
+        MotionClassifier classifier = classifier(MotionClassifier.State.STATIONARY);
+        window(classifier, WALKING);
+        assertEquals(MotionClassifier.State.WALKING, classifier.getState());
+        assertEquals(Arrays.asList("STATIONARY>WALKING"), transitions);
+    }
+
+    @Test
+    public void stationaryNeedsSixWindowsInARow() {
+        MotionClassifier classifier = classifier(MotionClassifier.State.WALKING);
+        windows(classifier, STILL, 5);
+        assertEquals(MotionClassifier.State.WALKING, classifier.getState());
+        // A single step starts the count again
+        window(classifier, WALKING);
+        windows(classifier, STILL, 5);
+        assertEquals(MotionClassifier.State.WALKING, classifier.getState());
+        window(classifier, STILL);
+        assertEquals(MotionClassifier.State.STATIONARY, classifier.getState());
+        assertEquals(Arrays.asList("WALKING>STATIONARY"), transitions);
+    }
+
+    @Test
+    public void deadBandHoldsTheStateAndResetsTheCount() {
+        MotionClassifier classifier = classifier(MotionClassifier.State.WALKING);
+        windows(classifier, DEAD_BAND, 20);
+        assertEquals(MotionClassifier.State.WALKING, classifier.getState());
+
+        windows(classifier, STILL, 5);
+        window(classifier, DEAD_BAND);
+        window(classifier, STILL);
+        assertEquals(MotionClassifier.State.WALKING, classifier.getState());
+        assertTrue(transitions.isEmpty());
+
+        // Nor does it flap around a stationary phone
+        MotionClassifier still = classifier(MotionClassifier.State.STATIONARY);
+        for (int i = 0; i < 10; i++) {
+            window(still, i % 2 == 0 ? DEAD_BAND : STILL);
+        }
+        assertEquals(MotionClassifier.State.STATIONARY, still.getState());
+        assertTrue(transitions.isEmpty());
+    }
+
+    @Test
+    public void vehicleSpeedOverridesTheAccelerationAfterTwoWindows() {
+        MotionClassifier classifier = classifier(MotionClassifier.State.STATIONARY);
+        classifier.onSpeed(now, 12);
+        window(classifier, STILL);
+        assertEquals(MotionClassifier.State.STATIONARY, classifier.getState());
+        classifier.onSpeed(now, 12);
+        window(classifier, STILL);
+        assertEquals(MotionClassifier.State.VEHICLE, classifier.getState());
+
+        // Slowing to 4 m/s in traffic stays in the vehicle, even with walking-like shaking
+        classifier.onSpeed(now, 4);
+        windows(classifier, WALKING, 2);
+        assertEquals(MotionClassifier.State.VEHICLE, classifier.getState());
+
+        // Below the exit speed the acceleration decides again
+        classifier.onSpeed(now, 0.2f);
+        windows(classifier, STILL, 2);
+        classifier.onSpeed(now, 0.2f);
+        windows(classifier, STILL, 4);
+        assertEquals(MotionClassifier.State.STATIONARY, classifier.getState());
+        assertEquals(Arrays.asList("STATIONARY>VEHICLE", "VEHICLE>STATIONARY"), transitions);
+    }
+
+    @Test
+    public void staleSpeedIsIgnored() {
+        MotionClassifier classifier = classifier(MotionClassifier.State.VEHICLE);
+        classifier.onSpeed(now, 10);
+        // Still 15 s old at the third window, too old from the fourth
+        windows(classifier, STILL, 3);
+        assertEquals(MotionClassifier.State.VEHICLE, classifier.getState());
+        windows(classifier, STILL, 6);
+        assertEquals(MotionClassifier.State.STATIONARY, classifier.getState());
+    }
+
+    @Test
+    public void slowSpeedKeepsAStillPhoneFromCountingAsStationary() {
+        MotionClassifier classifier = classifier(MotionClassifier.State.WALKING);
+        // 2 m/s with little shaking, e.g. on an escalator
+        for (int i = 0; i < 10; i++) {
+            classifier.onSpeed(now, 2);
+            window(classifier, STILL);
+        }
+        assertEquals(MotionClassifier.State.WALKING, classifier.getState());
+    }
+}
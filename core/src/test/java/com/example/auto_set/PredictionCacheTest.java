@@ -0,0 +1,114 @@
+package com.example.auto_set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.Assert.*;
+
+public class PredictionCacheTest {
+
+    private static final double METERS_PER_DEGREE = 111_320;
+    private static final long NOW = 1_714_521_600_000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private PredictionCache cache(long ttlMs) throws IOException {
+        return new PredictionCache(new File(folder.getRoot(), "prediction_cache.csv"), ttlMs);
+    }
+
+    // Column changes met walking meters east from the position, in one meter steps
+    private static int columnsCrossed(double latitude, double longitude, int meters) {
+        double degreesPerMeter = 1 / (METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude)));
+        int crossed = 0;
+        String key = PredictionCache.key(latitude, longitude, 0);
+        for (int m = 1; m <= meters; m++) {
+            String next = PredictionCache.key(latitude, longitude + m * degreesPerMeter, 0);
+            if (!next.equals(key)) {
+                crossed++;
+                key = next;
+            }
+        }
+        return crossed;
+    }
+
+    @Test
+    public void cellsChangeAtRowEdges() {
+        double edge = 250 * PredictionCache.CELL_METERS / METERS_PER_DEGREE;
+        double meter = 1 / METERS_PER_DEGREE;
+        assertEquals(PredictionCache.key(edge + meter, 10, 0), PredictionCache.key(edge + 100 * meter, 10, 0));
+        assertNotEquals(PredictionCache.key(edge - meter, 10, 0), PredictionCache.key(edge + meter, 10, 0));
+    }
+
+    @Test
+    public void columnsKeepTheirWidthAwayFromTheEquator() {
+        int cells = 3000 / (int) PredictionCache.CELL_METERS;
+        for (double latitude : new double[]{0.3, 37.5, 60.2, 78.9}) {
+            int crossed = columnsCrossed(latitude, 10, 3000);
+            assertTrue(latitude + ": " + crossed, Math.abs(crossed - cells) <= 1);
+        }
+    }
+
+    @Test
+    public void speedBucketsSplitTheCell() {
+        assertEquals(PredictionCache.key(37.5, 127, 0), PredictionCache.key(37.5, 127, 0.4));
+        assertNotEquals(PredictionCache.key(37.5, 127, 0), PredictionCache.key(37.5, 127, 1.5));
+        assertEquals(0, PredictionCache.speedBucket(0.49));
+        assertEquals(1, PredictionCache.speedBucket(0.5));
+        assertEquals(4, PredictionCache.speedBucket(35));
+    }
+
+    @Test
+    public void entriesExpireAfterTheTtl() throws IOException {
+        PredictionCache cache = cache(60_000);
+        cache.put(37.5, 127, 0, "{\"wifiEnabled\": true}", NOW);
+        assertEquals("{\"wifiEnabled\": true}", cache.get(37.5, 127, 0, NOW + 60_000));
+        assertNull(cache.get(37.5, 127, 0, NOW + 60_001));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void leastRecentlyUsedEntryIsDropped() throws IOException {
+        PredictionCache cache = cache(PredictionCache.DEFAULT_TTL_MS);
+        double step = 2 * PredictionCache.CELL_METERS / METERS_PER_DEGREE;
+        for (int i = 0; i < PredictionCache.MAX_ENTRIES; i++) {
+            cache.put(37.5 + i * step, 127, 0, "r" + i, NOW);
+        }
+        // Reading the oldest makes the second oldest the one to go
+        assertEquals("r0", cache.get(37.5, 127, 0, NOW));
+        cache.put(10, 10, 0, "new", NOW);
+        assertEquals(PredictionCache.MAX_ENTRIES, cache.size());
+        assertEquals("r0", cache.get(37.5, 127, 0, NOW));
+        assertNull(cache.get(37.5 + step, 127, 0, NOW));
+        assertEquals("new", cache.get(10, 10, 0, NOW));
+    }
+
+    @Test
+    public void savedEntriesLoadBack() throws IOException {
+        long now = System.currentTimeMillis();
+        PredictionCache cache = cache(PredictionCache.DEFAULT_TTL_MS);
+        String awkward = "{\"wifiEnabled\": true,\n \"note\": \"a\\\\b, c\\r\"}";
+        cache.put(37.5, 127, 0, awkward, now);
+        cache.put(35.1, 129, 10, "plain", now - 1000);
+        // Too old to come back
+        cache.put(33.4, 126.5, 0, "stale", now - PredictionCache.DEFAULT_TTL_MS - 60_000);
+        cache.save();
+        File file = new File(folder.getRoot(), "prediction_cache.csv");
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+        Files.write(file.toPath(), "not a cache line\nkey,notanumber,x\n".getBytes(StandardCharsets.US_ASCII),
+                StandardOpenOption.APPEND);
+
+        PredictionCache loaded = cache(PredictionCache.DEFAULT_TTL_MS);
+        assertEquals(2, loaded.size());
+        assertEquals(awkward, loaded.get(37.5, 127, 0, now));
+        assertEquals("plain", loaded.get(35.1, 129, 10, now));
+        assertNull(loaded.get(33.4, 126.5, 0, now));
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.auto_set;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PredictionResponseTest {
+
+    @Test
+    public void readsTheJsonObject() {
+        PredictionResponse response = PredictionResponse.parse(
+                "{\"wifiEnabled\": true, \"bluetoothEnabled\": false, \"silentMode\": true}");
+        assertEquals(Boolean.TRUE, response.wifiEnabled);
+        assertEquals(Boolean.FALSE, response.bluetoothEnabled);
+        assertEquals(Boolean.TRUE, response.silentMode);
+        assertFalse(response.isEmpty());
+    }
+
+    @Test
+    public void readsTheOlderTextAndLooseValues() {
+        PredictionResponse response = PredictionResponse.parse(
+                "wifiEnabled: 1\nbluetoothEnabled = \"FALSE\"\nsilentMode: 0");
+        assertEquals(Boolean.TRUE, response.wifiEnabled);
+        assertEquals(Boolean.FALSE, response.bluetoothEnabled);
+        assertEquals(Boolean.FALSE, response.silentMode);
+    }
+
+    @Test
+    public void partialResponseLeavesTheRestAlone() {
+        PredictionResponse response = PredictionResponse.parse("{\"silentMode\": false, \"confidence\": 0.8}");
+        assertNull(response.wifiEnabled);
+        assertNull(response.bluetoothEnabled);
+        assertEquals(Boolean.FALSE, response.silentMode);
+        assertFalse(response.isEmpty());
+    }
+
+    @Test
+    public void longerKeysEndingInASettingNameAreIgnored() {
+        PredictionResponse response = PredictionResponse.parse("{\"lastWifiEnabled\": true, "
+                + "\"prevbluetoothEnabled\": 1, \"wifiEnabled\": false, \"user_silentMode\": true}");
+        assertEquals(Boolean.FALSE, response.wifiEnabled);
+        assertNull(response.bluetoothEnabled);
+        assertNull(response.silentMode);
+
+        // Same for the older text form
+        PredictionResponse text = PredictionResponse.parse("lastWifiEnabled: 1\nwifiEnabled: 0");
+        assertEquals(Boolean.FALSE, text.wifiEnabled);
+    }
+
+    @Test
+    public void malformedResponsesAreEmpty() {
+        String[] bodies = {
+                "",
+                "Internal Server Error",
+                "<html><body>502 Bad Gateway</body></html>",
+                "{\"wifiEnabled\": null, \"bluetoothEnabled\": \"maybe\", \"silentMode\": 2}",
+                // A truncated body and a value that only starts like a boolean
+                "{\"wifiEnabled\": ",
+                "{\"bluetoothEnabled\": truest}",
+                "{\"error\": \"silentMode unavailable\"}",
+        };
+        for (String body : bodies) {
+            assertTrue(body, PredictionResponse.parse(body).isEmpty());
+        }
+    }
+}
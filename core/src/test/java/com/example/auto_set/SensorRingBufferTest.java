@@ -0,0 +1,60 @@
+package com.example.auto_set;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SensorRingBufferTest {
+
+    @Test
+    public void capacityIsRoundedUpToAPowerOfTwo() {
+        assertEquals(8, new SensorRingBuffer(5).capacity());
+        assertEquals(8, new SensorRingBuffer(8).capacity());
+        assertEquals(2, new SensorRingBuffer(0).capacity());
+    }
+
+    @Test
+    public void newestSampleIsAgeZero() {
+        SensorRingBuffer ring = new SensorRingBuffer(4);
+        ring.add(100, 1, 2, 3);
+        ring.add(200, 4, 5, 6);
+        assertEquals(2, ring.size());
+        assertEquals(200, ring.getTimestamp(0));
+        assertEquals(4, ring.get(0, 0), 0);
+        assertEquals(3, ring.get(1, 2), 0);
+    }
+
+    @Test
+    public void fullRingOverwritesTheOldest() {
+        SensorRingBuffer ring = new SensorRingBuffer(4);
+        for (int i = 0; i < 10; i++) {
+            ring.add(i, i, -i, 0);
+        }
+        assertEquals(4, ring.size());
+        assertEquals(10, ring.getWritten());
+        for (int age = 0; age < 4; age++) {
+            assertEquals(9 - age, ring.getTimestamp(age));
+            assertEquals(-(9 - age), ring.get(age, 1), 0);
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void overwrittenAgesAreOutOfRange() {
+        SensorRingBuffer ring = new SensorRingBuffer(4);
+        for (int i = 0; i < 10; i++) {
+            ring.add(i, 0, 0, 0);
+        }
+        ring.get(4, 0);
+    }
+
+    @Test
+    public void clearEmptiesTheRing() {
+        SensorRingBuffer ring = new SensorRingBuffer(4);
+        ring.add(1, 1, 1, 1);
+        ring.clear();
+        assertEquals(0, ring.size());
+        ring.add(2, 5, 5, 5);
+        assertEquals(2, ring.getTimestamp(0));
+        assertEquals(1, ring.size());
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.auto_set;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SensorWindowTest {
+
+    @Test
+    public void rowGetsTheLatestVectorsAndTheWindowAggregates() {
+        SensorWindow window = new SensorWindow();
+        window.addGravity(1, 0, 1, 9);
+        window.addGravity(2, 0, 3, 9.5f);
+        window.addLinearAcceleration(1, 3, 4, 0);
+        window.addLinearAcceleration(2, 0, 0, 1);
+
+        LocationSample sample = new LocationSample();
+        window.drainInto(sample);
+        assertEquals(3, sample.gravityY, 0);
+        assertEquals(9.5f, sample.gravityZ, 0);
+        assertEquals(1, sample.linearAccelZ, 0);
+        assertEquals(2, sample.sensorSamples);
+        assertEquals(3, sample.linearAccelMean, 1e-6);
+        assertEquals(4, sample.linearAccelVariance, 1e-6);
+        assertEquals(5, sample.linearAccelPeak, 1e-6);
+    }
+
+    @Test
+    public void eachRowAggregatesOnlyItsOwnWindow() {
+        SensorWindow window = new SensorWindow();
+        window.addGravity(1, 1, 2, 3);
+        window.addLinearAcceleration(1, 0, 2, 0);
+        window.drainInto(new LocationSample());
+
+        // No samples since: the vectors repeat, the aggregates are empty
+        LocationSample sample = new LocationSample();
+        window.drainInto(sample);
+        assertEquals(3, sample.gravityZ, 0);
+        assertEquals(2, sample.linearAccelY, 0);
+        assertEquals(0, sample.sensorSamples);
+        assertEquals(0, sample.linearAccelMean, 0);
+        assertEquals(0, sample.linearAccelPeak, 0);
+
+        window.addLinearAcceleration(2, 0, 0, 6);
+        window.drainInto(sample);
+        assertEquals(1, sample.sensorSamples);
+        assertEquals(6, sample.linearAccelPeak, 0);
+    }
+
+    @Test
+    public void windowLongerThanTheRingUsesTheSamplesItHolds() {
+        SensorWindow window = new SensorWindow(8);
+        for (int i = 1; i <= 20; i++) {
+            window.addLinearAcceleration(i, i, 0, 0);
+        }
+        LocationSample sample = new LocationSample();
+        window.drainInto(sample);
+        // Samples 13 to 20
+        assertEquals(8, sample.sensorSamples);
+        assertEquals(16.5, sample.linearAccelMean, 1e-6);
+        assertEquals(20, sample.linearAccelPeak, 0);
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.auto_set;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SettingGateTest {
+
+    // The timings SettingsApplier uses
+    private static final long DEBOUNCE_MS = 10_000;
+    private static final long MIN_DWELL_MS = 5 * 60_000L;
+    private static final long T0 = 1_000_000;
+
+    @Test
+    public void aNewTargetHasToHoldForTheDebounceTime() {
+        SettingGate gate = new SettingGate(DEBOUNCE_MS, MIN_DWELL_MS);
+        assertFalse(gate.shouldChange(true, false, T0));
+        assertFalse(gate.shouldChange(true, false, T0 + DEBOUNCE_MS - 1));
+        // The first flip has no dwell to wait for
+        assertTrue(gate.shouldChange(true, false, T0 + DEBOUNCE_MS));
+    }
+
+    @Test
+    public void aWaveringTargetRestartsTheDebounce() {
+        SettingGate gate = new SettingGate(DEBOUNCE_MS, MIN_DWELL_MS);
+        gate.shouldChange(true, false, T0);
+        // Back to the current state for a moment
+        gate.shouldChange(false, false, T0 + 5_000);
+        assertFalse(gate.shouldChange(true, false, T0 + 6_000));
+        assertFalse(gate.shouldChange(true, false, T0 + DEBOUNCE_MS));
+        assertTrue(gate.shouldChange(true, false, T0 + 6_000 + DEBOUNCE_MS));
+
+        // The opposite target restarts it too
+        SettingGate flapping = new SettingGate(DEBOUNCE_MS, MIN_DWELL_MS);
+        flapping.shouldChange(true, false, T0);
+        flapping.shouldChange(false, true, T0 + 5_000);
+        assertFalse(flapping.shouldChange(true, false, T0 + DEBOUNCE_MS));
+    }
+
+    @Test
+    public void aFlippedSettingStaysForTheMinimumDwell() {
+        SettingGate gate = new SettingGate(DEBOUNCE_MS, MIN_DWELL_MS);
+        gate.shouldChange(true, false, T0);
+        assertTrue(gate.shouldChange(true, false, T0 + DEBOUNCE_MS));
+        long flipped = T0 + DEBOUNCE_MS;
+        gate.changed(flipped);
+
+        // Debounced, but still within the dwell
+        assertFalse(gate.shouldChange(false, true, flipped + 1_000));
+        assertFalse(gate.shouldChange(false, true, flipped + MIN_DWELL_MS - 1));
+        assertTrue(gate.shouldChange(false, true, flipped + MIN_DWELL_MS));
+    }
+
+    @Test
+    public void theDebounceStartsAfresh() {
+        SettingGate gate = new SettingGate(DEBOUNCE_MS, MIN_DWELL_MS);
+        gate.shouldChange(true, false, T0);
+        gate.changed(T0 + DEBOUNCE_MS);
+        // A target asked for before the flip does not count towards the next one
+        long later = T0 + DEBOUNCE_MS + MIN_DWELL_MS;
+        assertFalse(gate.shouldChange(false, true, later));
+        assertTrue(gate.shouldChange(false, true, later + DEBOUNCE_MS));
+    }
+
+    @Test
+    public void nothingToDoWhenAlreadyThere() {
+        SettingGate gate = new SettingGate(DEBOUNCE_MS, MIN_DWELL_MS);
+        assertFalse(gate.shouldChange(true, true, T0));
+        assertFalse(gate.shouldChange(true, true, T0 + MIN_DWELL_MS));
+    }
+}
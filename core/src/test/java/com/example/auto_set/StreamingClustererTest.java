@@ -0,0 +1,281 @@
+package com.example.auto_set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class StreamingClustererTest {
+
+    private static final long START = 1_714_521_600_000L; // 2024-05-01 00:00 UTC
+    // The service's sampling while stationary and in a vehicle
+    private static final long STATIONARY_STEP_MS = 30_000;
+    private static final long MOVING_STEP_MS = 500;
+    private static final double HOME_LAT = 37.5665;
+    private static final double HOME_LON = 126.9780;
+    private static final double WORK_LAT = 37.5120;
+    private static final double WORK_LON = 127.0590;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    interface Sink {
+        void accept(long timestamp, double latitude, double longitude, float speed) throws IOException;
+    }
+
+    /**
+     * One synthetic day: home until 08:00, a 30 minute drive, work until
+     * 17:30, a drive back and home again. Drives move at about 10 m/s with a
+     * fix every 500 ms. Stays jitter by a few meters like a parked phone and
+     * get a fix every 30 s, of which the 20 m minimum distance drops most:
+     * gaps are 30 s to 3 minutes.
+     */
+    static void day(long dayStart, Random random, Sink sink) throws IOException {
+        long[] phases = {8 * 3600_000L, 30 * 60_000L, 9 * 3600_000L, 30 * 60_000L, 6 * 3600_000L};
+        double[][] from = {{HOME_LAT, HOME_LON}, {HOME_LAT, HOME_LON}, {WORK_LAT, WORK_LON},
+                {WORK_LAT, WORK_LON}, {HOME_LAT, HOME_LON}};
+        double[][] to = {{HOME_LAT, HOME_LON}, {WORK_LAT, WORK_LON}, {WORK_LAT, WORK_LON},
+                {HOME_LAT, HOME_LON}, {HOME_LAT, HOME_LON}};
+        long t = dayStart;
+        for (int phase = 0; phase < phases.length; phase++) {
+            boolean moving = from[phase][0] != to[phase][0];
+            long end = t + phases[phase];
+            long phaseStart = t;
+            while (t < end) {
+                double f = (double) (t - phaseStart) / phases[phase];
+                double lat = from[phase][0] + (to[phase][0] - from[phase][0]) * f;
+                double lon = from[phase][1] + (to[phase][1] - from[phase][1]) * f;
+                // About 5 m of GPS noise
+                lat += random.nextGaussian() * 0.00005;
+                lon += random.nextGaussian() * 0.00005;
+                float speed = moving ? 8 + random.nextFloat() * 4 : random.nextFloat() * 0.3f;
+                sink.accept(t, lat, lon, speed);
+                t += moving ? MOVING_STEP_MS : STATIONARY_STEP_MS * (1 + random.nextInt(6));
+            }
+            t = end;
+        }
+    }
+
+    @Test
+    public void findsHomeAndWorkButNotTheRoad() throws IOException {
+        StreamingClusterer clusterer = new StreamingClusterer();
+        Random random = new Random(1);
+        for (int d = 0; d < 3; d++) {
+            day(START + d * 86_400_000L, random, clusterer::add);
+        }
+
+        List<StreamingClusterer.Cluster> clusters = clusterer.getClusters();
+        assertEquals(2, clusters.size());
+        int home = clusterer.clusterAt(HOME_LAT, HOME_LON);
+        int work = clusterer.clusterAt(WORK_LAT, WORK_LON);
+        assertNotEquals(StreamingClusterer.NO_CLUSTER, home);
+        assertNotEquals(StreamingClusterer.NO_CLUSTER, work);
+        assertNotEquals(home, work);
+        // Halfway along the drive
+        assertEquals(StreamingClusterer.NO_CLUSTER,
+                clusterer.clusterAt((HOME_LAT + WORK_LAT) / 2, (HOME_LON + WORK_LON) / 2));
+
+        // Home has 14 hours a day, work 9
+        assertEquals(home, clusters.get(0).id);
+        assertEquals(HOME_LAT, clusters.get(0).latitude, 0.0002);
+        assertEquals(HOME_LON, clusters.get(0).longitude, 0.0002);
+        assertEquals(work, clusters.get(1).id);
+    }
+
+    @Test
+    public void addReturnsTheAssignmentOnceDense() {
+        StreamingClusterer clusterer = new StreamingClusterer(50, 10 * STATIONARY_STEP_MS, 1);
+        int id = StreamingClusterer.NO_CLUSTER;
+        long t = START;
+        // The first fix has no previous one to measure its dwell from
+        for (int i = 0; i <= 10; i++) {
+            assertEquals(StreamingClusterer.NO_CLUSTER, id);
+            id = clusterer.add(t, HOME_LAT, HOME_LON, 0);
+            t += STATIONARY_STEP_MS;
+        }
+        assertNotEquals(StreamingClusterer.NO_CLUSTER, id);
+        // A moving fix at the same place is assigned but not counted
+        assertEquals(id, clusterer.add(t, HOME_LAT, HOME_LON, 15));
+        // Nor is the time after it
+        clusterer.add(t + STATIONARY_STEP_MS, HOME_LAT, HOME_LON, 0);
+        StreamingClusterer.Cluster cluster = clusterer.getClusters().get(0);
+        assertEquals(12, cluster.samples);
+        assertEquals(10 * STATIONARY_STEP_MS, cluster.dwellMs);
+    }
+
+    @Test
+    public void sparseFixesOfAParkedPhoneFormAPlace() {
+        StreamingClusterer clusterer = new StreamingClusterer();
+        // Half an hour with a fix every 3 minutes is 11 rows
+        for (long t = START; t <= START + 30 * 60_000L; t += 3 * 60_000L) {
+            clusterer.add(t, HOME_LAT, HOME_LON, 0);
+        }
+        List<StreamingClusterer.Cluster> clusters = clusterer.getClusters();
+        assertEquals(1, clusters.size());
+        assertEquals(11, clusters.get(0).samples);
+        assertEquals(30 * 60_000L, clusters.get(0).dwellMs);
+    }
+
+    @Test
+    public void longSilencesCountOnlyUpToTheCap() {
+        StreamingClusterer clusterer = new StreamingClusterer(50, 2 * StreamingClusterer.MAX_DWELL_GAP_MS, 1);
+        clusterer.add(START, HOME_LAT, HOME_LON, 0);
+        clusterer.add(START + 3600_000L, HOME_LAT, HOME_LON, 0);
+        assertTrue(clusterer.getClusters().isEmpty());
+        int id = clusterer.add(START + 3600_000L + StreamingClusterer.MAX_DWELL_GAP_MS, HOME_LAT, HOME_LON, 0);
+        assertNotEquals(StreamingClusterer.NO_CLUSTER, id);
+        assertEquals(2 * StreamingClusterer.MAX_DWELL_GAP_MS, clusterer.getClusters().get(0).dwellMs);
+    }
+
+    @Test
+    public void adjacentPlacesMergeKeepingTheOlderId() {
+        StreamingClusterer clusterer = new StreamingClusterer(50, 4 * STATIONARY_STEP_MS, 1);
+        long t = START;
+        for (int i = 0; i < 5; i++) {
+            clusterer.add(t, HOME_LAT, HOME_LON, 0);
+            t += STATIONARY_STEP_MS;
+        }
+        // Two cells east: a separate place
+        double eastLon = HOME_LON + 100 / (111_320 * Math.cos(Math.toRadians(HOME_LAT)));
+        for (int i = 0; i < 5; i++) {
+            clusterer.add(t, HOME_LAT, eastLon, 0);
+            t += STATIONARY_STEP_MS;
+        }
+        int older = clusterer.clusterAt(HOME_LAT, HOME_LON);
+        assertEquals(2, clusterer.getClusters().size());
+
+        // Filling the cell between them joins the two
+        double middleLon = (HOME_LON + eastLon) / 2;
+        for (int i = 0; i < 5; i++) {
+            clusterer.add(t, HOME_LAT, middleLon, 0);
+            t += STATIONARY_STEP_MS;
+        }
+        assertEquals(1, clusterer.getClusters().size());
+        assertEquals(older, clusterer.clusterAt(HOME_LAT, eastLon));
+        assertEquals(15, clusterer.getClusters().get(0).samples);
+        assertEquals(14 * STATIONARY_STEP_MS, clusterer.getClusters().get(0).dwellMs);
+    }
+
+    @Test
+    public void restoredStateMatchesAnUninterruptedRun() throws IOException {
+        StreamingClusterer uninterrupted = new StreamingClusterer();
+        StreamingClusterer first = new StreamingClusterer();
+        File state = new File(folder.getRoot(), "local_clusters.bin");
+        Random a = new Random(7);
+        Random b = new Random(7);
+        day(START, a, uninterrupted::add);
+        day(START + 86_400_000L, a, uninterrupted::add);
+        day(START, b, first::add);
+        first.save(state);
+
+        StreamingClusterer restored = StreamingClusterer.load(state, StreamingClusterer.DEFAULT_CELL_METERS,
+                StreamingClusterer.DEFAULT_MIN_DWELL_MS, StreamingClusterer.DEFAULT_MAX_SPEED);
+        assertEquals(first.getLastTimestamp(), restored.getLastTimestamp());
+        // Replaying the saved day is ignored
+        day(START, new Random(7), restored::add);
+        day(START + 86_400_000L, b, restored::add);
+
+        List<StreamingClusterer.Cluster> expected = uninterrupted.getClusters();
+        List<StreamingClusterer.Cluster> actual = restored.getClusters();
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).id, actual.get(i).id);
+            assertEquals(expected.get(i).samples, actual.get(i).samples);
+            assertEquals(expected.get(i).dwellMs, actual.get(i).dwellMs);
+            assertEquals(expected.get(i).latitude, actual.get(i).latitude, 1e-9);
+        }
+        assertEquals(uninterrupted.clusterAt(WORK_LAT, WORK_LON), restored.clusterAt(WORK_LAT, WORK_LON));
+    }
+
+    @Test(expected = IOException.class)
+    public void stateWithOtherParametersIsRejected() throws IOException {
+        File state = new File(folder.getRoot(), "local_clusters.bin");
+        StreamingClusterer clusterer = new StreamingClusterer();
+        clusterer.add(1, HOME_LAT, HOME_LON, 0);
+        clusterer.save(state);
+        StreamingClusterer.load(state, 100, StreamingClusterer.DEFAULT_MIN_DWELL_MS,
+                StreamingClusterer.DEFAULT_MAX_SPEED);
+    }
+
+    @Test
+    public void catchUpReplaysOnlyRowsAfterTheSavedState() throws IOException {
+        File dataDir = folder.newFolder("gps_data");
+        CsvSampleLog log = new CsvSampleLog(dataDir, HourlyLogWriter.DEFAULT_FLUSH_INTERVAL_MS,
+                HourlyLogWriter.Durability.BUFFERED);
+        LocationSample sample = new LocationSample();
+        StreamingClusterer live = new StreamingClusterer();
+        File state = new File(folder.getRoot(), "local_clusters.bin");
+        // Rows in total and after the save
+        int[] rows = new int[2];
+        boolean[] saved = {false};
+        day(START, new Random(3), (t, lat, lon, speed) -> {
+            sample.timestamp = t;
+            sample.latitude = lat;
+            sample.longitude = lon;
+            sample.speed = speed;
+            log.append(sample);
+            live.add(t, lat, lon, speed);
+            rows[0]++;
+            if (saved[0]) {
+                rows[1]++;
+            } else if (t >= START + 12 * 3600_000L) {
+                live.save(state);
+                saved[0] = true;
+            }
+        });
+        log.close();
+
+        // The service died at noon: the saved state plus the afternoon's rows
+        StreamingClusterer restored = StreamingClusterer.load(state, StreamingClusterer.DEFAULT_CELL_METERS,
+                StreamingClusterer.DEFAULT_MIN_DWELL_MS, StreamingClusterer.DEFAULT_MAX_SPEED);
+        assertEquals(rows[1], restored.catchUp(dataDir));
+        assertEquals(live.getLastTimestamp(), restored.getLastTimestamp());
+        assertEquals(live.getClusters().size(), restored.getClusters().size());
+        assertEquals(live.getClusters().get(0).samples, restored.getClusters().get(0).samples);
+        assertEquals(live.getClusters().get(0).dwellMs, restored.getClusters().get(0).dwellMs);
+
+        // Without state the whole history is read once
+        StreamingClusterer fresh = new StreamingClusterer();
+        assertEquals(rows[0], fresh.catchUp(dataDir));
+        assertEquals(live.getClusters().get(0).dwellMs, fresh.getClusters().get(0).dwellMs);
+    }
+
+    @Test
+    public void monthOfFixesTakesSeconds() throws IOException {
+        // Generate first so only the clustering is timed; a day has at most
+        // 7200 moving and 23 * 120 stationary rows
+        int capacity = 30 * (7200 + 23 * 120);
+        long[] timestamps = new long[capacity];
+        double[] latitudes = new double[capacity];
+        double[] longitudes = new double[capacity];
+        float[] speeds = new float[capacity];
+        int[] n = {0};
+        Random random = new Random(11);
+        for (int d = 0; d < 30; d++) {
+            day(START + d * 86_400_000L, random, (t, lat, lon, speed) -> {
+                timestamps[n[0]] = t;
+                latitudes[n[0]] = lat;
+                longitudes[n[0]] = lon;
+                speeds[n[0]] = speed;
+                n[0]++;
+            });
+        }
+        int rows = n[0];
+
+        StreamingClusterer clusterer = new StreamingClusterer();
+        long start = System.nanoTime();
+        for (int i = 0; i < rows; i++) {
+            clusterer.add(timestamps[i], latitudes[i], longitudes[i], speeds[i]);
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        assertEquals(2, clusterer.getClusters().size());
+        // Generous for shared CI machines; a desktop JVM does this in well under a second
+        assertTrue("took " + elapsedMs + " ms", elapsedMs < 10_000);
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.auto_set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TripSegmenterTest {
+
+    private static final double HOME_LAT = 37.5665;
+    private static final double HOME_LON = 126.9780;
+    // About 20 km north east of home
+    private static final double WORK_LAT = 37.70;
+    private static final double WORK_LON = 127.10;
+    // About 800 m east of work
+    private static final double CAFE_LAT = 37.70;
+    private static final double CAFE_LON = 127.109;
+    // 6 am local time, so the whole trace falls on one day
+    private static final long START = startOfTrace();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static long startOfTrace() {
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(2024, Calendar.MAY, 1, 6, 0, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    // Home, drive, work, walk, cafe; one fix a second with about 10 m of noise
+    private static int feed(TripSegmenter segmenter, long fromMs, long toMs) throws IOException {
+        Random random = new Random(7);
+        int events = 0;
+        for (long t = START; t < START + 10 * 3600_000L; t += 1000) {
+            double lat;
+            double lon;
+            long s = (t - START) / 1000;
+            if (s < 3 * 3600) {
+                lat = HOME_LAT;
+                lon = HOME_LON;
+                // A bad fix 2 km away, which must not split the stay
+                if (s == 3600) {
+                    lat += 0.02;
+                }
+            } else if (s < 3 * 3600 + 1800) {
+                double f = (s - 3 * 3600) / 1800.0;
+                lat = HOME_LAT + (WORK_LAT - HOME_LAT) * f;
+                lon = HOME_LON + (WORK_LON - HOME_LON) * f;
+            } else if (s < 8 * 3600) {
+                lat = WORK_LAT;
+                lon = WORK_LON;
+            } else if (s < 8 * 3600 + 900) {
+                double f = (s - 8 * 3600) / 900.0;
+                lat = WORK_LAT + (CAFE_LAT - WORK_LAT) * f;
+                lon = WORK_LON + (CAFE_LON - WORK_LON) * f;
+            } else {
+                lat = CAFE_LAT;
+                lon = CAFE_LON;
+            }
+            lat += random.nextGaussian() * 5e-5;
+            lon += random.nextGaussian() * 5e-5;
+            if (t >= fromMs && t < toMs) {
+                events += segmenter.add(t, lat, lon, StreamingClusterer.NO_CLUSTER);
+            }
+        }
+        return events;
+    }
+
+    @Test
+    public void daySplitsIntoStaysAndTrips() throws IOException {
+        List<TripSegmenter.Event> events = new ArrayList<>();
+        TripSegmenter segmenter = new TripSegmenter(events::add);
+
+        assertEquals(4, feed(segmenter, 0, Long.MAX_VALUE));
+        assertEquals(4, events.size());
+        // The cafe stay is still open
+        assertTrue(segmenter.isInStay());
+
+        TripSegmenter.Event home = events.get(0);
+        assertEquals(TripSegmenter.Type.STAY, home.type);
+        assertEquals(START, home.start);
+        assertEquals(3 * 3600_000L, home.getDurationMs(), 60_000);
+        assertEquals(HOME_LAT, home.startLatitude, 1e-4);
+
+        TripSegmenter.Event drive = events.get(1);
+        assertEquals(TripSegmenter.Type.TRIP, drive.type);
+        assertEquals(MotionClassifier.State.VEHICLE, drive.mode);
+        assertEquals(home.end, drive.start);
+        assertEquals(1800_000L, drive.getDurationMs(), 60_000);
+        // The straight line is about 18.4 km; GPS noise adds a little
+        assertEquals(18_400, drive.distanceMeters, 1_000);
+
+        TripSegmenter.Event work = events.get(2);
+        assertEquals(TripSegmenter.Type.STAY, work.type);
+        assertEquals(drive.end, work.start);
+        assertEquals(WORK_LON, work.startLongitude, 1e-4);
+
+        TripSegmenter.Event walk = events.get(3);
+        assertEquals(TripSegmenter.Type.TRIP, walk.type);
+        assertEquals(MotionClassifier.State.WALKING, walk.mode);
+        assertEquals(work.end, walk.start);
+    }
+
+    @Test
+    public void restoredStateGivesTheSameEvents() throws IOException {
+        List<TripSegmenter.Event> expected = new ArrayList<>();
+        feed(new TripSegmenter(expected::add), 0, Long.MAX_VALUE);
+
+        // Saved mid-drive, then restored, and every fix offered again
+        List<TripSegmenter.Event> events = new ArrayList<>();
+        File state = folder.newFile("trip_segmenter.bin");
+        TripSegmenter first = new TripSegmenter(events::add);
+        feed(first, 0, START + 3 * 3600_000L + 600_000L);
+        first.save(state);
+        TripSegmenter second = TripSegmenter.load(state, TripSegmenter.DEFAULT_RADIUS_METERS,
+                TripSegmenter.DEFAULT_MIN_STAY_MS, TripSegmenter.DEFAULT_EXIT_MS, events::add);
+        feed(second, 0, Long.MAX_VALUE);
+
+        assertEquals(expected.size(), events.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).toCsv(), events.get(i).toCsv());
+        }
+    }
+
+    @Test
+    public void eventLogWritesUnderTheStartDay() throws IOException {
+        File dataDir = folder.newFolder("gps_data");
+        EventLog log = new EventLog(dataDir);
+        feed(new TripSegmenter(log), 0, Long.MAX_VALUE);
+
+        File file = log.fileFor(START);
+        assertEquals(dataDir, file.getParentFile().getParentFile());
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.US_ASCII);
+        assertEquals(EventLog.HEADER.trim(), lines.get(0));
+        assertEquals(5, lines.size());
+        assertTrue(lines.get(2).startsWith("trip,"));
+        assertTrue(lines.get(2).contains(",vehicle,"));
+        // Not a data file, so the index, uploads and compaction leave it alone
+        assertTrue(new DataIndex(dataDir).dataFiles(false).isEmpty());
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.auto_set;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class VerticalVelocityIntegratorTest {
+
+    private static final long MS = 1_000_000L;
+    private static final long SECOND = 1000 * MS;
+
+    // Samples of a constant upward acceleration every stepNs from startNs, the first one included
+    private static long accelerate(VerticalVelocityIntegrator integrator, long startNs, long stepNs, int steps,
+                                   float up) {
+        long t = startNs;
+        for (int i = 0; i <= steps; i++) {
+            integrator.onLinearAcceleration(t, 0, 0, up);
+            t += stepNs;
+        }
+        return t - stepNs;
+    }
+
+    @Test
+    public void constantAccelerationIntegratesOverEventTime() {
+        VerticalVelocityIntegrator integrator = new VerticalVelocityIntegrator();
+        integrator.onGravity(0, 0, 9.81f);
+        // Two seconds of 1 m/s^2 up at 100 Hz
+        accelerate(integrator, 5 * SECOND, 10 * MS, 200, 1);
+        assertEquals(2.0, integrator.getVelocity(), 1e-6);
+
+        // Uneven steps integrate by their own length: 1 s of 2 m/s^2 down
+        VerticalVelocityIntegrator uneven = new VerticalVelocityIntegrator();
+        uneven.onGravity(0, 0, 9.81f);
+        long[] times = {0, 5 * MS, 40 * MS, 41 * MS, 300 * MS, 700 * MS, SECOND};
+        for (long t : times) {
+            uneven.onLinearAcceleration(t, 0, 0, -2);
+        }
+        assertEquals(-2.0, uneven.getVelocity(), 1e-6);
+    }
+
+    @Test
+    public void accelerationIsProjectedOnGravity() {
+        VerticalVelocityIntegrator integrator = new VerticalVelocityIntegrator();
+        // Phone upright: gravity along y
+        integrator.onGravity(0, 9.81f, 0);
+        integrator.onLinearAcceleration(0, 3, 1, 0);
+        integrator.onLinearAcceleration(SECOND / 2, 3, 1, 0);
+        assertEquals(0.5, integrator.getVelocity(), 1e-6);
+
+        // Sideways acceleration adds nothing
+        integrator.onLinearAcceleration(SECOND, 5, 0, 5);
+        assertEquals(0.5, integrator.getVelocity(), 1e-6);
+    }
+
+    @Test
+    public void nothingIsIntegratedBeforeGravityIsKnown() {
+        VerticalVelocityIntegrator integrator = new VerticalVelocityIntegrator();
+        accelerate(integrator, 0, 10 * MS, 100, 1);
+        assertEquals(0, integrator.getVelocity(), 0);
+    }
+
+    @Test
+    public void gapsLongerThanTheMaximumStepAreSkipped() {
+        VerticalVelocityIntegrator integrator = new VerticalVelocityIntegrator();
+        integrator.onGravity(0, 0, 9.81f);
+        integrator.onLinearAcceleration(0, 0, 0, 1);
+        // Exactly the maximum step still counts
+        integrator.onLinearAcceleration(VerticalVelocityIntegrator.MAX_STEP_NS, 0, 0, 1);
+        assertEquals(0.5, integrator.getVelocity(), 1e-6);
+
+        // The sensor paused for 3 s: the gap is skipped, integration resumes after it
+        long resumed = VerticalVelocityIntegrator.MAX_STEP_NS + 3 * SECOND;
+        integrator.onLinearAcceleration(resumed, 0, 0, 1);
+        assertEquals(0.5, integrator.getVelocity(), 1e-6);
+        integrator.onLinearAcceleration(resumed + 100 * MS, 0, 0, 1);
+        assertEquals(0.6, integrator.getVelocity(), 1e-6);
+
+        // Out of order events are skipped too
+        integrator.onLinearAcceleration(resumed, 0, 0, 1);
+        assertEquals(0.6, integrator.getVelocity(), 1e-6);
+    }
+
+    @Test
+    public void gpsAltitudeStepPullsTheVelocityTowardsTheClimbRate() {
+        VerticalVelocityIntegrator integrator = new VerticalVelocityIntegrator();
+        integrator.onAltitude(0, 100);
+        assertEquals(0, integrator.getVelocity(), 0);
+
+        // 10 m in 10 s is 1 m/s; a fifth of the difference is taken
+        integrator.onAltitude(10 * SECOND, 110);
+        assertEquals(VerticalVelocityIntegrator.GPS_GAIN, integrator.getVelocity(), 1e-6);
+        integrator.onAltitude(20 * SECOND, 120);
+        assertEquals(0.2 + 0.2 * 0.8, integrator.getVelocity(), 1e-6);
+
+        // Updates less than a second after the last one are ignored and keep the old reference
+        integrator.onAltitude(20 * SECOND + 500 * MS, 500);
+        assertEquals(0.36, integrator.getVelocity(), 1e-6);
+        integrator.onAltitude(22 * SECOND, 120);
+        assertEquals(0.36 * 0.8, integrator.getVelocity(), 1e-6);
+    }
+
+    @Test
+    public void gpsCorrectsIntegratedDrift() {
+        VerticalVelocityIntegrator integrator = new VerticalVelocityIntegrator();
+        integrator.onGravity(0, 0, 9.81f);
+        // A biased sensor claims a 2 m/s climb while the altitude stays flat
+        integrator.onAltitude(0, 50);
+        long end = accelerate(integrator, 0, 10 * MS, 200, 1);
+        integrator.onAltitude(end, 50);
+        assertEquals(2.0 * (1 - VerticalVelocityIntegrator.GPS_GAIN), integrator.getVelocity(), 1e-6);
+
+        integrator.reset();
+        assertEquals(0, integrator.getVelocity(), 0);
+        // Gravity is needed again after a reset
+        accelerate(integrator, end, 10 * MS, 100, 1);
+        assertEquals(0, integrator.getVelocity(), 0);
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.auto_set;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class WindowStatsTest {
+
+    @Test
+    public void matchesTheTwoPassValues() {
+        double[] values = {3, 1, 4, 1, 5, 9, 2, 6};
+        WindowStats stats = new WindowStats();
+        for (double value : values) {
+            stats.add(value);
+        }
+        double mean = 31 / 8.0;
+        double squares = 0;
+        for (double value : values) {
+            squares += (value - mean) * (value - mean);
+        }
+        assertEquals(8, stats.getCount());
+        assertEquals(mean, stats.getMean(), 1e-12);
+        assertEquals(squares / 8, stats.getVariance(), 1e-12);
+        assertEquals(9, stats.getPeak(), 0);
+    }
+
+    @Test
+    public void emptyAndSingleValueWindows() {
+        WindowStats stats = new WindowStats();
+        assertEquals(0, stats.getCount());
+        assertEquals(0, stats.getVariance(), 0);
+        // A negative first value is the peak, not the initial 0
+        stats.add(-2);
+        assertEquals(-2, stats.getPeak(), 0);
+        assertEquals(0, stats.getVariance(), 0);
+
+        stats.reset();
+        stats.add(7);
+        assertEquals(1, stats.getCount());
+        assertEquals(7, stats.getMean(), 0);
+    }
+
+    @Test
+    public void mergeEqualsAddingEveryValue() {
+        Random random = new Random(5);
+        WindowStats all = new WindowStats();
+        WindowStats folded = new WindowStats();
+        for (int window = 0; window < 20; window++) {
+            WindowStats part = new WindowStats();
+            int n = random.nextInt(60);
+            for (int i = 0; i < n; i++) {
+                double value = 9.81 + random.nextGaussian() * (window + 1);
+                part.add(value);
+                all.add(value);
+            }
+            folded.merge(part.getCount(), part.getMean(), part.getVariance(), part.getPeak());
+        }
+        assertEquals(all.getCount(), folded.getCount());
+        assertEquals(all.getMean(), folded.getMean(), 1e-9);
+        assertEquals(all.getVariance(), folded.getVariance(), 1e-9);
+        assertEquals(all.getPeak(), folded.getPeak(), 0);
+    }
+
+    @Test
+    public void mergeIntoAnEmptyWindowTakesTheOther() {
+        WindowStats stats = new WindowStats();
+        stats.merge(0, 5, 1, 8);
+        assertEquals(0, stats.getCount());
+
+        stats.merge(4, -1, 2, -0.5);
+        assertEquals(4, stats.getCount());
+        assertEquals(-1, stats.getMean(), 0);
+        assertEquals(2, stats.getVariance(), 1e-12);
+        assertEquals(-0.5, stats.getPeak(), 0);
+    }
+}
@@ -0,0 +1,19 @@
+// Replays recorded or synthetic traces through the core pipeline against a local stand-in server
+plugins {
+    application
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+dependencies {
+    implementation(project(":core"))
+    testImplementation(libs.junit)
+}
+
+// ./gradlew :replay:run --args="--synthetic 24 --speed 1000 --upload-delay 2000"
+application {
+    mainClass.set("com.example.auto_set.ReplayMain")
+}
@@ -0,0 +1,57 @@
+package com.example.auto_set;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A gps_data directory as recorded on a phone: hour files in CSV or binary
+ * and compacted day segments, oldest first.
+ */
+public class RecordedTrace implements TraceSource {
+
+    private final File dataDir;
+
+    public RecordedTrace(File dataDir) {
+        this.dataDir = dataDir;
+    }
+
+    @Override
+    public int forEach(BinaryLogConverter.SampleVisitor visitor) throws IOException {
+        int rows = 0;
+        for (File file : new DataIndex(dataDir).dataFiles(false)) {
+            if (file.getName().endsWith(".bin")) {
+                rows += BinaryLogConverter.forEach(file, visitor);
+            } else {
+                rows += readCsv(file, visitor);
+            }
+        }
+        return rows;
+    }
+
+    private static int readCsv(File file, BinaryLogConverter.SampleVisitor visitor) throws IOException {
+        LocationSample sample = new LocationSample();
+        int rows = 0;
+        InputStream stream = new FileInputStream(file);
+        if (file.getName().endsWith(".gz")) {
+            stream = new GZIPInputStream(stream, 64 * 1024);
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.US_ASCII),
+                64 * 1024)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // Skips the header and a last line cut short by a crash
+                if (CsvSampleLog.parse(line, sample)) {
+                    rows++;
+                    visitor.visit(sample);
+                }
+            }
+        }
+        return rows;
+    }
+}
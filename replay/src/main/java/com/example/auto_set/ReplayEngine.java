@@ -0,0 +1,554 @@
+package com.example.auto_set;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+/**
+ * Replays a trace through {@link CollectionPipeline} at a multiple of real
+ * time and exercises the write, predict and upload paths against a server.
+ *
+ * Each row becomes one GPS fix followed by the sensor events of the gap to
+ * the next row, at {@link #SENSOR_RATE_HZ} and shaped to its recorded
+ * aggregates, since a row holds the sensor window that followed its fix.
+ * The pipeline's clock is the trace time, so hour files and rolls follow
+ * the trace. Written rows are sent to /predict_settings at most every
+ * {@link #PREDICT_INTERVAL_MS} of trace time with one request in flight;
+ * every {@link #UPLOAD_INTERVAL_MS} of trace time the new bytes are bundled
+ * by {@link UploadPipeline}, uploaded and processed on a separate thread.
+ * Upload rounds that would overlap a running one are skipped, so a slow
+ * server shows up as growing backlog in the report.
+ */
+public class ReplayEngine {
+
+    public static final int SENSOR_RATE_HZ = 50;
+    public static final long PREDICT_INTERVAL_MS = 5000;
+    public static final long UPLOAD_INTERVAL_MS = 15 * 60_000L;
+    public static final long SNAPSHOT_INTERVAL_MS = 30 * 60_000L;
+    // Recording gaps longer than this get no sensor events, as the service was not running
+    private static final long MAX_SENSOR_GAP_MS = 60_000;
+    // Elapsed realtime of the first fix
+    private static final long ELAPSED_BASE_MS = 10_000;
+
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+
+    /**
+     * Backlog at one point of the replay: how far the replay runs behind its
+     * schedule and how many written bytes the server does not have yet.
+     */
+    public static class Snapshot {
+        public final long traceMs;
+        public final long wallMs;
+        public final long rows;
+        public final long lagMs;
+        public final long unuploadedBytes;
+        public final long uploadRoundsSkipped;
+        public final long predictsCoalesced;
+
+        Snapshot(long traceMs, long wallMs, long rows, long lagMs, long unuploadedBytes, long uploadRoundsSkipped,
+                 long predictsCoalesced) {
+            this.traceMs = traceMs;
+            this.wallMs = wallMs;
+            this.rows = rows;
+            this.lagMs = lagMs;
+            this.unuploadedBytes = unuploadedBytes;
+            this.uploadRoundsSkipped = uploadRoundsSkipped;
+            this.predictsCoalesced = predictsCoalesced;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%8.2fh %8dms %9d rows lag=%6dms unuploaded=%10dB skipped=%d coalesced=%d",
+                    traceMs / 3600_000.0, wallMs, rows, lagMs, unuploadedBytes, uploadRoundsSkipped,
+                    predictsCoalesced);
+        }
+    }
+
+    public static class Report {
+        public final double speedup;
+        public long traceRows;
+        public long rowsWritten;
+        public long sensorEvents;
+        public long traceMs;
+        public long wallMs;
+        // Sensor events, fusion and the row write of one trace row, without pacing
+        public final Histogram rowLatency = new Histogram();
+        public final Histogram scheduleLag = new Histogram();
+        public final Histogram predictLatency = new Histogram();
+        public final AtomicLong predictsSent = new AtomicLong();
+        public final AtomicLong predictsCoalesced = new AtomicLong();
+        public final AtomicLong predictFailures = new AtomicLong();
+        public final Histogram uploadLatency = new Histogram();
+        public final Histogram processLatency = new Histogram();
+        public final AtomicLong uploadRounds = new AtomicLong();
+        public final AtomicLong uploadRoundsSkipped = new AtomicLong();
+        public final AtomicLong uploadFailures = new AtomicLong();
+        public final AtomicLong bytesUploaded = new AtomicLong();
+        public final List<Snapshot> snapshots = new ArrayList<>();
+
+        Report(double speedup) {
+            this.speedup = speedup;
+        }
+
+        public double getRowsPerSecond() {
+            return wallMs == 0 ? 0 : rowsWritten * 1000.0 / wallMs;
+        }
+
+        // Trace time over wall time; below the requested speedup when the replay cannot keep up
+        public double getAchievedSpeedup() {
+            return wallMs == 0 ? 0 : (double) traceMs / wallMs;
+        }
+
+        // Change in unuploaded bytes per hour of trace between the first and last snapshot
+        public double getBacklogGrowthBytesPerHour() {
+            if (snapshots.size() < 2) {
+                return 0;
+            }
+            Snapshot first = snapshots.get(0);
+            Snapshot last = snapshots.get(snapshots.size() - 1);
+            long traceMs = last.traceMs - first.traceMs;
+            return traceMs == 0 ? 0 : (last.unuploadedBytes - first.unuploadedBytes) * 3600_000.0 / traceMs;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder report = new StringBuilder();
+            report.append(String.format(Locale.US, "replay: %d trace rows, %d written, %d sensor events%n",
+                    traceRows, rowsWritten, sensorEvents));
+            report.append(String.format(Locale.US, "time: %.2f h of trace in %d ms, %.0fx (asked %.0fx), %.0f rows/s%n",
+                    traceMs / 3600_000.0, wallMs, getAchievedSpeedup(), speedup, getRowsPerSecond()));
+            report.append("per row: ").append(rowLatency).append('\n');
+            report.append("schedule lag: ").append(scheduleLag).append('\n');
+            report.append(String.format(Locale.US, "predict: sent=%d coalesced=%d failed=%d %s%n",
+                    predictsSent.get(), predictsCoalesced.get(), predictFailures.get(), predictLatency));
+            report.append(String.format(Locale.US, "upload: rounds=%d skipped=%d failed=%d bytes=%d %s%n",
+                    uploadRounds.get(), uploadRoundsSkipped.get(), uploadFailures.get(), bytesUploaded.get(),
+                    uploadLatency));
+            report.append("process: ").append(processLatency).append('\n');
+            report.append(String.format(Locale.US, "backlog growth: %.0f bytes per trace hour%n",
+                    getBacklogGrowthBytesPerHour()));
+            for (Snapshot snapshot : snapshots) {
+                report.append("  ").append(snapshot).append('\n');
+            }
+            return report.toString();
+        }
+    }
+
+    private final File workDir;
+    private final File dataDir;
+    private final OkHttpClient predictClient;
+    private final OkHttpClient bulkClient;
+    private final String serverUrl;
+    private final double speedup;
+
+    // Set on the replay thread, read by the pipeline's clock and the upload thread
+    private volatile long traceNow;
+    private Report report;
+    private CollectionPipeline pipeline;
+    private final TraceDeviceState deviceState = new TraceDeviceState();
+    private UploadManifest manifest;
+    private UploadPipeline uploads;
+    private ExecutorService uploadExecutor;
+    private final AtomicBoolean uploading = new AtomicBoolean();
+    private Future<?> uploadRound;
+
+    // Replay thread state
+    private long firstTraceMs = -1;
+    private long lastTraceMs;
+    private long startNanos;
+    private long lagNanos;
+    private long lastElapsedMs;
+    private final LocationSample previous = new LocationSample();
+    private long nextUploadMs;
+    private long nextSnapshotMs;
+    private long lastPredictMs = Long.MIN_VALUE;
+
+    // At most one predict request in flight; newer rows replace the one waiting
+    private final Object predictLock = new Object();
+    private boolean predictInFlight;
+    private LocationUpdate pendingPredict;
+
+    /**
+     * @param workDir   gets gps_data, the place state and the upload manifest;
+     *                  should start empty
+     * @param serverUrl base URL of the server, without a trailing slash
+     * @param speedup   trace time per wall time, 1 to 1000 for real-time replay;
+     *                  Double.POSITIVE_INFINITY replays as fast as possible
+     */
+    public ReplayEngine(File workDir, OkHttpClient predictClient, OkHttpClient bulkClient, String serverUrl,
+                        double speedup) {
+        if (!(speedup > 0)) {
+            throw new IllegalArgumentException("speedup must be positive: " + speedup);
+        }
+        this.workDir = workDir;
+        this.dataDir = new File(workDir, "gps_data");
+        this.predictClient = predictClient;
+        this.bulkClient = bulkClient;
+        this.serverUrl = serverUrl;
+        this.speedup = speedup;
+    }
+
+    // Replays the whole trace, waits for the last upload round and returns the report
+    public Report run(TraceSource trace) throws IOException {
+        report = new Report(speedup);
+        manifest = new UploadManifest(new File(workDir, "upload_manifest.csv"));
+        uploads = new UploadPipeline(bulkClient, serverUrl + "/upload_csv");
+        uploadExecutor = Executors.newSingleThreadExecutor(r -> new Thread(r, "ReplayUpload"));
+        pipeline = new CollectionPipeline(dataDir, false, HourlyLogWriter.Durability.BUFFERED, 1000,
+                deviceState, () -> traceNow, new PipelineListener());
+        pipeline.loadPlaceState(workDir);
+        try {
+            report.traceRows = trace.forEach(this::replay);
+            // Rows are stamped when written; the service stops a while after its last fix
+            traceNow = lastTraceMs + 1000;
+            pipeline.close();
+            report.wallMs = (System.nanoTime() - startNanos) / 1_000_000L;
+            snapshot();
+            // Everything is closed now; send what is left and wait for it
+            waitForUploadRound();
+            if (uploading.compareAndSet(false, true)) {
+                uploadRound(true);
+            }
+            waitForPredicts();
+        } finally {
+            uploadExecutor.shutdownNow();
+        }
+        return report;
+    }
+
+    // Runs on the replay thread, once per trace row
+    private void replay(LocationSample sample) throws IOException {
+        if (firstTraceMs < 0) {
+            firstTraceMs = sample.timestamp;
+            lastTraceMs = sample.timestamp;
+            startNanos = System.nanoTime();
+            nextUploadMs = firstTraceMs + UPLOAD_INTERVAL_MS;
+            nextSnapshotMs = firstTraceMs;
+        }
+        // Out of order rows would break the monotonic clocks the pipeline relies on
+        if (sample.timestamp < lastTraceMs) {
+            return;
+        }
+        pace(sample.timestamp);
+        traceNow = sample.timestamp;
+        report.traceMs = sample.timestamp - firstTraceMs;
+
+        long start = System.nanoTime();
+        long elapsedMs = sample.timestamp - firstTraceMs + ELAPSED_BASE_MS;
+        if (lastElapsedMs > 0) {
+            sensorEvents(previous, Math.max(lastElapsedMs, elapsedMs - MAX_SENSOR_GAP_MS), elapsedMs);
+        }
+        pipeline.flushFusion(elapsedMs);
+        deviceState.update(sample);
+        pipeline.offer(new LocationFix(sample.provider, elapsedMs * 1_000_000L, sample.latitude, sample.longitude,
+                sample.altitude, sample.speed, 5, true, true, true));
+        pipeline.flushIfDue();
+        report.rowLatency.recordNanos(System.nanoTime() - start);
+        previous.copyFrom(sample);
+        lastElapsedMs = elapsedMs;
+        lastTraceMs = sample.timestamp;
+
+        if (sample.timestamp >= nextUploadMs) {
+            nextUploadMs = sample.timestamp + UPLOAD_INTERVAL_MS;
+            startUploadRound();
+        }
+        if (sample.timestamp >= nextSnapshotMs) {
+            nextSnapshotMs = sample.timestamp + SNAPSHOT_INTERVAL_MS;
+            snapshot();
+        }
+    }
+
+    // Sleeps until the row is due; a row that is already late adds to the lag
+    private void pace(long traceMs) {
+        if (Double.isInfinite(speedup)) {
+            return;
+        }
+        long due = startNanos + (long) ((traceMs - firstTraceMs) * 1_000_000.0 / speedup);
+        long now = System.nanoTime();
+        while (now < due) {
+            LockSupport.parkNanos(due - now);
+            now = System.nanoTime();
+        }
+        lagNanos = now - due;
+        report.scheduleLag.recordNanos(lagNanos);
+    }
+
+    /**
+     * Linear acceleration alternates around the row's mean by its deviation,
+     * along its direction. The pending fix is flushed when its deadline falls
+     * inside the gap, as the service's handler would, so later events go to
+     * the next row.
+     */
+    private void sensorEvents(LocationSample sample, long fromMs, long toMs) {
+        int count = (int) ((toMs - fromMs) * SENSOR_RATE_HZ / 1000);
+        if (count <= 0) {
+            return;
+        }
+        float gx = sample.gravityX;
+        float gy = sample.gravityY;
+        float gz = sample.gravityZ;
+        if (gx == 0 && gy == 0 && gz == 0) {
+            gz = 9.81f;
+        }
+        double norm = Math.sqrt(sample.linearAccelX * sample.linearAccelX + sample.linearAccelY * sample.linearAccelY
+                + sample.linearAccelZ * sample.linearAccelZ);
+        float dx = norm > 0 ? (float) (sample.linearAccelX / norm) : 1;
+        float dy = norm > 0 ? (float) (sample.linearAccelY / norm) : 0;
+        float dz = norm > 0 ? (float) (sample.linearAccelZ / norm) : 0;
+        float deviation = (float) Math.sqrt(Math.max(0, sample.linearAccelVariance));
+        long stepNs = (toMs - fromMs) * 1_000_000L / count;
+        long ns = fromMs * 1_000_000L;
+        long deadlineNs = pipeline.getFusionDeadline() == Long.MAX_VALUE
+                ? Long.MAX_VALUE : pipeline.getFusionDeadline() * 1_000_000L;
+        for (int i = 0; i < count; i++) {
+            ns += stepNs;
+            if (ns >= deadlineNs) {
+                pipeline.flushFusion(ns / 1_000_000L);
+                deadlineNs = Long.MAX_VALUE;
+            }
+            float magnitude = Math.max(0, sample.linearAccelMean + ((i & 1) == 0 ? deviation : -deviation));
+            pipeline.onGravity(ns, gx, gy, gz);
+            pipeline.onLinearAcceleration(ns, dx * magnitude, dy * magnitude, dz * magnitude);
+        }
+        report.sensorEvents += 2L * count;
+    }
+
+    private void snapshot() {
+        long unuploaded = 0;
+        for (File file : new DataIndex(dataDir).hourFiles(false)) {
+            unuploaded += file.length() - manifest.getOffset(relativePath(file));
+        }
+        report.snapshots.add(new Snapshot(traceNow - firstTraceMs, (System.nanoTime() - startNanos) / 1_000_000L,
+                report.rowsWritten, lagNanos / 1_000_000L, unuploaded, report.uploadRoundsSkipped.get(),
+                report.predictsCoalesced.get()));
+    }
+
+    private void startUploadRound() {
+        if (!uploading.compareAndSet(false, true)) {
+            report.uploadRoundsSkipped.incrementAndGet();
+            return;
+        }
+        uploadRound = uploadExecutor.submit(() -> {
+            try {
+                uploadRound(false);
+            } catch (IOException e) {
+                report.uploadFailures.incrementAndGet();
+            }
+        });
+    }
+
+    private void waitForUploadRound() throws IOException {
+        if (uploadRound == null) {
+            return;
+        }
+        try {
+            uploadRound.get();
+        } catch (Exception e) {
+            throw new IOException("Upload round failed", e);
+        }
+    }
+
+    // Like the activity's upload: pending ranges of every hour file, bundled, then one processing call
+    private void uploadRound(boolean allClosed) throws IOException {
+        try {
+            report.uploadRounds.incrementAndGet();
+            String currentHour = new SimpleDateFormat("yyyy-MM-dd/HH", Locale.US).format(new Date(traceNow));
+            List<UploadManifest.Range> ranges = new ArrayList<>();
+            for (File file : new DataIndex(dataDir).hourFiles(false)) {
+                String path = relativePath(file);
+                boolean closed = allClosed || !path.startsWith(currentHour + ".");
+                UploadManifest.Range range = manifest.pending(path, file, closed);
+                if (range != null) {
+                    ranges.add(range);
+                }
+            }
+            for (List<UploadManifest.Range> bundle : UploadPipeline.bundle(ranges, UploadPipeline.MAX_BUNDLE_BYTES,
+                    UploadPipeline.MAX_BUNDLE_FILES)) {
+                long start = System.nanoTime();
+                try (Response response = uploads.newCall(bundle).execute()) {
+                    if (!response.isSuccessful()) {
+                        report.uploadFailures.incrementAndGet();
+                        continue;
+                    }
+                }
+                report.uploadLatency.recordNanos(System.nanoTime() - start);
+                for (UploadManifest.Range range : bundle) {
+                    manifest.acknowledge(range);
+                    report.bytesUploaded.addAndGet(range.length());
+                }
+            }
+            long start = System.nanoTime();
+            Request process = new Request.Builder().url(serverUrl + "/process_uploaded_data").get().build();
+            try (Response response = bulkClient.newCall(process).execute()) {
+                if (response.isSuccessful()) {
+                    report.processLatency.recordNanos(System.nanoTime() - start);
+                } else {
+                    report.uploadFailures.incrementAndGet();
+                }
+            }
+        } finally {
+            uploading.set(false);
+        }
+    }
+
+    // gps_data/yyyy-MM-dd/HH.csv as yyyy-MM-dd/HH.csv, the manifest's key
+    private String relativePath(File hourFile) {
+        return hourFile.getParentFile().getName() + "/" + hourFile.getName();
+    }
+
+    // Runs on the replay thread, from the pipeline
+    private void predict(LocationSample sample) {
+        if (lastPredictMs != Long.MIN_VALUE && sample.timestamp - lastPredictMs < PREDICT_INTERVAL_MS) {
+            return;
+        }
+        lastPredictMs = sample.timestamp;
+        LocationUpdate fix = new LocationUpdate(sample.timestamp, sample.latitude, sample.longitude, sample.speed,
+                sample.altitude, sample.provider);
+        synchronized (predictLock) {
+            if (predictInFlight) {
+                if (pendingPredict != null) {
+                    report.predictsCoalesced.incrementAndGet();
+                }
+                pendingPredict = fix;
+                return;
+            }
+            predictInFlight = true;
+        }
+        sendPredict(fix);
+    }
+
+    private void sendPredict(LocationUpdate fix) {
+        String json = String.format(Locale.US, "{\"longitude\": %.7f, \"latitude\": %.7f, \"altitude\": %.1f,"
+                + " \"speed\": %.2f}", fix.longitude, fix.latitude, fix.altitude, fix.speed);
+        Request request = new Request.Builder()
+                .url(serverUrl + "/predict_settings")
+                .post(RequestBody.create(json, JSON))
+                .build();
+        report.predictsSent.incrementAndGet();
+        long start = System.nanoTime();
+        predictClient.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                report.predictFailures.incrementAndGet();
+                predictDone();
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                try (Response r = response) {
+                    if (r.isSuccessful() && !PredictionResponse.parse(r.body().string()).isEmpty()) {
+                        report.predictLatency.recordNanos(System.nanoTime() - start);
+                    } else {
+                        report.predictFailures.incrementAndGet();
+                    }
+                } finally {
+                    predictDone();
+                }
+            }
+        });
+    }
+
+    private void predictDone() {
+        LocationUpdate next;
+        synchronized (predictLock) {
+            next = pendingPredict;
+            pendingPredict = null;
+            predictInFlight = next != null;
+            predictLock.notifyAll();
+        }
+        if (next != null) {
+            sendPredict(next);
+        }
+    }
+
+    private void waitForPredicts() throws IOException {
+        synchronized (predictLock) {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            while (predictInFlight) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new IOException("Predict requests did not finish");
+                }
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(predictLock, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted waiting for predict requests", e);
+                }
+            }
+        }
+    }
+
+    private class PipelineListener implements CollectionPipeline.Listener {
+        @Override
+        public void onRowWritten(LocationFix fix, LocationSample sample) {
+            report.rowsWritten++;
+            predict(sample);
+        }
+
+        @Override
+        public void onMotionStateChanged(MotionClassifier.State from, MotionClassifier.State to) {
+        }
+
+        @Override
+        public void onLog(String message, Throwable error) {
+            if (error != null) {
+                System.err.println(message + ": " + error);
+            }
+        }
+    }
+
+    // The device settings of the last replayed row
+    private static class TraceDeviceState implements CollectionPipeline.DeviceState {
+        private boolean wifiEnabled;
+        private boolean bluetoothEnabled;
+        private boolean silentMode;
+        private boolean mobileDataEnabled;
+
+        void update(LocationSample sample) {
+            wifiEnabled = sample.wifiEnabled;
+            bluetoothEnabled = sample.bluetoothEnabled;
+            silentMode = sample.silentMode;
+            mobileDataEnabled = sample.mobileDataEnabled;
+        }
+
+        @Override
+        public boolean isWifiEnabled() {
+            return wifiEnabled;
+        }
+
+        @Override
+        public boolean isBluetoothEnabled() {
+            return bluetoothEnabled;
+        }
+
+        @Override
+        public boolean isSilentMode() {
+            return silentMode;
+        }
+
+        @Override
+        public boolean isMobileDataEnabled() {
+            return mobileDataEnabled;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.auto_set;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Command line for {@link ReplayEngine}:
+ *
+ * <pre>
+ * replay [--trace gps_data_dir | --synthetic hours] [--speed x] [--out dir]
+ *        [--server url | --predict-delay ms --upload-delay ms --process-delay ms]
+ * </pre>
+ *
+ * Without --server a {@link StandInServer} is started on a free local port
+ * with the given delays. --speed 0 replays as fast as possible.
+ */
+public class ReplayMain {
+
+    private ReplayMain() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        File trace = null;
+        double syntheticHours = 24;
+        double speed = 100;
+        File out = null;
+        String serverUrl = null;
+        long predictDelayMs = 0;
+        long uploadDelayMs = 0;
+        long processDelayMs = 0;
+        for (int i = 0; i < args.length; i++) {
+            String value = i + 1 < args.length ? args[i + 1] : null;
+            switch (args[i]) {
+                case "--trace":
+                    trace = new File(required(args[i], value));
+                    break;
+                case "--synthetic":
+                    syntheticHours = Double.parseDouble(required(args[i], value));
+                    break;
+                case "--speed":
+                    speed = Double.parseDouble(required(args[i], value));
+                    break;
+                case "--out":
+                    out = new File(required(args[i], value));
+                    break;
+                case "--server":
+                    serverUrl = required(args[i], value);
+                    break;
+                case "--predict-delay":
+                    predictDelayMs = Long.parseLong(required(args[i], value));
+                    break;
+                case "--upload-delay":
+                    uploadDelayMs = Long.parseLong(required(args[i], value));
+                    break;
+                case "--process-delay":
+                    processDelayMs = Long.parseLong(required(args[i], value));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+            i++;
+        }
+        if (out == null) {
+            out = Files.createTempDirectory("replay").toFile();
+        }
+        if (!out.isDirectory() && !out.mkdirs()) {
+            throw new IOException("Cannot create " + out);
+        }
+
+        TraceSource source = trace != null
+                ? new RecordedTrace(trace)
+                : new SyntheticTrace(System.currentTimeMillis() - (long) (syntheticHours * 3600_000L),
+                        (long) (syntheticHours * 3600_000L), 7);
+        StandInServer server = null;
+        if (serverUrl == null) {
+            server = new StandInServer(predictDelayMs, uploadDelayMs, processDelayMs);
+            server.start();
+            serverUrl = server.getUrl();
+        }
+        try {
+            ReplayEngine engine = new ReplayEngine(out, HttpClients.predict(), HttpClients.bulk(), serverUrl,
+                    speed > 0 ? speed : Double.POSITIVE_INFINITY);
+            System.out.println("Replaying " + (trace != null ? trace : syntheticHours + " synthetic hours")
+                    + " into " + out + " against " + serverUrl);
+            System.out.print(engine.run(source));
+            if (server != null) {
+                System.out.println(server);
+            }
+        } finally {
+            if (server != null) {
+                server.close();
+            }
+        }
+        // OkHttp's idle threads would keep the JVM alive for a while
+        System.exit(0);
+    }
+
+    private static String required(String option, String value) {
+        if (value == null) {
+            throw new IllegalArgumentException(option + " needs a value");
+        }
+        return value;
+    }
+}
@@ -0,0 +1,277 @@
+package com.example.auto_set;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A local stand-in for the prediction server, with the endpoints the app
+ * calls:
+ *
+ * /predict_settings answers with settings derived from the ~1 km grid cell
+ * of the posted position. /upload_csv takes the multipart bundles of
+ * {@link UploadPipeline}, unpacks every gzip part and counts its rows.
+ * /process_uploaded_data reports the rows received since the previous call.
+ *
+ * Each endpoint can be given a fixed delay to reproduce a slow server.
+ */
+public class StandInServer implements Closeable {
+
+    private static final int THREADS = 16;
+    private static final Pattern LATITUDE = Pattern.compile("\"latitude\"\\s*:\\s*(-?[0-9.eE+-]+)");
+    private static final Pattern LONGITUDE = Pattern.compile("\"longitude\"\\s*:\\s*(-?[0-9.eE+-]+)");
+    private static final Pattern BOUNDARY = Pattern.compile("boundary=\"?([^\";]+)\"?");
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final long predictDelayMs;
+    private final long uploadDelayMs;
+    private final long processDelayMs;
+
+    private final AtomicLong predictRequests = new AtomicLong();
+    private final AtomicLong uploadRequests = new AtomicLong();
+    private final AtomicLong uploadParts = new AtomicLong();
+    private final AtomicLong uploadBytes = new AtomicLong();
+    private final AtomicLong uploadedRows = new AtomicLong();
+    private final AtomicLong processRequests = new AtomicLong();
+    private final AtomicLong unprocessedRows = new AtomicLong();
+
+    // Binds to a free port on the loopback interface; call start() to serve
+    public StandInServer(long predictDelayMs, long uploadDelayMs, long processDelayMs) throws IOException {
+        this(0, predictDelayMs, uploadDelayMs, processDelayMs);
+    }
+
+    public StandInServer(int port, long predictDelayMs, long uploadDelayMs, long processDelayMs) throws IOException {
+        this.predictDelayMs = predictDelayMs;
+        this.uploadDelayMs = uploadDelayMs;
+        this.processDelayMs = processDelayMs;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        AtomicInteger threads = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(THREADS, r -> {
+            Thread thread = new Thread(r, "StandInServer-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/predict_settings", handler("POST", predictDelayMs, this::predict));
+        server.createContext("/upload_csv", handler("POST", uploadDelayMs, this::upload));
+        server.createContext("/process_uploaded_data", handler(null, processDelayMs, this::process));
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    // Base URL without a trailing slash, e.g. http://127.0.0.1:40123
+    public String getUrl() {
+        InetSocketAddress address = server.getAddress();
+        return "http://" + address.getAddress().getHostAddress() + ":" + address.getPort();
+    }
+
+    public long getPredictRequests() {
+        return predictRequests.get();
+    }
+
+    public long getUploadRequests() {
+        return uploadRequests.get();
+    }
+
+    public long getUploadParts() {
+        return uploadParts.get();
+    }
+
+    // Request body bytes as received, so compressed
+    public long getUploadBytes() {
+        return uploadBytes.get();
+    }
+
+    public long getUploadedRows() {
+        return uploadedRows.get();
+    }
+
+    public long getProcessRequests() {
+        return processRequests.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "server: predict=%d upload=%d (%d parts, %d rows, %d bytes) process=%d"
+                        + " delays predict=%dms upload=%dms process=%dms",
+                getPredictRequests(), getUploadRequests(), getUploadParts(), getUploadedRows(), getUploadBytes(),
+                getProcessRequests(), predictDelayMs, uploadDelayMs, processDelayMs);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private interface Endpoint {
+        // Returns the response body; throws IllegalArgumentException for a bad request
+        String handle(HttpExchange exchange, byte[] body) throws IOException;
+    }
+
+    private static HttpHandler handler(String method, long delayMs, Endpoint endpoint) {
+        return exchange -> {
+            try (HttpExchange e = exchange) {
+                if (method != null && !method.equals(e.getRequestMethod())) {
+                    respond(e, 405, "Method not allowed");
+                    return;
+                }
+                byte[] body = readAll(e.getRequestBody());
+                if (delayMs > 0) {
+                    try {
+                        Thread.sleep(delayMs);
+                    } catch (InterruptedException interrupted) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                String response;
+                try {
+                    response = endpoint.handle(e, body);
+                } catch (IllegalArgumentException bad) {
+                    respond(e, 400, bad.getMessage());
+                    return;
+                }
+                respond(e, 200, response);
+            }
+        };
+    }
+
+    private String predict(HttpExchange exchange, byte[] body) {
+        predictRequests.incrementAndGet();
+        String json = new String(body, StandardCharsets.UTF_8);
+        double latitude = number(json, LATITUDE);
+        double longitude = number(json, LONGITUDE);
+        // Same answer anywhere in a cell, different answers for neighbouring cells
+        int cell = Long.hashCode(Math.round(latitude * 100) * 31 + Math.round(longitude * 100));
+        return String.format(Locale.US, "{\"wifiEnabled\": %b, \"bluetoothEnabled\": %b, \"silentMode\": %b}",
+                (cell & 1) != 0, (cell & 2) != 0, (cell & 4) != 0);
+    }
+
+    private String upload(HttpExchange exchange, byte[] body) throws IOException {
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        Matcher matcher = BOUNDARY.matcher(contentType != null ? contentType : "");
+        if (!matcher.find()) {
+            throw new IllegalArgumentException("Missing multipart boundary");
+        }
+        byte[] delimiter = ("--" + matcher.group(1)).getBytes(StandardCharsets.US_ASCII);
+        byte[] headerEnd = "\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+        int parts = 0;
+        long rows = 0;
+        int position = indexOf(body, delimiter, 0);
+        while (position >= 0) {
+            int partStart = position + delimiter.length;
+            // "--" after the delimiter closes the body
+            if (partStart + 1 < body.length && body[partStart] == '-' && body[partStart + 1] == '-') {
+                break;
+            }
+            int next = indexOf(body, delimiter, partStart);
+            int headersEnd = indexOf(body, headerEnd, partStart);
+            if (next < 0 || headersEnd < 0 || headersEnd > next) {
+                throw new IllegalArgumentException("Malformed multipart body");
+            }
+            // The part ends with the CRLF that precedes the next delimiter
+            int contentStart = headersEnd + headerEnd.length;
+            rows += countRows(body, contentStart, next - 2 - contentStart);
+            parts++;
+            position = next;
+        }
+        if (parts == 0) {
+            throw new IllegalArgumentException("No file parts");
+        }
+        uploadRequests.incrementAndGet();
+        uploadParts.addAndGet(parts);
+        uploadBytes.addAndGet(body.length);
+        uploadedRows.addAndGet(rows);
+        unprocessedRows.addAndGet(rows);
+        return "File uploaded successfully";
+    }
+
+    private String process(HttpExchange exchange, byte[] body) {
+        processRequests.incrementAndGet();
+        return "{\"status\": \"processed\", \"rows\": " + unprocessedRows.getAndSet(0) + "}";
+    }
+
+    // Every part is a gzip CSV starting with the header line
+    private static long countRows(byte[] body, int offset, int length) throws IOException {
+        long lines = 0;
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(body, offset, length))) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                for (int i = 0; i < read; i++) {
+                    if (buffer[i] == '\n') {
+                        lines++;
+                    }
+                }
+            }
+        }
+        return Math.max(0, lines - 1);
+    }
+
+    private static double number(String json, Pattern pattern) {
+        Matcher matcher = pattern.matcher(json);
+        if (!matcher.find()) {
+            throw new IllegalArgumentException("Missing " + pattern.pattern());
+        }
+        try {
+            return Double.parseDouble(matcher.group(1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad number " + matcher.group(1));
+        }
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern, int from) {
+        outer:
+        for (int i = from; i <= data.length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (data[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[64 * 1024];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static void respond(HttpExchange exchange, int code, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type",
+                body.startsWith("{") ? "application/json" : "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(code, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
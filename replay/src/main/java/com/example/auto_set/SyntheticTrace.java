@@ -0,0 +1,123 @@
+package com.example.auto_set;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * A generated day-like trace: stays at home, work and a cafe joined by drives
+ * and walks, repeated for as long as asked. Fixes come every second while
+ * moving and every 30 s during stays, like the service's sampling, with
+ * about 5 m of noise and sensor aggregates that fit the motion.
+ */
+public class SyntheticTrace implements TraceSource {
+
+    private static final double HOME_LAT = 37.5665;
+    private static final double HOME_LON = 126.9780;
+    private static final double WORK_LAT = 37.70;
+    private static final double WORK_LON = 127.10;
+    private static final double CAFE_LAT = 37.70;
+    private static final double CAFE_LON = 127.109;
+
+    private static final long MOVING_TICK_MS = 1000;
+    private static final long STATIONARY_TICK_MS = 30_000;
+    // One degree of latitude in meters
+    private static final double METERS_PER_DEGREE = 111_320;
+    private static final double NOISE_METERS = 5;
+
+    private static final int STAY = 0;
+    private static final int WALK = 1;
+    private static final int DRIVE = 2;
+
+    private static class Leg {
+        final int kind;
+        final long durationMs;
+        final double toLat;
+        final double toLon;
+
+        Leg(int kind, int minutes, double toLat, double toLon) {
+            this.kind = kind;
+            this.durationMs = minutes * 60_000L;
+            this.toLat = toLat;
+            this.toLon = toLon;
+        }
+    }
+
+    private static final Leg[] LEGS = {
+            new Leg(STAY, 60, HOME_LAT, HOME_LON),
+            new Leg(DRIVE, 25, WORK_LAT, WORK_LON),
+            new Leg(STAY, 120, WORK_LAT, WORK_LON),
+            new Leg(WALK, 10, CAFE_LAT, CAFE_LON),
+            new Leg(STAY, 30, CAFE_LAT, CAFE_LON),
+            new Leg(WALK, 10, WORK_LAT, WORK_LON),
+            new Leg(STAY, 120, WORK_LAT, WORK_LON),
+            new Leg(DRIVE, 25, HOME_LAT, HOME_LON),
+    };
+
+    private final long startMs;
+    private final long durationMs;
+    private final long seed;
+
+    public SyntheticTrace(long startMs, long durationMs, long seed) {
+        this.startMs = startMs;
+        this.durationMs = durationMs;
+        this.seed = seed;
+    }
+
+    @Override
+    public int forEach(BinaryLogConverter.SampleVisitor visitor) throws IOException {
+        Random random = new Random(seed);
+        LocationSample sample = new LocationSample();
+        sample.provider = LocationSample.PROVIDER_GPS;
+        sample.gravityZ = 9.81f;
+        sample.wifiEnabled = true;
+        double lat = HOME_LAT;
+        double lon = HOME_LON;
+        int rows = 0;
+        long t = startMs;
+        long end = startMs + durationMs;
+        for (int i = 0; t < end; i = (i + 1) % LEGS.length) {
+            Leg leg = LEGS[i];
+            int kind = leg.kind;
+            long legMs = leg.durationMs;
+            double toLat = leg.toLat;
+            double toLon = leg.toLon;
+            double speed = distanceMeters(lat, lon, toLat, toLon) / (legMs / 1000.0);
+            long tick = kind == STAY ? STATIONARY_TICK_MS : MOVING_TICK_MS;
+            long legStart = t;
+            for (; t < legStart + legMs && t < end; t += tick) {
+                double f = (double) (t - legStart) / legMs;
+                double noise = NOISE_METERS / METERS_PER_DEGREE;
+                sample.timestamp = t;
+                sample.latitude = lat + (toLat - lat) * f + random.nextGaussian() * noise;
+                sample.longitude = lon + (toLon - lon) * f + random.nextGaussian() * noise;
+                sample.speed = (float) Math.max(0, speed + random.nextGaussian() * (kind == STAY ? 0.1 : 1));
+                sample.altitude = 40 + random.nextGaussian() * 3;
+                fillSensors(sample, kind, random);
+                sample.wifiEnabled = kind == STAY;
+                sample.mobileDataEnabled = kind != STAY;
+                rows++;
+                visitor.visit(sample);
+            }
+            lat = toLat;
+            lon = toLon;
+        }
+        return rows;
+    }
+
+    private static void fillSensors(LocationSample sample, int kind, Random random) {
+        float mean = kind == WALK ? 1.5f : kind == DRIVE ? 0.6f : 0.05f;
+        float deviation = kind == WALK ? 0.9f : kind == DRIVE ? 0.5f : 0.02f;
+        sample.linearAccelMean = Math.abs(mean + (float) random.nextGaussian() * deviation * 0.1f);
+        sample.linearAccelVariance = deviation * deviation;
+        sample.linearAccelPeak = sample.linearAccelMean + 3 * deviation;
+        sample.linearAccelX = sample.linearAccelMean;
+        sample.linearAccelY = 0;
+        sample.linearAccelZ = 0;
+    }
+
+    private static double distanceMeters(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = (lat2 - lat1) * METERS_PER_DEGREE;
+        double dLon = (lon2 - lon1) * METERS_PER_DEGREE * Math.cos(Math.toRadians((lat1 + lat2) / 2));
+        return Math.sqrt(dLat * dLat + dLon * dLon);
+    }
+}
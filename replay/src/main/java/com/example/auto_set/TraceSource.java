@@ -0,0 +1,12 @@
+package com.example.auto_set;
+
+import java.io.IOException;
+
+/**
+ * Rows for {@link ReplayEngine} to replay, in time order.
+ */
+public interface TraceSource {
+
+    // Calls visitor once per row, reusing one sample; returns the number of rows
+    int forEach(BinaryLogConverter.SampleVisitor visitor) throws IOException;
+}
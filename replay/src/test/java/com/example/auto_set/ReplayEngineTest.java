@@ -0,0 +1,87 @@
+package com.example.auto_set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Calendar;
+
+import okhttp3.OkHttpClient;
+
+import static org.junit.Assert.*;
+
+public class ReplayEngineTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StandInServer server;
+    private final OkHttpClient client = new OkHttpClient();
+
+    @Before
+    public void setUp() throws IOException {
+        server = new StandInServer(0, 0, 0);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    private static long startOfTrace() {
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(2024, Calendar.MAY, 1, 6, 0, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    @Test
+    public void everyWrittenRowReachesTheServer() throws IOException {
+        File work = folder.newFolder("first");
+        ReplayEngine.Report report = new ReplayEngine(work, client, client, server.getUrl(),
+                Double.POSITIVE_INFINITY).run(new SyntheticTrace(startOfTrace(), 6 * 3600_000L, 7));
+
+        assertTrue(report.traceRows > 1000);
+        // One fix per row and at least a second between rows, so fusion keeps them all
+        assertEquals(report.traceRows, report.rowsWritten);
+        assertEquals(report.rowsWritten, server.getUploadedRows());
+        assertEquals(0, report.uploadFailures.get());
+        assertEquals(0, report.predictFailures.get());
+        assertTrue(report.predictsSent.get() > 0);
+        assertTrue(server.getProcessRequests() >= 1);
+        assertTrue(report.sensorEvents > 0);
+        assertEquals(6 * 3600_000L, report.traceMs, 60_000);
+        // The final round sends every byte written
+        long written = 0;
+        for (File file : new DataIndex(new File(work, "gps_data")).hourFiles(false)) {
+            written += file.length();
+        }
+        assertEquals(written, report.bytesUploaded.get());
+
+        // The written gps_data replays as a recorded trace with the same rows
+        File second = folder.newFolder("second");
+        ReplayEngine.Report replayed = new ReplayEngine(second, client, client, server.getUrl(),
+                Double.POSITIVE_INFINITY).run(new RecordedTrace(new File(work, "gps_data")));
+        assertEquals(report.rowsWritten, replayed.traceRows);
+        assertEquals(report.rowsWritten, replayed.rowsWritten);
+    }
+
+    @Test
+    public void slowUploadsShowAsBacklog() throws IOException {
+        server.close();
+        server = new StandInServer(0, 400, 0);
+        server.start();
+        // Three hours at 3600x: an upload round every 250 ms against 400 ms uploads
+        ReplayEngine.Report report = new ReplayEngine(folder.getRoot(), client, client, server.getUrl(), 3600)
+                .run(new SyntheticTrace(startOfTrace(), 3 * 3600_000L, 7));
+
+        assertTrue(report.uploadRoundsSkipped.get() > 0);
+        assertEquals(report.rowsWritten, server.getUploadedRows());
+        assertTrue(report.getAchievedSpeedup() > 1000);
+    }
+}
@@ -18,4 +18,6 @@ dependencyResolutionManagement {
 
 rootProject.name = "auto_set"
 include(":app")
+include(":core")
+include(":replay")
  
\ No newline at end of file